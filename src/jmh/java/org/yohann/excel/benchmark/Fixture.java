@@ -0,0 +1,218 @@
+package org.yohann.excel.benchmark;
+
+import com.alibaba.excel.EasyExcel;
+import com.alibaba.excel.ExcelWriter;
+import com.alibaba.excel.write.metadata.WriteSheet;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.mapper.AbstractExcelMapper;
+import org.yohann.excel.mapper.ExcelMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * This class provides the Excel files the benchmarks run against. A fixture is named after its format and number of
+ * rows, such as xlsx-100000. Its rows are generated once into a template file written by EasyExcel, like a file from
+ * any other tool, and the template is copied over the file of the mapped class before every measurement that changes
+ * it, so every measurement starts from the same rows.
+ */
+public class Fixture {
+
+    /**
+     * The directory holding the files of the mapped classes.
+     */
+    public static final String DIRECTORY = "target/jmh";
+
+    /**
+     * The directory holding the generated templates, kept between runs.
+     */
+    private static final Path TEMPLATES = Paths.get(DIRECTORY, "fixtures");
+
+    /**
+     * The number of rows written to a template at once.
+     */
+    private static final int WRITE_BATCH_ROWS = 10000;
+
+    /**
+     * The first birth date of the generated rows.
+     */
+    private static final long FIRST_BIRTH_DATE = 946684800000L;
+
+    // Whether the fixture is an xlsx file, otherwise it is an xls file
+    private final boolean xlsx;
+
+    // The number of rows of the fixture
+    private final int rows;
+
+    // The template the file of the mapped class is copied from
+    private final Path template;
+
+    // The mapper of the fixture, created once the file is in place
+    private ExcelMapper<Excel> mapper;
+
+    private Fixture(boolean xlsx, int rows) {
+        this.xlsx = xlsx;
+        this.rows = rows;
+        this.template = TEMPLATES.resolve(rows + (xlsx ? ".xlsx" : ".xls"));
+    }
+
+    /**
+     * Returns the fixture of the given name.
+     *
+     * @param name the format and number of rows, such as xlsx-100000 or xls-1000
+     * @return the fixture
+     * @throws IllegalArgumentException if the name is malformed or the rows do not fit into the format
+     */
+    public static Fixture of(String name) {
+        String[] parts = name.split("-", 2);
+        if (parts.length != 2 || !parts[0].equals("xlsx") && !parts[0].equals("xls")) {
+            throw new IllegalArgumentException("malformed fixture name: " + name);
+        }
+        boolean xlsx = parts[0].equals("xlsx");
+        int rows = Integer.parseInt(parts[1]);
+        // The header takes the first row of the sheet
+        if (rows < 1 || rows >= (xlsx ? 1 << 20 : 1 << 16)) {
+            throw new IllegalArgumentException("rows do not fit into the format: " + name);
+        }
+        return new Fixture(xlsx, rows);
+    }
+
+    /**
+     * Copies the template over the file of the mapped class, generating the template first if it does not exist.
+     *
+     * @throws IOException if a file cannot be written
+     */
+    public void restore() throws IOException {
+        if (!Files.exists(template)) {
+            this.generate();
+        }
+        Path file = Paths.get(DIRECTORY, xlsx ? "bench.xlsx" : "bench.xls");
+        Files.copy(template, file, REPLACE_EXISTING);
+        if (mapper == null) {
+            mapper = this.newMapper();
+        }
+    }
+
+    /**
+     * Returns the mapper of the fixture. The fixture must be restored first.
+     *
+     * @return the mapper
+     */
+    public ExcelMapper<Excel> getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Returns the number of rows of the fixture.
+     *
+     * @return the number of rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Creates new rows following the rows of the fixture, for inserts.
+     *
+     * @param count the number of rows
+     * @return the rows, without row numbers
+     */
+    public List<Excel> newRows(int count) {
+        List<Excel> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(this.row(rows + i));
+        }
+        return list;
+    }
+
+    /**
+     * Creates changed values for rows spread evenly over the fixture, for updates.
+     *
+     * @param count the number of rows, at most the rows of the fixture
+     * @return the rows, carrying the row numbers of the rows to change
+     */
+    public List<Excel> changedRows(int count) {
+        List<Excel> list = new ArrayList<>();
+        for (Integer rowNum : this.spreadRowNums(count)) {
+            Excel row = this.row(rowNum + rows);
+            row.setRowNum(rowNum);
+            list.add(row);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the numbers of rows spread evenly over the fixture.
+     *
+     * @param count the number of rows, at most the rows of the fixture
+     * @return the row numbers in ascending order
+     */
+    public List<Integer> spreadRowNums(int count) {
+        int spread = Math.min(count, rows);
+        List<Integer> rowNums = new ArrayList<>(spread);
+        for (int i = 0; i < spread; i++) {
+            // The header is row 1, the rows of the fixture follow from row 2
+            rowNums.add(2 + (int) ((long) i * rows / spread));
+        }
+        return rowNums;
+    }
+
+    /**
+     * Generate the template with EasyExcel, in batches so the rows are never all in memory
+     */
+    private void generate() throws IOException {
+        Files.createDirectories(TEMPLATES);
+        Path temporary = Files.createTempFile(TEMPLATES, "fixture", template.getFileName().toString());
+        try {
+            ExcelWriter writer = EasyExcel.write(temporary.toFile(), xlsx ? XlsxRow.class : XlsRow.class).build();
+            try {
+                WriteSheet sheet = EasyExcel.writerSheet().build();
+                for (int from = 0; from < rows; from += WRITE_BATCH_ROWS) {
+                    List<Excel> batch = new ArrayList<>();
+                    for (int i = from; i < Math.min(from + WRITE_BATCH_ROWS, rows); i++) {
+                        batch.add(this.row(i));
+                    }
+                    writer.write(batch, sheet);
+                }
+            } finally {
+                writer.finish();
+            }
+            Files.move(temporary, template, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Create the mapper of the mapped class of the format
+     */
+    @SuppressWarnings("unchecked")
+    private ExcelMapper<Excel> newMapper() {
+        ExcelMapper<? extends Excel> newMapper = xlsx
+                ? new AbstractExcelMapper<XlsxRow>() {
+        }
+                : new AbstractExcelMapper<XlsRow>() {
+        };
+        return (ExcelMapper<Excel>) newMapper;
+    }
+
+    /**
+     * Create the row with the given sequence number. Names repeat every 1000 rows and ages every 100 rows, and every
+     * tenth row has no age, so every match type has rows to match
+     */
+    private Excel row(int i) {
+        FixtureRow row = xlsx ? new XlsxRow() : new XlsRow();
+        row.setName("name-" + i % 1000);
+        row.setAge(i % 10 == 0 ? null : i % 100);
+        row.setBirthDate(new Date(FIRST_BIRTH_DATE + 86400000L * (i % 20000)));
+        return (Excel) row;
+    }
+}
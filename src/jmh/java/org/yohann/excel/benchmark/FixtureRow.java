@@ -0,0 +1,30 @@
+package org.yohann.excel.benchmark;
+
+import java.util.Date;
+
+/**
+ * This interface lets the fixtures fill the rows of both formats, whose mapped fields are declared per class.
+ */
+public interface FixtureRow {
+
+    /**
+     * Sets the name of the row.
+     *
+     * @param name the name
+     */
+    void setName(String name);
+
+    /**
+     * Sets the age of the row.
+     *
+     * @param age the age, or null
+     */
+    void setAge(Integer age);
+
+    /**
+     * Sets the birth date of the row.
+     *
+     * @param birthDate the birth date
+     */
+    void setBirthDate(Date birthDate);
+}
@@ -0,0 +1,80 @@
+package org.yohann.excel.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.query.Criteria;
+import org.yohann.excel.query.MatchTypeEnum;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks querying the fixtures with criteria of every match type. The fixtures are read but never
+ * changed, so they are restored once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QueryBenchmark {
+
+    // The xls format holds at most 65536 rows including the header, the xls fixture leaves room for inserts
+    @Param({"xlsx-1000", "xlsx-100000", "xlsx-1000000", "xls-1000", "xls-50000"})
+    public String fixture;
+
+    // The match type of the queried criteria, all match types if no value is given
+    @Param
+    public MatchTypeEnum match;
+
+    // The fixture the benchmarks read
+    private Fixture state;
+
+    // The criteria with a matcher of the match type
+    private Criteria criteria;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        state = Fixture.of(fixture);
+        state.restore();
+        criteria = criteria(match);
+    }
+
+    @Benchmark
+    public List<Excel> get() {
+        return state.getMapper().get(criteria);
+    }
+
+    /**
+     * Build criteria with one matcher of the given match type, matching a part of the fixture rows
+     */
+    private static Criteria criteria(MatchTypeEnum match) {
+        switch (match) {
+            case EQUALS:
+                return new Criteria().equals("name", "name-42");
+            case NOT_EQUALS:
+                return new Criteria().notEquals("name", "name-42");
+            case IN:
+                return new Criteria().in("name", Arrays.asList("name-1", "name-2", "name-3"));
+            case LIKE:
+                return new Criteria().like("name", "-42");
+            case LESS:
+                return new Criteria().less("age", 10);
+            case LESS_EQUALS:
+                return new Criteria().lessEquals("age", 10);
+            case GREATER:
+                return new Criteria().greater("age", 90);
+            case GREATER_EQUALS:
+                return new Criteria().greaterEquals("age", 90);
+            case NULL:
+                return new Criteria().isNUll("age", null);
+            case NOT_NULL:
+                return new Criteria().notNull("age", null);
+            default:
+                throw new IllegalArgumentException("unknown match type: " + match);
+        }
+    }
+}
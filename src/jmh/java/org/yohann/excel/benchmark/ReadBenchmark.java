@@ -0,0 +1,39 @@
+package org.yohann.excel.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.yohann.excel.entity.Excel;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks reading all rows of the fixtures. The fixtures are read but never changed, so they are
+ * restored once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReadBenchmark {
+
+    // The xls format holds at most 65536 rows including the header, the xls fixture leaves room for inserts
+    @Param({"xlsx-1000", "xlsx-100000", "xlsx-1000000", "xls-1000", "xls-50000"})
+    public String fixture;
+
+    // The fixture the benchmarks read
+    private Fixture state;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        state = Fixture.of(fixture);
+        state.restore();
+    }
+
+    @Benchmark
+    public List<Excel> getAll() {
+        return state.getMapper().getAll();
+    }
+}
@@ -0,0 +1,71 @@
+package org.yohann.excel.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.yohann.excel.entity.Excel;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks inserting, updating and deleting batches of rows. Every write changes the fixture, so each
+ * measurement is a single write on a freshly restored fixture, and the batches are built before the measurement.
+ * Updated and deleted rows are spread evenly over the fixture, and batches larger than the fixture change every row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class WriteBenchmark {
+
+    // The xls format holds at most 65536 rows including the header, the xls fixture leaves room for inserts
+    @Param({"xlsx-1000", "xlsx-100000", "xlsx-1000000", "xls-1000", "xls-50000"})
+    public String fixture;
+
+    // The number of rows written by one batch
+    @Param({"1", "100", "10000"})
+    public int batchSize;
+
+    // The fixture the benchmarks write
+    private Fixture state;
+
+    // The rows to insert
+    private List<Excel> inserted;
+
+    // The rows to update, carrying their row numbers
+    private List<Excel> updated;
+
+    // The row numbers to delete
+    private List<Integer> deleted;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        state = Fixture.of(fixture);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws IOException {
+        state.restore();
+        // Inserts set the row numbers of the inserted objects, so they are created again
+        inserted = state.newRows(batchSize);
+        updated = state.changedRows(batchSize);
+        deleted = state.spreadRowNums(batchSize);
+    }
+
+    @Benchmark
+    public void insertBatch() {
+        state.getMapper().insertBatch(inserted);
+    }
+
+    @Benchmark
+    public void updateBatch() {
+        state.getMapper().updateBatch(updated);
+    }
+
+    @Benchmark
+    public void deleteBatch() {
+        state.getMapper().deleteBatch(deleted);
+    }
+}
@@ -0,0 +1,50 @@
+package org.yohann.excel.benchmark;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import com.alibaba.excel.annotation.format.DateTimeFormat;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.entity.Excel;
+
+import java.util.Date;
+
+/**
+ * This class represents a row of the xls fixture the benchmarks run against.
+ */
+@ExcelFile(path = Fixture.DIRECTORY, filename = "bench.xls")
+public class XlsRow extends Excel implements FixtureRow {
+
+    @ExcelProperty("Name")
+    private String name;
+    @ExcelProperty("Age")
+    private Integer age;
+    @ExcelProperty("Birth Date")
+    @DateTimeFormat("yyyy-MM-dd")
+    private Date birthDate;
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Integer getAge() {
+        return age;
+    }
+
+    @Override
+    public void setAge(Integer age) {
+        this.age = age;
+    }
+
+    public Date getBirthDate() {
+        return birthDate;
+    }
+
+    @Override
+    public void setBirthDate(Date birthDate) {
+        this.birthDate = birthDate;
+    }
+}
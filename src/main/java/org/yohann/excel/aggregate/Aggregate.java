@@ -0,0 +1,186 @@
+package org.yohann.excel.aggregate;
+
+/**
+ * This class accumulates the values of a field over the rows of an aggregation: the number of rows and of values,
+ * the sum and average of the numeric values, and the smallest and largest value. Values are folded in one at a time
+ * into primitive accumulators, so an aggregation never holds the rows it has seen.
+ */
+public class Aggregate {
+
+    // The number of rows added
+    private long count;
+
+    // The number of non-null values added
+    private long valueCount;
+
+    // The number of numeric values added
+    private long numericCount;
+
+    // The sum of the numeric values while it is exact
+    private long longSum;
+
+    // The sum of the numeric values once a value is not integral or the exact sum overflows
+    private double doubleSum;
+
+    // Whether the sum is exact and held in longSum
+    private boolean exact = true;
+
+    // The smallest comparable value added
+    private Object min;
+
+    // The largest comparable value added
+    private Object max;
+
+    /**
+     * Adds a row with the given value of the aggregated field. A null value only counts the row.
+     *
+     * @param value the value of the field, or null
+     */
+    public void add(Object value) {
+        count++;
+        if (value == null) {
+            return;
+        }
+        valueCount++;
+        if (value instanceof Number) {
+            numericCount++;
+            addToSum((Number) value);
+        }
+        addToBounds(value);
+    }
+
+    /**
+     * Adds the rows of another aggregate of the same field, as if they had been added to this aggregate.
+     *
+     * @param other the aggregate to add
+     */
+    public void merge(Aggregate other) {
+        count += other.count;
+        valueCount += other.valueCount;
+        numericCount += other.numericCount;
+        if (other.exact) {
+            addToSum(other.longSum);
+        } else {
+            if (exact) {
+                exact = false;
+                doubleSum = longSum;
+            }
+            doubleSum += other.doubleSum;
+        }
+        if (other.min != null) {
+            addToBounds(other.min);
+            addToBounds(other.max);
+        }
+    }
+
+    /**
+     * Widens the smallest and largest value to include a value, if it is comparable.
+     */
+    @SuppressWarnings("unchecked")
+    private void addToBounds(Object value) {
+        if (value instanceof Comparable) {
+            Comparable<Object> comparable = (Comparable<Object>) value;
+            if (min == null || comparable.compareTo(min) < 0) {
+                min = value;
+            }
+            if (max == null || comparable.compareTo(max) > 0) {
+                max = value;
+            }
+        }
+    }
+
+    /**
+     * Adds a number to the sum, keeping the sum exact as long as possible.
+     */
+    private void addToSum(Number number) {
+        if (exact && isIntegral(number)) {
+            try {
+                longSum = Math.addExact(longSum, number.longValue());
+                return;
+            } catch (ArithmeticException e) {
+                // The exact sum overflows, continue with a double sum
+            }
+        }
+        if (exact) {
+            exact = false;
+            doubleSum = longSum;
+        }
+        doubleSum += number.doubleValue();
+    }
+
+    /**
+     * Checks if a number is of an integral type whose sum can be kept exactly in a long.
+     */
+    private static boolean isIntegral(Number number) {
+        return number instanceof Integer || number instanceof Long || number instanceof Short
+                || number instanceof Byte;
+    }
+
+    /**
+     * Returns the number of rows added.
+     *
+     * @return the number of rows
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of rows added with a non-null value.
+     *
+     * @return the number of values
+     */
+    public long getValueCount() {
+        return valueCount;
+    }
+
+    /**
+     * Returns the sum of the numeric values.
+     *
+     * @return a Long if all values are integral and their sum fits, a Double otherwise, or null if no numeric value
+     * was added
+     */
+    public Number getSum() {
+        if (numericCount == 0) {
+            return null;
+        }
+        return exact ? (Number) longSum : (Number) doubleSum;
+    }
+
+    /**
+     * Returns the average of the numeric values.
+     *
+     * @return the average, or null if no numeric value was added
+     */
+    public Double getAvg() {
+        Number sum = getSum();
+        return sum == null ? null : sum.doubleValue() / numericCount;
+    }
+
+    /**
+     * Returns the smallest value added.
+     *
+     * @param <V> the type of the field
+     * @return the smallest value, or null if no comparable value was added
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V getMin() {
+        return (V) min;
+    }
+
+    /**
+     * Returns the largest value added.
+     *
+     * @param <V> the type of the field
+     * @return the largest value, or null if no comparable value was added
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V getMax() {
+        return (V) max;
+    }
+
+    @Override
+    public String toString() {
+        return "Aggregate{count=" + count + ", sum=" + getSum() + ", min=" + min + ", max=" + max + "}";
+    }
+}
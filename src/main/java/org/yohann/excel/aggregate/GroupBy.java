@@ -0,0 +1,58 @@
+package org.yohann.excel.aggregate;
+
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.mapper.ExcelMapper;
+import org.yohann.excel.query.Criteria;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class aggregates the rows of an Excel file per value of a field, as returned by ExcelMapper.groupBy.
+ *
+ * @param <T> the type of the rows
+ */
+public class GroupBy<T extends Excel> {
+
+    // The mapper of the Excel file
+    private final ExcelMapper<T> mapper;
+
+    // The name of the field whose values form the groups
+    private final String fieldName;
+
+    /**
+     * Constructs a new GroupBy.
+     *
+     * @param mapper    the mapper of the Excel file
+     * @param fieldName the name of the field whose values form the groups
+     */
+    public GroupBy(ExcelMapper<T> mapper, String fieldName) {
+        this.mapper = mapper;
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * Counts the rows that match the given criteria per group.
+     *
+     * @param criteria an instance of criteria used to filter the rows
+     * @return the number of rows per group value, in the order the groups were first seen
+     */
+    public Map<Object, Long> count(Criteria criteria) {
+        Map<Object, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<Object, Aggregate> group : mapper.aggregate(fieldName, null, criteria).entrySet()) {
+            counts.put(group.getKey(), group.getValue().getCount());
+        }
+        return counts;
+    }
+
+    /**
+     * Aggregates a field over the rows that match the given criteria per group.
+     *
+     * @param aggregatedFieldName the name of the field to aggregate
+     * @param criteria            an instance of criteria used to filter the rows
+     * @return the aggregate per group value, in the order the groups were first seen
+     */
+    public Map<Object, Aggregate> aggregate(String aggregatedFieldName, Criteria criteria) {
+        return mapper.aggregate(fieldName, aggregatedFieldName, criteria);
+    }
+}
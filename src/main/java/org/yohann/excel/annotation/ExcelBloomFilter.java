@@ -0,0 +1,28 @@
+package org.yohann.excel.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * This annotation is used to keep a Bloom filter of the values of a field of an Excel entity class. It can be applied
+ * to a field definition. Queries with an equals or in matcher on the field check the filter first and return no rows
+ * right away if the filter rules out every value they look for, without reading the Excel file. The filters of all
+ * fields of a class are kept next to the Excel file, such as person.xlsx.bloom, and the mapper's own writes add the
+ * values they write to them.
+ * <p>
+ * Cached entity classes keep no Bloom filters, since their queries run over the rows in memory. Numbers, dates,
+ * booleans, characters and strings can be filtered.
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ExcelBloomFilter {
+
+    /**
+     * The expected rate of lookups of absent values that the filter cannot rule out, while the Excel file holds no
+     * more than twice the rows it held when the filter was built. The filter is built again once it holds more.
+     *
+     * @return the false positive rate, between 0 and 1 exclusive
+     */
+    double falsePositiveRate() default 0.01;
+
+}
@@ -1,5 +1,7 @@
 package org.yohann.excel.annotation;
 
+import org.yohann.excel.stream.ExternalSorter;
+
 import java.lang.annotation.*;
 
 /**
@@ -25,4 +27,38 @@ public @interface ExcelFile {
      */
     String filename();
 
+    /**
+     * Whether the rows of the Excel file are kept in memory between reads. Cached rows are checked against the file
+     * before every read, and the mapper's own writes update them directly.
+     *
+     * @return true to cache the rows of the Excel file
+     */
+    boolean cache() default false;
+
+    /**
+     * The number of rows an ordered iteration without a limit holds in memory. Once more rows have to be sorted, they
+     * are sorted in runs of this size that are spilled to temporary files next to the Excel file and merged.
+     *
+     * @return the maximum number of rows held in memory while sorting
+     */
+    int sortBufferRows() default ExternalSorter.DEFAULT_BUFFER_ROWS;
+
+    /**
+     * The maximum number of rows per file. If set, the rows are spread over files named after the file name with a
+     * sequence number, such as person-0001.xlsx, and a new file is started once the last file holds this many rows.
+     * Row numbers then address rows across all files, the first file holding the rows up to row 1048576.
+     *
+     * @return the maximum number of rows per file, or 0 to keep all rows in one file
+     */
+    int shardRows() default 0;
+
+    /**
+     * Whether a columnar copy of the rows is kept next to the Excel file, such as person.xlsx.col. Reads scan the
+     * copy while it matches the checksum of the Excel file and read the Excel file again otherwise, and the mapper's
+     * own writes rewrite it. All mapped fields must be numbers, booleans, dates, characters or strings.
+     *
+     * @return true to keep a columnar copy of the rows
+     */
+    boolean columnar() default false;
+
 }
@@ -0,0 +1,25 @@
+package org.yohann.excel.annotation;
+
+import org.yohann.excel.index.IndexTypeEnum;
+
+import java.lang.annotation.*;
+
+/**
+ * This annotation is used to mark a field of an Excel entity class as indexed. It can be applied to a field definition.
+ * Queries with a matcher on an indexed field look up the matching rows in the index instead of scanning all rows.
+ * The indexes are kept with the cached rows, so an entity class with an indexed field is always cached, as if its
+ * ExcelFile annotation enabled the cache.
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ExcelIndex {
+
+    /**
+     * The kind of index kept for the field.
+     *
+     * @return the kind of index, HASH by default
+     */
+    IndexTypeEnum value() default IndexTypeEnum.HASH;
+
+}
@@ -0,0 +1,34 @@
+package org.yohann.excel.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * This annotation is used to mark an Excel entity class as journaled. It can be applied to a class definition.
+ * Inserts, updates and deletes of a journaled class are appended to a write-ahead journal next to the Excel file and
+ * return as soon as the journal is synced to disk. A background compactor folds the journaled changes into the Excel
+ * file once either threshold is reached, and reads see the journaled changes right away.
+ * <p>
+ * All mappers of a journaled file must use the same entity class, and the file must not be changed by other programs
+ * while its journal holds changes.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ExcelJournal {
+
+    /**
+     * The time after which journaled changes are folded into the Excel file.
+     *
+     * @return the compaction interval in milliseconds
+     */
+    long compactMillis() default 1000;
+
+    /**
+     * The number of journaled changes after which they are folded into the Excel file without waiting for the
+     * compaction interval.
+     *
+     * @return the compaction threshold in records
+     */
+    int compactRecords() default 1000;
+
+}
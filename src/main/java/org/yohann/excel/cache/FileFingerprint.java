@@ -0,0 +1,178 @@
+package org.yohann.excel.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * This class records the state of a file at a point in time: its size, its modification time and a checksum of its
+ * content. A fingerprint is compared against the file to find out whether the file changed since it was taken.
+ * <p>
+ * Size and modification time are compared first. The checksum is only needed while the fingerprint is "racy", that
+ * is while it was taken so soon after the last modification that a further write could have kept the same timestamp.
+ * A racy fingerprint records the checksum when it is taken and verifies it against the file; any other fingerprint
+ * only computes it when asked for it, to store it next to data derived from the file.
+ */
+public class FileFingerprint {
+
+    /**
+     * The coarsest modification time granularity of common file systems, in milliseconds.
+     */
+    private static final long TIMESTAMP_GRANULARITY = 2000;
+
+    /**
+     * The granularity assumed for file systems keeping timestamps finer than a second, in milliseconds. Their
+     * timestamps still only advance with the clock tick of the operating system, which is at most about 16
+     * milliseconds.
+     */
+    private static final long FINE_TIMESTAMP_GRANULARITY = 20;
+
+    /**
+     * The checksum of a fingerprint whose checksum has not been computed yet. CRC32 checksums are never negative.
+     */
+    private static final long UNKNOWN = -1;
+
+    // The file
+    private final Path path;
+
+    // The size of the file in bytes
+    private final long size;
+
+    // The last modification time of the file in milliseconds
+    private final long lastModified;
+
+    // The modification time granularity of the file system in milliseconds
+    private final long granularity;
+
+    // The time the fingerprint was taken in milliseconds
+    private final long takenAt;
+
+    // The CRC32 checksum of the file content, or UNKNOWN until it is computed, guarded by this
+    private long checksum;
+
+    private FileFingerprint(Path path, long size, long lastModified, long granularity, long checksum, long takenAt) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.granularity = granularity;
+        this.checksum = checksum;
+        this.takenAt = takenAt;
+    }
+
+    /**
+     * Takes a fingerprint of the given file. The content of the file is only read if the fingerprint is racy.
+     *
+     * @param path the file
+     * @return the fingerprint of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static FileFingerprint of(Path path) throws IOException {
+        long takenAt = System.currentTimeMillis();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        FileTime lastModified = attributes.lastModifiedTime();
+        FileFingerprint fingerprint = new FileFingerprint(path, attributes.size(), lastModified.toMillis(),
+                granularity(lastModified), UNKNOWN, takenAt);
+        if (fingerprint.isRacy()) {
+            // A later write within the granularity keeps size and time, so the content has to be recorded now
+            fingerprint.checksum = checksum(path);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns the size of the file when the fingerprint was taken.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the checksum of the content of the file when the fingerprint was taken, computing it on first use.
+     *
+     * @return the CRC32 checksum
+     * @throws IOException if the file cannot be read, or it has changed since the fingerprint was taken
+     */
+    public synchronized long getChecksum() throws IOException {
+        if (checksum == UNKNOWN) {
+            long computed = checksum(path);
+            // The fingerprint is not racy, so a file with the same size and time still has the same content
+            if (!this.matches(Files.readAttributes(path, BasicFileAttributes.class))) {
+                throw new IOException("file changed since its fingerprint was taken: " + path);
+            }
+            checksum = computed;
+        }
+        return checksum;
+    }
+
+    /**
+     * Verifies that the given file has not changed since this fingerprint was taken. The content is only read while
+     * the fingerprint is racy.
+     *
+     * @param path the file
+     * @return a fingerprint that is equivalent to this one and should replace it, or null if the file has changed
+     * @throws IOException if the file cannot be read
+     */
+    public FileFingerprint verify(Path path) throws IOException {
+        if (!this.matches(Files.readAttributes(path, BasicFileAttributes.class))) {
+            return null;
+        }
+        if (!this.isRacy()) {
+            return this;
+        }
+        // A write within the timestamp granularity keeps size and time, only the content can tell
+        long now = System.currentTimeMillis();
+        if (checksum(path) != checksum) {
+            return null;
+        }
+        // Once the granularity has passed, any later write changes the timestamp and the checksum is not needed
+        return now - lastModified >= granularity
+                ? new FileFingerprint(path, size, lastModified, granularity, checksum, now) : this;
+    }
+
+    /**
+     * Checks if the fingerprint was taken within the timestamp granularity after the last modification.
+     */
+    private boolean isRacy() {
+        return takenAt - lastModified < granularity;
+    }
+
+    /**
+     * Checks if the size and the modification time of a file are the ones of the fingerprint.
+     */
+    private boolean matches(BasicFileAttributes attributes) {
+        return attributes.size() == size && attributes.lastModifiedTime().toMillis() == lastModified;
+    }
+
+    /**
+     * Guesses the modification time granularity of a file system from a timestamp it kept. A timestamp with a
+     * fraction of a second comes from a file system keeping finer timestamps.
+     */
+    private static long granularity(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS) % 1_000_000_000L != 0 ? FINE_TIMESTAMP_GRANULARITY : TIMESTAMP_GRANULARITY;
+    }
+
+    /**
+     * Computes the CRC32 checksum of the content of a file.
+     */
+    private static long checksum(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,72 @@
+package org.yohann.excel.cache;
+
+/**
+ * A listener notified of every row a TableChange adds, removes or renumbers, so structures derived from the rows can
+ * follow the change incrementally.
+ *
+ * @param <T> the type of the rows
+ */
+public interface RowListener<T> {
+
+    /**
+     * A listener that ignores all notifications.
+     */
+    RowListener<Object> NONE = new RowListener<Object>() {
+        @Override
+        public void added(Object row) {
+        }
+
+        @Override
+        public void removed(Object row) {
+        }
+
+        @Override
+        public void shifted(int rowNum, int delta) {
+        }
+    };
+
+    /**
+     * Returns a listener that ignores all notifications.
+     *
+     * @param <T> the type of the rows
+     * @return the listener
+     */
+    @SuppressWarnings("unchecked")
+    static <T> RowListener<T> none() {
+        return (RowListener<T>) NONE;
+    }
+
+    /**
+     * Called when a row is added.
+     *
+     * @param row the added row
+     */
+    void added(T row);
+
+    /**
+     * Called when a row is removed. An updated row is reported as removed and added again.
+     *
+     * @param row the removed row
+     */
+    void removed(T row);
+
+    /**
+     * Called when the rows after a row number are renumbered.
+     *
+     * @param rowNum the number of the last row that keeps its number
+     * @param delta  the change of the row numbers after it
+     */
+    void shifted(int rowNum, int delta);
+
+    /**
+     * Called when rows are deleted at once and the rows after each of them move up to close the gaps. By default the
+     * gaps are closed one after another from the bottom up.
+     *
+     * @param rowNums the numbers of the deleted rows before the deletion, sorted in ascending order
+     */
+    default void compacted(int[] rowNums) {
+        for (int i = rowNums.length - 1; i >= 0; i--) {
+            this.shifted(rowNums[i], -1);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package org.yohann.excel.cache;
+
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metadata.ExcelField;
+import org.yohann.excel.metadata.ExcelMetadata;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the parsed rows of Excel files in memory, keyed by file path and entity class. Every lookup
+ * verifies the file against the fingerprint taken when the rows were loaded, so changes made by other programs are
+ * never served from the cache. The total size of all cached tables is capped, and the least recently used tables are evicted as a whole
+ * when the cap is exceeded.
+ * <p>
+ * Cached row lists are never modified. Changes replace the whole list, so readers can use a list without locking.
+ * Rows of entity classes with fields marked with ExcelIndex are cached together with their indexes.
+ */
+public class TableCache {
+
+    /**
+     * The cache shared by all mappers, capped at a quarter of the maximum heap size.
+     */
+    private static final TableCache INSTANCE = new TableCache(Runtime.getRuntime().maxMemory() / 4);
+
+    /**
+     * The number of rows sampled to estimate the size of a table.
+     */
+    private static final int SAMPLE_ROWS = 100;
+
+    // The cached tables in access order, the least recently used table first
+    private final LinkedHashMap<TableKey, CachedTable> tables = new LinkedHashMap<>(16, 0.75f, true);
+
+    // The maximum estimated size of all cached tables in bytes
+    private long maxBytes;
+
+    // The estimated size of all cached tables in bytes
+    private long usedBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructs a new TableCache with the given memory cap.
+     *
+     * @param maxBytes the maximum estimated size of all cached tables in bytes
+     */
+    public TableCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cache shared by all mappers.
+     *
+     * @return the shared cache
+     */
+    public static TableCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the maximum estimated size of all cached tables.
+     *
+     * @return the memory cap in bytes
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the maximum estimated size of all cached tables, evicting tables if they no longer fit.
+     *
+     * @param maxBytes the memory cap in bytes
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * Returns the estimated size of all cached tables.
+     *
+     * @return the estimated size in bytes
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Returns the cached rows of the given file if the file has not changed since they were loaded.
+     * Every call that returns rows counts as a hit.
+     *
+     * @param path the file
+     * @param type the entity class of the rows
+     * @param <T>  the type of the rows
+     * @return an unmodifiable list of the cached rows, or null if the file is not cached or has changed
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(Path path, Class<T> type) {
+        CachedTable table = validate(new TableKey(path, type));
+        if (table == null) {
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return (List<T>) table.rows;
+    }
+
+    /**
+     * Checks if the rows of the given file are cached and the file has not changed since they were loaded.
+     * This does not count as a hit or a miss.
+     *
+     * @param path the file
+     * @param type the entity class of the rows
+     * @return true if the cached rows are fresh, false otherwise
+     */
+    public boolean isFresh(Path path, Class<?> type) {
+        return validate(new TableKey(path, type)) != null;
+    }
+
+    /**
+     * Caches the rows of the given file. Every call counts as a miss, because the rows had to be read from the file.
+     *
+     * @param path        the file
+     * @param fingerprint the fingerprint of the file taken before the rows were read
+     * @param rows        the rows of the file, ordered by row number
+     * @param metadata    the metadata of the row type, used to estimate the size of the rows and to index them
+     * @param <T>         the type of the rows
+     */
+    public <T extends Excel> void put(Path path, FileFingerprint fingerprint, List<T> rows,
+                                      ExcelMetadata<T> metadata) {
+        missCount.incrementAndGet();
+        long rowBytes = estimateRowBytes(rows, metadata);
+        rows = Collections.unmodifiableList(rows);
+        TableIndexes<T> indexes = TableIndexes.build(rows, metadata);
+        TableKey key = new TableKey(path, metadata.getType());
+        synchronized (this) {
+            remove(key);
+            CachedTable table = new CachedTable(fingerprint, rows, indexes, rowBytes);
+            if (table.bytes() > maxBytes) {
+                // The table would not fit even into an empty cache
+                return;
+            }
+            tables.put(key, table);
+            usedBytes += table.bytes();
+            evict();
+        }
+    }
+
+    /**
+     * Replaces the cached rows of the given file with a changed copy, after the file itself has been changed the same
+     * way. Nothing happens if the file is not cached.
+     *
+     * @param path        the file
+     * @param type        the entity class of the rows
+     * @param fingerprint the fingerprint of the file after the change
+     * @param change      the change made to the file
+     * @param <T>         the type of the rows
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends Excel> void apply(Path path, Class<T> type, FileFingerprint fingerprint,
+                                                     TableChange<T> change) {
+        TableKey key = new TableKey(path, type);
+        CachedTable table = tables.get(key);
+        if (table == null) {
+            return;
+        }
+        TableIndexes<T> indexes = (TableIndexes<T>) table.indexes;
+        List<T> rows = indexes != null
+                ? indexes.apply(change)
+                : Collections.unmodifiableList(change.apply((List<T>) table.rows, RowListener.none()));
+        remove(key);
+        CachedTable changed = new CachedTable(fingerprint, rows, indexes, table.rowBytes);
+        if (changed.bytes() <= maxBytes) {
+            tables.put(key, changed);
+            usedBytes += changed.bytes();
+            evict();
+        }
+    }
+
+    /**
+     * Returns the indexes of the cached rows of the given file. Unlike get, this does not verify the file, and is
+     * meant to be called right after get returned the rows.
+     *
+     * @param path the file
+     * @param type the entity class of the rows
+     * @param <T>  the type of the rows
+     * @return the indexes, or null if the file is not cached or its rows have no indexed fields
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends Excel> TableIndexes<T> getIndexes(Path path, Class<T> type) {
+        CachedTable table = tables.get(new TableKey(path, type));
+        return table == null ? null : (TableIndexes<T>) table.indexes;
+    }
+
+    /**
+     * Removes the cached rows of the given file, for all entity classes.
+     *
+     * @param path the file
+     */
+    public synchronized void invalidate(Path path) {
+        Iterator<Map.Entry<TableKey, CachedTable>> iterator = tables.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<TableKey, CachedTable> entry = iterator.next();
+            if (entry.getKey().path.equals(path)) {
+                usedBytes -= entry.getValue().bytes();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached tables.
+     */
+    public synchronized void clear() {
+        tables.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * Returns the number of lookups that were served from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of times rows were read from a file because they were not cached or had changed.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of tables evicted to stay within the memory cap.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Looks up a table and verifies it against its file, dropping it if the file has changed.
+     */
+    private CachedTable validate(TableKey key) {
+        CachedTable table;
+        synchronized (this) {
+            table = tables.get(key);
+        }
+        if (table == null) {
+            return null;
+        }
+        FileFingerprint verified;
+        try {
+            verified = table.fingerprint.verify(key.path);
+        } catch (IOException e) {
+            verified = null;
+        }
+        synchronized (this) {
+            if (tables.get(key) != table) {
+                // The table was replaced while the file was verified, verify the new one instead
+                return validate(key);
+            }
+            if (verified == null) {
+                remove(key);
+                return null;
+            }
+            table.fingerprint = verified;
+            return table;
+        }
+    }
+
+    /**
+     * Removes a table and releases its size.
+     */
+    private void remove(TableKey key) {
+        CachedTable table = tables.remove(key);
+        if (table != null) {
+            usedBytes -= table.bytes();
+        }
+    }
+
+    /**
+     * Evicts the least recently used tables until the cached tables fit into the memory cap.
+     */
+    private void evict() {
+        Iterator<CachedTable> iterator = tables.values().iterator();
+        while (usedBytes > maxBytes && iterator.hasNext()) {
+            usedBytes -= iterator.next().bytes();
+            iterator.remove();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Estimates the average heap size of a row from a sample of the rows.
+     */
+    private static <T> long estimateRowBytes(List<T> rows, ExcelMetadata<T> metadata) {
+        int samples = Math.min(rows.size(), SAMPLE_ROWS);
+        // Object header, row number and list slot
+        long bytes = 48;
+        if (samples == 0) {
+            return bytes;
+        }
+        long fieldBytes = 0;
+        for (int i = 0; i < samples; i++) {
+            T row = rows.get(rows.size() * i / samples);
+            for (ExcelField field : metadata.getFields()) {
+                Object value = field.get(row);
+                fieldBytes += 8;
+                if (value instanceof String) {
+                    fieldBytes += 40 + 2L * ((String) value).length();
+                } else if (value != null) {
+                    fieldBytes += 24;
+                }
+            }
+        }
+        return bytes + fieldBytes / samples;
+    }
+
+    /**
+     * The cached rows of a single file.
+     */
+    private static class CachedTable {
+
+        // The fingerprint of the file the rows belong to
+        private volatile FileFingerprint fingerprint;
+
+        // The cached rows, never modified
+        private final List<?> rows;
+
+        // The indexes of the rows, or null if the rows have no indexed fields
+        private final TableIndexes<?> indexes;
+
+        // The estimated size of a single row in bytes
+        private final long rowBytes;
+
+        CachedTable(FileFingerprint fingerprint, List<?> rows, TableIndexes<?> indexes, long rowBytes) {
+            this.fingerprint = fingerprint;
+            this.rows = rows;
+            this.indexes = indexes;
+            this.rowBytes = rowBytes;
+        }
+
+        long bytes() {
+            return rowBytes * rows.size();
+        }
+    }
+
+    /**
+     * The key of a cached table. Entity classes mapping the same file are cached separately.
+     */
+    private static class TableKey {
+
+        // The file the rows are read from
+        private final Path path;
+
+        // The entity class of the rows
+        private final Class<?> type;
+
+        TableKey(Path path, Class<?> type) {
+            this.path = path;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TableKey)) {
+                return false;
+            }
+            TableKey other = (TableKey) o;
+            return path.equals(other.path) && type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * path.hashCode() + type.hashCode();
+        }
+    }
+}
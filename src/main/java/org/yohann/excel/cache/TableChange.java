@@ -0,0 +1,21 @@
+package org.yohann.excel.cache;
+
+import java.util.List;
+
+/**
+ * A change to the rows of a file, created by TableChanges.
+ *
+ * @param <T> the type of the rows
+ */
+@FunctionalInterface
+public interface TableChange<T> {
+
+    /**
+     * Applies this change to a list of rows ordered by row number.
+     *
+     * @param rows     the rows before the change, this list is not modified
+     * @param listener the listener notified of every changed row
+     * @return the rows after the change
+     */
+    List<T> apply(List<T> rows, RowListener<T> listener);
+}
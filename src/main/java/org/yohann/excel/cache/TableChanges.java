@@ -0,0 +1,208 @@
+package org.yohann.excel.cache;
+
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metadata.ExcelField;
+import org.yohann.excel.metadata.ExcelMetadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class creates the changes that mirror the mapper's insert, update and delete operations on a list of rows
+ * ordered by row number. Applying a change to the rows read from a file gives the rows that reading the changed file
+ * would give, so a cache can follow the mapper's own writes without reading the file again.
+ */
+public class TableChanges {
+
+    private TableChanges() {
+    }
+
+    /**
+     * Creates the change for rows appended to the file. The inserted objects must carry their new row numbers.
+     * Rows without any value are skipped, because reading the file skips empty rows as well.
+     *
+     * @param inserted the inserted objects
+     * @param metadata the metadata of the row type
+     * @param <T>      the type of the rows
+     * @return the change
+     */
+    public static <T extends Excel> TableChange<T> insert(List<T> inserted, ExcelMetadata<T> metadata) {
+        return (rows, listener) -> {
+            List<T> result = new ArrayList<>(rows.size() + inserted.size());
+            result.addAll(rows);
+            for (T t : inserted) {
+                T row = metadata.normalize(t);
+                if (hasValue(row, metadata)) {
+                    result.add(row);
+                    listener.added(row);
+                }
+            }
+            return result;
+        };
+    }
+
+    /**
+     * Creates the change for rows updated in place. Like the update itself, null values keep the old cell values.
+     *
+     * @param updated  the updated objects, carrying the row numbers of the rows to update
+     * @param metadata the metadata of the row type
+     * @param <T>      the type of the rows
+     * @return the change
+     */
+    public static <T extends Excel> TableChange<T> update(List<T> updated, ExcelMetadata<T> metadata) {
+        return (rows, listener) -> {
+            List<T> result = new ArrayList<>(rows);
+            for (T t : updated) {
+                int index = indexOf(result, t.getRowNum());
+                T row;
+                if (index >= 0) {
+                    row = metadata.copy(result.get(index));
+                } else {
+                    // The row had no values, so it was not part of the cached rows
+                    row = metadata.newInstance();
+                    row.setRowNum(t.getRowNum());
+                }
+                for (ExcelField field : metadata.getFields()) {
+                    Object value = field.get(t);
+                    if (value != null) {
+                        field.set(row, field.normalize(value));
+                    }
+                }
+                if (index >= 0) {
+                    listener.removed(result.set(index, row));
+                    listener.added(row);
+                } else if (hasValue(row, metadata)) {
+                    result.add(-index - 1, row);
+                    listener.added(row);
+                }
+            }
+            return result;
+        };
+    }
+
+    /**
+     * Creates the change for rows deleted one after another, each deletion shifting the rows below it up by one.
+     *
+     * @param rowNumList the row numbers to delete, in the order they are deleted
+     * @param metadata   the metadata of the row type
+     * @param <T>        the type of the rows
+     * @return the change
+     */
+    public static <T extends Excel> TableChange<T> delete(List<Integer> rowNumList, ExcelMetadata<T> metadata) {
+        int[] rowNums = toAscending(rowNumList);
+        if (rowNums != null) {
+            return deleteAll(rowNums, metadata);
+        }
+        return (rows, listener) -> {
+            List<T> result = new ArrayList<>(rows);
+            for (Integer rowNum : rowNumList) {
+                int index = indexOf(result, rowNum);
+                if (index >= 0) {
+                    listener.removed(result.remove(index));
+                } else {
+                    index = -index - 1;
+                }
+                for (int i = index; i < result.size(); i++) {
+                    T row = metadata.copy(result.get(i));
+                    row.setRowNum(row.getRowNum() - 1);
+                    result.set(i, row);
+                }
+                listener.shifted(rowNum, -1);
+            }
+            return result;
+        };
+    }
+
+    /**
+     * Creates the change for rows deleted at once, the rows after each of them moving up to close the gaps. The rows
+     * are compacted in a single pass.
+     *
+     * @param rowNums  the row numbers to delete, before the deletion, sorted in ascending order without duplicates
+     * @param metadata the metadata of the row type
+     * @param <T>      the type of the rows
+     * @return the change
+     */
+    public static <T extends Excel> TableChange<T> deleteAll(int[] rowNums, ExcelMetadata<T> metadata) {
+        return (rows, listener) -> {
+            List<T> result = new ArrayList<>(rows.size());
+            int deleted = 0;
+            for (T row : rows) {
+                int rowNum = row.getRowNum();
+                // Count the deleted rows up to this row, which are before it in both lists
+                while (deleted < rowNums.length && rowNums[deleted] < rowNum) {
+                    deleted++;
+                }
+                if (deleted < rowNums.length && rowNums[deleted] == rowNum) {
+                    listener.removed(row);
+                } else if (deleted == 0) {
+                    result.add(row);
+                } else {
+                    T moved = metadata.copy(row);
+                    moved.setRowNum(rowNum - deleted);
+                    result.add(moved);
+                }
+            }
+            if (rowNums.length > 0) {
+                listener.compacted(rowNums);
+            }
+            return result;
+        };
+    }
+
+    /**
+     * Returns the row numbers of rows deleted one after another in ascending order, if they are deleted from the
+     * bottom up. Deleting from the bottom up leaves the rows above each deletion in place, so the rows can as well be
+     * deleted at once.
+     *
+     * @param rowNumList the row numbers to delete, in the order they are deleted
+     * @return the row numbers in ascending order, or null if they are not strictly descending
+     */
+    public static int[] toAscending(List<Integer> rowNumList) {
+        int[] rowNums = new int[rowNumList.size()];
+        for (int i = 0; i < rowNums.length; i++) {
+            Integer rowNum = rowNumList.get(rowNums.length - 1 - i);
+            if (rowNum == null || i > 0 && rowNum <= rowNums[i - 1]) {
+                return null;
+            }
+            rowNums[i] = rowNum;
+        }
+        return rowNums;
+    }
+
+    /**
+     * Finds a row by row number with a binary search.
+     *
+     * @param rows   the rows, ordered by row number
+     * @param rowNum the row number to find
+     * @param <T>    the type of the rows
+     * @return the index of the row, or (-(insertion point) - 1) if there is no such row
+     */
+    public static <T extends Excel> int indexOf(List<T> rows, int rowNum) {
+        int low = 0;
+        int high = rows.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midRowNum = rows.get(mid).getRowNum();
+            if (midRowNum < rowNum) {
+                low = mid + 1;
+            } else if (midRowNum > rowNum) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Checks if any mapped field of the row has a value.
+     */
+    private static <T> boolean hasValue(T row, ExcelMetadata<T> metadata) {
+        for (ExcelField field : metadata.getFields()) {
+            if (field.get(row) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
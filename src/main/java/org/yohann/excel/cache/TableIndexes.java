@@ -0,0 +1,142 @@
+package org.yohann.excel.cache;
+
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.index.RowIndex;
+import org.yohann.excel.metadata.ExcelField;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.query.Criteria;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps the indexes of the fields marked with ExcelIndex for a list of cached rows. The indexes and the
+ * rows are changed together under a write lock, so a lookup always resolves row numbers against the rows they were
+ * indexed from.
+ *
+ * @param <T> the type of the rows
+ */
+public class TableIndexes<T extends Excel> {
+
+    // The row type the indexes were built for
+    private final Class<T> type;
+
+    // The indexed fields and their indexes
+    private final Map<ExcelField, RowIndex> indexes;
+
+    // The indexes keyed by field name, for lookups
+    private final Map<String, RowIndex> indexesByName;
+
+    // The rows the indexes were built from, ordered by row number
+    private List<T> rows;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // The listener updating the indexes while a change is applied
+    private final RowListener<T> updater = new IndexUpdater();
+
+    private TableIndexes(Class<T> type, List<T> rows, List<ExcelField> fields) {
+        this.type = type;
+        this.indexes = new LinkedHashMap<>();
+        this.indexesByName = new HashMap<>();
+        for (ExcelField field : fields) {
+            RowIndex index = RowIndex.create(field.getIndexType(), field.getType());
+            indexes.put(field, index);
+            indexesByName.put(field.getName(), index);
+        }
+        this.rows = rows;
+        for (T row : rows) {
+            updater.added(row);
+        }
+    }
+
+    /**
+     * Builds the indexes for the given rows.
+     *
+     * @param rows     the rows, ordered by row number
+     * @param metadata the metadata of the row type
+     * @param <T>      the type of the rows
+     * @return the indexes, or null if the row type has no indexed fields
+     */
+    public static <T extends Excel> TableIndexes<T> build(List<T> rows, ExcelMetadata<T> metadata) {
+        List<ExcelField> fields = metadata.getIndexedFields();
+        return fields.isEmpty() ? null : new TableIndexes<>(metadata.getType(), rows, fields);
+    }
+
+    /**
+     * Selects the rows that may match the criteria through the index of one of its matchers.
+     *
+     * @param criteria the criteria to select rows for
+     * @return the candidate rows ordered by row number, or null if no matcher can use an index
+     */
+    public List<T> select(Criteria criteria) {
+        lock.readLock().lock();
+        try {
+            int[] rowNums = criteria.lookup(type, indexesByName::get);
+            if (rowNums == null) {
+                return null;
+            }
+            List<T> result = new ArrayList<>(rowNums.length);
+            for (int rowNum : rowNums) {
+                int index = TableChanges.indexOf(rows, rowNum);
+                if (index >= 0) {
+                    result.add(rows.get(index));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a change to the indexed rows and updates the indexes with the changed rows.
+     *
+     * @param change the change to apply
+     * @return an unmodifiable list of the rows after the change
+     */
+    List<T> apply(TableChange<T> change) {
+        lock.writeLock().lock();
+        try {
+            rows = Collections.unmodifiableList(change.apply(rows, updater));
+            return rows;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The listener adding and removing the changed rows in every index.
+     */
+    private class IndexUpdater implements RowListener<T> {
+
+        @Override
+        public void added(T row) {
+            for (Map.Entry<ExcelField, RowIndex> entry : indexes.entrySet()) {
+                entry.getValue().add(entry.getKey().get(row), row.getRowNum());
+            }
+        }
+
+        @Override
+        public void removed(T row) {
+            for (Map.Entry<ExcelField, RowIndex> entry : indexes.entrySet()) {
+                entry.getValue().remove(entry.getKey().get(row), row.getRowNum());
+            }
+        }
+
+        @Override
+        public void shifted(int rowNum, int delta) {
+            for (RowIndex index : indexes.values()) {
+                index.shift(rowNum, delta);
+            }
+        }
+
+        @Override
+        public void compacted(int[] rowNums) {
+            for (RowIndex index : indexes.values()) {
+                index.compact(rowNums);
+            }
+        }
+    }
+}
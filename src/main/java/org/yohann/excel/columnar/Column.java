@@ -0,0 +1,343 @@
+package org.yohann.excel.columnar;
+
+import org.yohann.excel.metadata.ExcelField;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class reads the values of one field from a columnar file. Integral numbers, booleans and dates are stored as
+ * longs and floating point numbers as doubles, each column with a bitmap of the rows without a value. Strings and the
+ * other types are stored as codes into a dictionary of their distinct values, the code -1 standing for no value.
+ */
+abstract class Column {
+
+    static final byte INTEGER = 1;
+    static final byte LONG = 2;
+    static final byte SHORT = 3;
+    static final byte BYTE = 4;
+    static final byte BOOLEAN = 5;
+    static final byte DATE = 6;
+    static final byte DOUBLE = 7;
+    static final byte FLOAT = 8;
+    static final byte STRING = 9;
+    static final byte CHARACTER = 10;
+    static final byte BIG_DECIMAL = 11;
+    static final byte BIG_INTEGER = 12;
+
+    // The field the column holds the values of
+    private final ExcelField field;
+
+    // The type of the values
+    protected final byte kind;
+
+    Column(ExcelField field, byte kind) {
+        this.field = field;
+        this.kind = kind;
+    }
+
+    /**
+     * Returns the field the column holds the values of.
+     *
+     * @return the field
+     */
+    ExcelField getField() {
+        return field;
+    }
+
+    /**
+     * Returns the value of a row.
+     *
+     * @param row the zero-based index of the row in the file
+     * @return the value, or null if the row has no value
+     */
+    abstract Object get(int row);
+
+    /**
+     * Returns the type of the values of a field.
+     *
+     * @param type the declared type of the field
+     * @return the type of the values
+     * @throws IllegalArgumentException if columnar files cannot hold values of the type
+     */
+    static byte kindOf(Class<?> type) {
+        if (type == Integer.class || type == int.class) {
+            return INTEGER;
+        } else if (type == Long.class || type == long.class) {
+            return LONG;
+        } else if (type == Short.class || type == short.class) {
+            return SHORT;
+        } else if (type == Byte.class || type == byte.class) {
+            return BYTE;
+        } else if (type == Boolean.class || type == boolean.class) {
+            return BOOLEAN;
+        } else if (type == Date.class) {
+            return DATE;
+        } else if (type == Double.class || type == double.class) {
+            return DOUBLE;
+        } else if (type == Float.class || type == float.class) {
+            return FLOAT;
+        } else if (type == String.class) {
+            return STRING;
+        } else if (type == Character.class || type == char.class) {
+            return CHARACTER;
+        } else if (type == BigDecimal.class) {
+            return BIG_DECIMAL;
+        } else if (type == BigInteger.class) {
+            return BIG_INTEGER;
+        }
+        throw new IllegalArgumentException("columnar file cannot hold field type: " + type.getName());
+    }
+
+    /**
+     * Writes the values of a field for all rows.
+     *
+     * @param out   the stream to write to
+     * @param field the field
+     * @param kind  the type of the values
+     * @param rows  the rows
+     * @throws IOException if the stream cannot be written
+     */
+    static void write(DataOutputStream out, ExcelField field, byte kind, List<?> rows) throws IOException {
+        if (kind >= STRING) {
+            writeDictionary(out, field, rows);
+            return;
+        }
+        long[] nulls = new long[words(rows.size())];
+        for (int row = 0; row < rows.size(); row++) {
+            if (field.get(rows.get(row)) == null) {
+                nulls[row >>> 6] |= 1L << row;
+            }
+        }
+        for (long word : nulls) {
+            out.writeLong(word);
+        }
+        for (Object row : rows) {
+            Object value = field.get(row);
+            if (value == null) {
+                out.writeLong(0);
+            } else if (kind == DOUBLE || kind == FLOAT) {
+                out.writeDouble(((Number) value).doubleValue());
+            } else if (kind == BOOLEAN) {
+                out.writeLong((Boolean) value ? 1 : 0);
+            } else if (kind == DATE) {
+                out.writeLong(((Date) value).getTime());
+            } else {
+                out.writeLong(((Number) value).longValue());
+            }
+        }
+    }
+
+    /**
+     * Opens the column of a field in a columnar file.
+     *
+     * @param buffer   the content of the file
+     * @param offset   the offset of the column
+     * @param field    the field
+     * @param kind     the type of the values
+     * @param rowCount the number of rows
+     * @return the column
+     */
+    static Column read(ByteBuffer buffer, int offset, ExcelField field, byte kind, int rowCount) {
+        if (kind >= STRING) {
+            return new DictionaryColumn(buffer, offset, field, kind, rowCount);
+        }
+        return new NumberColumn(buffer, offset, field, kind, rowCount);
+    }
+
+    /**
+     * Returns the number of bytes a column takes in a columnar file.
+     *
+     * @return the size of the column
+     */
+    abstract int size();
+
+    /**
+     * Write the dictionary of the distinct values of a field followed by the codes of the rows
+     */
+    private static void writeDictionary(DataOutputStream out, ExcelField field, List<?> rows) throws IOException {
+        Map<Object, Integer> codes = new HashMap<>();
+        int[] rowCodes = new int[rows.size()];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream values = new DataOutputStream(bytes);
+        for (int row = 0; row < rows.size(); row++) {
+            Object value = field.get(rows.get(row));
+            if (value == null) {
+                rowCodes[row] = -1;
+                continue;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = codes.size();
+                codes.put(value, code);
+                byte[] text = value.toString().getBytes(UTF_8);
+                values.writeInt(text.length);
+                values.write(text);
+            }
+            rowCodes[row] = code;
+        }
+        out.writeInt(codes.size());
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        for (int code : rowCodes) {
+            out.writeInt(code);
+        }
+    }
+
+    /**
+     * Get the number of long words of a bitmap of the given number of rows
+     */
+    private static int words(int rowCount) {
+        return (rowCount + 63) >>> 6;
+    }
+
+    /**
+     * A column of values stored as longs or doubles.
+     */
+    private static class NumberColumn extends Column {
+
+        // The content of the file
+        private final ByteBuffer buffer;
+
+        // The offset of the bitmap of the rows without a value
+        private final int nullsOffset;
+
+        // The offset of the values
+        private final int valuesOffset;
+
+        // The number of rows
+        private final int rowCount;
+
+        NumberColumn(ByteBuffer buffer, int offset, ExcelField field, byte kind, int rowCount) {
+            super(field, kind);
+            this.buffer = buffer;
+            this.nullsOffset = offset;
+            this.valuesOffset = offset + 8 * words(rowCount);
+            this.rowCount = rowCount;
+        }
+
+        @Override
+        Object get(int row) {
+            if ((buffer.getLong(nullsOffset + 8 * (row >>> 6)) & 1L << row) != 0) {
+                return null;
+            }
+            int offset = valuesOffset + 8 * row;
+            switch (kind) {
+                case INTEGER:
+                    return (int) buffer.getLong(offset);
+                case LONG:
+                    return buffer.getLong(offset);
+                case SHORT:
+                    return (short) buffer.getLong(offset);
+                case BYTE:
+                    return (byte) buffer.getLong(offset);
+                case BOOLEAN:
+                    return buffer.getLong(offset) != 0;
+                case DATE:
+                    return new Date(buffer.getLong(offset));
+                case DOUBLE:
+                    return buffer.getDouble(offset);
+                default:
+                    return (float) buffer.getDouble(offset);
+            }
+        }
+
+        @Override
+        int size() {
+            return valuesOffset - nullsOffset + 8 * rowCount;
+        }
+    }
+
+    /**
+     * A column of codes into a dictionary of distinct values. Values are decoded from the dictionary when a row
+     * first needs them, and shared by all rows holding them, which is safe as all dictionary types are immutable.
+     */
+    private static class DictionaryColumn extends Column {
+
+        // The content of the file
+        private final ByteBuffer buffer;
+
+        // The offsets of the encoded values, indexed by code
+        private final int[] valueOffsets;
+
+        // The decoded values, filled in as they are needed
+        private final Object[] values;
+
+        // The offset of the codes of the rows
+        private final int codesOffset;
+
+        // The number of rows
+        private final int rowCount;
+
+        // The offset of the column
+        private final int offset;
+
+        DictionaryColumn(ByteBuffer buffer, int offset, ExcelField field, byte kind, int rowCount) {
+            super(field, kind);
+            this.buffer = buffer;
+            this.offset = offset;
+            this.rowCount = rowCount;
+            int count = buffer.getInt(offset);
+            int valuesStart = offset + 8;
+            this.codesOffset = valuesStart + buffer.getInt(offset + 4);
+            this.valueOffsets = new int[count];
+            int position = valuesStart;
+            for (int i = 0; i < count; i++) {
+                valueOffsets[i] = position;
+                position += 4 + buffer.getInt(position);
+            }
+            this.values = new Object[count];
+        }
+
+        @Override
+        Object get(int row) {
+            int code = buffer.getInt(codesOffset + 4 * row);
+            if (code < 0) {
+                return null;
+            }
+            Object value = values[code];
+            if (value == null) {
+                // Racing threads decode equal values, and either of them is kept
+                value = this.decode(valueOffsets[code]);
+                values[code] = value;
+            }
+            return value;
+        }
+
+        @Override
+        int size() {
+            return codesOffset - offset + 4 * rowCount;
+        }
+
+        /**
+         * Decode the value at an offset of the dictionary
+         */
+        private Object decode(int position) {
+            byte[] bytes = new byte[buffer.getInt(position)];
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(position + 4);
+            slice.get(bytes);
+            String text = new String(bytes, UTF_8);
+            switch (kind) {
+                case STRING:
+                    return text;
+                case CHARACTER:
+                    return text.charAt(0);
+                case BIG_DECIMAL:
+                    return new BigDecimal(text);
+                default:
+                    return new BigInteger(text);
+            }
+        }
+    }
+}
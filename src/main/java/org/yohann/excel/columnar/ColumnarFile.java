@@ -0,0 +1,385 @@
+package org.yohann.excel.columnar;
+
+import org.yohann.excel.cache.FileFingerprint;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.index.ZoneMap;
+import org.yohann.excel.io.ReplaceFileOutputStream;
+import org.yohann.excel.metadata.ExcelField;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.metrics.OperationSample;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class is a columnar copy of the rows of an Excel file, kept in a binary file next to it, such as
+ * person.xlsx.col. The values of every mapped field are stored together: numbers, booleans and dates as arrays of
+ * primitives and all other values as codes into a dictionary of their distinct values. The file is memory-mapped, so
+ * a scan reads the columns it tests straight from the page cache and only builds objects for the rows that match,
+ * instead of unzipping and parsing the sheet and converting every cell.
+ * <p>
+ * The header records the size and the CRC32 checksum of the Excel file the rows were read from. A columnar file is
+ * only opened for the Excel file it was written for, and only for the mapped fields it was written with, so a file
+ * changed by another program or an older version of the mapped class is never read.
+ * <p>
+ * The columns are followed by zone maps of the number and date fields over blocks of 1024 rows, so a scan with range
+ * predicates on these fields skips the blocks none of whose rows can match.
+ *
+ * @param <T> the type of the rows
+ */
+public class ColumnarFile<T extends Excel> {
+
+    /**
+     * The suffix of the columnar file, appended to the name of the Excel file.
+     */
+    public static final String SUFFIX = ".col";
+
+    // The magic number starting every columnar file, "XCOL"
+    private static final int MAGIC = 0x58434F4C;
+
+    // The version of the layout of the file
+    private static final int VERSION = 2;
+
+    // The number of rows per block of the zone maps
+    private static final int BLOCK_ROWS = 1024;
+
+    // The metadata of the mapped class
+    private final ExcelMetadata<T> metadata;
+
+    // The fingerprint of the Excel file the rows were read from
+    private final FileFingerprint fingerprint;
+
+    // The row numbers of the rows, in ascending order
+    private final int[] rowNums;
+
+    // The columns of the mapped fields, in declaration order
+    private final List<Column> columns;
+
+    // The zone maps of the number and date fields, keyed by field name
+    private final Map<String, ZoneMap> zoneMaps;
+
+    // The size of the columnar file in bytes
+    private final long size;
+
+    private ColumnarFile(ExcelMetadata<T> metadata, FileFingerprint fingerprint, int[] rowNums, List<Column> columns,
+                         Map<String, ZoneMap> zoneMaps, long size) {
+        this.metadata = metadata;
+        this.fingerprint = fingerprint;
+        this.rowNums = rowNums;
+        this.columns = columns;
+        this.zoneMaps = zoneMaps;
+        this.size = size;
+    }
+
+    /**
+     * Checks that the fields of a mapped class can be kept in a columnar file.
+     *
+     * @param metadata the metadata of the mapped class
+     * @throws IllegalArgumentException if a mapped field has a type columnar files cannot hold
+     */
+    public static void checkFields(ExcelMetadata<?> metadata) {
+        for (ExcelField field : metadata.getFields()) {
+            Column.kindOf(field.getType());
+        }
+    }
+
+    /**
+     * Opens the columnar file of an Excel file, if it was written for the current content of the Excel file and the
+     * current fields of the mapped class.
+     *
+     * @param excel    the Excel file
+     * @param metadata the metadata of the mapped class
+     * @param <T>      the type of the rows
+     * @return the columnar file, or null if there is none or it does not match the Excel file or the mapped class
+     * @throws IOException if a file cannot be read
+     */
+    public static <T extends Excel> ColumnarFile<T> open(Path excel, ExcelMetadata<T> metadata) throws IOException {
+        return open(excel, metadata, null);
+    }
+
+    /**
+     * Open the columnar file of an Excel file, checking it against the given fingerprint of the Excel file, or
+     * against a fingerprint taken now if it is null
+     */
+    private static <T extends Excel> ColumnarFile<T> open(Path excel, ExcelMetadata<T> metadata,
+                                                          FileFingerprint fingerprint) throws IOException {
+        Path path = sidecar(excel);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.remaining() < 28 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        long excelSize = buffer.getLong();
+        long excelChecksum = buffer.getLong();
+        List<ExcelField> fields = metadata.getFields();
+        byte[] kinds = new byte[fields.size()];
+        if (buffer.getInt() != fields.size()) {
+            return null;
+        }
+        for (int i = 0; i < kinds.length; i++) {
+            byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            kinds[i] = buffer.get();
+            if (!fields.get(i).getName().equals(new String(name, UTF_8))
+                    || kinds[i] != Column.kindOf(fields.get(i).getType())) {
+                return null;
+            }
+        }
+        // Sizes differ for almost every change, the checksum is only computed if they are equal
+        if (Files.size(excel) != excelSize) {
+            return null;
+        }
+        if (fingerprint == null) {
+            fingerprint = FileFingerprint.of(excel);
+        }
+        if (fingerprint.getSize() != excelSize || fingerprint.getChecksum() != excelChecksum) {
+            return null;
+        }
+        int rowCount = buffer.getInt();
+        int[] rowNums = new int[rowCount];
+        buffer.asIntBuffer().get(rowNums);
+        int offset = buffer.position() + 4 * rowCount;
+        List<Column> columns = new ArrayList<>(kinds.length);
+        for (int i = 0; i < kinds.length; i++) {
+            Column column = Column.read(buffer, offset, fields.get(i), kinds[i], rowCount);
+            columns.add(column);
+            offset += column.size();
+        }
+        // The zone maps follow the columns, in declaration order
+        ByteBuffer zoneBuffer = buffer.duplicate();
+        zoneBuffer.position(offset);
+        Map<String, ZoneMap> zoneMaps = new HashMap<>();
+        for (ExcelField field : fields) {
+            if (ZoneMap.supports(field.getType())) {
+                zoneMaps.put(field.getName(), ZoneMap.read(zoneBuffer, field.getType()));
+            }
+        }
+        return new ColumnarFile<>(metadata, fingerprint, rowNums, columns, zoneMaps, buffer.capacity());
+    }
+
+    /**
+     * Writes the columnar file of an Excel file, replacing the previous one, and opens it.
+     *
+     * @param excel       the Excel file
+     * @param fingerprint the fingerprint of the Excel file, taken before the rows were read from it or after they
+     *                    were written to it
+     * @param rows        all rows of the Excel file, ordered by row number
+     * @param metadata    the metadata of the mapped class
+     * @param <T>         the type of the rows
+     * @return the columnar file
+     * @throws IOException if the columnar file cannot be written
+     */
+    public static <T extends Excel> ColumnarFile<T> write(Path excel, FileFingerprint fingerprint, List<T> rows,
+                                                          ExcelMetadata<T> metadata) throws IOException {
+        Path path = sidecar(excel);
+        List<ExcelField> fields = metadata.getFields();
+        try (ReplaceFileOutputStream fileOut = ReplaceFileOutputStream.create(path.toString())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint.getSize());
+            out.writeLong(fingerprint.getChecksum());
+            out.writeInt(fields.size());
+            for (ExcelField field : fields) {
+                byte[] name = field.getName().getBytes(UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeByte(Column.kindOf(field.getType()));
+            }
+            out.writeInt(rows.size());
+            for (T row : rows) {
+                out.writeInt(row.getRowNum());
+            }
+            for (ExcelField field : fields) {
+                Column.write(out, field, Column.kindOf(field.getType()), rows);
+            }
+            for (ExcelField field : fields) {
+                if (ZoneMap.supports(field.getType())) {
+                    ZoneMap zoneMap = new ZoneMap(field.getType(), BLOCK_ROWS);
+                    for (T row : rows) {
+                        zoneMap.add(field.get(row));
+                    }
+                    zoneMap.write(out);
+                }
+            }
+            out.flush();
+            fileOut.commit();
+        }
+        // The fingerprint is reused, so its checksum is not computed again
+        return open(excel, metadata, fingerprint);
+    }
+
+    /**
+     * Deletes the temporary files left behind for the columnar file of an Excel file by a crashed process.
+     *
+     * @param excel the Excel file
+     * @throws IOException if a temporary file cannot be deleted
+     */
+    public static void deleteLeftovers(Path excel) throws IOException {
+        ReplaceFileOutputStream.deleteLeftovers(sidecar(excel).toString());
+    }
+
+    /**
+     * Verifies that the Excel file has not changed since the rows were read from it.
+     *
+     * @param excel the Excel file
+     * @return a columnar file that is equivalent to this one and should replace it, or null if the Excel file has
+     * changed
+     * @throws IOException if the Excel file cannot be read
+     */
+    public ColumnarFile<T> verify(Path excel) throws IOException {
+        FileFingerprint verified = fingerprint.verify(excel);
+        if (verified == null) {
+            return null;
+        }
+        return verified == fingerprint ? this : new ColumnarFile<>(metadata, verified, rowNums, columns, zoneMaps,
+                size);
+    }
+
+    /**
+     * Returns the size of the columnar file.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int getRowCount() {
+        return rowNums.length;
+    }
+
+    /**
+     * Returns the zone map of a field, whose blocks are runs of rows in the order of the file.
+     *
+     * @param fieldName the name of the field
+     * @return the zone map, or null if the field has none
+     */
+    public ZoneMap getZoneMap(String fieldName) {
+        return zoneMaps.get(fieldName);
+    }
+
+    /**
+     * Reads all rows with all mapped fields.
+     *
+     * @return the rows, ordered by row number
+     */
+    public List<T> readAll() {
+        List<T> rows = new ArrayList<>(rowNums.length);
+        for (int row = 0; row < rowNums.length; row++) {
+            rows.add(this.read(row, columns, null));
+        }
+        return rows;
+    }
+
+    /**
+     * Passes the rows matching a predicate to a consumer. Only the columns of the matched fields are read to test a
+     * row, and the other fields are read for the rows that match.
+     *
+     * @param predicate     the predicate the rows must match
+     * @param matchedFields the names of the fields the predicate tests
+     * @param fieldNames    the names of the fields to read for matching rows besides the matched fields, or null
+     *                      for all fields
+     * @param after         the row number the scan starts after, or null to start at the first row
+     * @param blocks        the blocks of the zone maps that may hold matching rows, or null to scan all rows
+     * @param sample        the sample counting the scanned rows
+     * @param consumer      the consumer of the matching rows, which returns false to stop the scan
+     */
+    public void scan(Predicate<T> predicate, Collection<String> matchedFields, Collection<String> fieldNames,
+                     Integer after, BitSet blocks, OperationSample sample, Predicate<T> consumer) {
+        List<Column> tested = this.columns(matchedFields);
+        List<Column> remaining = new ArrayList<>();
+        for (Column column : fieldNames == null ? columns : this.columns(fieldNames)) {
+            if (!tested.contains(column)) {
+                remaining.add(column);
+            }
+        }
+        int start = 0;
+        if (after != null) {
+            int index = Arrays.binarySearch(rowNums, after);
+            start = index >= 0 ? index + 1 : -index - 1;
+        }
+        for (int row = start; row < rowNums.length; row++) {
+            if (blocks != null && !blocks.get(row / BLOCK_ROWS)) {
+                // Jump to the first row of the next block that may hold matching rows
+                int block = blocks.nextSetBit(row / BLOCK_ROWS);
+                if (block < 0) {
+                    return;
+                }
+                row = block * BLOCK_ROWS;
+            }
+            T probe = this.read(row, tested, null);
+            boolean matched = predicate.test(probe);
+            sample.addRowScanned(matched);
+            if (matched && !consumer.test(this.read(row, remaining, probe))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read the values of the given columns of a row into a row object, creating it if none is given.
+     */
+    private T read(int row, List<Column> columns, T target) {
+        if (target == null) {
+            target = metadata.newInstance();
+            target.setRowNum(rowNums[row]);
+        }
+        for (Column column : columns) {
+            Object value = column.get(row);
+            if (value != null) {
+                column.getField().set(target, value);
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Get the columns of the named fields, in declaration order.
+     */
+    private List<Column> columns(Collection<String> fieldNames) {
+        List<Column> selected = new ArrayList<>();
+        for (Column column : columns) {
+            if (fieldNames.contains(column.getField().getName())) {
+                selected.add(column);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Get the path of the columnar file of an Excel file.
+     */
+    private static Path sidecar(Path excel) {
+        return excel.resolveSibling(excel.getFileName() + SUFFIX);
+    }
+}
@@ -0,0 +1,201 @@
+package org.yohann.excel.index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * This class is a Bloom filter of the values of a single field. A lookup of a value that was added always answers
+ * true, and a lookup of a value that was not added answers false in all but about the configured rate of cases, so
+ * a false answer proves that no row holds the value. Values are removed by building the filter again.
+ * <p>
+ * Values are added and looked up by their index keys, so values the query predicates consider equal hit the same
+ * bits. The bits are derived from the keys alone, never from identity hash codes, so a filter written to a file can be
+ * read by another process. A filter is not thread-safe while values are added.
+ */
+public class BloomFilter {
+
+    // The number of rows a filter is sized for at least
+    private static final int MIN_CAPACITY = 1024;
+
+    // The number of values the filter is sized for
+    private final int capacity;
+
+    // The false positive rate at capacity
+    private final double falsePositiveRate;
+
+    // The number of bits set for every value
+    private final int hashCount;
+
+    // The bits of the filter
+    private final long[] bits;
+
+    // The number of values added
+    private long count;
+
+    private BloomFilter(int capacity, double falsePositiveRate, int hashCount, long[] bits, long count) {
+        this.capacity = capacity;
+        this.falsePositiveRate = falsePositiveRate;
+        this.hashCount = hashCount;
+        this.bits = bits;
+        this.count = count;
+    }
+
+    /**
+     * Creates an empty filter sized for twice the given number of rows, so the rows can double before the false
+     * positive rate rises above the configured rate.
+     *
+     * @param rowCount          the number of rows the filter is built from
+     * @param falsePositiveRate the false positive rate, between 0 and 1 exclusive
+     * @return the filter
+     */
+    public static BloomFilter create(int rowCount, double falsePositiveRate) {
+        int capacity = (int) Math.min(Math.max(2L * rowCount, MIN_CAPACITY), Integer.MAX_VALUE);
+        long bitCount = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        // The bits are addressed by int indexes into longs
+        int words = (int) Math.min((bitCount + 63) >>> 6, Integer.MAX_VALUE >>> 6);
+        int hashCount = (int) Math.max(1, Math.round(64.0 * words / capacity * Math.log(2)));
+        return new BloomFilter(capacity, falsePositiveRate, hashCount, new long[words], 0);
+    }
+
+    /**
+     * Checks if fields of the given type can have Bloom filters.
+     *
+     * @param type the declared type of the field
+     * @return true if the type is a primitive, number, date, boolean, character or string type
+     */
+    public static boolean supports(Class<?> type) {
+        return type.isPrimitive() || Number.class.isAssignableFrom(type) || Date.class.isAssignableFrom(type)
+                || type == Boolean.class || type == Character.class || type == String.class;
+    }
+
+    /**
+     * Returns the false positive rate the filter was built for.
+     *
+     * @return the false positive rate
+     */
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * Checks if more values were added than the filter is sized for, so its false positive rate is above the
+     * configured rate and it should be built again.
+     *
+     * @return true if the filter holds more values than it is sized for
+     */
+    public boolean isSaturated() {
+        return count > capacity;
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value the value, not added if null
+     */
+    public void add(Object value) {
+        if (value == null) {
+            return;
+        }
+        count++;
+        long hash = hash(IndexKeys.key(value));
+        long step = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashCount; i++, hash += step) {
+            int bit = this.bit(hash);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Checks if a value may have been added.
+     *
+     * @param value the value, not null
+     * @return false if the value was definitely not added
+     */
+    public boolean mightContain(Object value) {
+        long hash = hash(IndexKeys.key(value));
+        long step = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashCount; i++, hash += step) {
+            int bit = this.bit(hash);
+            if ((bits[bit >>> 6] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes this filter.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(capacity);
+        out.writeDouble(falsePositiveRate);
+        out.writeInt(hashCount);
+        out.writeLong(count);
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * Reads a filter written by write, starting at the position of the buffer and moving the position past it.
+     *
+     * @param buffer the buffer to read from
+     * @return the filter
+     */
+    public static BloomFilter read(ByteBuffer buffer) {
+        int capacity = buffer.getInt();
+        double falsePositiveRate = buffer.getDouble();
+        int hashCount = buffer.getInt();
+        long count = buffer.getLong();
+        long[] bits = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(bits);
+        buffer.position(buffer.position() + 8 * bits.length);
+        return new BloomFilter(capacity, falsePositiveRate, hashCount, bits, count);
+    }
+
+    /**
+     * Map a hash to the index of a bit
+     */
+    private int bit(long hash) {
+        return (int) ((hash & Long.MAX_VALUE) % (64L * bits.length));
+    }
+
+    /**
+     * Hash an index key, which is a Long, a Double, a Boolean, a Character or a String
+     */
+    private static long hash(Object key) {
+        long hash;
+        if (key instanceof Long) {
+            hash = (Long) key;
+        } else if (key instanceof Double) {
+            hash = Double.doubleToLongBits((Double) key);
+        } else if (key instanceof Boolean) {
+            hash = (Boolean) key ? 1231 : 1237;
+        } else if (key instanceof Character) {
+            hash = (Character) key;
+        } else {
+            // FNV-1a over the characters of the string
+            String text = key.toString();
+            hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < text.length(); i++) {
+                hash = (hash ^ text.charAt(i)) * 0x100000001B3L;
+            }
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Spread the bits of a hash, the finalizer of MurmurHash3
+     */
+    private static long mix(long hash) {
+        hash = (hash ^ hash >>> 33) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ hash >>> 33) * 0xC4CEB93F53E5A958L;
+        return hash ^ hash >>> 33;
+    }
+}
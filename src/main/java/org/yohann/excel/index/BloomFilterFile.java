@@ -0,0 +1,232 @@
+package org.yohann.excel.index;
+
+import org.yohann.excel.cache.FileFingerprint;
+import org.yohann.excel.io.ReplaceFileOutputStream;
+import org.yohann.excel.metadata.ExcelField;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class holds the Bloom filters of the fields of an Excel file marked with ExcelBloomFilter, kept in a binary
+ * file next to it, such as person.xlsx.bloom. Like a columnar file, the file records the size and the CRC32 checksum
+ * of the Excel file the filters were built for, and is only opened for that Excel file and for the same fields and
+ * false positive rates.
+ * <p>
+ * Values are only ever added to the filters, so after rows are updated or deleted they still hold the old values.
+ * This only makes lookups of those values read the Excel file, and the filters are built again from the rows once
+ * they hold more values than they are sized for.
+ */
+public class BloomFilterFile {
+
+    /**
+     * The suffix of the Bloom filter file, appended to the name of the Excel file.
+     */
+    public static final String SUFFIX = ".bloom";
+
+    // The magic number starting every Bloom filter file, "XBLM"
+    private static final int MAGIC = 0x58424C4D;
+
+    // The version of the layout of the file
+    private static final int VERSION = 1;
+
+    // The fields with Bloom filters, in declaration order
+    private final List<ExcelField> fields;
+
+    // The fingerprint of the Excel file the filters were built for
+    private final FileFingerprint fingerprint;
+
+    // The filters of the fields, keyed by field name
+    private final Map<String, BloomFilter> filters;
+
+    private BloomFilterFile(List<ExcelField> fields, FileFingerprint fingerprint, Map<String, BloomFilter> filters) {
+        this.fields = fields;
+        this.fingerprint = fingerprint;
+        this.filters = filters;
+    }
+
+    /**
+     * Builds the Bloom filters of the given fields from all rows of an Excel file.
+     *
+     * @param fields      the fields with Bloom filters
+     * @param fingerprint the fingerprint of the Excel file, taken before the rows were read from it
+     * @param rows        all rows of the Excel file
+     * @return the filters, not yet written
+     */
+    public static BloomFilterFile build(List<ExcelField> fields, FileFingerprint fingerprint, List<?> rows) {
+        Map<String, BloomFilter> filters = new HashMap<>();
+        for (ExcelField field : fields) {
+            filters.put(field.getName(), BloomFilter.create(rows.size(), field.getBloomFilterRate()));
+        }
+        BloomFilterFile bloomFilters = new BloomFilterFile(fields, fingerprint, filters);
+        bloomFilters.addAll(rows);
+        return bloomFilters;
+    }
+
+    /**
+     * Opens the Bloom filter file of an Excel file, if it was built for the current content of the Excel file and the
+     * given fields.
+     *
+     * @param excel  the Excel file
+     * @param fields the fields with Bloom filters
+     * @return the filters, or null if there is no file or it does not match the Excel file or the fields
+     * @throws IOException if a file cannot be read
+     */
+    public static BloomFilterFile open(Path excel, List<ExcelField> fields) throws IOException {
+        Path path = sidecar(excel);
+        if (!Files.isRegularFile(path) || Files.size(path) > Integer.MAX_VALUE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < 28 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        long excelSize = buffer.getLong();
+        long excelChecksum = buffer.getLong();
+        if (buffer.getInt() != fields.size()) {
+            return null;
+        }
+        Map<String, BloomFilter> filters = new HashMap<>();
+        for (ExcelField field : fields) {
+            byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            BloomFilter filter = BloomFilter.read(buffer);
+            if (!field.getName().equals(new String(name, UTF_8))
+                    || filter.getFalsePositiveRate() != field.getBloomFilterRate()) {
+                return null;
+            }
+            filters.put(field.getName(), filter);
+        }
+        // Sizes differ for almost every change, the checksum is only computed if they are equal
+        if (Files.size(excel) != excelSize) {
+            return null;
+        }
+        FileFingerprint fingerprint = FileFingerprint.of(excel);
+        if (fingerprint.getSize() != excelSize || fingerprint.getChecksum() != excelChecksum) {
+            return null;
+        }
+        return new BloomFilterFile(fields, fingerprint, filters);
+    }
+
+    /**
+     * Deletes the Bloom filter file of an Excel file, if there is one.
+     *
+     * @param excel the Excel file
+     * @throws IOException if the file cannot be deleted
+     */
+    public static void delete(Path excel) throws IOException {
+        Files.deleteIfExists(sidecar(excel));
+    }
+
+    /**
+     * Deletes the temporary files left behind for the Bloom filter file of an Excel file by a crashed process.
+     *
+     * @param excel the Excel file
+     * @throws IOException if a temporary file cannot be deleted
+     */
+    public static void deleteLeftovers(Path excel) throws IOException {
+        ReplaceFileOutputStream.deleteLeftovers(sidecar(excel).toString());
+    }
+
+    /**
+     * Verifies that the Excel file has not changed since the filters were built or last written.
+     *
+     * @param excel the Excel file
+     * @return filters that are equivalent to these and should replace them, or null if the Excel file has changed
+     * @throws IOException if the Excel file cannot be read
+     */
+    public BloomFilterFile verify(Path excel) throws IOException {
+        FileFingerprint verified = fingerprint.verify(excel);
+        if (verified == null) {
+            return null;
+        }
+        return verified == fingerprint ? this : new BloomFilterFile(fields, verified, filters);
+    }
+
+    /**
+     * Returns the Bloom filter of a field.
+     *
+     * @param fieldName the name of the field
+     * @return the filter, or null if the field has none
+     */
+    public BloomFilter getFilter(String fieldName) {
+        return filters.get(fieldName);
+    }
+
+    /**
+     * Adds the values of rows written to the Excel file. Fields without a value are skipped, as updates keep the old
+     * value of these fields.
+     *
+     * @param rows the rows
+     */
+    public void addAll(Collection<?> rows) {
+        for (ExcelField field : fields) {
+            BloomFilter filter = filters.get(field.getName());
+            for (Object row : rows) {
+                Object value = field.get(row);
+                if (value != null) {
+                    filter.add(field.normalize(value));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if a filter holds more values than it is sized for, so the filters should be built again.
+     *
+     * @return true if a filter holds more values than it is sized for
+     */
+    public boolean isSaturated() {
+        for (BloomFilter filter : filters.values()) {
+            if (filter.isSaturated()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the Bloom filter file of an Excel file, replacing the previous one.
+     *
+     * @param excel       the Excel file
+     * @param fingerprint the fingerprint of the Excel file the filters hold the values of
+     * @return the filters, recorded for the given fingerprint
+     * @throws IOException if the file cannot be written
+     */
+    public BloomFilterFile write(Path excel, FileFingerprint fingerprint) throws IOException {
+        try (ReplaceFileOutputStream fileOut = ReplaceFileOutputStream.create(sidecar(excel).toString())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint.getSize());
+            out.writeLong(fingerprint.getChecksum());
+            out.writeInt(fields.size());
+            for (ExcelField field : fields) {
+                byte[] name = field.getName().getBytes(UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                filters.get(field.getName()).write(out);
+            }
+            out.flush();
+            fileOut.commit();
+        }
+        return new BloomFilterFile(fields, fingerprint, filters);
+    }
+
+    /**
+     * Get the path of the Bloom filter file of an Excel file.
+     */
+    private static Path sidecar(Path excel) {
+        return excel.resolveSibling(excel.getFileName() + SUFFIX);
+    }
+}
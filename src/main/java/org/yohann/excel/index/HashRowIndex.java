@@ -0,0 +1,16 @@
+package org.yohann.excel.index;
+
+import java.util.HashMap;
+
+/**
+ * This class is a RowIndex backed by a hash map. It answers EQUALS and IN lookups in constant time per value.
+ */
+public class HashRowIndex extends RowIndex {
+
+    /**
+     * Constructs a new empty HashRowIndex.
+     */
+    public HashRowIndex() {
+        super(new HashMap<>());
+    }
+}
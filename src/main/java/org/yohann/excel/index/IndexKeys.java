@@ -0,0 +1,96 @@
+package org.yohann.excel.index;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+
+/**
+ * This class turns field values and match values into index keys. Values that the query predicates consider equal
+ * or compare the same way get keys that are equal or compare the same way: integral numbers and dates become Long,
+ * other numbers become Double, and everything else is its own key.
+ */
+public final class IndexKeys {
+
+    private IndexKeys() {
+    }
+
+    /**
+     * Returns the index key of a value.
+     *
+     * @param value the value, not null
+     * @return the index key
+     */
+    public static Object key(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Number) {
+            return doubleKey(((Number) value).doubleValue());
+        }
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the index key of a double value. Negative zero is folded into zero, because the two compare equal.
+     */
+    static Double doubleKey(double value) {
+        return value == 0.0 ? 0.0 : value;
+    }
+
+    /**
+     * Returns the class of the keys a sorted index holds for a field of the given type.
+     *
+     * @param type the declared type of the field
+     * @return the class of the index keys
+     * @throws IllegalArgumentException if values of the type cannot be ordered
+     */
+    public static Class<?> sortedKeyType(Class<?> type) {
+        Class<?> boxed = box(type);
+        if (boxed == Integer.class || boxed == Long.class || boxed == Short.class || boxed == Byte.class
+                || Date.class.isAssignableFrom(boxed)) {
+            return Long.class;
+        }
+        if (boxed == Double.class || boxed == Float.class || boxed == BigDecimal.class || boxed == BigInteger.class) {
+            return Double.class;
+        }
+        if (Comparable.class.isAssignableFrom(boxed) && !Number.class.isAssignableFrom(boxed)
+                && boxed != Comparable.class) {
+            return boxed;
+        }
+        throw new IllegalArgumentException("sorted index not supported for type: " + type.getName());
+    }
+
+    /**
+     * Returns the wrapper type of a primitive type, or the type itself if it is not primitive.
+     */
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == int.class) {
+            return Integer.class;
+        }
+        if (type == long.class) {
+            return Long.class;
+        }
+        if (type == double.class) {
+            return Double.class;
+        }
+        if (type == float.class) {
+            return Float.class;
+        }
+        if (type == short.class) {
+            return Short.class;
+        }
+        if (type == byte.class) {
+            return Byte.class;
+        }
+        if (type == boolean.class) {
+            return Boolean.class;
+        }
+        return Character.class;
+    }
+}
@@ -0,0 +1,17 @@
+package org.yohann.excel.index;
+
+/**
+ * An enumeration of the kinds of index that can be kept for a field marked with ExcelIndex.
+ */
+public enum IndexTypeEnum {
+    /**
+     * A hash index, answering EQUALS and IN lookups.
+     */
+    HASH,
+
+    /**
+     * A sorted index, answering EQUALS and IN lookups as well as LESS, LESS_EQUALS, GREATER and GREATER_EQUALS
+     * ranges. Only supported for numeric, date and other comparable field types.
+     */
+    SORTED,
+}
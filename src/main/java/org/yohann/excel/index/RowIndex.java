@@ -0,0 +1,184 @@
+package org.yohann.excel.index;
+
+import java.util.*;
+
+/**
+ * This class maps the values of a single field to the numbers of the rows holding them. Null values are not indexed.
+ * <p>
+ * Lookups may return rows that do not match exactly, for example a Date field looked up with the equal Long value,
+ * but they never leave out a matching row. Callers are expected to test the returned rows against the query.
+ * An index is not thread-safe.
+ */
+public abstract class RowIndex {
+
+    // The row numbers of each index key
+    protected final Map<Object, RowNumSet> entries;
+
+    /**
+     * Constructs a new RowIndex keeping its entries in the given map.
+     *
+     * @param entries the empty map to keep the entries in
+     */
+    protected RowIndex(Map<Object, RowNumSet> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Creates an empty index of the given kind for a field of the given type.
+     *
+     * @param indexType the kind of index
+     * @param fieldType the declared type of the field
+     * @return the index
+     * @throws IllegalArgumentException if the field type does not support the kind of index
+     */
+    public static RowIndex create(IndexTypeEnum indexType, Class<?> fieldType) {
+        if (indexType == IndexTypeEnum.SORTED) {
+            return new SortedRowIndex(IndexKeys.sortedKeyType(fieldType));
+        }
+        return new HashRowIndex();
+    }
+
+    /**
+     * Adds a row to the index.
+     *
+     * @param value  the value of the field in the row
+     * @param rowNum the number of the row
+     */
+    public void add(Object value, int rowNum) {
+        if (value != null) {
+            entries.computeIfAbsent(IndexKeys.key(value), key -> new RowNumSet()).add(rowNum);
+        }
+    }
+
+    /**
+     * Removes a row from the index.
+     *
+     * @param value  the value of the field in the row, as it was added
+     * @param rowNum the number of the row
+     */
+    public void remove(Object value, int rowNum) {
+        if (value == null) {
+            return;
+        }
+        Object key = IndexKeys.key(value);
+        RowNumSet rowNums = entries.get(key);
+        if (rowNums != null) {
+            rowNums.remove(rowNum);
+            if (rowNums.isEmpty()) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Moves the numbers of all rows after the given row by delta, after rows were removed or inserted.
+     *
+     * @param rowNum the number of the last row that keeps its number
+     * @param delta  the change of the row numbers
+     */
+    public void shift(int rowNum, int delta) {
+        for (RowNumSet rowNums : entries.values()) {
+            rowNums.shift(rowNum, delta);
+        }
+    }
+
+    /**
+     * Moves the numbers of all rows up by the number of deleted rows before them, after rows were deleted at once.
+     * The deleted rows must have been removed from the index already.
+     *
+     * @param deletedRowNums the numbers of the deleted rows before the deletion, sorted in ascending order
+     */
+    public void compact(int[] deletedRowNums) {
+        for (RowNumSet rowNums : entries.values()) {
+            rowNums.compact(deletedRowNums);
+        }
+    }
+
+    /**
+     * Looks up the rows whose value equals the given value.
+     *
+     * @param value the value to look up
+     * @return the sorted row numbers
+     */
+    public int[] get(Object value) {
+        RowNumSet rowNums = this.find(value);
+        return rowNums == null ? new int[0] : toArray(Collections.singletonList(rowNums));
+    }
+
+    /**
+     * Looks up the rows whose value equals any of the given values.
+     *
+     * @param values the values to look up
+     * @return the sorted row numbers
+     */
+    public int[] getAll(Collection<?> values) {
+        List<RowNumSet> found = new ArrayList<>(values.size());
+        for (Object value : values) {
+            RowNumSet rowNums = this.find(value);
+            if (rowNums != null) {
+                found.add(rowNums);
+            }
+        }
+        return toArray(found);
+    }
+
+    /**
+     * Looks up the rows whose value lies in a range. Either bound may be null for an open range.
+     *
+     * @param low           the lower bound, or null
+     * @param lowInclusive  whether the lower bound itself is in the range
+     * @param high          the upper bound, or null
+     * @param highInclusive whether the upper bound itself is in the range
+     * @return the sorted row numbers, or null if this index cannot look up the range
+     */
+    public int[] range(Object low, boolean lowInclusive, Object high, boolean highInclusive) {
+        return null;
+    }
+
+    /**
+     * Finds the row numbers of the key a looked up value would be indexed under.
+     */
+    private RowNumSet find(Object value) {
+        Object key = value == null ? null : this.toKey(value);
+        return key == null ? null : entries.get(key);
+    }
+
+    /**
+     * Turns a looked up value into the key it would be indexed under.
+     *
+     * @param value the value, not null
+     * @return the key, or null if no indexed value can be equal to the value
+     */
+    protected Object toKey(Object value) {
+        return IndexKeys.key(value);
+    }
+
+    /**
+     * Merges sets of row numbers into a single sorted array without duplicates.
+     *
+     * @param sets the sets to merge
+     * @return the sorted row numbers
+     */
+    protected static int[] toArray(Collection<RowNumSet> sets) {
+        int size = 0;
+        for (RowNumSet rowNums : sets) {
+            size += rowNums.size();
+        }
+        int[] result = new int[size];
+        int position = 0;
+        for (RowNumSet rowNums : sets) {
+            position = rowNums.copyTo(result, position);
+        }
+        if (sets.size() > 1) {
+            Arrays.sort(result);
+            int distinct = 0;
+            for (int i = 0; i < result.length; i++) {
+                if (i == 0 || result[i] != result[i - 1]) {
+                    result[distinct++] = result[i];
+                }
+            }
+            result = distinct == result.length ? result : Arrays.copyOf(result, distinct);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+package org.yohann.excel.index;
+
+import java.util.Arrays;
+
+/**
+ * This class holds the row numbers of the rows sharing an index key, as a sorted array of primitive ints.
+ * Rows are usually appended, so adding a row number is amortized constant time in the common case.
+ */
+class RowNumSet {
+
+    // The row numbers, sorted in ascending order
+    private int[] rowNums = new int[2];
+
+    // The number of row numbers in the array
+    private int size;
+
+    /**
+     * Adds a row number if it is not in the set yet.
+     */
+    void add(int rowNum) {
+        int index = size > 0 && rowNums[size - 1] < rowNum ? -size - 1 : Arrays.binarySearch(rowNums, 0, size, rowNum);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        if (size == rowNums.length) {
+            rowNums = Arrays.copyOf(rowNums, size * 2);
+        }
+        System.arraycopy(rowNums, index, rowNums, index + 1, size - index);
+        rowNums[index] = rowNum;
+        size++;
+    }
+
+    /**
+     * Removes a row number if it is in the set.
+     */
+    void remove(int rowNum) {
+        int index = Arrays.binarySearch(rowNums, 0, size, rowNum);
+        if (index >= 0) {
+            System.arraycopy(rowNums, index + 1, rowNums, index, size - index - 1);
+            size--;
+        }
+    }
+
+    /**
+     * Moves all row numbers greater than the given row number by delta. The moved row numbers must not pass any
+     * row number that stays in place.
+     */
+    void shift(int rowNum, int delta) {
+        int index = Arrays.binarySearch(rowNums, 0, size, rowNum);
+        for (int i = index >= 0 ? index + 1 : -index - 1; i < size; i++) {
+            rowNums[i] += delta;
+        }
+    }
+
+    /**
+     * Moves every row number down by the number of deleted row numbers below it. None of the deleted row numbers
+     * may be in the set.
+     */
+    void compact(int[] deletedRowNums) {
+        for (int i = 0; i < size; i++) {
+            rowNums[i] += Arrays.binarySearch(deletedRowNums, rowNums[i]) + 1;
+        }
+    }
+
+    /**
+     * Checks if the set is empty.
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Copies the row numbers into the given array.
+     *
+     * @return the position after the last copied row number
+     */
+    int copyTo(int[] target, int position) {
+        System.arraycopy(rowNums, 0, target, position, size);
+        return position + size;
+    }
+
+    /**
+     * Returns the number of row numbers in the set.
+     */
+    int size() {
+        return size;
+    }
+}
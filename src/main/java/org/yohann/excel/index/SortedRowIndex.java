@@ -0,0 +1,63 @@
+package org.yohann.excel.index;
+
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * This class is a RowIndex backed by a sorted map. Besides EQUALS and IN lookups it answers range lookups in
+ * logarithmic time plus the size of the result. All keys of the index are of a single class, so bounds of a
+ * different kind are not looked up and the range query falls back to a scan.
+ */
+public class SortedRowIndex extends RowIndex {
+
+    // The class of the keys held by this index
+    private final Class<?> keyType;
+
+    /**
+     * Constructs a new empty SortedRowIndex.
+     *
+     * @param keyType the class of the keys, as returned by IndexKeys.sortedKeyType
+     */
+    public SortedRowIndex(Class<?> keyType) {
+        super(new TreeMap<>());
+        this.keyType = keyType;
+    }
+
+    @Override
+    public int[] range(Object low, boolean lowInclusive, Object high, boolean highInclusive) {
+        Object lowKey = low == null ? null : this.toBound(low);
+        Object highKey = high == null ? null : this.toBound(high);
+        if ((low != null && lowKey == null) || (high != null && highKey == null)) {
+            return null;
+        }
+        NavigableMap<Object, RowNumSet> map = (NavigableMap<Object, RowNumSet>) entries;
+        if (lowKey != null) {
+            map = map.tailMap(lowKey, lowInclusive);
+        }
+        if (highKey != null) {
+            map = map.headMap(highKey, highInclusive);
+        }
+        return toArray(map.values());
+    }
+
+    @Override
+    protected Object toKey(Object value) {
+        Object key = IndexKeys.key(value);
+        // A key of another class cannot equal any indexed key, and the sorted map could not even compare it
+        return keyType.isInstance(key) ? key : null;
+    }
+
+    /**
+     * Turns a range bound into a key, following the comparisons of the query predicates: any number bounds a
+     * floating point field, while integral and date fields are only bounded by values of their own kind.
+     */
+    private Object toBound(Object value) {
+        if (keyType == Double.class) {
+            return value instanceof Number ? IndexKeys.doubleKey(((Number) value).doubleValue()) : null;
+        }
+        if (keyType == Long.class) {
+            return value instanceof Number && !(IndexKeys.key(value) instanceof Long) ? null : this.toKey(value);
+        }
+        return this.toKey(value);
+    }
+}
@@ -0,0 +1,293 @@
+package org.yohann.excel.index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+
+/**
+ * This class keeps statistics of the values of a single field for consecutive blocks of rows: the smallest and the
+ * largest value of each block, and the number of rows without a value. A range lookup returns the blocks that may hold
+ * values in the range, so a scan can skip the other blocks without reading their rows. Rows sorted or appended in the
+ * order of a field, such as dates, leave only a few blocks to read.
+ * <p>
+ * Only numbers and dates have zone maps. Like SortedRowIndex, integral numbers and dates are compared as longs and
+ * other numbers as doubles, and bounds the query predicates would not compare that way are not looked up. NaN values
+ * are never in a range, so they only count as values. A zone map is not thread-safe while rows are added.
+ */
+public class ZoneMap {
+
+    // The number of blocks the arrays grow by
+    private static final int GROWTH = 64;
+
+    // Whether the values are compared as doubles, whose bits the bounds then hold
+    private final boolean floating;
+
+    // Whether the values are dates
+    private final boolean date;
+
+    // The number of rows per block, the last block holding the remaining rows
+    private final int blockRows;
+
+    // The smallest value of each block
+    private long[] mins;
+
+    // The largest value of each block
+    private long[] maxs;
+
+    // The number of rows of each block whose values are bounded by the smallest and the largest value
+    private int[] valueCounts;
+
+    // The number of rows of each block without a value
+    private int[] nullCounts;
+
+    // The number of rows added
+    private int rowCount;
+
+    private ZoneMap(Class<?> type, int blockRows, int capacity) {
+        if (!supports(type)) {
+            throw new IllegalArgumentException("zone map not supported for type: " + type.getName());
+        }
+        this.floating = IndexKeys.sortedKeyType(type) == Double.class;
+        this.date = Date.class.isAssignableFrom(type);
+        this.blockRows = blockRows;
+        this.mins = new long[capacity];
+        this.maxs = new long[capacity];
+        this.valueCounts = new int[capacity];
+        this.nullCounts = new int[capacity];
+    }
+
+    /**
+     * Constructs a new empty ZoneMap.
+     *
+     * @param type      the declared type of the field
+     * @param blockRows the number of rows per block
+     * @throws IllegalArgumentException if the field type has no zone maps
+     */
+    public ZoneMap(Class<?> type, int blockRows) {
+        this(type, blockRows, GROWTH);
+    }
+
+    /**
+     * Checks if fields of the given type can have zone maps.
+     *
+     * @param type the declared type of the field
+     * @return true if the type is a number or a date type
+     */
+    public static boolean supports(Class<?> type) {
+        if (type == boolean.class || type == char.class
+                || !type.isPrimitive() && !Number.class.isAssignableFrom(type) && !Date.class.isAssignableFrom(type)) {
+            return false;
+        }
+        try {
+            IndexKeys.sortedKeyType(type);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of rows per block.
+     *
+     * @return the number of rows per block
+     */
+    public int getBlockRows() {
+        return blockRows;
+    }
+
+    /**
+     * Returns the number of blocks, the last of which may not be full.
+     *
+     * @return the number of blocks
+     */
+    public int getBlockCount() {
+        return (rowCount + blockRows - 1) / blockRows;
+    }
+
+    /**
+     * Adds the next row.
+     *
+     * @param value the value of the field in the row, may be null
+     */
+    public void add(Object value) {
+        int block = rowCount++ / blockRows;
+        if (block == mins.length) {
+            int capacity = mins.length + GROWTH;
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            valueCounts = Arrays.copyOf(valueCounts, capacity);
+            nullCounts = Arrays.copyOf(nullCounts, capacity);
+        }
+        if (value == null) {
+            nullCounts[block]++;
+            return;
+        }
+        long key;
+        if (floating) {
+            double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number)) {
+                return;
+            }
+            key = Double.doubleToLongBits(number);
+            if (valueCounts[block]++ == 0) {
+                mins[block] = key;
+                maxs[block] = key;
+            } else if (number < Double.longBitsToDouble(mins[block])) {
+                mins[block] = key;
+            } else if (number > Double.longBitsToDouble(maxs[block])) {
+                maxs[block] = key;
+            }
+            return;
+        }
+        key = value instanceof Date ? ((Date) value).getTime() : ((Number) value).longValue();
+        if (valueCounts[block]++ == 0) {
+            mins[block] = key;
+            maxs[block] = key;
+        } else if (key < mins[block]) {
+            mins[block] = key;
+        } else if (key > maxs[block]) {
+            maxs[block] = key;
+        }
+    }
+
+    /**
+     * Looks up the blocks that may hold values in a range.
+     *
+     * @param low           the lower bound, or null for no lower bound
+     * @param lowInclusive  whether the lower bound is in the range
+     * @param high          the upper bound, or null for no upper bound
+     * @param highInclusive whether the upper bound is in the range
+     * @return the blocks that may hold values in the range, or null if a bound cannot be compared with the values
+     */
+    public BitSet range(Object low, boolean lowInclusive, Object high, boolean highInclusive) {
+        if (low != null && !this.isBound(low) || high != null && !this.isBound(high)) {
+            return null;
+        }
+        int blocks = this.getBlockCount();
+        BitSet selected = new BitSet(blocks);
+        for (int block = 0; block < blocks; block++) {
+            if (valueCounts[block] > 0 && (low == null || this.above(maxs[block], low, lowInclusive))
+                    && (high == null || this.below(mins[block], high, highInclusive))) {
+                selected.set(block);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Looks up the blocks holding rows without a value.
+     *
+     * @return the blocks holding rows without a value
+     */
+    public BitSet nulls() {
+        int blocks = this.getBlockCount();
+        BitSet selected = new BitSet(blocks);
+        for (int block = 0; block < blocks; block++) {
+            if (nullCounts[block] > 0) {
+                selected.set(block);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Looks up the blocks holding rows with a value.
+     *
+     * @return the blocks holding rows with a value
+     */
+    public BitSet values() {
+        int blocks = this.getBlockCount();
+        BitSet selected = new BitSet(blocks);
+        for (int block = 0; block < blocks; block++) {
+            int rows = Math.min(blockRows, rowCount - block * blockRows);
+            if (nullCounts[block] < rows) {
+                selected.set(block);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Writes this zone map.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(blockRows);
+        out.writeInt(rowCount);
+        for (int block = 0; block < this.getBlockCount(); block++) {
+            out.writeLong(mins[block]);
+            out.writeLong(maxs[block]);
+            out.writeInt(valueCounts[block]);
+            out.writeInt(nullCounts[block]);
+        }
+    }
+
+    /**
+     * Reads a zone map written by write, starting at the position of the buffer and moving the position past it.
+     *
+     * @param buffer the buffer to read from
+     * @param type   the declared type of the field
+     * @return the zone map
+     */
+    public static ZoneMap read(ByteBuffer buffer, Class<?> type) {
+        int blockRows = buffer.getInt();
+        int rowCount = buffer.getInt();
+        int blocks = (rowCount + blockRows - 1) / blockRows;
+        ZoneMap zoneMap = new ZoneMap(type, blockRows, blocks);
+        zoneMap.rowCount = rowCount;
+        for (int block = 0; block < blocks; block++) {
+            zoneMap.mins[block] = buffer.getLong();
+            zoneMap.maxs[block] = buffer.getLong();
+            zoneMap.valueCounts[block] = buffer.getInt();
+            zoneMap.nullCounts[block] = buffer.getInt();
+        }
+        return zoneMap;
+    }
+
+    /**
+     * Checks if the query predicates compare the values with a bound like the zone map does: dates with dates,
+     * integral numbers with integral numbers, and other numbers with any number that is not NaN.
+     */
+    private boolean isBound(Object bound) {
+        if (date) {
+            return bound instanceof Date;
+        }
+        if (floating) {
+            return bound instanceof Number && !Double.isNaN(((Number) bound).doubleValue());
+        }
+        return bound instanceof Integer || bound instanceof Long || bound instanceof Short || bound instanceof Byte;
+    }
+
+    /**
+     * Checks if the largest value of a block is above a lower bound.
+     */
+    private boolean above(long max, Object low, boolean inclusive) {
+        int comparison = this.compare(max, low);
+        return inclusive ? comparison >= 0 : comparison > 0;
+    }
+
+    /**
+     * Checks if the smallest value of a block is below an upper bound.
+     */
+    private boolean below(long min, Object high, boolean inclusive) {
+        int comparison = this.compare(min, high);
+        return inclusive ? comparison <= 0 : comparison < 0;
+    }
+
+    /**
+     * Compare a value of the zone map with a bound.
+     */
+    private int compare(long value, Object bound) {
+        if (floating) {
+            double number = Double.longBitsToDouble(value);
+            double target = ((Number) bound).doubleValue();
+            return number < target ? -1 : number > target ? 1 : 0;
+        }
+        return Long.compare(value, (Long) IndexKeys.key(bound));
+    }
+}
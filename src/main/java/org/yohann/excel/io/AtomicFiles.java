@@ -0,0 +1,150 @@
+package org.yohann.excel.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * This class holds the file operations behind atomic file replacement: uniquely named temporary files next to the
+ * file they belong to, and moves that replace a file in one step.
+ */
+public class AtomicFiles {
+
+    /**
+     * The suffix of snapshots.
+     */
+    public static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Creates an empty temporary file in the directory of the given file, named after the file, a random part and the
+     * suffix. Being in the same directory, the temporary file can be moved over the file atomically.
+     *
+     * @param file   the file the temporary file belongs to
+     * @param suffix the suffix of the temporary file
+     * @return the new temporary file
+     * @throws IOException if the temporary file cannot be created
+     */
+    public static Path createTemporary(Path file, String suffix) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        while (true) {
+            String random = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+            Path temporary = absolute.resolveSibling(absolute.getFileName() + "." + random + suffix);
+            try {
+                // Unlike Files.createTempFile, this keeps the default permissions the replaced file was created with
+                return Files.createFile(temporary);
+            } catch (FileAlreadyExistsException e) {
+                // Try another random part
+            }
+        }
+    }
+
+    /**
+     * Deletes the temporary files left behind for the given file by a crashed process, including those named
+     * without a random part by earlier versions.
+     *
+     * @param file   the file the temporary files belong to
+     * @param suffix the suffix of the temporary files
+     * @throws IOException if the directory cannot be read or a temporary file cannot be deleted
+     */
+    public static void deleteTemporaries(Path file, String suffix) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Pattern pattern = Pattern.compile(Pattern.quote(absolute.getFileName().toString()) + "(\\.[0-9a-f]+)?"
+                + Pattern.quote(suffix));
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(absolute.getParent(),
+                path -> pattern.matcher(path.getFileName().toString()).matches())) {
+            for (Path path : paths) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Creates a snapshot of a file, a temporary file that keeps the current content of the file while the file is
+     * replaced. Files replaced through ReplaceFileOutputStream or move are never changed in place, so the snapshot is
+     * a hard link to the file where the platform allows replacing a file that is open under another name, and a copy
+     * elsewhere.
+     *
+     * @param file the file
+     * @return the snapshot, to be deleted by the caller
+     * @throws IOException if the snapshot cannot be created
+     */
+    public static Path snapshot(Path file) throws IOException {
+        Path snapshot = createTemporary(file, SNAPSHOT_SUFFIX);
+        try {
+            // Windows refuses to replace a file that is open under any of its names
+            if (File.separatorChar == '/') {
+                try {
+                    Files.delete(snapshot);
+                    return Files.createLink(snapshot, file);
+                } catch (UnsupportedOperationException | IOException e) {
+                    // The file system does not support hard links, fall back to a copy
+                    Files.deleteIfExists(snapshot);
+                    Files.createFile(snapshot);
+                }
+            }
+            copy(file, snapshot);
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(snapshot);
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the content of a file into another file with FileChannel.transferTo, which lets the operating system copy
+     * the data without passing it through the Java heap.
+     *
+     * @param source the file to copy
+     * @param target the existing file to copy into
+     * @throws IOException if the file cannot be copied
+     */
+    public static void copy(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            // transferTo may copy less than asked for
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    /**
+     * Moves a file over another file, atomically if the file system can, and syncs the directory so the move
+     * survives a crash.
+     *
+     * @param source the file to move
+     * @param target the file to replace
+     * @throws IOException if the file cannot be moved
+     */
+    public static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(target.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Syncs a directory, so the files created, moved and deleted in it survive a crash. Nothing happens on
+     * platforms that cannot open a directory.
+     *
+     * @param directory the directory
+     */
+    public static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories cannot be opened on some platforms, their file systems keep directories consistent
+        }
+    }
+}
@@ -1,55 +1,91 @@
 package org.yohann.excel.io;
 
-import org.apache.poi.util.IOUtils;
-
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
- * The CopyFileInputStream class extends FileInputStream and creates a copy of a file
- * before reading it. The copy is stored in a temporary file that is deleted when the
- * input stream is closed.
+ * The CopyFileInputStream class extends FileInputStream and reads a snapshot of a file.
+ * The file is copied to a uniquely named temporary file with FileChannel.transferTo, which
+ * lets the operating system copy the data without passing it through the Java heap, and the
+ * temporary file is deleted when the input stream is closed.
+ * <p>
+ * Files written through ReplaceFileOutputStream are replaced but never changed in place, so
+ * they can be read directly; a snapshot is only needed for files other programs may change
+ * while they are read.
  */
 public class CopyFileInputStream extends FileInputStream {
 
     // The suffix for the temporary copy of the file
     private static final String SUFFIX = ".read";
 
-    // The name of the temporary file containing the copied data
-    private final String temporary;
+    // The temporary file containing the copied data
+    private final Path temporary;
+
+    // Whether the input stream is closed
+    private boolean closed;
 
     /**
-     * Constructs a new CopyFileInputStream object with the specified temporary file name.
+     * Constructs a new CopyFileInputStream object reading the specified temporary file.
      *
-     * @param temporary the name of the temporary file
-     * @throws FileNotFoundException if the file specified by the temporary file name cannot be opened
+     * @param temporary the temporary file
+     * @throws IOException if the temporary file cannot be opened
      */
-    private CopyFileInputStream(String temporary) throws FileNotFoundException {
-        super(temporary);
+    private CopyFileInputStream(Path temporary) throws IOException {
+        super(temporary.toFile());
         this.temporary = temporary;
     }
 
+    /**
+     * Closes the CopyFileInputStream and deletes the temporary file.
+     * Closing an input stream twice has no effect.
+     *
+     * @throws IOException if an I/O error occurs while closing the input stream or deleting
+     *                     the temporary file
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            super.close();
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
     /**
      * Creates a new CopyFileInputStream object for the specified file.
      * The file is copied to a temporary file before the input stream is created.
      *
      * @param fileName the name of the file to be read
      * @return a new CopyFileInputStream object for the specified file
-     * @throws FileNotFoundException if the file specified by the file name cannot be opened
+     * @throws IOException if the file cannot be copied
      */
-    public static FileInputStream create(String fileName) throws FileNotFoundException {
-        // Create a temporary copy of the file
-        String tempFilename = fileName + SUFFIX;
-        try (FileInputStream in = new FileInputStream(fileName);
-             FileOutputStream out = new FileOutputStream(tempFilename)) {
-            IOUtils.copy(in, out);
-        } catch (Exception e) {
-            throw new RuntimeException("create CopyFileInputStream failed", e);
+    public static FileInputStream create(String fileName) throws IOException {
+        Path file = Paths.get(fileName);
+        Path temporary = AtomicFiles.createTemporary(file, SUFFIX);
+        try {
+            AtomicFiles.copy(file, temporary);
+            return new CopyFileInputStream(temporary);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
         }
-        // Return a new CopyFileInputStream object for the specified file
-        return new CopyFileInputStream(tempFilename);
     }
 
-}
\ No newline at end of file
+    /**
+     * Deletes the temporary files left behind for the specified file by a crashed process.
+     *
+     * @param fileName the name of the file
+     * @throws IOException if a temporary file cannot be deleted
+     */
+    public static void deleteLeftovers(String fileName) throws IOException {
+        AtomicFiles.deleteTemporaries(Paths.get(fileName), SUFFIX);
+    }
+
+}
@@ -0,0 +1,34 @@
+package org.yohann.excel.io;
+
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * This class hands out one lock per Excel file, so all mappers of the same file coordinate with each other.
+ * Reads share the lock and writes hold it exclusively. The locks are StampedLocks, so readers of in-memory data can
+ * also read optimistically without locking at all.
+ * <p>
+ * StampedLocks are not reentrant: code holding a lock must not try to acquire the lock of the same file again.
+ */
+public class FileLocks {
+
+    /**
+     * The locks, keyed by normalized absolute file path.
+     */
+    private static final ConcurrentMap<Path, StampedLock> LOCKS = new ConcurrentHashMap<>();
+
+    private FileLocks() {
+    }
+
+    /**
+     * Returns the lock of the given file.
+     *
+     * @param path the file
+     * @return the lock shared by all users of the file
+     */
+    public static StampedLock get(Path path) {
+        return LOCKS.computeIfAbsent(path.toAbsolutePath().normalize(), p -> new StampedLock());
+    }
+}
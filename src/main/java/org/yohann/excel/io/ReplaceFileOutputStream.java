@@ -1,75 +1,124 @@
 package org.yohann.excel.io;
 
-import org.apache.poi.util.IOUtils;
-
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * The ReplaceFileOutputStream class extends FileOutputStream and replaces the original file
- * with a new file when the output stream is closed. The original file is deleted and the new
- * file is renamed to the original file name.
+ * with the written file when the output stream is committed. The output stream writes to a
+ * uniquely named temporary file in the same directory, which is synced and then moved over
+ * the original file in one step, so readers see either the old or the new file but never a
+ * half-written one. Closing the output stream without committing it deletes the temporary
+ * file and keeps the original file.
  */
 public class ReplaceFileOutputStream extends FileOutputStream {
 
-    // The suffix for the temporary copy of the file
+    // The suffix for the temporary file
     private static final String SUFFIX = ".write";
 
-    // The name of the original file
-    private final String fileName;
+    // The original file
+    private final Path target;
+
+    // The temporary file receiving the written data
+    private final Path temporary;
+
+    // Whether the output stream is committed or closed
+    private boolean closed;
+
+    // Whether the temporary file has replaced the original file
+    private boolean committed;
 
     /**
-     * Constructs a new ReplaceFileOutputStream object with the specified file name.
-     * The output stream writes to a temporary copy of the file.
+     * Constructs a new ReplaceFileOutputStream object writing to the specified temporary file.
      *
-     * @param fileName the name of the original file
-     * @throws FileNotFoundException if the specified file cannot be opened for writing
+     * @param target    the original file
+     * @param temporary the temporary file
+     * @throws IOException if the temporary file cannot be opened for writing
      */
-    private ReplaceFileOutputStream(String fileName) throws FileNotFoundException {
-        // Write to a temporary copy of the file
-        super(fileName + SUFFIX);
-        this.fileName = fileName;
+    private ReplaceFileOutputStream(Path target, Path temporary) throws IOException {
+        super(temporary.toFile());
+        this.target = target;
+        this.temporary = temporary;
     }
 
     /**
-     * Closes the ReplaceFileOutputStream and replaces the original file with the temporary file.
-     * The contents of the temporary file are copied to the original file.
+     * Syncs the written data to disk and replaces the original file with the temporary file.
+     * The output stream is closed afterwards. If the original file cannot be replaced, the
+     * temporary file is deleted and the original file is kept.
      *
-     * @throws IOException if an I/O error occurs while closing the output stream or copying the contents
-     *                     of the temporary file to the original file
+     * @throws IOException if the output stream is already closed, or the data cannot be synced
+     *                     or the original file cannot be replaced
+     */
+    public void commit() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed: " + target);
+        }
+        closed = true;
+        try {
+            getFD().sync();
+            super.close();
+            AtomicFiles.move(temporary, target);
+            committed = true;
+        } finally {
+            if (!committed) {
+                super.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * Closes the ReplaceFileOutputStream. Unless the output stream has been committed, the
+     * temporary file is deleted and the original file is kept. Closing an output stream twice
+     * has no effect, so the finalizer of an unreachable output stream never touches any file
+     * but its own temporary file.
+     *
+     * @throws IOException if an I/O error occurs while closing the output stream or deleting
+     *                     the temporary file
      */
     @Override
     public void close() throws IOException {
-        super.close();
-        // Copy the contents of the temporary file to the original file
-        String tempFilename = fileName + SUFFIX;
-        try (FileInputStream in = new FileInputStream(tempFilename);
-             FileOutputStream out = new FileOutputStream(fileName)) {
-            IOUtils.copy(in, out);
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            super.close();
+        } finally {
+            Files.deleteIfExists(temporary);
         }
     }
 
     /**
      * Creates a new ReplaceFileOutputStream object for the specified file.
-     * The output stream writes to a temporary copy of the file.
+     * The output stream writes to a new temporary file next to the file.
      *
      * @param fileName the name of the file to be replaced
      * @return a new ReplaceFileOutputStream object for the specified file
-     * @throws FileNotFoundException if the specified file cannot be opened for writing
+     * @throws IOException if the temporary file cannot be created
      */
-    public static ReplaceFileOutputStream create(String fileName) throws FileNotFoundException {
-        // Create a temporary copy of the file
-        String tempFilename = fileName + SUFFIX;
-        try (FileInputStream in = new FileInputStream(fileName);
-             FileOutputStream out = new FileOutputStream(tempFilename)) {
-            IOUtils.copy(in, out);
-        } catch (Exception e) {
-            throw new RuntimeException("create CopyFileInputStream failed", e);
+    public static ReplaceFileOutputStream create(String fileName) throws IOException {
+        Path target = Paths.get(fileName);
+        Path temporary = AtomicFiles.createTemporary(target, SUFFIX);
+        try {
+            return new ReplaceFileOutputStream(target, temporary);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
         }
-        // Return a new ReplaceFileOutputStream object for the specified file
-        return new ReplaceFileOutputStream(fileName);
     }
 
-}
\ No newline at end of file
+    /**
+     * Deletes the temporary files left behind for the specified file by a crashed process.
+     *
+     * @param fileName the name of the file
+     * @throws IOException if a temporary file cannot be deleted
+     */
+    public static void deleteLeftovers(String fileName) throws IOException {
+        AtomicFiles.deleteTemporaries(Paths.get(fileName), SUFFIX);
+    }
+
+}
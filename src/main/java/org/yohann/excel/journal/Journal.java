@@ -0,0 +1,624 @@
+package org.yohann.excel.journal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.yohann.excel.annotation.ExcelJournal;
+import org.yohann.excel.cache.RowListener;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.io.AtomicFiles;
+import org.yohann.excel.io.FileLocks;
+import org.yohann.excel.metadata.ExcelMetadata;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * This class is the write-ahead journal of an Excel file. Inserts, updates and deletes are appended to the journal
+ * file next to the Excel file, and return once their record is synced to disk, instead of rewriting the Excel file.
+ * A background compactor folds the journaled records into the Excel file in one pass, either after the compaction
+ * interval or as soon as enough records are journaled.
+ * <p>
+ * Compacting writes the changed Excel file to a temporary file and syncs it, then clears the journal, and then moves
+ * the temporary file over the Excel file. Clearing the journal is the commit point: when a journal is opened after a
+ * crash, a temporary file next to a cleared journal is moved into place, and a temporary file next to a journal still
+ * holding records is deleted and the records are replayed.
+ * <p>
+ * A record is published to reads and to the compactor only once it is synced. When a sync fails, the records not yet
+ * published are cut off the journal file again and their writes fail, so nothing is folded into the Excel file that
+ * a writer was told failed. Updates and deletes that choose their rows from the published records publish the
+ * records of other writers still syncing first, as their row numbers already count them.
+ * <p>
+ * There is one journal per Excel file, shared by all mappers of the file and guarded by the lock of the file.
+ *
+ * @param <T> the type of the rows
+ */
+@Slf4j
+public class Journal<T extends Excel> {
+
+    /**
+     * The suffix of the journal file.
+     */
+    public static final String JOURNAL_SUFFIX = ".wal";
+
+    /**
+     * The suffix of the temporary file written while compacting.
+     */
+    public static final String COMPACTING_SUFFIX = ".compacting";
+
+    /**
+     * The journals, keyed by normalized absolute path of the Excel file.
+     */
+    private static final ConcurrentMap<Path, Journal<?>> JOURNALS = new ConcurrentHashMap<>();
+
+    /**
+     * The thread compacting all journals in the background.
+     */
+    private static final ScheduledExecutorService COMPACTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "excel-journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The Excel file
+    private final Path path;
+
+    // The temporary file written while compacting
+    private final Path compactingPath;
+
+    // The metadata of the row type
+    private final ExcelMetadata<T> metadata;
+
+    // The owner of the Excel file, writing the compacted file
+    private final JournalTarget<T> target;
+
+    // The number of journaled records after which a compaction is started right away
+    private final int compactRecords;
+
+    // The lock of the Excel file
+    private final StampedLock lock;
+
+    // The journal file
+    private final JournalFile file;
+
+    // The codec of the journal records
+    private final RecordCodec<T> codec;
+
+    // The records not yet folded into the Excel file, guarded by the lock of the Excel file
+    private final List<JournalRecord<T>> pending = new ArrayList<>();
+
+    // The number of pending records, readable without holding the lock
+    private volatile int pendingCount;
+
+    // The records written to the journal file whose writers are still syncing, in the order they were written,
+    // guarded by the lock of the Excel file
+    private final Deque<Staged<T>> staged = new ArrayDeque<>();
+
+    // The row number of the last row of the Excel file with the pending and staged records applied, guarded by the lock
+    private int lastRowNum;
+
+    // The row number of the last row of the Excel file with only the pending records applied, guarded by the lock
+    private int pendingLastRowNum;
+
+    // Whether an immediate compaction is already queued
+    private final AtomicBoolean queued = new AtomicBoolean();
+
+    // The rows last merged with the pending records, the merged rows and the number of records merged, guarded by this
+    private List<T> mergedBase;
+    private List<T> merged;
+    private int mergedCount;
+
+    private Journal(Path path, ExcelMetadata<T> metadata, ExcelJournal config, JournalTarget<T> target)
+            throws IOException {
+        this(path, metadata, config, target, JournalFile.open(Paths.get(path + JOURNAL_SUFFIX)));
+    }
+
+    Journal(Path path, ExcelMetadata<T> metadata, ExcelJournal config, JournalTarget<T> target, JournalFile file)
+            throws IOException {
+        this.path = path;
+        this.compactingPath = Paths.get(path + COMPACTING_SUFFIX);
+        this.metadata = metadata;
+        this.target = target;
+        this.compactRecords = Math.max(config.compactRecords(), 1);
+        this.lock = FileLocks.get(path);
+        this.codec = new RecordCodec<>(metadata);
+        this.file = file;
+        try {
+            this.recover();
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        long millis = Math.max(config.compactMillis(), 1);
+        COMPACTOR.scheduleWithFixedDelay(this::compactQuietly, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the journal of an Excel file, replaying the records left by a previous run. A journal is opened once and
+     * then shared, so later calls for the same file return the same journal.
+     *
+     * @param path     the normalized absolute path of the Excel file
+     * @param metadata the metadata of the row type
+     * @param config   the journal settings of the row type
+     * @param target   the owner of the Excel file, writing the compacted file
+     * @param <T>      the type of the rows
+     * @return the journal of the file
+     * @throws IllegalStateException if the journal of the file is used with another entity class
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Excel> Journal<T> open(Path path, ExcelMetadata<T> metadata, ExcelJournal config,
+                                                    JournalTarget<T> target) {
+        Journal<?> journal = JOURNALS.computeIfAbsent(path, p -> {
+            try {
+                return new Journal<>(p, metadata, config, target);
+            } catch (IOException e) {
+                throw new RuntimeException("open journal failed, filename: " + p, e);
+            }
+        });
+        if (journal.metadata.getType() != metadata.getType()) {
+            throw new IllegalStateException("journal of " + path + " is used by entity class: "
+                    + journal.metadata.getType().getName());
+        }
+        return (Journal<T>) journal;
+    }
+
+    /**
+     * Journals rows appended to the end of the sheet. The row numbers of the inserted objects are set like an insert
+     * into the Excel file sets them.
+     *
+     * @param rows the inserted objects
+     */
+    public void insert(List<T> rows) {
+        List<T> copies = new ArrayList<>(rows.size());
+        Staged<T> record;
+        long stamp = lock.writeLock();
+        try {
+            int rowNum = Math.max(lastRowNum, 1);
+            for (T row : rows) {
+                T copy = metadata.copy(row);
+                copy.setRowNum(++rowNum);
+                copies.add(copy);
+            }
+            record = this.append(JournalRecord.insert(copies));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        this.commit(record);
+        for (int i = 0; i < rows.size(); i++) {
+            rows.get(i).setRowNum(copies.get(i).getRowNum());
+        }
+    }
+
+    /**
+     * Journals rows updated in place.
+     *
+     * @param rows the updated objects, carrying the row numbers of the rows to update
+     * @throws IllegalArgumentException if a row number is missing or beyond the last row
+     */
+    public void update(List<T> rows) {
+        this.update(() -> rows, false);
+    }
+
+    /**
+     * Journals rows updated in place, choosing the rows while the lock of the file is held, so no other change can
+     * come between choosing the rows and updating them. The records of other writers still syncing are synced and
+     * published first, so the rows are chosen from every change journaled before.
+     *
+     * @param rows supplies the updated objects, carrying the row numbers of the rows to update, under the lock of the
+     *             file
+     * @return the number of updated rows
+     * @throws IllegalArgumentException if a row number is missing or beyond the last row
+     */
+    public int update(Supplier<List<T>> rows) {
+        return this.update(rows, true);
+    }
+
+    /**
+     * Journals rows deleted one after another, each deletion shifting the rows below it up by one.
+     *
+     * @param rowNums the row numbers to delete, in the order they are deleted
+     * @throws IllegalArgumentException if a row number is missing or beyond the last row
+     */
+    public void delete(List<Integer> rowNums) {
+        this.delete(() -> rowNums, false);
+    }
+
+    /**
+     * Journals rows deleted one after another, choosing the rows while the lock of the file is held, so no other
+     * change can come between choosing the rows and deleting them. The records of other writers still syncing are
+     * synced and published first, so the rows are chosen from every change journaled before.
+     *
+     * @param rowNums supplies the row numbers to delete, in the order they are deleted, under the lock of the file
+     * @return the number of deleted rows
+     * @throws IllegalArgumentException if a row number is missing or beyond the last row
+     */
+    public int delete(Supplier<List<Integer>> rowNums) {
+        return this.delete(rowNums, true);
+    }
+
+    /**
+     * Checks if there are records not yet folded into the Excel file. Callers that hold the lock of the file get an
+     * exact answer; others must validate the answer against the lock.
+     *
+     * @return true if there are pending records
+     */
+    public boolean hasPending() {
+        return pendingCount > 0;
+    }
+
+    /**
+     * Applies the pending records to rows read from the Excel file. The caller must hold the lock of the file. The
+     * result is kept, so merging the same rows again only applies records journaled since.
+     *
+     * @param rows the rows of the Excel file, ordered by row number
+     * @return the rows with the pending records applied, which must not be modified
+     */
+    public synchronized List<T> merge(List<T> rows) {
+        if (rows != mergedBase) {
+            mergedBase = rows;
+            merged = rows;
+            mergedCount = 0;
+        }
+        for (; mergedCount < pending.size(); mergedCount++) {
+            merged = pending.get(mergedCount).toChange(metadata).apply(merged, RowListener.none());
+        }
+        return merged;
+    }
+
+    /**
+     * Folds the pending records into the Excel file right away.
+     *
+     * @throws RuntimeException if the Excel file cannot be written, the records stay journaled then
+     */
+    public void compact() {
+        long stamp = lock.writeLock();
+        try {
+            this.compactLocked();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Compact from the compactor thread, logging failures so the compaction is retried later
+     */
+    private void compactQuietly() {
+        queued.set(false);
+        if (pendingCount == 0) {
+            return;
+        }
+        try {
+            this.compact();
+        } catch (RuntimeException e) {
+            log.error("compact journal failed, filename: " + path, e);
+        }
+    }
+
+    /**
+     * Write the Excel file with the pending records applied, and replace the Excel file with it
+     */
+    private void compactLocked() {
+        // Clearing the journal file would lose the records still syncing, so sync and publish them first
+        this.publishStaged();
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<JournalRecord<T>> records = new ArrayList<>(pending);
+        int last;
+        try (FileOutputStream fileOut = new FileOutputStream(compactingPath.toFile())) {
+            OutputStream out = new BufferedOutputStream(fileOut);
+            last = target.write(records, out);
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            this.deleteCompacting();
+            throw new RuntimeException("compact journal failed, filename: " + path, e);
+        }
+        try {
+            // The commit point: from here on, a crash moves the compacted file into place instead of replaying
+            file.clear();
+        } catch (IOException e) {
+            // The compacted file is kept, so a restart finds it next to whatever the journal holds on disk
+            throw new RuntimeException("clear journal failed, filename: " + path, e);
+        }
+        try {
+            this.moveCompacting();
+        } catch (IOException e) {
+            this.restore(records, e);
+            throw new RuntimeException("replace file failed, filename: " + path, e);
+        }
+        pending.clear();
+        pendingCount = 0;
+        lastRowNum = last;
+        pendingLastRowNum = last;
+        synchronized (this) {
+            mergedBase = null;
+            merged = null;
+            mergedCount = 0;
+        }
+        target.compacted(records);
+    }
+
+    /**
+     * Journal records again after the journal was cleared but the compacted file could not be moved into place
+     */
+    private void restore(List<JournalRecord<T>> records, IOException cause) {
+        try {
+            long end = 0;
+            for (JournalRecord<T> record : records) {
+                end = file.append(codec.encode(record));
+            }
+            file.sync(end);
+            // Only now the records are safe again, until then a restart moves the compacted file into place
+            this.deleteCompacting();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Finish a compaction interrupted by a crash, and read the records journaled by a previous run
+     */
+    private void recover() throws IOException {
+        if (Files.exists(compactingPath)) {
+            if (file.isEmpty()) {
+                log.warn("finishing interrupted journal compaction: " + path);
+                this.moveCompacting();
+            } else {
+                Files.delete(compactingPath);
+            }
+        }
+        lastRowNum = target.readLastRowNum();
+        for (byte[] bytes : file.getRecovered()) {
+            JournalRecord<T> record = codec.decode(bytes);
+            pending.add(record);
+            lastRowNum = this.track(lastRowNum, record);
+        }
+        pendingLastRowNum = lastRowNum;
+        pendingCount = pending.size();
+        if (!pending.isEmpty()) {
+            log.info("replaying " + pending.size() + " journal records: " + path);
+            try {
+                this.compact();
+            } catch (RuntimeException e) {
+                // The records stay journaled and visible to reads, and the compactor tries again
+                log.error("replay journal failed, filename: " + path, e);
+            }
+        }
+    }
+
+    /**
+     * Journal updated rows, publishing the staged records first if the rows are chosen from the pending records
+     */
+    private int update(Supplier<List<T>> rows, boolean chosen) {
+        List<T> copies;
+        Staged<T> record;
+        long stamp = lock.writeLock();
+        try {
+            if (chosen) {
+                this.publishStaged();
+            }
+            List<T> updated = rows.get();
+            if (updated.isEmpty()) {
+                return 0;
+            }
+            copies = new ArrayList<>(updated.size());
+            for (T row : updated) {
+                this.checkRowNum(row.getRowNum(), lastRowNum);
+                copies.add(metadata.copy(row));
+            }
+            record = this.append(JournalRecord.update(copies));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        this.commit(record);
+        return copies.size();
+    }
+
+    /**
+     * Journal deleted rows, publishing the staged records first if the rows are chosen from the pending records
+     */
+    private int delete(Supplier<List<Integer>> rowNums, boolean chosen) {
+        List<Integer> deleted;
+        Staged<T> record;
+        long stamp = lock.writeLock();
+        try {
+            if (chosen) {
+                this.publishStaged();
+            }
+            deleted = new ArrayList<>(rowNums.get());
+            if (deleted.isEmpty()) {
+                return 0;
+            }
+            int last = lastRowNum;
+            for (Integer rowNum : deleted) {
+                this.checkRowNum(rowNum, last--);
+            }
+            record = this.append(JournalRecord.delete(deleted));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        this.commit(record);
+        return deleted.size();
+    }
+
+    /**
+     * Append a record to the journal file, staging it until its writer has synced it
+     */
+    private Staged<T> append(JournalRecord<T> record) {
+        byte[] bytes = codec.encode(record);
+        long start = file.position();
+        long end;
+        try {
+            end = file.append(bytes);
+        } catch (IOException e) {
+            this.truncateQuietly(start, e);
+            throw new RuntimeException("journal write failed, filename: " + path, e);
+        }
+        Staged<T> staged = new Staged<>(record, start, end);
+        this.staged.addLast(staged);
+        lastRowNum = this.track(lastRowNum, record);
+        return staged;
+    }
+
+    /**
+     * Wait until a staged record is synced and publish it, or drop the staged records and fail if the sync fails
+     */
+    private void commit(Staged<T> record) {
+        IOException failure = null;
+        try {
+            file.sync(record.end);
+        } catch (IOException e) {
+            failure = e;
+        }
+        long stamp = lock.writeLock();
+        try {
+            if (failure == null && !record.dropped) {
+                this.publish(record.end);
+            } else if (failure != null && !record.published && !record.dropped) {
+                this.drop(failure);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if (!record.published) {
+            throw new RuntimeException("journal sync failed, filename: " + path, failure);
+        }
+    }
+
+    /**
+     * Move the staged records up to the given synced position to the pending records
+     */
+    private void publish(long end) {
+        while (!staged.isEmpty() && staged.getFirst().end <= end) {
+            Staged<T> record = staged.removeFirst();
+            record.published = true;
+            pending.add(record.record);
+            pendingLastRowNum = this.track(pendingLastRowNum, record.record);
+        }
+        pendingCount = pending.size();
+        if (pending.size() >= compactRecords && queued.compareAndSet(false, true)) {
+            COMPACTOR.execute(this::compactQuietly);
+        }
+    }
+
+    /**
+     * Sync the staged records of all writers and publish them, or drop them if the sync fails. Their writers find
+     * their records published or dropped once they get the lock
+     */
+    private void publishStaged() {
+        if (staged.isEmpty()) {
+            return;
+        }
+        long end = staged.getLast().end;
+        try {
+            file.sync(end);
+            this.publish(end);
+        } catch (IOException e) {
+            this.drop(e);
+        }
+    }
+
+    /**
+     * Cut all staged records off the journal file after a failed sync, so none of them is replayed or compacted
+     */
+    private void drop(IOException cause) {
+        this.truncateQuietly(staged.getFirst().start, cause);
+        for (Staged<T> record : staged) {
+            record.dropped = true;
+        }
+        staged.clear();
+        lastRowNum = pendingLastRowNum;
+    }
+
+    /**
+     * Truncate the journal file back to a position, adding a failure to the cause of the truncation
+     */
+    private void truncateQuietly(long position, IOException cause) {
+        try {
+            file.truncate(position);
+        } catch (IOException e) {
+            // The records past the position may still be replayed by the next run
+            cause.addSuppressed(e);
+            log.error("truncate journal failed, filename: " + path, e);
+        }
+    }
+
+    /**
+     * Follow the last row number through a record
+     */
+    private int track(int last, JournalRecord<T> record) {
+        if (record.getOp() == JournalOpEnum.INSERT) {
+            for (T row : record.getRows()) {
+                last = Math.max(last, row.getRowNum());
+            }
+        } else if (record.getOp() == JournalOpEnum.DELETE) {
+            for (Integer rowNum : record.getRowNums()) {
+                if (rowNum <= last) {
+                    last--;
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Check that a row number refers to an existing row
+     */
+    private void checkRowNum(Integer rowNum, int last) {
+        if (rowNum == null || rowNum < 1 || rowNum > last) {
+            throw new IllegalArgumentException("row number out of range: " + rowNum + ", filename: " + path);
+        }
+    }
+
+    /**
+     * Move the compacted file over the Excel file
+     */
+    private void moveCompacting() throws IOException {
+        AtomicFiles.move(compactingPath, path);
+    }
+
+    /**
+     * Delete the compacted file, logging failures
+     */
+    private void deleteCompacting() {
+        try {
+            Files.deleteIfExists(compactingPath);
+        } catch (IOException e) {
+            log.warn("cannot delete file: " + compactingPath, e);
+        }
+    }
+
+    /**
+     * This class is a record written to the journal file whose writer has not yet synced it.
+     */
+    private static final class Staged<T extends Excel> {
+
+        // The record
+        private final JournalRecord<T> record;
+
+        // The logical positions of the start and the end of the record in the journal file
+        private final long start;
+        private final long end;
+
+        // Whether the record was moved to the pending records, or cut off after a failed sync, guarded by the lock
+        private boolean published;
+        private boolean dropped;
+
+        private Staged(JournalRecord<T> record, long start, long end) {
+            this.record = record;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.yohann.excel.journal;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * This class is an append-only file of records. Every record is framed by its length and a CRC32 checksum, so a
+ * record torn by a crash is detected and cut off when the file is opened again.
+ * <p>
+ * Appending and syncing are separate steps, and syncing is a group commit: a thread waiting to sync its record while
+ * another thread syncs finds its record synced along with the other one, so concurrent writers share one fsync.
+ */
+@Slf4j
+public class JournalFile implements Closeable {
+
+    /**
+     * The size of the frame before each record: the record length and its checksum.
+     */
+    private static final int FRAME_BYTES = 8;
+
+    // The channel of the journal file
+    private final FileChannel channel;
+
+    // The end of the last appended record in the file, guarded by this
+    private long writePosition;
+
+    // The logical position of the start of the file, growing whenever the file is cleared, guarded by this.
+    // Logical positions never move backwards, so a sync racing with a clear cannot mistake new records for synced.
+    private long offset;
+
+    // The logical end of the last record known to be on disk
+    private volatile long syncedPosition;
+
+    // The lock held while syncing, so only one thread syncs at a time
+    private final Object syncLock = new Object();
+
+    // The records found in the file when it was opened
+    private final List<byte[]> recovered;
+
+    JournalFile(FileChannel channel, long writePosition, List<byte[]> recovered) {
+        this.channel = channel;
+        this.writePosition = writePosition;
+        this.syncedPosition = writePosition;
+        this.recovered = recovered;
+    }
+
+    /**
+     * Opens a journal file, creating it if it does not exist. The intact records in the file are read, and a torn
+     * record at the end of the file is cut off.
+     *
+     * @param path the journal file
+     * @return the opened journal file
+     * @throws IOException if the file cannot be opened or read
+     */
+    public static JournalFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(path));
+            List<byte[]> records = new ArrayList<>();
+            CRC32 crc = new CRC32();
+            while (content.remaining() >= FRAME_BYTES) {
+                int length = content.getInt(content.position());
+                int checksum = content.getInt(content.position() + 4);
+                if (length < 0 || length > content.remaining() - FRAME_BYTES) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                content.position(content.position() + FRAME_BYTES);
+                content.get(record);
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    content.position(content.position() - FRAME_BYTES - length);
+                    break;
+                }
+                records.add(record);
+            }
+            long end = content.position();
+            if (end < channel.size()) {
+                log.warn("truncated torn journal record: " + path + " at " + end);
+                channel.truncate(end);
+                channel.force(true);
+            }
+            return new JournalFile(channel, end, records);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the records found in the file when it was opened.
+     *
+     * @return the recovered records in the order they were appended
+     */
+    public List<byte[]> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Appends a record. The record is not on disk before it is synced.
+     *
+     * @param record the record
+     * @return the logical end position of the record, to be passed to sync
+     * @throws IOException if the record cannot be written
+     */
+    public synchronized long append(byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_BYTES + record.length);
+        buffer.putInt(record.length).putInt((int) crc.getValue()).put(record).flip();
+        long position = writePosition;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        writePosition = position;
+        return offset + position;
+    }
+
+    /**
+     * Waits until all records up to the given position are on disk, syncing the file unless another thread already
+     * did.
+     *
+     * @param position the logical end position of the last record that must be on disk
+     * @throws IOException if the file cannot be synced
+     */
+    public void sync(long position) throws IOException {
+        if (syncedPosition >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedPosition >= position) {
+                return;
+            }
+            long target;
+            synchronized (this) {
+                target = offset + writePosition;
+            }
+            channel.force(false);
+            syncedPosition = Math.max(syncedPosition, target);
+        }
+    }
+
+    /**
+     * Returns the logical end position of the last appended record, where the next record starts.
+     *
+     * @return the logical position
+     */
+    public synchronized long position() {
+        return offset + writePosition;
+    }
+
+    /**
+     * Cuts off all records after a logical position and syncs the file. Positions handed out later still grow, so a
+     * sync of a record cut off cannot be mistaken for a sync of a record appended after the cut.
+     *
+     * @param position the logical position to cut the file at, the start of the first record to remove
+     * @throws IOException if the file cannot be truncated
+     */
+    public synchronized void truncate(long position) throws IOException {
+        long end = Math.max(position - offset, 0);
+        if (end > writePosition) {
+            return;
+        }
+        channel.truncate(end);
+        channel.force(true);
+        offset += writePosition - end;
+        writePosition = end;
+    }
+
+    /**
+     * Removes all records from the file and syncs it.
+     *
+     * @throws IOException if the file cannot be truncated
+     */
+    public synchronized void clear() throws IOException {
+        channel.truncate(0);
+        channel.force(true);
+        offset += writePosition;
+        writePosition = 0;
+    }
+
+    /**
+     * Checks if the file holds no records.
+     *
+     * @return true if the file is empty
+     */
+    public synchronized boolean isEmpty() {
+        return writePosition == 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,21 @@
+package org.yohann.excel.journal;
+
+/**
+ * An enumeration of the operations recorded in a journal.
+ */
+public enum JournalOpEnum {
+    /**
+     * Rows appended to the end of the sheet.
+     */
+    INSERT,
+
+    /**
+     * Rows updated in place, null values keeping the old cell values.
+     */
+    UPDATE,
+
+    /**
+     * Rows deleted one after another, each deletion shifting the rows below it up by one.
+     */
+    DELETE,
+}
@@ -0,0 +1,110 @@
+package org.yohann.excel.journal;
+
+import org.yohann.excel.cache.TableChange;
+import org.yohann.excel.cache.TableChanges;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metadata.ExcelMetadata;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is a single change recorded in a journal. Inserted and updated rows carry their row numbers, so a
+ * record applies to the sheet exactly the same way when it is compacted and when it is replayed.
+ *
+ * @param <T> the type of the rows
+ */
+public class JournalRecord<T extends Excel> {
+
+    // The recorded operation
+    private final JournalOpEnum op;
+
+    // The inserted or updated rows, empty for deletes
+    private final List<T> rows;
+
+    // The deleted row numbers in order, empty for inserts and updates
+    private final List<Integer> rowNums;
+
+    private JournalRecord(JournalOpEnum op, List<T> rows, List<Integer> rowNums) {
+        this.op = op;
+        this.rows = Collections.unmodifiableList(rows);
+        this.rowNums = Collections.unmodifiableList(rowNums);
+    }
+
+    /**
+     * Creates a record of inserted rows.
+     *
+     * @param rows the inserted rows, carrying their new row numbers
+     * @param <T>  the type of the rows
+     * @return the record
+     */
+    public static <T extends Excel> JournalRecord<T> insert(List<T> rows) {
+        return new JournalRecord<>(JournalOpEnum.INSERT, rows, Collections.emptyList());
+    }
+
+    /**
+     * Creates a record of updated rows.
+     *
+     * @param rows the updated rows, carrying the row numbers of the rows to update
+     * @param <T>  the type of the rows
+     * @return the record
+     */
+    public static <T extends Excel> JournalRecord<T> update(List<T> rows) {
+        return new JournalRecord<>(JournalOpEnum.UPDATE, rows, Collections.emptyList());
+    }
+
+    /**
+     * Creates a record of deleted rows.
+     *
+     * @param rowNums the row numbers to delete, in the order they are deleted
+     * @param <T>     the type of the rows
+     * @return the record
+     */
+    public static <T extends Excel> JournalRecord<T> delete(List<Integer> rowNums) {
+        return new JournalRecord<>(JournalOpEnum.DELETE, Collections.emptyList(), rowNums);
+    }
+
+    /**
+     * Returns the recorded operation.
+     *
+     * @return the operation
+     */
+    public JournalOpEnum getOp() {
+        return op;
+    }
+
+    /**
+     * Returns the inserted or updated rows.
+     *
+     * @return an unmodifiable list of the rows, empty for deletes
+     */
+    public List<T> getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the deleted row numbers.
+     *
+     * @return an unmodifiable list of the row numbers in the order they are deleted, empty for inserts and updates
+     */
+    public List<Integer> getRowNums() {
+        return rowNums;
+    }
+
+    /**
+     * Returns the change this record makes to the rows read from the Excel file.
+     *
+     * @param metadata the metadata of the row type
+     * @return the change
+     */
+    public TableChange<T> toChange(ExcelMetadata<T> metadata) {
+        switch (op) {
+            case INSERT:
+                return TableChanges.insert(rows, metadata);
+            case UPDATE:
+                return TableChanges.update(rows, metadata);
+            default:
+                return TableChanges.delete(rowNums, metadata);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.yohann.excel.journal;
+
+import org.yohann.excel.entity.Excel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * This interface is implemented by the owner of a journaled Excel file, so a journal can fold its records into the
+ * file without knowing how the file is read and written.
+ *
+ * @param <T> the type of the rows
+ */
+public interface JournalTarget<T extends Excel> {
+
+    /**
+     * Reads the row number of the last row of the Excel file. Rows are inserted after this row, and never before
+     * row 2, so a sheet without any row still keeps row 1 for the header.
+     *
+     * @return the row number of the last row, at least 1
+     * @throws IOException if the file cannot be read
+     */
+    int readLastRowNum() throws IOException;
+
+    /**
+     * Writes the Excel file with the given records applied to it. The Excel file itself is not changed.
+     *
+     * @param records the records, in the order they were journaled
+     * @param out     the stream receiving the changed file
+     * @return the row number of the last row of the changed file, at least 1
+     * @throws IOException if the file cannot be read or written
+     */
+    int write(List<JournalRecord<T>> records, OutputStream out) throws IOException;
+
+    /**
+     * Called after the changed file written by write has replaced the Excel file.
+     *
+     * @param records the records now part of the Excel file
+     */
+    void compacted(List<JournalRecord<T>> records);
+}
@@ -0,0 +1,83 @@
+package org.yohann.excel.journal;
+
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.metadata.RowCodec;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class turns journal records into bytes and back. A record is written as its operation followed by either the
+ * deleted row numbers or the rows, which are written by RowCodec.
+ *
+ * @param <T> the type of the rows
+ */
+class RecordCodec<T extends Excel> {
+
+    // The codec of the rows
+    private final RowCodec<T> rows;
+
+    RecordCodec(ExcelMetadata<T> metadata) {
+        this.rows = new RowCodec<>(metadata);
+    }
+
+    /**
+     * Encodes a record.
+     *
+     * @throws IllegalArgumentException if a value cannot be encoded
+     */
+    byte[] encode(JournalRecord<T> record) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(record.getOp().ordinal());
+            if (record.getOp() == JournalOpEnum.DELETE) {
+                out.writeInt(record.getRowNums().size());
+                for (Integer rowNum : record.getRowNums()) {
+                    out.writeInt(rowNum);
+                }
+            } else {
+                out.writeInt(record.getRows().size());
+                out.writeShort(rows.getFieldCount());
+                for (T row : record.getRows()) {
+                    rows.write(out, row);
+                }
+            }
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a record.
+     *
+     * @throws IOException if the bytes do not hold a record of the row type
+     */
+    JournalRecord<T> decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int op = in.readUnsignedByte();
+        if (op >= JournalOpEnum.values().length) {
+            throw new IOException("unknown journal operation: " + op);
+        }
+        JournalOpEnum type = JournalOpEnum.values()[op];
+        int size = in.readInt();
+        if (type == JournalOpEnum.DELETE) {
+            List<Integer> rowNums = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                rowNums.add(in.readInt());
+            }
+            return JournalRecord.delete(rowNums);
+        }
+        if (in.readShort() != rows.getFieldCount()) {
+            throw new IOException("journal does not match entity class");
+        }
+        List<T> decoded = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            decoded.add(rows.read(in));
+        }
+        return type == JournalOpEnum.INSERT ? JournalRecord.insert(decoded) : JournalRecord.update(decoded);
+    }
+}
@@ -0,0 +1,100 @@
+package org.yohann.excel.listener;
+
+import com.alibaba.excel.context.AnalysisContext;
+import com.alibaba.excel.event.AnalysisEventListener;
+import com.alibaba.excel.exception.ExcelAnalysisStopException;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metrics.OperationSample;
+import org.yohann.excel.query.Criteria;
+
+import java.util.function.Predicate;
+
+/**
+ * Event listener for reading Excel data using EasyExcel library, folding the rows matching the criteria into an
+ * aggregation instead of collecting them. Reading stops once the limit is reached or the aggregation needs no more
+ * rows.
+ *
+ * @param <T> the type of Excel data to read
+ */
+public class AggregateListener<T extends Excel> extends AnalysisEventListener<T> {
+
+    // The compiled predicate of the criteria
+    private final Predicate<T> predicate;
+
+    // The aggregation receiving the matching rows, returning false once it needs no more rows
+    private final Predicate<T> aggregation;
+
+    // Number of rows to skip
+    private int skip;
+
+    // Maximum number of rows still to read, or a value below 1 for no limit
+    private int limit;
+
+    // The sample counting the scanned and matched rows, or null if the rows are not counted
+    private final OperationSample sample;
+
+    // Whether reading stopped because the limit was reached or the aggregation needs no more rows
+    private boolean completed;
+
+    /**
+     * Constructs a new AggregateListener with the specified filtering criteria, compiled for the given entity class.
+     *
+     * @param criteria    the Criteria object used to filter the data
+     * @param clazz       the entity class of the rows
+     * @param aggregation the aggregation receiving the matching rows, returning false once it needs no more rows
+     * @param sample      the sample counting the scanned and matched rows, or null if the rows are not counted
+     */
+    public AggregateListener(Criteria criteria, Class<T> clazz, Predicate<T> aggregation,
+                             OperationSample sample) {
+        this.predicate = criteria.compile(clazz);
+        this.aggregation = aggregation;
+        this.skip = criteria.getSkip();
+        this.limit = criteria.getLimit();
+        this.sample = sample;
+    }
+
+    /**
+     * Checks if reading has stopped, after which no more rows are accepted.
+     *
+     * @return true if the limit has been reached or the aggregation needs no more rows
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * Invoked for every row of data read from the Excel file.
+     *
+     * @param data    the data read from the Excel file
+     * @param context the analysis context
+     */
+    @Override
+    public void invoke(T data, AnalysisContext context) {
+        data.setRowNum(context.readRowHolder().getRowIndex() + 1);
+        boolean matched = predicate.test(data);
+        if (sample != null) {
+            sample.addRowScanned(matched);
+        }
+        if (!matched) {
+            return;
+        }
+        if (skip > 0) {
+            skip--;
+            return;
+        }
+        if (!aggregation.test(data) || limit > 0 && --limit < 1) {
+            completed = true;
+            throw new ExcelAnalysisStopException("reading completed");
+        }
+    }
+
+    /**
+     * Invoked after all data has been read from the Excel file.
+     *
+     * @param context the analysis context
+     */
+    @Override
+    public void doAfterAllAnalysed(AnalysisContext context) {
+
+    }
+}
@@ -0,0 +1,101 @@
+package org.yohann.excel.listener;
+
+import com.alibaba.excel.context.AnalysisContext;
+import com.alibaba.excel.event.AnalysisEventListener;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.index.ZoneMap;
+import org.yohann.excel.metadata.ExcelField;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Event listener for reading Excel data using EasyExcel library, recording the row number of every n-th row read
+ * without collecting the rows. The recorded rows are the checkpoints of the sheet, counted the same way the rows are
+ * counted when skipping them. The values of the given fields are added to zone maps whose blocks are the rows from one
+ * checkpoint to the next, so only these fields need to be read.
+ *
+ * @param <T> the type of Excel data to read
+ */
+public class CheckpointListener<T extends Excel> extends AnalysisEventListener<T> {
+
+    // The number of rows from one recorded row to the next
+    private final int interval;
+
+    // The number of rows read
+    private int count;
+
+    // The row numbers of the recorded rows
+    private final List<Integer> rowNums = new ArrayList<>();
+
+    // The fields whose values are added to the zone maps
+    private final List<ExcelField> fields;
+
+    // The zone maps of the fields, in the order of the fields
+    private final List<ZoneMap> fieldZoneMaps = new ArrayList<>();
+
+    // The zone maps of the fields, keyed by field name
+    private final Map<String, ZoneMap> zoneMaps = new LinkedHashMap<>();
+
+    /**
+     * Constructs a new CheckpointListener.
+     *
+     * @param interval the number of rows from one recorded row to the next
+     * @param fields   the fields to keep zone maps of, which must support zone maps
+     */
+    public CheckpointListener(int interval, List<ExcelField> fields) {
+        this.interval = interval;
+        this.fields = fields;
+        for (ExcelField field : fields) {
+            ZoneMap zoneMap = new ZoneMap(field.getType(), interval);
+            fieldZoneMaps.add(zoneMap);
+            zoneMaps.put(field.getName(), zoneMap);
+        }
+    }
+
+    /**
+     * Gets the row numbers of the recorded rows.
+     *
+     * @return the row numbers of the rows read at ordinals 0, interval, 2 * interval, ...
+     */
+    public List<Integer> getRowNums() {
+        return rowNums;
+    }
+
+    /**
+     * Gets the zone maps of the fields.
+     *
+     * @return the zone maps, keyed by field name
+     */
+    public Map<String, ZoneMap> getZoneMaps() {
+        return zoneMaps;
+    }
+
+    /**
+     * Invoked for every row of data read from the Excel file.
+     *
+     * @param data    the data read from the Excel file
+     * @param context the analysis context
+     */
+    @Override
+    public void invoke(T data, AnalysisContext context) {
+        if (count++ % interval == 0) {
+            rowNums.add(context.readRowHolder().getRowIndex() + 1);
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            fieldZoneMaps.get(i).add(fields.get(i).get(data));
+        }
+    }
+
+    /**
+     * Invoked after all data has been read from the Excel file.
+     *
+     * @param context the analysis context
+     */
+    @Override
+    public void doAfterAllAnalysed(AnalysisContext context) {
+
+    }
+}
@@ -5,10 +5,12 @@ import com.alibaba.excel.event.AnalysisEventListener;
 import com.alibaba.excel.exception.ExcelAnalysisStopException;
 import com.alibaba.excel.read.metadata.holder.ReadRowHolder;
 import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metrics.OperationSample;
 import org.yohann.excel.query.Criteria;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * Event listener for reading Excel data using EasyExcel library.
@@ -32,12 +34,18 @@ public class DataListener<T extends Excel> extends AnalysisEventListener<T> {
     // Criteria object used to filter the data
     private Criteria criteria;
 
+    // The compiled predicate of the criteria
+    private Predicate<T> predicate;
+
     // Number of rows to skip
     private Integer skip;
 
     // Maximum number of rows to read
     private Integer limit;
 
+    // The sample counting the scanned and matched rows, or null if the rows are not counted
+    private OperationSample sample;
+
     /**
      * Constructs a new DataListener with no filtering criteria.
      */
@@ -55,6 +63,44 @@ public class DataListener<T extends Excel> extends AnalysisEventListener<T> {
         this.limit = criteria.getLimit();
     }
 
+    /**
+     * Constructs a new DataListener with the specified filtering criteria, compiled for the given entity class
+     * before the first row is read.
+     *
+     * @param criteria the Criteria object used to filter the data
+     * @param clazz    the entity class of the rows
+     * @param sample   the sample counting the scanned and matched rows, or null if the rows are not counted
+     */
+    public DataListener(Criteria criteria, Class<T> clazz, OperationSample sample) {
+        this(criteria);
+        this.predicate = criteria.compile(clazz);
+        this.sample = sample;
+    }
+
+    /**
+     * Constructs a new DataListener with the specified filtering criteria, compiled for the given entity class, that
+     * skips the given number of rows instead of the skip of the criteria. This is used when part of the rows to skip
+     * has been passed over without reading them.
+     *
+     * @param criteria the Criteria object used to filter the data
+     * @param clazz    the entity class of the rows
+     * @param skip     the number of matching rows to skip
+     * @param sample   the sample counting the scanned and matched rows, or null if the rows are not counted
+     */
+    public DataListener(Criteria criteria, Class<T> clazz, int skip, OperationSample sample) {
+        this(criteria, clazz, sample);
+        this.skip = skip;
+    }
+
+    /**
+     * Checks if the maximum number of rows has been read, after which no more rows are accepted.
+     *
+     * @return true if the criteria limits the rows and the limit has been reached
+     */
+    public boolean isCompleted() {
+        return criteria != null && criteria.getLimit() > 0 && limit < 1;
+    }
+
     /**
      * Invoked for every row of data read from the Excel file.
      *
@@ -73,11 +119,17 @@ public class DataListener<T extends Excel> extends AnalysisEventListener<T> {
         if (criteria == null) {
             // If no criteria is specified, add all data to the list
             dataList.add(data);
-        } else if (criteria.isMatch(data)) {
+            return;
+        }
+        boolean matched = getPredicate(data).test(data);
+        if (sample != null) {
+            sample.addRowScanned(matched);
+        }
+        if (matched) {
             // If the data matches the criteria, add it to the list
             if (skip > 0) {
                 skip--;
-            } else if (limit == 0) {
+            } else if (limit < 1) {
                 dataList.add(data);
             } else {
                 dataList.add(data);
@@ -90,6 +142,17 @@ public class DataListener<T extends Excel> extends AnalysisEventListener<T> {
         }
     }
 
+    /**
+     * Gets the compiled predicate of the criteria, compiling it for the class of the first row if needed.
+     */
+    @SuppressWarnings("unchecked")
+    private Predicate<T> getPredicate(T data) {
+        if (predicate == null) {
+            predicate = criteria.compile((Class<T>) data.getClass());
+        }
+        return predicate;
+    }
+
     /**
      * Invoked after all data has been read from the Excel file.
      *
@@ -0,0 +1,157 @@
+package org.yohann.excel.listener;
+
+import com.alibaba.excel.context.AnalysisContext;
+import com.alibaba.excel.metadata.CellExtra;
+import com.alibaba.excel.metadata.Head;
+import com.alibaba.excel.metadata.data.ReadCellData;
+import com.alibaba.excel.metadata.property.ExcelContentProperty;
+import com.alibaba.excel.read.listener.ReadListener;
+import com.alibaba.excel.read.metadata.holder.ReadSheetHolder;
+import com.alibaba.excel.util.ClassUtils;
+import com.alibaba.excel.util.ConverterUtils;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metadata.ExcelField;
+import org.yohann.excel.metadata.ExcelMetadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Event listener for reading Excel data using EasyExcel library, building the rows from the cells of the projected
+ * fields only and passing them on to another listener. It takes the place of EasyExcel's default listener, which
+ * converts the cells of all mapped fields, so the cells of the other fields are never converted. The projected cells
+ * are converted the same way the default listener converts them, and the row is built from the converted values by
+ * ExcelMetadata, through the row reader of the generated accessor if the entity class has one.
+ *
+ * @param <T> the type of Excel data to read
+ */
+public class ProjectionListener<T extends Excel> implements ReadListener<Map<Integer, ReadCellData<?>>> {
+
+    // The metadata of the entity class
+    private final ExcelMetadata<T> metadata;
+
+    // The projected fields
+    private final List<ExcelField> fields;
+
+    // The listener receiving the rows
+    private final ReadListener<T> delegate;
+
+    // The projected columns, resolved from the header map when the first row is read
+    private List<ProjectedColumn> columns;
+
+    /**
+     * Constructs a new ProjectionListener.
+     *
+     * @param metadata   the metadata of the entity class, which must be the head class of the read
+     * @param fieldNames the names of the fields to read
+     * @param delegate   the listener receiving the rows
+     * @throws IllegalArgumentException if a name does not belong to a mapped field
+     */
+    public ProjectionListener(ExcelMetadata<T> metadata, Collection<String> fieldNames, ReadListener<T> delegate) {
+        this.metadata = metadata;
+        this.fields = metadata.getFields(fieldNames);
+        this.delegate = delegate;
+    }
+
+    /**
+     * Invoked for every row of data read from the Excel file.
+     *
+     * @param cellDataMap the cells of the row, keyed by column index
+     * @param context     the analysis context
+     */
+    @Override
+    public void invoke(Map<Integer, ReadCellData<?>> cellDataMap, AnalysisContext context) {
+        ReadSheetHolder sheetHolder = context.readSheetHolder();
+        if (columns == null) {
+            columns = resolveColumns(sheetHolder);
+        }
+        Object[] values = new Object[metadata.getFields().size()];
+        Integer rowIndex = context.readRowHolder().getRowIndex();
+        for (ProjectedColumn column : columns) {
+            ReadCellData<?> cellData = cellDataMap.get(column.index);
+            if (cellData == null) {
+                continue;
+            }
+            values[column.position] = ConverterUtils.convertToJavaObject(cellData, column.head.getField(),
+                    column.property, sheetHolder.converterMap(), context, rowIndex, column.index);
+        }
+        delegate.invoke(metadata.newInstance(values), context);
+    }
+
+    /**
+     * Resolves the columns of the projected fields from the header map EasyExcel built for the head class.
+     */
+    private List<ProjectedColumn> resolveColumns(ReadSheetHolder sheetHolder) {
+        Class<?> headClass = sheetHolder.excelReadHeadProperty().getHeadClazz();
+        List<ProjectedColumn> columns = new ArrayList<>(fields.size());
+        for (Map.Entry<Integer, Head> entry : sheetHolder.excelReadHeadProperty().getHeadMap().entrySet()) {
+            Head head = entry.getValue();
+            for (ExcelField field : fields) {
+                if (field.getName().equals(head.getFieldName())) {
+                    ExcelContentProperty property = ClassUtils.declaredExcelContentProperty(null, headClass,
+                            head.getFieldName());
+                    columns.add(new ProjectedColumn(entry.getKey(), head, property,
+                            metadata.getFields().indexOf(field)));
+                }
+            }
+        }
+        return columns;
+    }
+
+    @Override
+    public void onException(Exception exception, AnalysisContext context) throws Exception {
+        delegate.onException(exception, context);
+    }
+
+    @Override
+    public void invokeHead(Map<Integer, ReadCellData<?>> headMap, AnalysisContext context) {
+        delegate.invokeHead(headMap, context);
+    }
+
+    @Override
+    public void extra(CellExtra extra, AnalysisContext context) {
+        delegate.extra(extra, context);
+    }
+
+    @Override
+    public boolean hasNext(AnalysisContext context) {
+        return delegate.hasNext(context);
+    }
+
+    /**
+     * Invoked after all data has been read from the Excel file.
+     *
+     * @param context the analysis context
+     */
+    @Override
+    public void doAfterAllAnalysed(AnalysisContext context) {
+        delegate.doAfterAllAnalysed(context);
+    }
+
+    /**
+     * This class binds a projected field to its column and to what EasyExcel needs to convert its cells.
+     */
+    private static class ProjectedColumn {
+
+        // The column index
+        private final int index;
+
+        // The head EasyExcel resolved for the column
+        private final Head head;
+
+        // The content property of the field, holding its converter and formats
+        private final ExcelContentProperty property;
+
+        // The position of the projected field among the mapped fields, which is the position of its value in a row
+        private final int position;
+
+        ProjectedColumn(int index, Head head, ExcelContentProperty property, int position) {
+            this.index = index;
+            this.head = head;
+            this.property = property;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.yohann.excel.listener;
+
+import com.alibaba.excel.context.AnalysisContext;
+import com.alibaba.excel.event.AnalysisEventListener;
+import com.alibaba.excel.exception.ExcelAnalysisStopException;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metrics.OperationSample;
+import org.yohann.excel.query.Criteria;
+import org.yohann.excel.stream.RowQueue;
+
+import java.util.function.Predicate;
+
+/**
+ * Event listener for reading Excel data using EasyExcel library, handing the rows matching the criteria to a
+ * consumer on another thread instead of collecting them. Reading stops once the limit is reached or the consumer is
+ * gone.
+ *
+ * @param <T> the type of Excel data to read
+ */
+public class StreamListener<T extends Excel> extends AnalysisEventListener<T> {
+
+    // The queue receiving the matching rows
+    private final RowQueue<T> queue;
+
+    // The compiled predicate of the criteria
+    private final Predicate<T> predicate;
+
+    // Number of rows to skip
+    private int skip;
+
+    // Maximum number of rows still to read, or a value below 1 for no limit
+    private int limit;
+
+    // The sample counting the scanned and matched rows, or null if the rows are not counted
+    private final OperationSample sample;
+
+    /**
+     * Constructs a new StreamListener with the specified filtering criteria, compiled for the given entity class.
+     *
+     * @param criteria the Criteria object used to filter the data
+     * @param clazz    the entity class of the rows
+     * @param queue    the queue receiving the matching rows
+     * @param sample   the sample counting the scanned and matched rows, or null if the rows are not counted
+     */
+    public StreamListener(Criteria criteria, Class<T> clazz, RowQueue<T> queue, OperationSample sample) {
+        this.queue = queue;
+        this.predicate = criteria.compile(clazz);
+        this.skip = criteria.getSkip();
+        this.limit = criteria.getLimit();
+        this.sample = sample;
+    }
+
+    /**
+     * Invoked for every row of data read from the Excel file.
+     *
+     * @param data    the data read from the Excel file
+     * @param context the analysis context
+     */
+    @Override
+    public void invoke(T data, AnalysisContext context) {
+        if (queue.isClosed()) {
+            // Stop reading the Excel file if nobody consumes the rows anymore
+            throw new ExcelAnalysisStopException("stream closed");
+        }
+        // Set the row number to the current row index + 1
+        data.setRowNum(context.readRowHolder().getRowIndex() + 1);
+        boolean matched = predicate.test(data);
+        if (sample != null) {
+            sample.addRowScanned(matched);
+        }
+        if (!matched) {
+            return;
+        }
+        if (skip > 0) {
+            skip--;
+            return;
+        }
+        if (!queue.put(data)) {
+            throw new ExcelAnalysisStopException("stream closed");
+        }
+        if (limit > 0 && --limit == 0) {
+            // Stop reading the Excel file if the maximum number of rows has been reached
+            throw new ExcelAnalysisStopException("reading completed");
+        }
+    }
+
+    /**
+     * Invoked after all data has been read from the Excel file.
+     *
+     * @param context the analysis context
+     */
+    @Override
+    public void doAfterAllAnalysed(AnalysisContext context) {
+
+    }
+
+}
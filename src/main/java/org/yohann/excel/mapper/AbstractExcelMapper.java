@@ -1,34 +1,71 @@
 package org.yohann.excel.mapper;
 
 import com.alibaba.excel.EasyExcel;
-import com.alibaba.excel.annotation.ExcelIgnore;
-import com.alibaba.excel.annotation.ExcelProperty;
-import com.alibaba.excel.annotation.format.DateTimeFormat;
-import com.alibaba.excel.util.DateUtils;
+import com.alibaba.excel.read.builder.ExcelReaderBuilder;
+import com.alibaba.excel.read.listener.ReadListener;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.poifs.filesystem.FileMagic;
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DateUtil;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellUtil;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.yohann.excel.aggregate.Aggregate;
 import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.cache.TableCache;
+import org.yohann.excel.cache.TableChanges;
+import org.yohann.excel.cache.TableIndexes;
+import org.yohann.excel.columnar.ColumnarFile;
 import org.yohann.excel.entity.Excel;
-import org.yohann.excel.io.CopyFileInputStream;
+import org.yohann.excel.index.BloomFilterFile;
+import org.yohann.excel.io.AtomicFiles;
 import org.yohann.excel.io.ReplaceFileOutputStream;
+import org.yohann.excel.journal.Journal;
+import org.yohann.excel.listener.AggregateListener;
 import org.yohann.excel.listener.DataListener;
 import org.yohann.excel.listener.HeaderListener;
+import org.yohann.excel.listener.ProjectionListener;
+import org.yohann.excel.listener.StreamListener;
+import org.yohann.excel.metadata.ExcelColumn;
+import org.yohann.excel.metadata.ExcelField;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.metadata.NonFiniteDoubleConverter;
+import org.yohann.excel.metadata.NonFiniteFloatConverter;
+import org.yohann.excel.metrics.Metrics;
+import org.yohann.excel.metrics.OperationSample;
+import org.yohann.excel.metrics.OperationTypeEnum;
 import org.yohann.excel.query.Criteria;
+import org.yohann.excel.query.Order;
+import org.yohann.excel.stream.CloseableIterator;
+import org.yohann.excel.stream.ExternalSorter;
+import org.yohann.excel.stream.FilterIterator;
+import org.yohann.excel.stream.QueueIterator;
+import org.yohann.excel.xlsx.PartTransformer;
+import org.yohann.excel.xlsx.RowXml;
+import org.yohann.excel.xlsx.SheetCheckpoints;
+import org.yohann.excel.xlsx.SheetSlice;
+import org.yohann.excel.xlsx.SheetXmlReader;
+import org.yohann.excel.xlsx.SheetXmlWriter;
+import org.yohann.excel.xlsx.XlsxPackage;
+import org.yohann.excel.xlsx.XlsxStyles;
 
 import java.io.*;
-import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
-import static com.alibaba.excel.support.ExcelTypeEnum.XLS;
-import static com.alibaba.excel.support.ExcelTypeEnum.XLSX;
 import static org.apache.poi.poifs.filesystem.FileMagic.OOXML;
 
 /**
@@ -39,6 +76,35 @@ import static org.apache.poi.poifs.filesystem.FileMagic.OOXML;
 @Slf4j
 public abstract class AbstractExcelMapper<T extends Excel> implements ExcelMapper<T> {
 
+    /**
+     * The maximum number of rows in a slice read by a page read that can seek.
+     */
+    private static final int MAX_SLICE_ROWS = 16 * SheetCheckpoints.INTERVAL;
+
+    /**
+     * The mapped classes of the mapper classes, read once from their generic superclasses.
+     */
+    private static final ClassValue<Class<?>> ENTITY_CLASSES = new ClassValue<Class<?>>() {
+        @Override
+        protected Class<?> computeValue(Class<?> type) {
+            Type superClass = type.getGenericSuperclass();
+            // If the superclass is not parameterized, throw an exception
+            if (superClass instanceof Class) {
+                throw new IllegalArgumentException("Internal error: TypeReference constructed without actual type information");
+            }
+            // The actual type argument is the class itself, or a parameterized type of it, so the class never has to
+            // be looked up by name in a class loader that may not see it
+            Type argument = ((ParameterizedType) superClass).getActualTypeArguments()[0];
+            if (argument instanceof ParameterizedType) {
+                argument = ((ParameterizedType) argument).getRawType();
+            }
+            if (!(argument instanceof Class)) {
+                throw new IllegalArgumentException("mapped class is not a class: " + argument.getTypeName());
+            }
+            return (Class<?>) argument;
+        }
+    };
+
     /**
      * The Class object of the generic type T.
      */
@@ -48,9 +114,46 @@ public abstract class AbstractExcelMapper<T extends Excel> implements ExcelMappe
      */
     protected final String _filePath;
     /**
-     * A volatile map that stores the header information of the Excel file.
+     * The cached field metadata of the generic type T.
+     */
+    protected final ExcelMetadata<T> _metadata;
+    /**
+     * The normalized absolute path of the Excel file.
+     */
+    protected final Path _path;
+    /**
+     * The cache holding the rows of the Excel file, or null if the mapped class neither enables caching nor has
+     * indexed fields.
+     */
+    protected final TableCache _cache;
+    /**
+     * The lock of the Excel file, shared by all mappers of the same file.
+     */
+    protected final StampedLock _lock;
+    /**
+     * The write-ahead journal of the Excel file, or null if the mapped class is not journaled.
+     */
+    protected final Journal<T> _journal;
+    /**
+     * The state of the Excel file shared by all mappers of the mapped class, holding what they learn about the file.
+     */
+    private final ExcelFileState<T> state;
+    /**
+     * The number of rows an ordered iteration without a limit holds in memory before spilling sorted runs.
+     */
+    private final int sortBufferRows;
+    /**
+     * The router spreading the rows over the shards of the Excel file, or null if the Excel file is not sharded.
+     */
+    private final ShardRouter<T> shards;
+    /**
+     * The cached rows, columnar copy, Bloom filters and checkpoints of the Excel file, kept in step with the file.
+     */
+    private final FileIndexes<T> indexes;
+    /**
+     * The journal of the writes of this mapper, or null if the mapped class is not journaled.
      */
-    protected volatile Map<String, Integer> headerMap;
+    private final MapperJournal<T> journal;
 
     /**
      * Constructor for the AbstractExcelMapper class.
@@ -59,212 +162,1440 @@ public abstract class AbstractExcelMapper<T extends Excel> implements ExcelMappe
      *
      * @throws IllegalArgumentException if there is an error with the reflection or file creation process.
      */
-    @SuppressWarnings("unchecked")
     public AbstractExcelMapper() {
-        // Get the generic superclass of the current class
-        Type superClass = this.getClass().getGenericSuperclass();
+        this(null, 0);
+    }
 
-        // If the superclass is not parameterized, throw an exception
-        if (superClass instanceof Class) {
-            throw new IllegalArgumentException("Internal error: TypeReference constructed without actual type information");
-        } else {
-            // Get the actual type argument of the superclass
-            Type argument = ((ParameterizedType) superClass).getActualTypeArguments()[0];
+    /**
+     * Constructor for the mapper of an Excel file or of one of its shards.
+     *
+     * @param entityClass the mapped class, or null to read it from the generic type T
+     * @param shard       the sequence number of the shard, or 0 for the Excel file itself
+     * @throws IllegalArgumentException if there is an error with the reflection or file creation process.
+     */
+    @SuppressWarnings("unchecked")
+    AbstractExcelMapper(Class<T> entityClass, int shard) {
+        Class<T> clazz = entityClass != null ? entityClass : (Class<T>) ENTITY_CLASSES.get(this.getClass());
+        // The annotations are parsed once per mapped class, later mappers share the state and only open the file
+        this.state = ExcelMapperRegistry.getState(clazz, shard);
+        try {
+            state.open();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        this._class = clazz;
+        this._filePath = state.getFilePath();
+        this._metadata = state.getMetadata();
+        this._path = state.getPath();
+        this._cache = state.getCache();
+        this._lock = state.getLock();
+        this.sortBufferRows = state.getSortBufferRows();
+        this.shards = state.getShards();
+        this.indexes = new FileIndexes<>(state, this::read);
+        // Open the journal last, replaying it needs the file
+        this.journal = state.getJournal() != null ? new MapperJournal<>(this, state, indexes) : null;
+        this._journal = journal != null ? journal.getJournal() : null;
+    }
+
+    @Override
+    public List<T> getAll() {
+        if (shards != null) {
+            return shards.get(new Criteria());
+        }
+        OperationSample sample = new OperationSample(_path, OperationTypeEnum.READ);
+        try {
+            if (_cache != null) {
+                return this.queryCache(new Criteria(), sample);
+            }
+            long stamp = this.readLock(sample);
+            try {
+                List<T> rows = indexes.readAll(sample);
+                if (this.hasJournaled()) {
+                    return this.query(journal.merge(rows), new Criteria(), sample);
+                }
+                sample.addRowsScanned(rows.size(), rows.size());
+                return rows;
+            } finally {
+                _lock.unlockRead(stamp);
+            }
+        } finally {
+            this.record(sample);
+        }
+    }
+
+    @Override
+    public List<T> get(Criteria criteria) {
+        if (shards != null) {
+            return shards.get(criteria);
+        }
+        OperationSample sample = new OperationSample(_path, OperationTypeEnum.QUERY);
+        try {
+            if (criteria.isOrdered()) {
+                return this.sort(criteria, sample);
+            }
+            if (_cache != null) {
+                return this.queryCache(criteria, sample);
+            }
+            long stamp = this.readLock(sample);
             try {
-                // Get the class of the actual type argument
-                Class<T> clazz = (Class<T>) Class.forName(argument.getTypeName());
-                // Get the ExcelFile annotation for the class, if it exists
-                ExcelFile fileName = clazz.getAnnotation(ExcelFile.class);
-                // Get the file path and name based on the annotation and class name
-                String path = Optional.ofNullable(fileName)
-                        .map(ExcelFile::path)
-                        .orElse("");
-                String filename = Optional.ofNullable(fileName)
-                        .map(excelFile -> {
-                            String name = excelFile.filename();
-                            // Make sure the file name does not contain a directory
-                            if (name.contains("\\") || name.contains("/")) {
-                                throw new IllegalArgumentException("file name must be not contains directory");
-                            }
-                            // Make sure the file type is either XLS or XLSX
-                            if ((!name.endsWith(XLS.getValue()) && !name.endsWith(XLSX.getValue()))) {
-                                throw new IllegalArgumentException("file type must be either XLS or XLSX");
-                            }
-                            return name;
-                        })
-                        .orElse(clazz.getSimpleName() + XLSX.getValue());
-                // Combine the path and filename into a full file path
-                String filePath = path.equals("") ? filename : path + "/" + filename;
-
-                // Set the class and file path variables
-                this._class = clazz;
-                this._filePath = filePath;
-
-                File directory = new File(path);
-                File file = new File(filePath);
-                // If the file does not exist, create a new Excel file with the header row
-                if (!file.exists()) {
-                    if (directory.mkdirs()) {
-                        log.info("created directory: " + directory);
+                if (this.hasJournaled()) {
+                    return this.query(journal.merge(indexes.readAll(sample)), criteria, sample);
+                }
+                if (indexes.rulesOut(criteria, sample)) {
+                    return new ArrayList<>();
+                }
+                ColumnarFile<T> columnarFile = indexes.getColumnar(sample);
+                if (columnarFile != null) {
+                    List<T> rows = new ArrayList<>();
+                    this.scan(columnarFile, criteria, criteria.getProjection(), sample, rows::add);
+                    return rows;
+                }
+                DataListener<T> listener = new DataListener<>(criteria, _class, sample);
+                if (this.readBlocks(criteria, criteria.getProjection(), listener, listener::isCompleted, sample)) {
+                    return listener.getDataList();
+                }
+                if (this.canSeek(criteria)) {
+                    List<T> page = this.readPage(criteria, sample);
+                    if (page != null) {
+                        return page;
+                    }
+                }
+                sample.addBytesRead(this.fileSize());
+                this.read(EasyExcel.read(_filePath), criteria.getProjection(), listener);
+                return listener.getDataList();
+            } catch (IOException e) {
+                throw new RuntimeException("read failed, filename: " + _filePath, e);
+            } finally {
+                _lock.unlockRead(stamp);
+            }
+        } finally {
+            this.record(sample);
+        }
+    }
+
+    @Override
+    public CloseableIterator<T> iterate(Criteria criteria) {
+        if (shards != null) {
+            return shards.iterate(criteria);
+        }
+        OperationSample sample = new OperationSample(_path, OperationTypeEnum.ITERATE);
+        // A read of the file on another thread reports the sample once it has read the last row
+        boolean handedOver = false;
+        try {
+            if (criteria.isOrdered()) {
+                return this.iterateSorted(criteria, sample);
+            }
+            Path snapshot;
+            ColumnarFile<T> columnarFile;
+            long stamp = this.readLock(sample);
+            try {
+                // Rows held in memory are never changed, so iterating them needs no lock
+                if (_cache != null) {
+                    List<T> rows = this.getCachedRows(sample);
+                    rows = this.hasJournaled() ? journal.merge(rows) : this.selectRows(rows, criteria);
+                    return this.iterate(rows, criteria);
+                } else if (this.hasJournaled()) {
+                    return this.iterate(journal.merge(indexes.readAll(sample)), criteria);
+                } else if (indexes.rulesOut(criteria, sample)) {
+                    return this.iterate(Collections.emptyList(), criteria);
+                }
+                columnarFile = indexes.getColumnar(sample);
+                snapshot = columnarFile == null ? AtomicFiles.snapshot(_path) : null;
+            } catch (IOException e) {
+                throw new RuntimeException("read failed, filename: " + _filePath, e);
+            } finally {
+                _lock.unlockRead(stamp);
+            }
+            if (columnarFile != null) {
+                // The columnar file stays mapped when it is replaced, so it is scanned on another thread like a snapshot
+                CloseableIterator<T> iterator = QueueIterator.start(QueueIterator.DEFAULT_CAPACITY, queue -> {
+                    try {
+                        this.scan(columnarFile, criteria, criteria.getProjection(), sample,
+                                row -> !queue.isClosed() && queue.put(row));
+                    } finally {
+                        this.record(sample);
                     }
-                    if (file.createNewFile()) {
-                        EasyExcel.write(file)
-                                .head(_class)
-                                .excelType(filePath.endsWith(XLS.getValue()) ? XLS : XLSX)
-                                .sheet()
-                                .doWrite(Collections.emptyList());
-                        log.info("created file: " + filePath);
+                });
+                handedOver = true;
+                return iterator;
+            }
+            // Read the snapshot on another thread, so the file can be replaced while the rows are consumed
+            CloseableIterator<T> iterator = QueueIterator.start(QueueIterator.DEFAULT_CAPACITY, queue -> {
+                try {
+                    sample.addBytesRead(snapshot.toFile().length());
+                    this.read(EasyExcel.read(snapshot.toFile()), criteria.getProjection(),
+                            new StreamListener<>(criteria, _class, queue, sample));
+                } finally {
+                    try {
+                        Files.deleteIfExists(snapshot);
+                    } catch (IOException e) {
+                        log.warn("cannot delete file: " + snapshot, e);
                     }
+                    this.record(sample);
                 }
-            } catch (ClassNotFoundException | IOException e) {
-                throw new IllegalArgumentException(e.getMessage(), e);
+            });
+            handedOver = true;
+            return iterator;
+        } finally {
+            if (!handedOver) {
+                this.record(sample);
             }
         }
     }
 
     @Override
-    public synchronized List<T> getAll() {
-        DataListener<T> listener = new DataListener<>();
-        EasyExcel.read(_filePath)
-                .sheet()
-                .head(_class)
-                .registerReadListener(listener)
-                .doRead();
-        return listener.getDataList();
+    public boolean exists(Criteria criteria) {
+        if (shards != null) {
+            return shards.exists(criteria);
+        }
+        OperationSample sample = new OperationSample(_path, OperationTypeEnum.AGGREGATE);
+        try {
+            boolean[] found = new boolean[1];
+            this.scan(criteria, Collections.emptySet(), sample, row -> {
+                found[0] = true;
+                return false;
+            });
+            return found[0];
+        } finally {
+            this.record(sample);
+        }
+    }
+
+    @Override
+    public Aggregate aggregate(String fieldName, Criteria criteria) {
+        if (shards != null) {
+            return shards.aggregate(fieldName, criteria);
+        }
+        OperationSample sample = new OperationSample(_path, OperationTypeEnum.AGGREGATE);
+        try {
+            ExcelField field = fieldName == null ? null : this.getField(fieldName);
+            Aggregate aggregate = new Aggregate();
+            this.scan(criteria, this.fieldNames(field), sample, row -> {
+                aggregate.add(field == null ? null : field.get(row));
+                return true;
+            });
+            return aggregate;
+        } finally {
+            this.record(sample);
+        }
+    }
+
+    @Override
+    public Map<Object, Aggregate> aggregate(String groupFieldName, String fieldName, Criteria criteria) {
+        if (shards != null) {
+            return shards.aggregate(groupFieldName, fieldName, criteria);
+        }
+        OperationSample sample = new OperationSample(_path, OperationTypeEnum.AGGREGATE);
+        try {
+            ExcelField groupField = this.getField(groupFieldName);
+            ExcelField field = fieldName == null ? null : this.getField(fieldName);
+            Map<Object, Aggregate> groups = new LinkedHashMap<>();
+            this.scan(criteria, this.fieldNames(groupField, field), sample, row -> {
+                groups.computeIfAbsent(groupField.get(row), group -> new Aggregate())
+                        .add(field == null ? null : field.get(row));
+                return true;
+            });
+            return groups;
+        } finally {
+            this.record(sample);
+        }
+    }
+
+    @Override
+    public void insertBatch(List<T> list) {
+        if (shards != null) {
+            shards.insertBatch(list);
+            return;
+        }
+        OperationSample sample = new OperationSample(_path, OperationTypeEnum.INSERT);
+        try {
+            if (journal != null) {
+                journal.insert(list, sample);
+                return;
+            }
+            long stamp = this.writeLock(sample);
+            try {
+                FileIndexes.Snapshot<T> before = indexes.snapshot();
+                sample.addBytesRead(this.fileSize());
+                try {
+                    if (FileMagic.valueOf(new File(_filePath)) == OOXML) {
+                        this.appendXlsx(list);
+                    } else {
+                        this.appendWorkbook(list);
+                    }
+                } catch (Exception e) {
+                    indexes.invalidateCache();
+                    throw new RuntimeException("insert failed, filename: " + _filePath, e);
+                }
+                sample.addRowsWritten(list.size());
+                sample.addBytesWritten(this.fileSize());
+                indexes.applyWrite(before, TableChanges.insert(list, _metadata), list);
+            } finally {
+                _lock.unlockWrite(stamp);
+            }
+        } finally {
+            this.record(sample);
+        }
+    }
+
+    @Override
+    public void updateBatch(List<T> list) {
+        if (shards != null) {
+            shards.updateBatch(list);
+            return;
+        }
+        OperationSample sample = new OperationSample(_path, OperationTypeEnum.UPDATE);
+        try {
+            if (journal != null) {
+                journal.update(list, sample);
+                return;
+            }
+            long stamp = this.writeLock(sample);
+            try {
+                this.updateRows(list, sample);
+            } finally {
+                _lock.unlockWrite(stamp);
+            }
+        } finally {
+            this.record(sample);
+        }
+    }
+
+    @Override
+    public long update(Criteria criteria, Consumer<T> mutator) {
+        if (shards != null) {
+            return shards.update(criteria, mutator);
+        }
+        OperationSample sample = new OperationSample(_path, OperationTypeEnum.UPDATE);
+        try {
+            if (journal != null) {
+                return journal.update(criteria, mutator, sample);
+            }
+            long stamp = this.writeLock(sample);
+            try {
+                if (_cache != null || indexes.freshColumnar() != null
+                        || FileMagic.valueOf(new File(_filePath)) != OOXML) {
+                    // The cached rows, the columnar file or the workbook hold all rows in memory anyway
+                    List<T> rows = new ArrayList<>();
+                    this.scanRowsLocked(criteria, null, sample, row -> rows.add(this.mutate(row, mutator)));
+                    this.updateRows(rows, sample);
+                    return rows.size();
+                }
+                // The updated rows are spooled through a sorter, which spills them to temporary files once more rows
+                // than the sort buffer holds are updated, and merged into the sheet in one pass
+                try (ExternalSorter<T> sorter = new ExternalSorter<>(_path, _metadata,
+                        Comparator.comparingInt(Excel::getRowNum), sortBufferRows)) {
+                    BloomFilterFile bloomFilters = indexes.freshBloomFilters();
+                    long[] count = new long[1];
+                    this.scanRowsLocked(criteria, null, sample, row -> {
+                        T updated = this.mutate(row, mutator);
+                        sorter.add(updated);
+                        if (bloomFilters != null) {
+                            // Adding the values before the file is written only adds false positives if it fails
+                            bloomFilters.addAll(Collections.singletonList(updated));
+                        }
+                        count[0]++;
+                        return true;
+                    });
+                    if (count[0] > 0) {
+                        sample.addBytesRead(this.fileSize());
+                        this.updateXlsx(sorter.iterator());
+                        sample.addRowsWritten(count[0]);
+                        sample.addBytesWritten(this.fileSize());
+                        indexes.applyToBloomFilters(bloomFilters);
+                    }
+                    return count[0];
+                }
+            } catch (IOException | UncheckedIOException e) {
+                throw new RuntimeException("update failed, filename: " + _filePath, e);
+            } finally {
+                _lock.unlockWrite(stamp);
+            }
+        } finally {
+            this.record(sample);
+        }
     }
 
     @Override
-    public synchronized List<T> get(Criteria criteria) {
-        DataListener<T> listener = new DataListener<>(criteria);
-        EasyExcel.read(_filePath)
-                .sheet()
+    public void deleteBatch(List<Integer> rowNumList) {
+        if (shards != null) {
+            shards.deleteBatch(rowNumList);
+            return;
+        }
+        OperationSample sample = new OperationSample(_path, OperationTypeEnum.DELETE);
+        try {
+            int[] rowNums = distinctRowNums(rowNumList);
+            if (journal != null) {
+                journal.delete(rowNums, sample);
+                return;
+            }
+            long stamp = this.writeLock(sample);
+            try {
+                this.deleteRows(rowNums, sample);
+            } finally {
+                _lock.unlockWrite(stamp);
+            }
+        } finally {
+            this.record(sample);
+        }
+    }
+
+    @Override
+    public long delete(Criteria criteria) {
+        if (shards != null) {
+            return shards.delete(criteria);
+        }
+        OperationSample sample = new OperationSample(_path, OperationTypeEnum.DELETE);
+        try {
+            if (journal != null) {
+                return journal.delete(criteria, sample);
+            }
+            long stamp = this.writeLock(sample);
+            try {
+                int[] rowNums = this.matchedRowNums(criteria, sample);
+                this.deleteRows(rowNums, sample);
+                return rowNums.length;
+            } finally {
+                _lock.unlockWrite(stamp);
+            }
+        } finally {
+            this.record(sample);
+        }
+    }
+
+    /**
+     * Fold the journaled changes into the Excel file right away. Nothing happens if the mapped class is not
+     * journaled.
+     */
+    public void flush() {
+        if (shards != null) {
+            shards.flush();
+        }
+        if (journal != null) {
+            OperationSample sample = new OperationSample(_path, OperationTypeEnum.FLUSH);
+            try {
+                journal.flush();
+            } finally {
+                this.record(sample);
+            }
+        }
+    }
+
+    /**
+     * Take the read lock of the file, counting the time spent waiting for it
+     */
+    private long readLock(OperationSample sample) {
+        long start = System.nanoTime();
+        long stamp = _lock.readLock();
+        sample.addLockWaitNanos(System.nanoTime() - start);
+        return stamp;
+    }
+
+    /**
+     * Take the write lock of the file, counting the time spent waiting for it
+     */
+    private long writeLock(OperationSample sample) {
+        long start = System.nanoTime();
+        long stamp = _lock.writeLock();
+        sample.addLockWaitNanos(System.nanoTime() - start);
+        return stamp;
+    }
+
+    /**
+     * Report a finished operation to the installed metrics. Metrics that fail are logged, never failing the operation
+     */
+    private void record(OperationSample sample) {
+        sample.stop();
+        try {
+            Metrics.get().record(sample);
+        } catch (RuntimeException e) {
+            log.warn("cannot record metrics, filename: " + _filePath, e);
+        }
+    }
+
+    /**
+     * Get the size of the Excel file, or 0 if it cannot be read. The size is only reported to the metrics
+     */
+    private long fileSize() {
+        return new File(_filePath).length();
+    }
+
+    /**
+     * Check if a query can start reading at a checkpoint of the sheet: it resumes after a row number, or skips past
+     * at least one checkpoint without filtering rows, and the Excel file is an xlsx file
+     */
+    private boolean canSeek(Criteria criteria) throws IOException {
+        boolean deep = criteria.getAfter() != null
+                || !criteria.hasMatchers() && criteria.getSkip() >= SheetCheckpoints.INTERVAL;
+        return deep && FileMagic.valueOf(new File(_filePath)) == OOXML;
+    }
+
+    /**
+     * Read a page of rows from an xlsx file, starting at the checkpoint nearest to the first row after the row
+     * number of the criteria, or to the first row after the rows to skip, and reading growing slices of the sheet
+     * until the page is full. Returns null if the sheet cannot be seeked in
+     */
+    private List<T> readPage(Criteria criteria, OperationSample sample) throws IOException {
+        SheetCheckpoints checkpoints = indexes.getCheckpoints(sample);
+        if (!checkpoints.isSeekable()) {
+            return null;
+        }
+        Integer after = criteria.getAfter();
+        int skip = criteria.getSkip();
+        int limit = criteria.getLimit();
+        long offset = 0;
+        if (after != null) {
+            int index = checkpoints.floorRowNum((int) Math.min(after + 1L, Integer.MAX_VALUE));
+            if (index >= 0) {
+                offset = checkpoints.getOffset(index);
+            }
+        } else {
+            int index = checkpoints.floorOrdinal(skip);
+            if (index >= 0) {
+                offset = checkpoints.getOffset(index);
+                skip -= checkpoints.getOrdinal(index);
+            }
+        }
+        DataListener<T> listener = new DataListener<>(criteria, _class, skip, sample);
+        File file = new File(_filePath);
+        // Without matchers the first slice holds just the page unless rows are empty, later slices grow
+        long rows = limit > 0 && !criteria.hasMatchers() ? Math.max(skip, 0) + (long) limit : SheetCheckpoints.INTERVAL;
+        while (offset >= 0 && !listener.isCompleted()) {
+            ByteArrayOutputStream slice = new ByteArrayOutputStream();
+            offset = SheetSlice.write(file, offset, after != null ? after : 0, (int) Math.min(rows, MAX_SLICE_ROWS),
+                    slice);
+            sample.addBytesRead(slice.size());
+            this.read(EasyExcel.read(new ByteArrayInputStream(slice.toByteArray())), criteria.getProjection(),
+                    listener);
+            rows *= 4;
+        }
+        return listener.getDataList();
+    }
+
+    /**
+     * Read the rows of an xlsx file that may match the criteria into a listener, reading only the blocks of rows from
+     * one checkpoint to the next that the zone maps of the matched fields do not rule out. Returns false without
+     * reading any rows if the criteria matches no field with a zone map, the sheet cannot be seeked in, or the zone
+     * maps rule out less than half of the blocks, so reading the whole file is cheaper
+     */
+    private boolean readBlocks(Criteria criteria, Set<String> projection, ReadListener<T> listener,
+                               BooleanSupplier completed, OperationSample sample) throws IOException {
+        boolean zoned = false;
+        for (ExcelField field : indexes.getZoneFields()) {
+            zoned |= criteria.getMatchedFields().contains(field.getName());
+        }
+        if (!zoned || FileMagic.valueOf(new File(_filePath)) != OOXML) {
+            return false;
+        }
+        SheetCheckpoints checkpoints = indexes.getCheckpoints(sample);
+        BitSet blocks = checkpoints.isSeekable() ? criteria.selectBlocks(checkpoints::getZoneMap) : null;
+        if (blocks == null) {
+            return false;
+        }
+        // The blocks before the one holding the first row after the row number of the criteria hold no rows to read
+        Integer after = criteria.getAfter();
+        int first = after == null ? 0 : Math.max(checkpoints.floorRowNum((int) Math.min(after + 1L, Integer.MAX_VALUE)), 0);
+        blocks.clear(0, first);
+        if (blocks.cardinality() * 2L > checkpoints.size() - first) {
+            return false;
+        }
+        File file = new File(_filePath);
+        for (int block = blocks.nextSetBit(first); block >= 0 && !completed.getAsBoolean();
+             block = blocks.nextSetBit(block)) {
+            // Adjacent blocks are read in one slice
+            int end = blocks.nextClearBit(block);
+            ByteArrayOutputStream slice = new ByteArrayOutputStream();
+            SheetSlice.writeRange(file, checkpoints.getOffset(block), after != null ? after : 0,
+                    end < checkpoints.size() ? checkpoints.getRowNum(end) : Integer.MAX_VALUE, slice);
+            sample.addBytesRead(slice.size());
+            this.read(EasyExcel.read(new ByteArrayInputStream(slice.toByteArray())), projection, listener);
+            block = end;
+        }
+        return true;
+    }
+
+    /**
+     * Query the rows that match the criteria in the order of the criteria. With a limit, a heap keeps only the rows
+     * up to the limit while the rows are scanned, otherwise all matching rows are collected and sorted
+     */
+    private List<T> sort(Criteria criteria, OperationSample sample) {
+        Comparator<T> comparator = criteria.comparator(_class);
+        UnaryOperator<T> copier = this.copier(criteria);
+        Criteria unpaged = criteria.copy().setSkip(0).setLimit(-1);
+        int skip = Math.max(criteria.getSkip(), 0);
+        List<T> rows;
+        if (criteria.getLimit() > 0) {
+            int size = (int) Math.min((long) skip + criteria.getLimit(), Integer.MAX_VALUE);
+            // The heap is ordered in reverse, so its head is the row the next better row replaces
+            PriorityQueue<T> heap = new PriorityQueue<>(comparator.reversed());
+            this.scan(unpaged, criteria.getProjection(), sample, row -> {
+                if (heap.size() < size) {
+                    heap.add(copier.apply(row));
+                } else if (comparator.compare(row, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(copier.apply(row));
+                }
+                return true;
+            });
+            rows = new ArrayList<>(heap);
+        } else {
+            List<T> all = new ArrayList<>();
+            this.scan(unpaged, criteria.getProjection(), sample, row -> all.add(copier.apply(row)));
+            rows = all;
+        }
+        rows.sort(comparator);
+        return skip >= rows.size() ? new ArrayList<>() : new ArrayList<>(rows.subList(skip, rows.size()));
+    }
+
+    /**
+     * Iterate over the rows that match the criteria in the order of the criteria. Without a limit, the rows are sorted
+     * by an external sort that spills sorted runs to temporary files once more rows than the sort buffer holds are
+     * matched, and the runs are merged while the rows are consumed
+     */
+    private CloseableIterator<T> iterateSorted(Criteria criteria, OperationSample sample) {
+        if (criteria.getLimit() > 0) {
+            return new FilterIterator<>(this.sort(criteria, sample).iterator(), row -> true, 0, -1, UnaryOperator.identity());
+        }
+        ExternalSorter<T> sorter = new ExternalSorter<>(_path, _metadata, criteria.comparator(_class), sortBufferRows);
+        UnaryOperator<T> copier = this.copier(criteria);
+        try {
+            this.scan(criteria.copy().setSkip(0), criteria.getProjection(), sample, row -> {
+                sorter.add(copier.apply(row));
+                return true;
+            });
+            return new FilterIterator<>(sorter.iterator(), row -> true, Math.max(criteria.getSkip(), 0), -1,
+                    UnaryOperator.identity());
+        } catch (IOException | UncheckedIOException e) {
+            sorter.close();
+            throw new RuntimeException("sort failed, filename: " + _filePath, e);
+        } catch (RuntimeException e) {
+            sorter.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Pass the rows that match the criteria to a consumer without collecting them, reading only the given fields and
+     * the matched fields from the file, or all fields if no fields are given. A page of ordered rows is cut from the
+     * sorted rows. The consumer returns false to stop the scan
+     */
+    private void scan(Criteria criteria, Set<String> fieldNames, OperationSample sample, Predicate<T> consumer) {
+        if (criteria.isOrdered() && (criteria.getSkip() > 0 || criteria.getLimit() > 0)) {
+            // Which rows are on the page depends on the order, so the page is sorted first
+            for (T row : this.sort(criteria, sample)) {
+                if (!consumer.test(row)) {
+                    return;
+                }
+            }
+            return;
+        }
+        long stamp = this.readLock(sample);
+        try {
+            this.scanLocked(criteria, fieldNames, sample, consumer);
+        } finally {
+            _lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Pass the rows that match the criteria to a consumer like scan, for a caller that already holds the lock of the
+     * file. The criteria must not select a page of ordered rows
+     */
+    private void scanLocked(Criteria criteria, Set<String> fieldNames, OperationSample sample,
+                            Predicate<T> consumer) {
+        if (_cache != null) {
+            List<T> rows = this.getCachedRows(sample);
+            this.scan(this.hasJournaled() ? journal.merge(rows) : this.selectRows(rows, criteria), criteria, sample,
+                    consumer);
+        } else if (this.hasJournaled()) {
+            this.scan(journal.merge(indexes.readAll(sample)), criteria, sample, consumer);
+        } else if (!indexes.rulesOut(criteria, sample)) {
+            Set<String> projection = null;
+            if (fieldNames != null) {
+                projection = new LinkedHashSet<>(fieldNames);
+                projection.addAll(criteria.getMatchedFields());
+            }
+            ColumnarFile<T> columnarFile = indexes.getColumnar(sample);
+            if (columnarFile != null) {
+                this.scan(columnarFile, criteria, projection, sample, consumer);
+                return;
+            }
+            AggregateListener<T> listener = new AggregateListener<>(criteria, _class, consumer, sample);
+            try {
+                if (this.readBlocks(criteria, projection, listener, listener::isCompleted, sample)) {
+                    return;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("read failed, filename: " + _filePath, e);
+            }
+            sample.addBytesRead(this.fileSize());
+            this.read(EasyExcel.read(_filePath), projection, listener);
+        }
+    }
+
+    /**
+     * Get the numbers of the rows that match the criteria in ascending order, converting no more fields than the
+     * criteria needs to match and order the rows. The caller must hold the lock of the file
+     */
+    int[] matchedRowNums(Criteria criteria, OperationSample sample) {
+        List<Integer> rowNumList = new ArrayList<>();
+        this.scanRowsLocked(criteria, Collections.emptySet(), sample, row -> rowNumList.add(row.getRowNum()));
+        return distinctRowNums(rowNumList);
+    }
+
+    /**
+     * Pass the rows that match the criteria to a consumer in row number order, for a caller that already holds the
+     * lock of the file. A page of ordered rows is cut from the sorted rows, converting only the order fields besides
+     * the given fields
+     */
+    void scanRowsLocked(Criteria criteria, Set<String> fieldNames, OperationSample sample,
+                        Predicate<T> consumer) {
+        if (!criteria.isOrdered() || criteria.getSkip() <= 0 && criteria.getLimit() <= 0) {
+            this.scanLocked(criteria, fieldNames, sample, consumer);
+            return;
+        }
+        // Which rows are on the page depends on the order, so the matching rows are sorted first
+        Set<String> sortFields = null;
+        if (fieldNames != null) {
+            sortFields = new LinkedHashSet<>(fieldNames);
+            for (Order order : criteria.getOrders()) {
+                sortFields.add(order.getFieldName());
+            }
+        }
+        List<T> rows = new ArrayList<>();
+        this.scanLocked(criteria.copy().setSkip(0).setLimit(-1), sortFields, sample, rows::add);
+        rows.sort(criteria.comparator(_class));
+        int from = Math.min(Math.max(criteria.getSkip(), 0), rows.size());
+        int to = criteria.getLimit() > 0 ? (int) Math.min((long) from + criteria.getLimit(), rows.size())
+                : rows.size();
+        List<T> page = new ArrayList<>(rows.subList(from, to));
+        page.sort(Comparator.comparingInt(Excel::getRowNum));
+        for (T row : page) {
+            if (!consumer.test(row)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Check if the journal holds changes not yet folded into the Excel file
+     */
+    private boolean hasJournaled() {
+        return journal != null && journal.hasPending();
+    }
+
+    /**
+     * Apply a mutator to a copy of a row, so the rows read or cached are not changed
+     */
+    T mutate(T row, Consumer<T> mutator) {
+        T copy = _metadata.copy(row);
+        mutator.accept(copy);
+        copy.setRowNum(row.getRowNum());
+        return copy;
+    }
+
+    /**
+     * Get a mapped field by name
+     */
+    private ExcelField getField(String fieldName) {
+        return _metadata.getFields(Collections.singleton(fieldName)).get(0);
+    }
+
+    /**
+     * Get the names of the given fields, skipping null fields
+     */
+    private Set<String> fieldNames(ExcelField... fields) {
+        Set<String> fieldNames = new LinkedHashSet<>();
+        for (ExcelField field : fields) {
+            if (field != null) {
+                fieldNames.add(field.getName());
+            }
+        }
+        return fieldNames;
+    }
+
+    /**
+     * Read the sheet of an Excel file into a listener. If fields are projected, EasyExcel's default listener is
+     * replaced by one that converts the cells of the projected fields only. It is also replaced if the mapped class
+     * has a generated accessor, so the rows are built through the accessor rather than through EasyExcel's
+     * reflective bean population. Doubles and floats are read with converters that also read back NaN and the
+     * infinities written as text
+     */
+    private void read(ExcelReaderBuilder reader, Set<String> projection, ReadListener<T> listener) {
+        reader.registerConverter(new NonFiniteDoubleConverter()).registerConverter(new NonFiniteFloatConverter());
+        ReadListener<?> readListener = listener;
+        if (projection == null && _metadata.hasAccessor()) {
+            projection = this.fieldNames(_metadata.getFields().toArray(new ExcelField[0]));
+        }
+        if (projection != null) {
+            reader.useDefaultListener(false);
+            readListener = new ProjectionListener<>(_metadata, projection, listener);
+        }
+        reader.sheet()
                 .head(_class)
-                .registerReadListener(listener)
+                .registerReadListener(readListener)
                 .doRead();
-        return listener.getDataList();
     }
 
-    @Override
-    public synchronized void insertBatch(List<T> list) {
-        try (InputStream in = new BufferedInputStream(CopyFileInputStream.create(_filePath));
-             Workbook workbook = FileMagic.valueOf(in) == OOXML ? new XSSFWorkbook(in) : new HSSFWorkbook(in);
-             OutputStream out = new BufferedOutputStream(ReplaceFileOutputStream.create(_filePath))) {
-            // Get the sheet and last row number of the Excel file
-            Sheet sheet = workbook.getSheetAt(0);
+    /**
+     * Get the cached rows of the Excel file, reading and caching them if they are not cached or stale
+     */
+    private List<T> getCachedRows(OperationSample sample) {
+        List<T> rows = _cache.get(_path, _class);
+        sample.addCacheLookup(rows != null);
+        if (rows == null) {
+            try {
+                rows = indexes.readFresh(fingerprint -> {
+                    List<T> read = indexes.readAll(sample);
+                    _cache.put(_path, fingerprint, read, _metadata);
+                    return read;
+                });
+            } catch (IOException e) {
+                throw new RuntimeException("read failed, filename: " + _filePath, e);
+            }
+        }
+        return rows;
+    }
 
-            for (T t : list) {
-                int lastRowNum = sheet.getLastRowNum();
-                // Create a new row and fill it with the values from the mapped object
-                Row row = sheet.createRow(lastRowNum + 1);
-                fillCell(t, row);
+    /**
+     * Query the cached rows of the Excel file. Rows that are cached are queried optimistically without locking,
+     * and the query is only repeated under the read lock if a write interfered, the rows have to be loaded or
+     * journaled changes have to be merged
+     */
+    private List<T> queryCache(Criteria criteria, OperationSample sample) {
+        long stamp = _lock.tryOptimisticRead();
+        if (stamp != 0 && !this.hasJournaled()) {
+            List<T> rows = _cache.get(_path, _class);
+            if (rows != null) {
+                // Rows scanned by a query that has to be repeated are not counted
+                OperationSample attempt = new OperationSample(_path, sample.getType());
+                List<T> result = this.queryRows(rows, criteria, attempt);
+                if (_lock.validate(stamp)) {
+                    sample.addCacheLookup(true);
+                    sample.addRowsScanned(attempt.getRowsScanned(), attempt.getRowsMatched());
+                    return result;
+                }
             }
+        }
+        stamp = this.readLock(sample);
+        try {
+            if (this.hasJournaled()) {
+                // The indexes follow the Excel file, not the journal, so the merged rows are scanned
+                return this.query(journal.merge(this.getCachedRows(sample)), criteria, sample);
+            }
+            return this.queryRows(this.getCachedRows(sample), criteria, sample);
+        } finally {
+            _lock.unlockRead(stamp);
+        }
+    }
 
-            // Write the updated workbook back to the Excel file
-            workbook.write(out);
+    /**
+     * Query cached rows, narrowing them down through an index if a matcher can use one
+     */
+    private List<T> queryRows(List<T> rows, Criteria criteria, OperationSample sample) {
+        return this.query(this.selectRows(rows, criteria), criteria, sample);
+    }
+
+    /**
+     * Narrow cached rows down to the candidates found through an index, if a matcher can use one
+     */
+    private List<T> selectRows(List<T> rows, Criteria criteria) {
+        TableIndexes<T> indexes = _cache.getIndexes(_path, _class);
+        List<T> candidates = indexes == null ? null : indexes.select(criteria);
+        return candidates != null ? candidates : rows;
+    }
+
+    /**
+     * Iterate over the rows held in memory that match the criteria, returning copies so callers cannot change them
+     */
+    private CloseableIterator<T> iterate(List<T> rows, Criteria criteria) {
+        return new FilterIterator<>(this.rowsAfter(rows, criteria).iterator(), criteria.compile(_class),
+                criteria.getSkip(), criteria.getLimit(), this.copier(criteria));
+    }
+
+    /**
+     * Filter rows with the criteria, returning copies so callers cannot change the cached rows
+     */
+    private List<T> query(List<T> rows, Criteria criteria, OperationSample sample) {
+        UnaryOperator<T> copier = this.copier(criteria);
+        List<T> result = new ArrayList<>();
+        this.scan(rows, criteria, sample, row -> result.add(copier.apply(row)));
+        return result;
+    }
+
+    /**
+     * Pass the rows held in memory that match the criteria to a consumer, which returns false to stop the scan
+     */
+    private void scan(List<T> rows, Criteria criteria, OperationSample sample, Predicate<T> consumer) {
+        Predicate<T> predicate = criteria.compile(_class);
+        int skip = criteria.getSkip();
+        int limit = criteria.getLimit();
+        for (T row : this.rowsAfter(rows, criteria)) {
+            boolean matched = predicate.test(row);
+            sample.addRowScanned(matched);
+            if (!matched) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            if (!consumer.test(row) || limit > 0 && --limit < 1) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Pass the rows of a columnar file that match the criteria to a consumer, reading only the given fields and the
+     * matched fields of the matching rows, or all fields if no fields are given
+     */
+    private void scan(ColumnarFile<T> columnarFile, Criteria criteria, Set<String> fieldNames,
+                      OperationSample sample, Predicate<T> consumer) {
+        sample.addBytesRead(columnarFile.getSize());
+        int[] skip = {criteria.getSkip()};
+        int[] limit = {criteria.getLimit()};
+        columnarFile.scan(criteria.compile(_class), criteria.getMatchedFields(), fieldNames, criteria.getAfter(),
+                criteria.selectBlocks(columnarFile::getZoneMap), sample, row -> {
+                    if (skip[0] > 0) {
+                        skip[0]--;
+                        return true;
+                    }
+                    return consumer.test(row) && (limit[0] <= 0 || --limit[0] > 0);
+                });
+    }
+
+    /**
+     * Get the function copying rows held in memory for the caller, copying only the projected fields if the criteria
+     * selects fields
+     */
+    private UnaryOperator<T> copier(Criteria criteria) {
+        Set<String> projection = criteria.getProjection();
+        if (projection == null) {
+            return _metadata::copy;
+        }
+        List<ExcelField> fields = _metadata.getFields(projection);
+        return row -> _metadata.copy(row, fields);
+    }
+
+    /**
+     * Narrow rows ordered by row number down to the rows after the row number of the criteria, found with a binary
+     * search instead of testing the rows before them
+     */
+    private List<T> rowsAfter(List<T> rows, Criteria criteria) {
+        Integer after = criteria.getAfter();
+        if (after == null) {
+            return rows;
+        }
+        int index = TableChanges.indexOf(rows, after);
+        return rows.subList(index >= 0 ? index + 1 : -index - 1, rows.size());
+    }
+
+    /**
+     * Append rows to an xlsx file by streaming its sheet through unchanged
+     */
+    private void appendXlsx(List<T> list) throws IOException {
+        File file = new File(_filePath);
+        List<ExcelColumn> columns = this.getColumns();
+        try (ReplaceFileOutputStream out = ReplaceFileOutputStream.create(_filePath)) {
+            OutputStream buffered = new BufferedOutputStream(out);
+            try (XlsxPackage xlsx = XlsxPackage.open(file)) {
+                this.rewriteSheet(xlsx, buffered, columns,
+                        dateStyles -> (in, sheetOut) -> appendRows(in, sheetOut, list, columns, dateStyles));
+            }
+            buffered.flush();
+            out.commit();
+        }
+    }
+
+    /**
+     * Update rows in place, keeping the old values of fields without a value. The caller must hold the write lock of
+     * the file
+     */
+    private void updateRows(List<T> list, OperationSample sample) {
+        if (list.isEmpty()) {
+            return;
+        }
+        for (T t : list) {
+            if (t.getRowNum() == null || t.getRowNum() < 1) {
+                throw new IllegalArgumentException("row number out of range: " + t.getRowNum());
+            }
+        }
+        FileIndexes.Snapshot<T> before = indexes.snapshot();
+        sample.addBytesRead(this.fileSize());
+        try {
+            if (FileMagic.valueOf(new File(_filePath)) == OOXML) {
+                List<T> sorted = new ArrayList<>(list);
+                sorted.sort(Comparator.comparingInt(Excel::getRowNum));
+                this.updateXlsx(sorted.iterator());
+            } else {
+                this.updateWorkbook(list);
+            }
         } catch (Exception e) {
-            throw new RuntimeException("insert failed, filename: " + _filePath, e);
+            indexes.invalidateCache();
+            throw new RuntimeException("update failed, filename: " + _filePath, e);
         }
+        sample.addRowsWritten(list.size());
+        sample.addBytesWritten(this.fileSize());
+        indexes.applyWrite(before, TableChanges.update(list, _metadata), list);
     }
 
-    @Override
-    public synchronized void updateBatch(List<T> list) {
-        try (InputStream in = new BufferedInputStream(CopyFileInputStream.create(_filePath));
-             Workbook workbook = FileMagic.valueOf(in) == OOXML ? new XSSFWorkbook(in) : new HSSFWorkbook(in);
-             OutputStream out = new BufferedOutputStream(ReplaceFileOutputStream.create(_filePath))) {
+    /**
+     * Update rows of an xlsx file by streaming its sheet through, writing the updated values over the rows they
+     * belong to
+     */
+    private void updateXlsx(Iterator<T> rows) throws IOException {
+        File file = new File(_filePath);
+        List<ExcelColumn> columns = this.getColumns();
+        try (ReplaceFileOutputStream out = ReplaceFileOutputStream.create(_filePath)) {
+            OutputStream buffered = new BufferedOutputStream(out);
+            try (XlsxPackage xlsx = XlsxPackage.open(file)) {
+                this.rewriteSheet(xlsx, buffered, columns,
+                        dateStyles -> (in, sheetOut) -> mergeRows(in, sheetOut, rows, columns, dateStyles, 0, false));
+            }
+            buffered.flush();
+            out.commit();
+        }
+    }
+
+    /**
+     * Update rows of an Excel file by loading it into a workbook
+     */
+    private void updateWorkbook(List<T> list) throws IOException {
+        try (Workbook workbook = this.readWorkbook();
+             ReplaceFileOutputStream out = ReplaceFileOutputStream.create(_filePath)) {
             // Get the sheet and row number of the record to update
             Sheet sheet = workbook.getSheetAt(0);
+            Map<String, CellStyle> dateStyles = new HashMap<>();
 
             for (T t : list) {
                 Integer rowNum = t.getRowNum();
                 Row row = sheet.getRow(rowNum - 1);
                 // Fill the row with the updated values from the mapped object
-                fillCell(t, row);
+                fillCell(t, row, dateStyles);
             }
 
             // Write the updated workbook back to the Excel file
-            workbook.write(out);
+            this.writeWorkbook(workbook, out);
+        }
+    }
+
+    /**
+     * Delete rows at once, the rows after each of them moving up to close the gaps. The caller must hold the write
+     * lock of the file
+     */
+    private void deleteRows(int[] rowNums, OperationSample sample) {
+        if (rowNums.length == 0) {
+            return;
+        }
+        FileIndexes.Snapshot<T> before = indexes.snapshot();
+        sample.addBytesRead(this.fileSize());
+        try {
+            if (FileMagic.valueOf(new File(_filePath)) == OOXML) {
+                this.deleteXlsx(rowNums);
+            } else {
+                this.deleteWorkbook(rowNums);
+            }
         } catch (Exception e) {
-            throw new RuntimeException("update failed, filename: " + _filePath, e);
+            indexes.invalidateCache();
+            throw new RuntimeException("delete failed, filename: " + _filePath, e);
         }
+        sample.addRowsWritten(rowNums.length);
+        sample.addBytesWritten(this.fileSize());
+        // The filters keep the values of the deleted rows, which is only a false positive for their lookups
+        indexes.applyWrite(before, TableChanges.deleteAll(rowNums, _metadata),
+                Collections.emptyList());
     }
 
-    @Override
-    public synchronized void deleteBatch(List<Integer> rowNumList) {
-        try (InputStream in = new BufferedInputStream(CopyFileInputStream.create(_filePath));
-             Workbook workbook = FileMagic.valueOf(in) == OOXML ? new XSSFWorkbook(in) : new HSSFWorkbook(in);
-             OutputStream out = new BufferedOutputStream(ReplaceFileOutputStream.create(_filePath))) {
-            // Get the sheet and row of the record to delete
+    /**
+     * Delete rows from an xlsx file by streaming its sheet through, dropping the deleted rows and renumbering the
+     * rows after them
+     */
+    private void deleteXlsx(int[] rowNums) throws IOException {
+        File file = new File(_filePath);
+        try (ReplaceFileOutputStream out = ReplaceFileOutputStream.create(_filePath)) {
+            OutputStream buffered = new BufferedOutputStream(out);
+            try (XlsxPackage xlsx = XlsxPackage.open(file)) {
+                xlsx.rewrite(buffered, Collections.singletonMap(xlsx.getSheetPart(),
+                        (in, sheetOut) -> removeRows(in, sheetOut, rowNums)));
+            }
+            buffered.flush();
+            out.commit();
+        }
+    }
+
+    /**
+     * Delete rows from an Excel file by loading it into a workbook
+     */
+    private void deleteWorkbook(int[] rowNums) throws IOException {
+        try (Workbook workbook = this.readWorkbook();
+             ReplaceFileOutputStream out = ReplaceFileOutputStream.create(_filePath)) {
             Sheet sheet = workbook.getSheetAt(0);
+            if (rowNums[rowNums.length - 1] - 1 > sheet.getLastRowNum()) {
+                throw new IllegalArgumentException("row number out of range: " + rowNums[rowNums.length - 1]);
+            }
+            deleteRows(sheet, rowNums);
 
-            for (Integer rowNum : rowNumList) {
-                Row row = sheet.getRow(rowNum - 1);
-                // Remove the row and shift the remaining rows up
+            // Write the updated workbook back to the Excel file
+            this.writeWorkbook(workbook, out);
+        }
+    }
+
+    /**
+     * Remove rows from a sheet and move the rows after them up. Every block of rows between two deleted rows is
+     * shifted once, by the number of deleted rows before it, instead of shifting all rows below every deleted row
+     */
+    static void deleteRows(Sheet sheet, int[] rowNums) {
+        int lastRowNum = sheet.getLastRowNum();
+        int removed = 0;
+        for (int rowNum : rowNums) {
+            Row row = sheet.getRow(rowNum - 1);
+            if (row != null) {
+                sheet.removeRow(row);
+            }
+            if (rowNum - 1 <= lastRowNum) {
+                removed++;
+            }
+        }
+        // Blocks are shifted from the top down, so every block moves into rows that are already free
+        for (int i = 0; i < rowNums.length; i++) {
+            int first = rowNums[i];
+            int last = i + 1 < rowNums.length ? rowNums[i + 1] - 2 : lastRowNum;
+            if (first <= last) {
+                sheet.shiftRows(first, last, -(i + 1));
+            }
+        }
+        // HSSF leaves empty rows behind where the shifted rows were, which would keep the sheet at its old length
+        for (int rowNum = lastRowNum; rowNum > lastRowNum - removed; rowNum--) {
+            Row row = sheet.getRow(rowNum);
+            if (row != null) {
                 sheet.removeRow(row);
+            }
+        }
+    }
+
+    /**
+     * Copy the rows of an xlsx sheet except the deleted rows, renumbering every row by the number of deleted rows
+     * before it
+     */
+    private static void removeRows(InputStream in, OutputStream out, int[] rowNums) throws IOException {
+        SheetXmlReader reader = new SheetXmlReader(in);
+        SheetXmlWriter writer = new SheetXmlWriter(out);
+        writer.write(SheetXmlWriter.shrinkDimension(reader.readHead(), rowNums));
+        writer.startSheetData(reader.getPrefix());
+        int deleted = 0;
+        RowXml row;
+        while ((row = reader.nextRow()) != null) {
+            // Count the deleted rows up to this row, rows are in ascending order like the deleted row numbers
+            while (deleted < rowNums.length && rowNums[deleted] < row.getRowNum()) {
+                deleted++;
+            }
+            if (deleted < rowNums.length && rowNums[deleted] == row.getRowNum()) {
+                continue;
+            }
+            writer.write(row.renumber(row.getRowNum() - deleted).getXml());
+        }
+        if (rowNums[rowNums.length - 1] > reader.getLastRowNum()) {
+            throw new IllegalArgumentException("row number out of range: " + rowNums[rowNums.length - 1]);
+        }
+        writer.endSheetData();
+        reader.copyTail(out);
+    }
+
+    /**
+     * Sort row numbers in ascending order and drop duplicates
+     */
+    private static int[] distinctRowNums(List<Integer> rowNumList) {
+        int[] rowNums = new int[rowNumList.size()];
+        for (int i = 0; i < rowNums.length; i++) {
+            Integer rowNum = rowNumList.get(i);
+            if (rowNum == null || rowNum < 1) {
+                throw new IllegalArgumentException("row number out of range: " + rowNum);
+            }
+            rowNums[i] = rowNum;
+        }
+        return Arrays.stream(rowNums).sorted().distinct().toArray();
+    }
+
+    /**
+     * List row numbers sorted in ascending order in descending order, the order in which deleting them one after
+     * another deletes the same rows as deleting them at once
+     */
+    static List<Integer> descending(int[] rowNums) {
+        List<Integer> rowNumList = new ArrayList<>(rowNums.length);
+        for (int i = rowNums.length - 1; i >= 0; i--) {
+            rowNumList.add(rowNums[i]);
+        }
+        return rowNumList;
+    }
+
+    /**
+     * Append rows to an Excel file by loading it into a workbook
+     */
+    private void appendWorkbook(List<T> list) throws IOException {
+        try (Workbook workbook = this.readWorkbook();
+             ReplaceFileOutputStream out = ReplaceFileOutputStream.create(_filePath)) {
+            // Get the sheet and last row number of the Excel file
+            Sheet sheet = workbook.getSheetAt(0);
+            Map<String, CellStyle> dateStyles = new HashMap<>();
+
+            for (T t : list) {
                 int lastRowNum = sheet.getLastRowNum();
-                if (rowNum - 1 < lastRowNum) {
-                    sheet.shiftRows(rowNum, lastRowNum, -1);
-                }
+                // Create a new row and fill it with the values from the mapped object
+                Row row = sheet.createRow(lastRowNum + 1);
+                fillCell(t, row, dateStyles);
+                t.setRowNum(row.getRowNum() + 1);
             }
 
             // Write the updated workbook back to the Excel file
-            workbook.write(out);
-        } catch (Exception e) {
-            throw new RuntimeException("delete failed, filename: " + _filePath, e);
+            this.writeWorkbook(workbook, out);
         }
     }
 
+    /**
+     * Load the Excel file into a workbook. Workbooks read the whole file up front, so the file is closed again
+     * before the workbook is returned
+     */
+    Workbook readWorkbook() throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(_path))) {
+            return FileMagic.valueOf(in) == OOXML ? new XSSFWorkbook(in) : new HSSFWorkbook(in);
+        }
+    }
+
+    /**
+     * Write a workbook and replace the Excel file with it
+     */
+    private void writeWorkbook(Workbook workbook, ReplaceFileOutputStream out) throws IOException {
+        OutputStream buffered = new BufferedOutputStream(out);
+        workbook.write(buffered);
+        buffered.flush();
+        out.commit();
+    }
+
     /**
      * Get the map of header names to column indexes for the Excel file
      */
-    private synchronized Map<String, Integer> getHeaderMap() {
-        if (this.headerMap == null) {
-            HeaderListener<T> listener = new HeaderListener<>();
-            EasyExcel.read(_filePath)
-                    .sheet()
-                    .head(_class)
-                    .registerReadListener(listener)
-                    .doRead();
-            this.headerMap = listener.getHeaderMap();
+    private Map<String, Integer> getHeaderMap() {
+        SharedExcelFile file = state.getFile();
+        Map<String, Integer> headerMap = file.getHeaderMap();
+        if (headerMap == null) {
+            synchronized (file) {
+                headerMap = file.getHeaderMap();
+                if (headerMap == null) {
+                    HeaderListener<T> listener = new HeaderListener<>();
+                    EasyExcel.read(_filePath)
+                            .sheet()
+                            .head(_class)
+                            .registerReadListener(listener)
+                            .doRead();
+                    headerMap = listener.getHeaderMap();
+                    file.setHeaderMap(headerMap);
+                }
+            }
+        }
+        return headerMap;
+    }
+
+    /**
+     * Copy the rows of an xlsx sheet and append rows with values from the mapped objects after the last row
+     */
+    private void appendRows(InputStream in, OutputStream out, List<T> list, List<ExcelColumn> columns,
+                            Map<String, Integer> dateStyles) throws IOException {
+        SheetXmlReader reader = new SheetXmlReader(in);
+        SheetXmlWriter writer = new SheetXmlWriter(out, dateStyles);
+        int lastColumn = columns.isEmpty() ? 0 : columns.get(columns.size() - 1).getIndex();
+        writer.write(SheetXmlWriter.extendDimension(reader.readHead(), list.size(), lastColumn));
+        writer.startSheetData(reader.getPrefix());
+        RowXml row;
+        while ((row = reader.nextRow()) != null) {
+            writer.write(row.getXml());
+        }
+        // Like Sheet.createRow(getLastRowNum() + 1), the first appended row is row 2 even if the sheet has no rows
+        int rowNum = Math.max(reader.getLastRowNum(), 1);
+        for (T t : list) {
+            writer.writeRow(++rowNum, _metadata.getValues(t), columns);
+            t.setRowNum(rowNum);
         }
+        writer.endSheetData();
+        reader.copyTail(out);
+    }
 
-        return this.headerMap;
+    /**
+     * Copy the rows of an xlsx sheet, writing the values of changed rows over the rows they carry the row numbers of.
+     * Changes to rows missing from the sheet create the rows, and changes after the last row append rows if append
+     * is set. Returns the row number of the last row
+     */
+    int mergeRows(InputStream in, OutputStream out, Iterator<T> rows, List<ExcelColumn> columns,
+                  Map<String, Integer> dateStyles, int lastRowNum, boolean append) throws IOException {
+        SheetXmlReader reader = new SheetXmlReader(in);
+        SheetXmlWriter writer = new SheetXmlWriter(out, dateStyles);
+        int lastColumn = columns.isEmpty() ? 0 : columns.get(columns.size() - 1).getIndex();
+        writer.write(SheetXmlWriter.coverDimension(reader.readHead(), lastRowNum, lastColumn));
+        writer.startSheetData(reader.getPrefix());
+        RowChanges changes = new RowChanges(rows);
+        RowXml row;
+        while ((row = reader.nextRow()) != null) {
+            // Rows without cells are missing from the sheet, so changing them creates them
+            while (changes.peekRowNum() < row.getRowNum()) {
+                T t = changes.poll();
+                writer.writeRow(t.getRowNum(), _metadata.getValues(t), columns);
+            }
+            if (changes.peekRowNum() == row.getRowNum()) {
+                writer.writeRow(row, _metadata.getValues(changes.poll()), columns);
+            } else {
+                writer.write(row.getXml());
+            }
+        }
+        int rowNum = Math.max(reader.getLastRowNum(), 1);
+        if (!append && changes.peekRowNum() != Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("row number out of range: " + changes.peekRowNum());
+        }
+        while (changes.peekRowNum() != Integer.MAX_VALUE) {
+            T t = changes.poll();
+            rowNum = t.getRowNum();
+            writer.writeRow(rowNum, _metadata.getValues(t), columns);
+        }
+        writer.endSheetData();
+        reader.copyTail(out);
+        return rowNum;
     }
 
     /**
-     * Fill a row in the Excel file with values from the mapped object
+     * Get the columns of the Excel file, bound to the fields of the mapped class
      */
-    private void fillCell(T t, Row row) throws IllegalAccessException {
-        Field[] fields = _class.getDeclaredFields();
-        Field.setAccessible(fields, true);
-        for (Field field : fields) {
-            ExcelIgnore excelIgnore = field.getAnnotation(ExcelIgnore.class);
-            if (excelIgnore != null) {
-                continue;
+    List<ExcelColumn> getColumns() {
+        List<ExcelColumn> columns = state.getColumns();
+        if (columns == null) {
+            columns = _metadata.bind(this.getHeaderMap());
+            state.setColumns(columns);
+        }
+        return columns;
+    }
+
+    /**
+     * Rewrite the sheet of an xlsx package with the transformer created for the styles of date cells, adding the
+     * date styles of the columns to the styles part if it lacks them
+     */
+    void rewriteSheet(XlsxPackage xlsx, OutputStream out, List<ExcelColumn> columns,
+                      Function<Map<String, Integer>, PartTransformer> sheetTransformer) throws IOException {
+        // The styles part may come before the sheet in the package, so the styles are added before the sheet is read
+        XlsxStyles styles = XlsxStyles.read(xlsx);
+        Map<String, Integer> dateStyles = new HashMap<>();
+        for (ExcelColumn column : columns) {
+            ExcelField field = column.getField();
+            String format = field.getExcelDateFormat();
+            if (format != null && Date.class.isAssignableFrom(field.getType()) && !dateStyles.containsKey(format)) {
+                int style = styles.dateStyle(format);
+                if (style >= 0) {
+                    dateStyles.put(format, style);
+                }
             }
-            // Get the column header
-            String headerName = Optional.ofNullable(field.getAnnotation(ExcelProperty.class))
-                    .map(excelProperty -> {
-                        String value = excelProperty.value()[0];
-                        return "".equals(value) ? null : value;
-                    })
-                    .orElse(field.getName());
-            // Get the column index for the header name of this field
-            Integer cellIndex = this.getHeaderMap().get(headerName);
+        }
+        Map<String, PartTransformer> transformers = new HashMap<>();
+        transformers.put(xlsx.getSheetPart(), sheetTransformer.apply(dateStyles));
+        if (styles.isChanged()) {
+            transformers.put(styles.getPart(), styles);
+        }
+        xlsx.rewrite(out, transformers);
+    }
+
+    /**
+     * Fill a row in the Excel file with values from the mapped object. The styles of date cells are kept by format in
+     * the given map, which the rows of an operation share
+     */
+    void fillCell(T t, Row row, Map<String, CellStyle> dateStyles) {
+        Object[] values = _metadata.getValues(t);
+        for (ExcelColumn column : this.getColumns()) {
+            ExcelField field = column.getField();
             // Get the cell for this field and set its value to the value of the field in the mapped object
-            Cell cell = row.getCell(cellIndex, Row.MissingCellPolicy.CREATE_NULL_AS_BLANK);
-            Object object = field.get(t);
+            Cell cell = row.getCell(column.getIndex(), Row.MissingCellPolicy.CREATE_NULL_AS_BLANK);
+            Object object = values[column.getPosition()];
             if (object == null) {
                 continue;
             }
-            // If the field is a Date, format it according to the DateTimeFormat annotation (if it exists)
-            if (object instanceof Date) {
-                String pattern = Optional.ofNullable(field.getAnnotation(DateTimeFormat.class))
-                        .map(DateTimeFormat::value)
-                        .orElse("yyyy-MM-dd HH:mm:ss");
-                object = DateUtils.format((Date) object, pattern);
+            // Reset the cell first, POI keeps the old text of inline string cells when a new value is set
+            cell.setBlank();
+            switch (field.cellType(object)) {
+                case NUMBER:
+                    cell.setCellValue(((Number) object).doubleValue());
+                    break;
+                case BOOLEAN:
+                    cell.setCellValue((Boolean) object);
+                    break;
+                case DATE:
+                    // Like dates written as text, the date is written as it reads back with its pattern, and dates
+                    // before 1900 have no serial number
+                    Date date = (Date) field.normalize(object);
+                    if (DateUtil.getExcelDate(date) < 0) {
+                        cell.setCellValue(field.format(object));
+                        break;
+                    }
+                    cell.setCellValue(date);
+                    CellStyle style = dateStyles.get(field.getExcelDateFormat());
+                    if (style != null) {
+                        cell.setCellStyle(style);
+                        break;
+                    }
+                    // Reuse a style of the workbook like the default style with the date format, xls workbooks
+                    // holding a limited number of styles
+                    cell.setCellStyle(null);
+                    Workbook workbook = row.getSheet().getWorkbook();
+                    CellUtil.setCellStyleProperty(cell, CellUtil.DATA_FORMAT,
+                            workbook.createDataFormat().getFormat(field.getExcelDateFormat()));
+                    dateStyles.put(field.getExcelDateFormat(), cell.getCellStyle());
+                    break;
+                default:
+                    cell.setCellValue(field.format(object));
             }
-            cell.setCellValue(object.toString());
         }
     }
 
+    /**
+     * This class walks changed rows sorted by row number, folding the changes of the same row into one change in
+     * which later values win.
+     */
+    private class RowChanges {
+
+        // The changed rows, sorted by row number
+        private final Iterator<T> rows;
+
+        // The next changed row, or null if there are no more changes
+        private T next;
+
+        RowChanges(Iterator<T> rows) {
+            this.rows = rows;
+            this.next = rows.hasNext() ? rows.next() : null;
+        }
+
+        /**
+         * Get the row number of the next change, or Integer.MAX_VALUE if there are no more changes
+         */
+        int peekRowNum() {
+            return next == null ? Integer.MAX_VALUE : next.getRowNum();
+        }
+
+        /**
+         * Take the next change, folded with the changes of the same row after it
+         */
+        T poll() {
+            T change = next;
+            next = rows.hasNext() ? rows.next() : null;
+            boolean copied = false;
+            while (next != null && next.getRowNum().equals(change.getRowNum())) {
+                if (!copied) {
+                    // The changes belong to the caller or the journal, so they are folded into a copy
+                    change = _metadata.copy(change);
+                    copied = true;
+                }
+                for (ExcelField field : _metadata.getFields()) {
+                    Object value = field.get(next);
+                    if (value != null) {
+                        field.set(change, value);
+                    }
+                }
+                next = rows.hasNext() ? rows.next() : null;
+            }
+            return change;
+        }
+    }
 }
\ No newline at end of file
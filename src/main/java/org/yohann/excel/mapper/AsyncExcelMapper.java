@@ -0,0 +1,516 @@
+package org.yohann.excel.mapper;
+
+import org.yohann.excel.aggregate.Aggregate;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.journal.JournalOpEnum;
+import org.yohann.excel.query.Criteria;
+import org.yohann.excel.stream.CloseableIterator;
+
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * This class runs the operations of a mapper asynchronously, returning CompletableFutures instead of blocking the
+ * calling threads on the Excel file. Writes are queued to a single writer per Excel file, which runs them one after
+ * another and merges queued inserts, and queued updates, of the same mapper into one batch, so N pending inserts
+ * rewrite the file once. Reads run on a pool of reader threads, virtual threads on Java 21 and later, once the writes
+ * queued before them have finished, so a read sees the writes queued before it.
+ *
+ * @param <T> the type of the rows
+ */
+public class AsyncExcelMapper<T extends Excel> {
+
+    /**
+     * The writers, keyed by the normalized absolute path of the Excel file.
+     */
+    private static final ConcurrentMap<Path, FileWriter> WRITERS = new ConcurrentHashMap<>();
+
+    /**
+     * The threads running the writers. Every writer runs on at most one thread at a time.
+     */
+    private static final ExecutorService WRITER_THREADS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "excel-async-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The threads running reads unless another executor is given.
+     */
+    private static final Executor READERS = newReaders();
+
+    // The mapper running the operations
+    private final AbstractExcelMapper<T> mapper;
+
+    // The writer of the Excel file of the mapper
+    private final FileWriter writer;
+
+    // The executor running the reads
+    private final Executor readers;
+
+    /**
+     * Constructs an asynchronous mapper running its reads on the shared reader threads.
+     *
+     * @param mapper the mapper running the operations
+     */
+    public AsyncExcelMapper(AbstractExcelMapper<T> mapper) {
+        this(mapper, READERS);
+    }
+
+    /**
+     * Constructs an asynchronous mapper running its reads on the given executor. Writes always run on the writer of
+     * the Excel file.
+     *
+     * @param mapper  the mapper running the operations
+     * @param readers the executor running the reads
+     */
+    public AsyncExcelMapper(AbstractExcelMapper<T> mapper, Executor readers) {
+        this.mapper = mapper;
+        this.writer = WRITERS.computeIfAbsent(mapper._path, path -> new FileWriter());
+        this.readers = readers;
+    }
+
+    /**
+     * Returns the mapper running the operations.
+     *
+     * @return the mapper
+     */
+    public AbstractExcelMapper<T> getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Retrieves all objects of the specified type from the Excel file.
+     *
+     * @return a future of a list of objects of the specified type
+     */
+    public CompletableFuture<List<T>> getAll() {
+        return this.read(mapper::getAll);
+    }
+
+    /**
+     * Retrieves objects of the specified type that match the given criteria from the Excel file.
+     *
+     * @param criteria an instance of criteria used to filter the objects
+     * @return a future of a list of objects of the specified type that match the given criteria
+     */
+    public CompletableFuture<List<T>> get(Criteria criteria) {
+        return this.read(() -> mapper.get(criteria));
+    }
+
+    /**
+     * Retrieves objects of the specified type that match the given criteria from the Excel file one at a time, like
+     * ExcelMapper.iterate. The iterator must be closed.
+     *
+     * @param criteria an instance of criteria used to filter the objects
+     * @return a future of an iterator over the objects that match the given criteria
+     */
+    public CompletableFuture<CloseableIterator<T>> iterate(Criteria criteria) {
+        return this.read(() -> mapper.iterate(criteria));
+    }
+
+    /**
+     * Counts the objects that match the given criteria in the Excel file.
+     *
+     * @param criteria an instance of criteria used to filter the objects
+     * @return a future of the number of objects that match the given criteria
+     */
+    public CompletableFuture<Long> count(Criteria criteria) {
+        return this.read(() -> mapper.count(criteria));
+    }
+
+    /**
+     * Checks if any object matches the given criteria in the Excel file.
+     *
+     * @param criteria an instance of criteria used to filter the objects
+     * @return a future of true if at least one object matches the given criteria
+     */
+    public CompletableFuture<Boolean> exists(Criteria criteria) {
+        return this.read(() -> mapper.exists(criteria));
+    }
+
+    /**
+     * Aggregates a field over the objects that match the given criteria in the Excel file.
+     *
+     * @param fieldName the name of the field to aggregate, or null to only count the objects
+     * @param criteria  an instance of criteria used to filter the objects
+     * @return a future of the aggregate of the field
+     */
+    public CompletableFuture<Aggregate> aggregate(String fieldName, Criteria criteria) {
+        return this.read(() -> mapper.aggregate(fieldName, criteria));
+    }
+
+    /**
+     * Aggregates a field over the objects that match the given criteria in the Excel file, per value of another
+     * field.
+     *
+     * @param groupFieldName the name of the field whose values form the groups
+     * @param fieldName      the name of the field to aggregate, or null to only count the objects
+     * @param criteria       an instance of criteria used to filter the objects
+     * @return a future of the aggregate per group value, in the order the groups were first seen
+     */
+    public CompletableFuture<Map<Object, Aggregate>> aggregate(String groupFieldName, String fieldName,
+                                                               Criteria criteria) {
+        return this.read(() -> mapper.aggregate(groupFieldName, fieldName, criteria));
+    }
+
+    /**
+     * Sums a numeric field over the objects that match the given criteria in the Excel file.
+     *
+     * @param fieldName the name of the field to sum
+     * @param criteria  an instance of criteria used to filter the objects
+     * @return a future of the sum, or of null if no object has a value
+     */
+    public CompletableFuture<Number> sum(String fieldName, Criteria criteria) {
+        return this.aggregate(fieldName, criteria).thenApply(Aggregate::getSum);
+    }
+
+    /**
+     * Finds the smallest value of a field over the objects that match the given criteria in the Excel file.
+     *
+     * @param fieldName the name of the field
+     * @param criteria  an instance of criteria used to filter the objects
+     * @param <V>       the type of the field
+     * @return a future of the smallest value, or of null if no object has a value
+     */
+    public <V> CompletableFuture<V> min(String fieldName, Criteria criteria) {
+        return this.aggregate(fieldName, criteria).thenApply(Aggregate::getMin);
+    }
+
+    /**
+     * Finds the largest value of a field over the objects that match the given criteria in the Excel file.
+     *
+     * @param fieldName the name of the field
+     * @param criteria  an instance of criteria used to filter the objects
+     * @param <V>       the type of the field
+     * @return a future of the largest value, or of null if no object has a value
+     */
+    public <V> CompletableFuture<V> max(String fieldName, Criteria criteria) {
+        return this.aggregate(fieldName, criteria).thenApply(Aggregate::getMax);
+    }
+
+    /**
+     * Averages a numeric field over the objects that match the given criteria in the Excel file.
+     *
+     * @param fieldName the name of the field to average
+     * @param criteria  an instance of criteria used to filter the objects
+     * @return a future of the average, or of null if no object has a value
+     */
+    public CompletableFuture<Double> avg(String fieldName, Criteria criteria) {
+        return this.aggregate(fieldName, criteria).thenApply(Aggregate::getAvg);
+    }
+
+    /**
+     * Inserts one or more objects of the specified type into the Excel file.
+     *
+     * @param t one or more objects of the specified type to insert
+     * @return a future completing once the objects are inserted
+     */
+    @SafeVarargs
+    public final CompletableFuture<Void> insert(T... t) {
+        // The array is copied rather than wrapped, so it never escapes this method
+        List<T> list = new ArrayList<>(t.length);
+        for (T object : t) {
+            list.add(object);
+        }
+        return this.insertBatch(list);
+    }
+
+    /**
+     * Inserts a list of objects of the specified type into the Excel file. Inserts queued one after another are
+     * written at once, and the objects get their row numbers once the future completes.
+     *
+     * @param list a list of objects of the specified type to insert
+     * @return a future completing once the objects are inserted
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Void> insertBatch(List<T> list) {
+        return writer.submit(new Write(new AbstractMap.SimpleImmutableEntry<>(mapper, JournalOpEnum.INSERT), false,
+                list, rows -> {
+                    mapper.insertBatch((List<T>) rows);
+                    return null;
+                }));
+    }
+
+    /**
+     * Updates one or more objects of the specified type in the Excel file.
+     *
+     * @param t one or more objects of the specified type to update
+     * @return a future completing once the objects are updated
+     */
+    @SafeVarargs
+    public final CompletableFuture<Void> update(T... t) {
+        // The array is copied rather than wrapped, so it never escapes this method
+        List<T> list = new ArrayList<>(t.length);
+        for (T object : t) {
+            list.add(object);
+        }
+        return this.updateBatch(list);
+    }
+
+    /**
+     * Updates a list of objects of the specified type in the Excel file. Updates queued one after another are
+     * written at once, later values of the same row winning like they would one update after another.
+     *
+     * @param list a list of objects of the specified type to update
+     * @return a future completing once the objects are updated
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Void> updateBatch(List<T> list) {
+        return writer.submit(new Write(new AbstractMap.SimpleImmutableEntry<>(mapper, JournalOpEnum.UPDATE), true,
+                list, rows -> {
+                    mapper.updateBatch((List<T>) rows);
+                    return null;
+                }));
+    }
+
+    /**
+     * Updates the rows that match the given criteria with a mutator, like ExcelMapper.update.
+     *
+     * @param criteria an instance of criteria used to filter the rows to update
+     * @param mutator  the function changing the values of a row
+     * @return a future of the number of updated rows
+     */
+    public CompletableFuture<Long> update(Criteria criteria, Consumer<T> mutator) {
+        return this.write(() -> mapper.update(criteria, mutator));
+    }
+
+    /**
+     * Deletes one or more rows from the Excel file.
+     *
+     * @param rowNum one or more row numbers to delete
+     * @return a future completing once the rows are deleted
+     */
+    public CompletableFuture<Void> delete(Integer... rowNum) {
+        // The array is copied rather than wrapped, so changing it after the call does not change the queued delete
+        return this.deleteBatch(new ArrayList<>(Arrays.asList(rowNum)));
+    }
+
+    /**
+     * Deletes a list of rows from the Excel file at once. The row numbers refer to the rows after all writes queued
+     * before, so deletes are never merged.
+     *
+     * @param rowNumList a list of row numbers to delete, in any order, duplicates are deleted once
+     * @return a future completing once the rows are deleted
+     */
+    public CompletableFuture<Void> deleteBatch(List<Integer> rowNumList) {
+        return this.write(() -> {
+            mapper.deleteBatch(rowNumList);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes the rows that match the given criteria from the Excel file.
+     *
+     * @param criteria an instance of criteria used to filter the rows to delete
+     * @return a future of the number of deleted rows
+     */
+    public CompletableFuture<Long> delete(Criteria criteria) {
+        return this.write(() -> mapper.delete(criteria));
+    }
+
+    /**
+     * Folds the journaled changes into the Excel file, once the writes queued before have finished.
+     *
+     * @return a future completing once the changes are folded
+     */
+    public CompletableFuture<Void> flush() {
+        return this.write(() -> {
+            mapper.flush();
+            return null;
+        });
+    }
+
+    /**
+     * Run a read on the reader threads once the writes queued before it have finished, whether they succeeded or not
+     */
+    private <R> CompletableFuture<R> read(Supplier<R> operation) {
+        return writer.pending().thenApplyAsync(ignored -> operation.get(), readers);
+    }
+
+    /**
+     * Queue a write that runs alone, never merged with other writes
+     */
+    private <R> CompletableFuture<R> write(Supplier<R> operation) {
+        return writer.submit(new Write(null, false, null, rows -> operation.get()));
+    }
+
+    /**
+     * Create the executor running reads: a virtual thread per read where the JVM has virtual threads, and a fixed
+     * pool of daemon threads otherwise
+     */
+    private static Executor newReaders() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "excel-async-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * This class is a write queued to the writer of an Excel file.
+     */
+    private static class Write {
+
+        // The key writes must share to be merged into one batch, or null if the write runs alone
+        private final Object batchKey;
+
+        // Whether the write can be run again after its batch failed, because writing the same rows twice changes
+        // nothing more than writing them once
+        private final boolean repeatable;
+
+        // The rows of a write that can be merged, or null if the write runs alone
+        private final List<?> rows;
+
+        // The operation writing the rows of one or more merged writes
+        private final Function<List<?>, ?> operation;
+
+        // The future of the write
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        Write(Object batchKey, boolean repeatable, List<?> rows, Function<List<?>, ?> operation) {
+            this.batchKey = batchKey;
+            this.repeatable = repeatable;
+            this.rows = rows;
+            this.operation = operation;
+        }
+
+        /**
+         * Check if a write queued right after this write can be merged with it
+         */
+        boolean canMerge(Write next) {
+            return batchKey != null && batchKey.equals(next.batchKey);
+        }
+
+        /**
+         * Run the write alone, completing its future
+         */
+        void run() {
+            try {
+                future.complete(operation.apply(rows));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * This class is the single writer of an Excel file. Writes are queued and run one after another by at most one
+     * writer thread at a time, which merges writes queued right after each other into one batch, so writes queued
+     * while the file is being written are written together next.
+     */
+    private static class FileWriter {
+
+        // The queued writes, in the order they were submitted
+        private final Queue<Write> queue = new ConcurrentLinkedQueue<>();
+
+        // Whether a writer thread is running the queued writes
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        // The future of the write submitted last
+        private volatile CompletableFuture<?> last = CompletableFuture.completedFuture(null);
+
+        /**
+         * Queue a write and start a writer thread unless one is running
+         */
+        @SuppressWarnings("unchecked")
+        synchronized <R> CompletableFuture<R> submit(Write write) {
+            queue.add(write);
+            last = write.future;
+            this.schedule();
+            return (CompletableFuture<R>) write.future;
+        }
+
+        /**
+         * Get a future completing once the writes submitted so far have finished, whether they succeeded or not
+         */
+        CompletableFuture<Void> pending() {
+            return last.handle((result, e) -> null);
+        }
+
+        /**
+         * Start a writer thread unless one is running
+         */
+        private void schedule() {
+            if (running.compareAndSet(false, true)) {
+                WRITER_THREADS.execute(this::drain);
+            }
+        }
+
+        /**
+         * Run the queued writes, merging every run of writes that can be merged into one batch
+         */
+        private void drain() {
+            try {
+                Write write;
+                while ((write = queue.poll()) != null) {
+                    List<Write> batch = new ArrayList<>();
+                    batch.add(write);
+                    Write next;
+                    while ((next = queue.peek()) != null && write.canMerge(next)) {
+                        batch.add(queue.poll());
+                    }
+                    this.run(batch);
+                }
+            } finally {
+                running.set(false);
+                // A write queued after the queue was found empty and before the flag was cleared is run now
+                if (!queue.isEmpty()) {
+                    this.schedule();
+                }
+            }
+        }
+
+        /**
+         * Run a batch of merged writes with one operation. If the batch fails and its writes can be repeated, every
+         * write is run alone to fail only the writes at fault, otherwise all writes of the batch fail
+         */
+        private void run(List<Write> batch) {
+            Write first = batch.get(0);
+            if (batch.size() == 1) {
+                first.run();
+                return;
+            }
+            List<Object> rows = new ArrayList<>();
+            for (Write write : batch) {
+                rows.addAll(write.rows);
+            }
+            try {
+                first.operation.apply(rows);
+            } catch (Throwable e) {
+                for (Write write : batch) {
+                    if (write.repeatable) {
+                        write.run();
+                    } else {
+                        write.future.completeExceptionally(e);
+                    }
+                }
+                return;
+            }
+            for (Write write : batch) {
+                write.future.complete(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package org.yohann.excel.mapper;
+
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.annotation.ExcelJournal;
+import org.yohann.excel.cache.TableCache;
+import org.yohann.excel.columnar.ColumnarFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.index.BloomFilterFile;
+import org.yohann.excel.metadata.ExcelColumn;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.stream.ExternalSorter;
+import org.yohann.excel.xlsx.SheetCheckpoints;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.StampedLock;
+
+import static com.alibaba.excel.support.ExcelTypeEnum.XLS;
+import static com.alibaba.excel.support.ExcelTypeEnum.XLSX;
+
+/**
+ * This class holds the state of an Excel file shared by all mappers of a mapped class: the settings resolved from the
+ * annotations of the class, the cache and the shards of the file, and what the mappers learn about the file while
+ * they read it, such as the checkpoints of its sheet, and its columnar copy and Bloom filters. The lock and the header
+ * of the file are shared with the other mapped classes of the file through its SharedExcelFile. The state is resolved
+ * once by ExcelMapperRegistry without touching the file, and every new mapper opens it, which creates the file if it
+ * does not exist.
+ * <p>
+ * The learned state is verified against the file before it is used, except for the header, which is read once.
+ *
+ * @param <T> the type of the mapped class
+ */
+final class ExcelFileState<T extends Excel> {
+
+    // The mapped class
+    private final Class<T> entityClass;
+
+    // The metadata of the mapped class
+    private final ExcelMetadata<T> metadata;
+
+    // The file path of the Excel file, as configured
+    private final String filePath;
+
+    // The canonical absolute path of the Excel file
+    private final Path path;
+
+    // The state shared by all mapped classes of the Excel file
+    private final SharedExcelFile file;
+
+    // The cache holding the rows of the Excel file, or null if the rows are not cached
+    private final TableCache cache;
+
+    // The lock of the Excel file, shared by all mappers of the same file
+    private final StampedLock lock;
+
+    // The journal settings of the mapped class, or null if it is not journaled
+    private final ExcelJournal journal;
+
+    // The number of rows an ordered iteration without a limit holds in memory
+    private final int sortBufferRows;
+
+    // Whether a columnar copy of the rows is kept next to the Excel file
+    private final boolean columnar;
+
+    // Whether Bloom filters of the fields marked with ExcelBloomFilter are kept next to the Excel file
+    private final boolean bloomFiltered;
+
+    // Whether the Excel file only routes to its shards
+    private final boolean sharded;
+
+    // The maximum number of rows per shard, or 0 if the Excel file is not sharded
+    private final int shardRows;
+
+    // The router spreading the rows over the shards of the Excel file, created by the first mapper that opens it, or
+    // null if it is not sharded
+    private volatile ShardRouter<T> shards;
+
+    // The mapped fields bound to their column indexes, resolved once from the header map
+    private volatile List<ExcelColumn> columns;
+
+    // The checkpoints of the sheet, built by the first page read that can seek
+    private volatile SheetCheckpoints checkpoints;
+
+    // The columnar file last opened or written
+    private volatile ColumnarFile<T> columnarFile;
+
+    // The Bloom filters last opened, built or written
+    private volatile BloomFilterFile bloomFilters;
+
+    /**
+     * Resolves the state of the Excel file of a mapped class or of one of its shards. Only the annotations of the
+     * mapped class are read, the file is left alone until the state is opened, so racing threads can resolve the
+     * state more than once.
+     *
+     * @param entityClass the mapped class
+     * @param shard       the sequence number of the shard, or 0 for the Excel file itself
+     * @throws IllegalArgumentException if the annotations of the mapped class are invalid or the path of the file
+     *                                  cannot be resolved
+     * @throws IllegalStateException    if the file is mapped by another mapped class and either of them journals or
+     *                                  shards it
+     */
+    ExcelFileState(Class<T> entityClass, int shard) {
+        // Get the ExcelFile annotation for the class, if it exists
+        ExcelFile fileName = entityClass.getAnnotation(ExcelFile.class);
+        // Get the file path and name based on the annotation and class name
+        String path = Optional.ofNullable(fileName)
+                .map(ExcelFile::path)
+                .orElse("");
+        String filename = Optional.ofNullable(fileName)
+                .map(excelFile -> {
+                    String name = excelFile.filename();
+                    // Make sure the file name does not contain a directory
+                    if (name.contains("\\") || name.contains("/")) {
+                        throw new IllegalArgumentException("file name must be not contains directory");
+                    }
+                    // Make sure the file type is either XLS or XLSX
+                    if ((!name.endsWith(XLS.getValue()) && !name.endsWith(XLSX.getValue()))) {
+                        throw new IllegalArgumentException("file type must be either XLS or XLSX");
+                    }
+                    return name;
+                })
+                .orElse(entityClass.getSimpleName() + XLSX.getValue());
+        // A sharded Excel file only routes to its shards, which are mapped by mappers of their own
+        int shardRows = fileName != null ? fileName.shardRows() : 0;
+        boolean sharded = shard == 0 && shardRows > 0;
+        // The rows of a shard are written below its header row, so a shard holds one row less than the sheet
+        if (shardRows < 0 || shardRows >= (filename.endsWith(XLS.getValue()) ? 1 << 16 : ShardRouter.STRIDE)) {
+            throw new IllegalArgumentException("shard rows must be positive and fit into one file");
+        }
+        if (shard > 0) {
+            filename = ShardRouter.shardFilename(filename, shard);
+        }
+        // Combine the path and filename into a full file path
+        this.filePath = path.equals("") ? filename : path + "/" + filename;
+        this.entityClass = entityClass;
+        this.metadata = ExcelMetadata.of(entityClass);
+        // Indexes are kept with the cached rows, so indexed classes are always cached
+        boolean cached = fileName != null && fileName.cache() || !metadata.getIndexedFields().isEmpty();
+        this.cache = cached && !sharded ? TableCache.getInstance() : null;
+        this.sortBufferRows = fileName != null ? fileName.sortBufferRows() : ExternalSorter.DEFAULT_BUFFER_ROWS;
+        if (sortBufferRows < 1) {
+            throw new IllegalArgumentException("sort buffer rows must be positive");
+        }
+        // The shards of a sharded Excel file keep columnar files of their own
+        this.columnar = fileName != null && fileName.columnar() && !sharded;
+        if (columnar) {
+            ColumnarFile.checkFields(metadata);
+        }
+        // Cached rows are queried in memory, and the shards of a sharded Excel file keep filters of their own
+        this.bloomFiltered = !metadata.getBloomFilterFields().isEmpty() && cache == null && !sharded;
+
+        this.sharded = sharded;
+        this.shardRows = shardRows;
+        try {
+            this.path = canonical(Paths.get(filePath));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        this.journal = sharded ? null : entityClass.getAnnotation(ExcelJournal.class);
+        this.file = ExcelMapperRegistry.getFile(this.path);
+        this.lock = file.getLock();
+        file.claim(entityClass, journal != null || sharded);
+    }
+
+    /**
+     * Opens the Excel file for a new mapper. An Excel file is created with the header row if it does not exist, after
+     * the temporary files a crashed process left behind are deleted, and a sharded Excel file, which itself is never
+     * created, gets its router, which creates the first shard. Opening is repeated for every new mapper, but does
+     * each step only once, except for creating a deleted file again.
+     *
+     * @throws IOException if the file cannot be created
+     */
+    void open() throws IOException {
+        if (!sharded) {
+            file.open(filePath, entityClass);
+            return;
+        }
+        if (shards == null) {
+            synchronized (this) {
+                if (shards == null) {
+                    shards = new ShardRouter<>(metadata, path, shardRows,
+                            number -> ExcelMapperRegistry.getMapper(entityClass, number));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the mapped class.
+     *
+     * @return the mapped class
+     */
+    Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * Returns the metadata of the mapped class.
+     *
+     * @return the metadata
+     */
+    ExcelMetadata<T> getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Returns the file path of the Excel file, as configured by the ExcelFile annotation.
+     *
+     * @return the file path
+     */
+    String getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * Returns the canonical absolute path of the Excel file, under which all mappers of the file share its lock, its
+     * cache and its journal.
+     *
+     * @return the path
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the cache holding the rows of the Excel file.
+     *
+     * @return the cache, or null if the rows are not cached
+     */
+    TableCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the lock of the Excel file.
+     *
+     * @return the lock shared by all mappers of the file
+     */
+    StampedLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Returns the journal settings of the mapped class.
+     *
+     * @return the ExcelJournal annotation, or null if the mapped class is not journaled or the file is sharded
+     */
+    ExcelJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Returns the number of rows an ordered iteration without a limit holds in memory before spilling sorted runs.
+     *
+     * @return the number of rows
+     */
+    int getSortBufferRows() {
+        return sortBufferRows;
+    }
+
+    /**
+     * Checks if a columnar copy of the rows is kept next to the Excel file.
+     *
+     * @return true if the rows have a columnar copy
+     */
+    boolean isColumnar() {
+        return columnar;
+    }
+
+    /**
+     * Checks if Bloom filters of the fields marked with ExcelBloomFilter are kept next to the Excel file.
+     *
+     * @return true if the fields have Bloom filters
+     */
+    boolean isBloomFiltered() {
+        return bloomFiltered;
+    }
+
+    /**
+     * Returns the state shared by all mapped classes of the Excel file.
+     *
+     * @return the shared state
+     */
+    SharedExcelFile getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the router spreading the rows over the shards of the Excel file, once the state is opened.
+     *
+     * @return the router, or null if the Excel file is not sharded
+     */
+    ShardRouter<T> getShards() {
+        return shards;
+    }
+
+    List<ExcelColumn> getColumns() {
+        return columns;
+    }
+
+    void setColumns(List<ExcelColumn> columns) {
+        this.columns = columns;
+    }
+
+    SheetCheckpoints getCheckpoints() {
+        return checkpoints;
+    }
+
+    void setCheckpoints(SheetCheckpoints checkpoints) {
+        this.checkpoints = checkpoints;
+    }
+
+    ColumnarFile<T> getColumnarFile() {
+        return columnarFile;
+    }
+
+    void setColumnarFile(ColumnarFile<T> columnarFile) {
+        this.columnarFile = columnarFile;
+    }
+
+    BloomFilterFile getBloomFilters() {
+        return bloomFilters;
+    }
+
+    void setBloomFilters(BloomFilterFile bloomFilters) {
+        this.bloomFilters = bloomFilters;
+    }
+
+    /**
+     * Resolve the canonical path of a file, following symbolic links, so every way of naming the file leads to the
+     * same lock, cache and journal. A file that does not exist yet is resolved through the nearest directory that
+     * exists, so its path stays the same once it is created
+     */
+    private static Path canonical(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath().normalize();
+        if (Files.exists(absolute)) {
+            return absolute.toRealPath();
+        }
+        Path directory = absolute.getParent();
+        Path rest = absolute.getFileName();
+        while (directory != null && !Files.exists(directory)) {
+            rest = directory.getFileName().resolve(rest);
+            directory = directory.getParent();
+        }
+        return directory == null ? absolute : directory.toRealPath().resolve(rest);
+    }
+}
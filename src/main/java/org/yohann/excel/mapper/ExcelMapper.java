@@ -1,10 +1,19 @@
 package org.yohann.excel.mapper;
 
+import org.yohann.excel.aggregate.Aggregate;
+import org.yohann.excel.aggregate.GroupBy;
 import org.yohann.excel.entity.Excel;
 import org.yohann.excel.query.Criteria;
+import org.yohann.excel.stream.CloseableIterator;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This interface defines methods for mapping Java objects to Excel files.
@@ -28,6 +37,125 @@ public interface ExcelMapper<T extends Excel> {
      */
     List<T> get(Criteria criteria);
 
+    /**
+     * Retrieves objects of the specified type that match the given criteria from the Excel file one at a time,
+     * without holding all of them in memory. The iterator reads the Excel file as it was when this method was called,
+     * and writes to the file do not wait for it. The iterator must be closed, which stops reading the file if the
+     * iterator is not exhausted yet.
+     *
+     * @param criteria an instance of criteria used to filter the objects
+     * @return an iterator over the objects that match the given criteria
+     */
+    CloseableIterator<T> iterate(Criteria criteria);
+
+    /**
+     * Retrieves objects of the specified type that match the given criteria from the Excel file as a lazy stream,
+     * like iterate. The stream must be closed, typically in a try-with-resources statement.
+     *
+     * @param criteria an instance of criteria used to filter the objects
+     * @return a sequential stream of the objects that match the given criteria
+     */
+    default Stream<T> stream(Criteria criteria) {
+        CloseableIterator<T> iterator = iterate(criteria);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator::close);
+    }
+
+    /**
+     * Counts the objects that match the given criteria in the Excel file, without building a list of them.
+     *
+     * @param criteria an instance of criteria used to filter the objects
+     * @return the number of objects that match the given criteria
+     */
+    default long count(Criteria criteria) {
+        return aggregate(null, criteria).getCount();
+    }
+
+    /**
+     * Checks if any object matches the given criteria in the Excel file. Reading stops at the first match.
+     *
+     * @param criteria an instance of criteria used to filter the objects
+     * @return true if at least one object matches the given criteria
+     */
+    boolean exists(Criteria criteria);
+
+    /**
+     * Aggregates a field over the objects that match the given criteria in the Excel file. The values are folded
+     * into the aggregate as the file is read, so no list of objects is built.
+     *
+     * @param fieldName the name of the field to aggregate, or null to only count the objects
+     * @param criteria  an instance of criteria used to filter the objects
+     * @return the aggregate of the field
+     */
+    Aggregate aggregate(String fieldName, Criteria criteria);
+
+    /**
+     * Aggregates a field over the objects that match the given criteria in the Excel file, per value of another
+     * field. Only one aggregate per group is held in memory.
+     *
+     * @param groupFieldName the name of the field whose values form the groups
+     * @param fieldName      the name of the field to aggregate, or null to only count the objects
+     * @param criteria       an instance of criteria used to filter the objects
+     * @return the aggregate per group value, in the order the groups were first seen
+     */
+    Map<Object, Aggregate> aggregate(String groupFieldName, String fieldName, Criteria criteria);
+
+    /**
+     * Sums a numeric field over the objects that match the given criteria in the Excel file.
+     *
+     * @param fieldName the name of the field to sum
+     * @param criteria  an instance of criteria used to filter the objects
+     * @return the sum as a Long for integral fields and a Double otherwise, or null if no object has a value
+     */
+    default Number sum(String fieldName, Criteria criteria) {
+        return aggregate(fieldName, criteria).getSum();
+    }
+
+    /**
+     * Finds the smallest value of a field over the objects that match the given criteria in the Excel file.
+     *
+     * @param fieldName the name of the field
+     * @param criteria  an instance of criteria used to filter the objects
+     * @param <V>       the type of the field
+     * @return the smallest value, or null if no object has a value
+     */
+    default <V> V min(String fieldName, Criteria criteria) {
+        return aggregate(fieldName, criteria).getMin();
+    }
+
+    /**
+     * Finds the largest value of a field over the objects that match the given criteria in the Excel file.
+     *
+     * @param fieldName the name of the field
+     * @param criteria  an instance of criteria used to filter the objects
+     * @param <V>       the type of the field
+     * @return the largest value, or null if no object has a value
+     */
+    default <V> V max(String fieldName, Criteria criteria) {
+        return aggregate(fieldName, criteria).getMax();
+    }
+
+    /**
+     * Averages a numeric field over the objects that match the given criteria in the Excel file.
+     *
+     * @param fieldName the name of the field to average
+     * @param criteria  an instance of criteria used to filter the objects
+     * @return the average of the values, or null if no object has a value
+     */
+    default Double avg(String fieldName, Criteria criteria) {
+        return aggregate(fieldName, criteria).getAvg();
+    }
+
+    /**
+     * Groups the objects of the Excel file by the values of a field, to be aggregated per group.
+     *
+     * @param fieldName the name of the field whose values form the groups
+     * @return the grouping, aggregated by its count and aggregate methods
+     */
+    default GroupBy<T> groupBy(String fieldName) {
+        return new GroupBy<>(this, fieldName);
+    }
+
     /**
      * Inserts one or more objects of the specified type into the Excel file.
      *
@@ -60,6 +188,17 @@ public interface ExcelMapper<T extends Excel> {
      */
     void updateBatch(List<T> list);
 
+    /**
+     * Updates the rows that match the given criteria with a mutator. The mutator changes a copy of each row, and like
+     * any update, fields it leaves without a value keep their old values. The rows are written back in one pass, so
+     * the memory needed does not grow with the size of the Excel file.
+     *
+     * @param criteria an instance of criteria used to filter the rows to update
+     * @param mutator  the function changing the values of a row
+     * @return the number of updated rows
+     */
+    long update(Criteria criteria, Consumer<T> mutator);
+
     /**
      * Deletes one or more rows from the Excel file.
      *
@@ -70,9 +209,19 @@ public interface ExcelMapper<T extends Excel> {
     }
 
     /**
-     * Deletes a list of rows from the Excel file.
+     * Deletes a list of rows from the Excel file at once. The row numbers refer to the rows before the deletion, and
+     * the rows after the deleted rows move up to close the gaps.
      *
-     * @param rowNumList a list of row numbers to delete
+     * @param rowNumList a list of row numbers to delete, in any order, duplicates are deleted once
      */
     void deleteBatch(List<Integer> rowNumList);
+
+    /**
+     * Deletes the rows that match the given criteria from the Excel file, without reading more of the rows than the
+     * criteria needs to match them.
+     *
+     * @param criteria an instance of criteria used to filter the rows to delete
+     * @return the number of deleted rows
+     */
+    long delete(Criteria criteria);
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package org.yohann.excel.mapper;
+
+import org.yohann.excel.entity.Excel;
+
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class hands out the mappers of mapped classes and the state of their Excel files. The state of a file is
+ * resolved once per mapped class, and every mapper of the class shares it, whether it is handed out here or created
+ * as a subclass of AbstractExcelMapper: the settings read from the annotations, the cache, the journal and whatever
+ * the mappers learn about the file while reading it. So creating a mapper per request is cheap, and the work of one
+ * mapper, such as building the checkpoints of the sheet, is not repeated by another.
+ * <p>
+ * The lock and the header map are kept per canonical path of the file instead, so they are shared by all mapped
+ * classes of the file, however each of them names it. A journaled or sharded file is mapped by one class only.
+ * <p>
+ * The states are kept for the lifetime of the mapped classes, the shared state of a file for the lifetime of the
+ * process.
+ */
+public final class ExcelMapperRegistry {
+
+    /**
+     * The states of the Excel files of each mapped class, keyed by the sequence number of the shard, 0 for the Excel
+     * file itself.
+     */
+    private static final ClassValue<ConcurrentMap<Integer, ExcelFileState<?>>> STATES =
+            new ClassValue<ConcurrentMap<Integer, ExcelFileState<?>>>() {
+                @Override
+                protected ConcurrentMap<Integer, ExcelFileState<?>> computeValue(Class<?> type) {
+                    return new ConcurrentHashMap<>();
+                }
+            };
+
+    /**
+     * The state shared by all mapped classes of each Excel file, keyed by its canonical absolute path.
+     */
+    private static final ConcurrentMap<Path, SharedExcelFile> FILES = new ConcurrentHashMap<>();
+
+    /**
+     * The mappers handed out for each mapped class, keyed like the states.
+     */
+    private static final ClassValue<ConcurrentMap<Integer, AbstractExcelMapper<?>>> MAPPERS =
+            new ClassValue<ConcurrentMap<Integer, AbstractExcelMapper<?>>>() {
+                @Override
+                protected ConcurrentMap<Integer, AbstractExcelMapper<?>> computeValue(Class<?> type) {
+                    return new ConcurrentHashMap<>();
+                }
+            };
+
+    private ExcelMapperRegistry() {
+    }
+
+    /**
+     * Returns the mapper of a mapped class. The mapper is created on first use and then shared, as mappers are safe
+     * for concurrent use.
+     *
+     * @param entityClass the mapped class
+     * @param <T>         the type of the mapped class
+     * @return the mapper of the mapped class
+     * @throws IllegalArgumentException if the annotations of the mapped class are invalid or its Excel file cannot be
+     *                                  created
+     * @throws IllegalStateException    if the Excel file is mapped by another mapped class and either of them
+     *                                  journals or shards it
+     */
+    public static <T extends Excel> AbstractExcelMapper<T> getMapper(Class<T> entityClass) {
+        return getMapper(entityClass, 0);
+    }
+
+    /**
+     * Returns the mapper of the Excel file of a mapped class or of one of its shards.
+     *
+     * @param entityClass the mapped class
+     * @param shard       the sequence number of the shard, or 0 for the Excel file itself
+     * @param <T>         the type of the mapped class
+     * @return the mapper
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Excel> AbstractExcelMapper<T> getMapper(Class<T> entityClass, int shard) {
+        ConcurrentMap<Integer, AbstractExcelMapper<?>> mappers = MAPPERS.get(entityClass);
+        AbstractExcelMapper<?> mapper = mappers.get(shard);
+        if (mapper == null) {
+            // Created outside the map, since creating the mapper of a sharded file creates the mappers of its shards
+            AbstractExcelMapper<?> created = new RegisteredMapper<>(entityClass, shard);
+            mapper = mappers.putIfAbsent(shard, created);
+            if (mapper == null) {
+                mapper = created;
+            }
+        }
+        return (AbstractExcelMapper<T>) mapper;
+    }
+
+    /**
+     * Returns the state of the Excel file of a mapped class or of one of its shards, resolving it on first use.
+     * Racing threads may resolve the state more than once, but only one of the states is kept and returned to all of
+     * them.
+     *
+     * @param entityClass the mapped class
+     * @param shard       the sequence number of the shard, or 0 for the Excel file itself
+     * @param <T>         the type of the mapped class
+     * @return the state of the file
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Excel> ExcelFileState<T> getState(Class<T> entityClass, int shard) {
+        ConcurrentMap<Integer, ExcelFileState<?>> states = STATES.get(entityClass);
+        ExcelFileState<?> state = states.get(shard);
+        if (state == null) {
+            ExcelFileState<?> resolved = new ExcelFileState<>(entityClass, shard);
+            state = states.putIfAbsent(shard, resolved);
+            if (state == null) {
+                state = resolved;
+            }
+        }
+        return (ExcelFileState<T>) state;
+    }
+
+    /**
+     * Returns the state shared by all mapped classes of an Excel file, creating it on first use.
+     *
+     * @param path the canonical absolute path of the Excel file
+     * @return the shared state of the file
+     */
+    static SharedExcelFile getFile(Path path) {
+        return FILES.computeIfAbsent(path, SharedExcelFile::new);
+    }
+
+    /**
+     * This class is the mapper handed out for a mapped class or one of its shards.
+     */
+    private static final class RegisteredMapper<T extends Excel> extends AbstractExcelMapper<T> {
+
+        RegisteredMapper(Class<T> entityClass, int shard) {
+            super(entityClass, shard);
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.EasyExcel;
+import com.alibaba.excel.read.builder.ExcelReaderBuilder;
+import com.alibaba.excel.read.listener.ReadListener;
+import lombok.extern.slf4j.Slf4j;
+import org.yohann.excel.cache.FileFingerprint;
+import org.yohann.excel.cache.RowListener;
+import org.yohann.excel.cache.TableCache;
+import org.yohann.excel.cache.TableChange;
+import org.yohann.excel.columnar.ColumnarFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.index.BloomFilterFile;
+import org.yohann.excel.index.ZoneMap;
+import org.yohann.excel.listener.CheckpointListener;
+import org.yohann.excel.listener.DataListener;
+import org.yohann.excel.metadata.ExcelField;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.metrics.OperationSample;
+import org.yohann.excel.query.Criteria;
+import org.yohann.excel.xlsx.SheetCheckpoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class keeps what is derived from the rows of an Excel file in step with the file for the mappers of a mapped
+ * class: the cached rows, the columnar copy, the Bloom filters and the checkpoints of the sheet with their zone maps.
+ * Each of them is verified against the file before it is used, and built again from the rows of the file if it is
+ * stale. A write takes a Snapshot of those that are up to date before it changes the file, and applies its change to
+ * them afterwards, so they need not be built again.
+ * <p>
+ * The callers hold the lock of the file. The derived files are kept in the ExcelFileState of the mapped class, so
+ * what one mapper builds is used by the others.
+ *
+ * @param <T> the type of the rows
+ */
+@Slf4j
+final class FileIndexes<T extends Excel> {
+
+    // The state of the Excel file, holding the derived files
+    private final ExcelFileState<T> state;
+
+    // The function reading the sheet of an Excel file into a listener, the way the mapper reads it
+    private final SheetRead<T> reader;
+
+    // The mapped class
+    private final Class<T> entityClass;
+
+    // The metadata of the mapped class
+    private final ExcelMetadata<T> metadata;
+
+    // The file path of the Excel file, as configured
+    private final String filePath;
+
+    // The canonical absolute path of the Excel file
+    private final Path path;
+
+    // The cache holding the rows of the Excel file, or null if it is not cached
+    private final TableCache cache;
+
+    /**
+     * Constructs the derived files of an Excel file.
+     *
+     * @param state  the state of the Excel file
+     * @param reader the function reading the sheet of an Excel file into a listener
+     */
+    FileIndexes(ExcelFileState<T> state, SheetRead<T> reader) {
+        this.state = state;
+        this.reader = reader;
+        this.entityClass = state.getEntityClass();
+        this.metadata = state.getMetadata();
+        this.filePath = state.getFilePath();
+        this.path = state.getPath();
+        this.cache = state.getCache();
+    }
+
+    /**
+     * Reads all rows of the Excel file, from its columnar file if it is up to date. Otherwise the Excel file is read
+     * and the columnar file written from its rows.
+     *
+     * @param sample the sample of the operation
+     * @return the rows
+     */
+    List<T> readAll(OperationSample sample) {
+        ColumnarFile<T> columnarFile = this.freshColumnar();
+        if (columnarFile != null) {
+            sample.addBytesRead(columnarFile.getSize());
+            return columnarFile.readAll();
+        }
+        if (!state.isColumnar()) {
+            return this.readRows(sample);
+        }
+        try {
+            return this.readFresh(fingerprint -> {
+                List<T> rows = this.readRows(sample);
+                this.writeColumnar(fingerprint, rows);
+                return rows;
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("read failed, filename: " + filePath, e);
+        }
+    }
+
+    /**
+     * Reads from the Excel file with a fingerprint of the file, to record what was read for the file. The fingerprint
+     * is taken before reading, so a change during the read is detected on the next lookup.
+     *
+     * @param read the read
+     * @param <R>  the type of what is read
+     * @return what is read
+     * @throws IOException if the file cannot be read
+     */
+    <R> R readFresh(FingerprintedRead<R> read) throws IOException {
+        return read.read(FileFingerprint.of(path));
+    }
+
+    /**
+     * Returns the columnar file of the Excel file, writing it from the rows of the Excel file if it is stale.
+     *
+     * @param sample the sample of the operation
+     * @return the columnar file, or null if the Excel file has no columnar file or it cannot be written
+     */
+    ColumnarFile<T> getColumnar(OperationSample sample) {
+        if (!state.isColumnar()) {
+            return null;
+        }
+        ColumnarFile<T> columnarFile = this.freshColumnar();
+        if (columnarFile == null) {
+            this.readAll(sample);
+            columnarFile = state.getColumnarFile();
+        }
+        return columnarFile;
+    }
+
+    /**
+     * Returns the columnar file of the Excel file if it is up to date.
+     *
+     * @return the columnar file, or null if it is stale, missing or cannot be read
+     */
+    ColumnarFile<T> freshColumnar() {
+        if (!state.isColumnar()) {
+            return null;
+        }
+        ColumnarFile<T> columnarFile = state.getColumnarFile();
+        try {
+            if (columnarFile != null) {
+                columnarFile = columnarFile.verify(path);
+            }
+            if (columnarFile == null) {
+                columnarFile = ColumnarFile.open(path, metadata);
+            }
+        } catch (IOException e) {
+            log.warn("cannot read columnar file, filename: " + filePath, e);
+            columnarFile = null;
+        }
+        state.setColumnarFile(columnarFile);
+        return columnarFile;
+    }
+
+    /**
+     * Checks if the Bloom filters of the Excel file prove that no row matches the criteria, building them from the
+     * rows of the Excel file if they are stale. Only criteria looking up values of fields with Bloom filters are
+     * checked.
+     *
+     * @param criteria the criteria
+     * @param sample   the sample of the operation
+     * @return true if no row matches the criteria
+     */
+    boolean rulesOut(Criteria criteria, OperationSample sample) {
+        if (!state.isBloomFiltered()) {
+            return false;
+        }
+        boolean filtered = false;
+        for (ExcelField field : metadata.getBloomFilterFields()) {
+            filtered |= criteria.getMatchedFields().contains(field.getName());
+        }
+        if (!filtered) {
+            return false;
+        }
+        BloomFilterFile bloomFilters = this.getBloomFilters(sample);
+        return bloomFilters != null && !criteria.mightMatch(entityClass, bloomFilters::getFilter);
+    }
+
+    /**
+     * Returns the Bloom filters of the Excel file if they are up to date.
+     *
+     * @return the Bloom filters, or null if they are stale, missing or cannot be read
+     */
+    BloomFilterFile freshBloomFilters() {
+        if (!state.isBloomFiltered()) {
+            return null;
+        }
+        BloomFilterFile bloomFilters = state.getBloomFilters();
+        try {
+            if (bloomFilters != null) {
+                bloomFilters = bloomFilters.verify(path);
+            }
+            if (bloomFilters == null) {
+                bloomFilters = BloomFilterFile.open(path, metadata.getBloomFilterFields());
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("cannot read bloom filters, filename: " + filePath, e);
+            bloomFilters = null;
+        }
+        state.setBloomFilters(bloomFilters);
+        return bloomFilters;
+    }
+
+    /**
+     * Records Bloom filters that were up to date before the Excel file was written for the written file, after the
+     * values of the written rows were added to them.
+     *
+     * @param before the Bloom filters before the write, or null if they were stale
+     */
+    void applyToBloomFilters(BloomFilterFile before) {
+        this.applyToBloomFilters(before, this.fingerprintWritten(), Collections.emptyList());
+    }
+
+    /**
+     * Returns the checkpoints of the sheet of the xlsx file, building them if the file has changed since they were
+     * built.
+     *
+     * @param sample the sample of the operation
+     * @return the checkpoints
+     * @throws IOException if the file cannot be read
+     */
+    SheetCheckpoints getCheckpoints(OperationSample sample) throws IOException {
+        SheetCheckpoints checkpoints = state.getCheckpoints();
+        if (checkpoints != null) {
+            checkpoints = checkpoints.verify(path);
+        }
+        if (checkpoints == null) {
+            checkpoints = this.readFresh(fingerprint -> {
+                sample.addBytesRead(this.fileSize());
+                // Only the fields with zone maps are converted, the other cells are left alone
+                List<ExcelField> zoneFields = this.getZoneFields();
+                CheckpointListener<T> listener = new CheckpointListener<>(SheetCheckpoints.INTERVAL, zoneFields);
+                reader.read(EasyExcel.read(filePath), fieldNames(zoneFields), listener);
+                return SheetCheckpoints.build(new File(filePath), listener.getRowNums(), listener.getZoneMaps(),
+                        fingerprint);
+            });
+        }
+        state.setCheckpoints(checkpoints);
+        return checkpoints;
+    }
+
+    /**
+     * Returns the mapped fields that have zone maps, the numeric and date fields.
+     *
+     * @return the fields
+     */
+    List<ExcelField> getZoneFields() {
+        List<ExcelField> fields = new ArrayList<>();
+        for (ExcelField field : metadata.getFields()) {
+            if (ZoneMap.supports(field.getType())) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Checks if the rows of the Excel file are cached and up to date.
+     *
+     * @return true if the cached rows are up to date
+     */
+    boolean isCacheFresh() {
+        return cache != null && cache.isFresh(path, entityClass);
+    }
+
+    /**
+     * Drops the cached rows of the Excel file.
+     */
+    void invalidateCache() {
+        if (cache != null) {
+            cache.invalidate(path);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the derived files that are up to date before the Excel file is written.
+     *
+     * @return the snapshot
+     */
+    Snapshot<T> snapshot() {
+        return new Snapshot<>(this.isCacheFresh(), this.freshColumnar(), this.freshBloomFilters());
+    }
+
+    /**
+     * Applies a change made to the Excel file to the derived files that were up to date before the change. They all
+     * share one fingerprint of the changed file, so its content is hashed once per write.
+     *
+     * @param before  the snapshot taken before the change
+     * @param change  the change of the rows
+     * @param written the inserted or updated rows, whose values are added to the Bloom filters
+     */
+    void applyWrite(Snapshot<T> before, TableChange<T> change, List<T> written) {
+        if (!before.cached && before.columnarFile == null && before.bloomFilters == null) {
+            return;
+        }
+        FileFingerprint fingerprint = this.fingerprintWritten();
+        if (before.cached) {
+            this.applyToCache(fingerprint, change);
+        }
+        this.applyToColumnar(before.columnarFile, fingerprint, change);
+        this.applyToBloomFilters(before.bloomFilters, fingerprint, written);
+    }
+
+    /**
+     * Read all rows of the Excel file
+     */
+    private List<T> readRows(OperationSample sample) {
+        sample.addBytesRead(this.fileSize());
+        DataListener<T> listener = new DataListener<>();
+        reader.read(EasyExcel.read(filePath), null, listener);
+        return listener.getDataList();
+    }
+
+    /**
+     * Get the size of the Excel file, or 0 if it cannot be read. The size is only reported to the metrics
+     */
+    private long fileSize() {
+        return new File(filePath).length();
+    }
+
+    /**
+     * Write the columnar file of the Excel file from all of its rows. A columnar file that cannot be written is
+     * logged and dropped, reads then fall back to the Excel file
+     */
+    private void writeColumnar(FileFingerprint fingerprint, List<T> rows) {
+        try {
+            state.setColumnarFile(ColumnarFile.write(path, fingerprint, rows, metadata));
+        } catch (IOException | RuntimeException e) {
+            log.warn("cannot write columnar file, filename: " + filePath, e);
+            state.setColumnarFile(null);
+        }
+    }
+
+    /**
+     * Take the fingerprint of the Excel file after it was written, or return null if it cannot be read
+     */
+    private FileFingerprint fingerprintWritten() {
+        try {
+            return FileFingerprint.of(path);
+        } catch (IOException e) {
+            log.warn("cannot read file after write, filename: " + filePath, e);
+            return null;
+        }
+    }
+
+    /**
+     * Apply a change made to the Excel file to its cached rows
+     */
+    private void applyToCache(FileFingerprint fingerprint, TableChange<T> change) {
+        if (fingerprint != null) {
+            cache.apply(path, entityClass, fingerprint, change);
+        } else {
+            cache.invalidate(path);
+        }
+    }
+
+    /**
+     * Apply a change made to the Excel file to the rows of its columnar file, if the columnar file was up to date
+     * before the change
+     */
+    private void applyToColumnar(ColumnarFile<T> before, FileFingerprint fingerprint, TableChange<T> change) {
+        if (before == null) {
+            return;
+        }
+        if (fingerprint == null) {
+            state.setColumnarFile(null);
+            return;
+        }
+        this.writeColumnar(fingerprint, change.apply(before.readAll(), RowListener.none()));
+    }
+
+    /**
+     * Get the Bloom filters of the Excel file, building them from the rows of the Excel file if they are stale.
+     * Returns null if they cannot be built
+     */
+    private BloomFilterFile getBloomFilters(OperationSample sample) {
+        BloomFilterFile bloomFilters = this.freshBloomFilters();
+        if (bloomFilters != null) {
+            return bloomFilters;
+        }
+        List<ExcelField> fields = metadata.getBloomFilterFields();
+        try {
+            bloomFilters = this.readFresh(fingerprint -> {
+                sample.addBytesRead(this.fileSize());
+                DataListener<T> listener = new DataListener<>();
+                reader.read(EasyExcel.read(filePath), fieldNames(fields), listener);
+                return BloomFilterFile.build(fields, fingerprint, listener.getDataList()).write(path, fingerprint);
+            });
+        } catch (IOException | RuntimeException e) {
+            log.warn("cannot build bloom filters, filename: " + filePath, e);
+            bloomFilters = null;
+        }
+        state.setBloomFilters(bloomFilters);
+        return bloomFilters;
+    }
+
+    /**
+     * Add the values of rows written to the Excel file to its Bloom filters, if they were up to date before the
+     * change, and record them for the changed file. Filters holding more values than they are sized for are dropped,
+     * so the next lookup builds them again from the rows
+     */
+    private void applyToBloomFilters(BloomFilterFile before, FileFingerprint fingerprint, List<T> written) {
+        if (before == null) {
+            return;
+        }
+        before.addAll(written);
+        try {
+            if (before.isSaturated()) {
+                BloomFilterFile.delete(path);
+                state.setBloomFilters(null);
+            } else {
+                state.setBloomFilters(fingerprint != null ? before.write(path, fingerprint) : null);
+            }
+        } catch (IOException e) {
+            log.warn("cannot write bloom filters, filename: " + filePath, e);
+            state.setBloomFilters(null);
+        }
+    }
+
+    /**
+     * Get the names of the given fields
+     */
+    private static Set<String> fieldNames(List<ExcelField> fields) {
+        Set<String> fieldNames = new LinkedHashSet<>();
+        for (ExcelField field : fields) {
+            fieldNames.add(field.getName());
+        }
+        return fieldNames;
+    }
+
+    /**
+     * This class holds the derived files of an Excel file that were up to date before the file was written.
+     *
+     * @param <T> the type of the rows
+     */
+    static final class Snapshot<T extends Excel> {
+
+        // Whether the cached rows were up to date
+        private final boolean cached;
+
+        // The columnar file, or null if it was stale
+        private final ColumnarFile<T> columnarFile;
+
+        // The Bloom filters, or null if they were stale
+        private final BloomFilterFile bloomFilters;
+
+        Snapshot(boolean cached, ColumnarFile<T> columnarFile, BloomFilterFile bloomFilters) {
+            this.cached = cached;
+            this.columnarFile = columnarFile;
+            this.bloomFilters = bloomFilters;
+        }
+    }
+
+    /**
+     * A read of the sheet of an Excel file into a listener, converting only the projected fields if there are any.
+     */
+    @FunctionalInterface
+    interface SheetRead<T> {
+
+        void read(ExcelReaderBuilder reader, Set<String> projection, ReadListener<T> listener);
+    }
+
+    /**
+     * A read from the Excel file, given the fingerprint of the file taken before the read.
+     */
+    @FunctionalInterface
+    interface FingerprintedRead<R> {
+
+        R read(FileFingerprint fingerprint) throws IOException;
+    }
+}
@@ -0,0 +1,298 @@
+package org.yohann.excel.mapper;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.yohann.excel.cache.TableChange;
+import org.yohann.excel.cache.TableChanges;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.journal.Journal;
+import org.yohann.excel.journal.JournalOpEnum;
+import org.yohann.excel.journal.JournalRecord;
+import org.yohann.excel.journal.JournalTarget;
+import org.yohann.excel.metadata.ExcelColumn;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.metrics.OperationSample;
+import org.yohann.excel.query.Criteria;
+import org.yohann.excel.xlsx.SheetXmlReader;
+import org.yohann.excel.xlsx.XlsxPackage;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.apache.poi.poifs.filesystem.FileMagic.OOXML;
+
+/**
+ * This class journals the writes of a mapper to a journaled Excel file and folds the journaled changes into the file
+ * for its journal. Writes by row number are journaled as they are, while writes by criteria choose their rows under
+ * the lock the journal takes, from the rows of the file merged with the changes journaled before, so no other change
+ * comes in between. Reads merge the journaled changes into the rows they read through merge.
+ * <p>
+ * The journal of a file is shared by all mappers of the file, and folds the changes into the file through the first
+ * of them. Folding changes the file the same way the mapper changes it without a journal, and applies the changes to
+ * the derived files of the mapper that were up to date before.
+ *
+ * @param <T> the type of the rows
+ */
+final class MapperJournal<T extends Excel> implements JournalTarget<T> {
+
+    // The mapper whose writes are journaled
+    private final AbstractExcelMapper<T> mapper;
+
+    // The derived files of the Excel file
+    private final FileIndexes<T> indexes;
+
+    // The metadata of the mapped class
+    private final ExcelMetadata<T> metadata;
+
+    // The file path of the Excel file, as configured
+    private final String filePath;
+
+    // The journal of the Excel file
+    private final Journal<T> journal;
+
+    // The derived files that were up to date before the last compaction
+    private FileIndexes.Snapshot<T> before;
+
+    /**
+     * Constructs the journal of a mapper, opening the journal of the Excel file and replaying it if it holds changes.
+     *
+     * @param mapper  the mapper whose writes are journaled
+     * @param state   the state of the Excel file
+     * @param indexes the derived files of the Excel file
+     */
+    MapperJournal(AbstractExcelMapper<T> mapper, ExcelFileState<T> state, FileIndexes<T> indexes) {
+        this.mapper = mapper;
+        this.indexes = indexes;
+        this.metadata = state.getMetadata();
+        this.filePath = state.getFilePath();
+        // Opened last, replaying the journal folds changes through this
+        this.journal = Journal.open(state.getPath(), metadata, state.getJournal(), this);
+    }
+
+    /**
+     * Returns the journal of the Excel file.
+     *
+     * @return the journal
+     */
+    Journal<T> getJournal() {
+        return journal;
+    }
+
+    /**
+     * Checks if the journal holds changes not yet folded into the Excel file.
+     *
+     * @return true if there are such changes
+     */
+    boolean hasPending() {
+        return journal.hasPending();
+    }
+
+    /**
+     * Merges the journaled changes into rows read from the Excel file.
+     *
+     * @param rows the rows of the Excel file, ordered by row number
+     * @return the rows with the journaled changes
+     */
+    List<T> merge(List<T> rows) {
+        return journal.merge(rows);
+    }
+
+    /**
+     * Journals appended rows.
+     *
+     * @param list   the rows
+     * @param sample the sample of the operation
+     */
+    void insert(List<T> list, OperationSample sample) {
+        journal.insert(list);
+        sample.addRowsWritten(list.size());
+    }
+
+    /**
+     * Journals updated rows.
+     *
+     * @param list   the rows, carrying their row numbers
+     * @param sample the sample of the operation
+     */
+    void update(List<T> list, OperationSample sample) {
+        journal.update(list);
+        sample.addRowsWritten(list.size());
+    }
+
+    /**
+     * Journals the update of the rows that match the criteria.
+     *
+     * @param criteria the criteria
+     * @param mutator  the mutator applied to a copy of each matching row
+     * @param sample   the sample of the operation
+     * @return the number of updated rows
+     */
+    long update(Criteria criteria, Consumer<T> mutator, OperationSample sample) {
+        int count = journal.update(() -> {
+            List<T> rows = new ArrayList<>();
+            mapper.scanRowsLocked(criteria, null, sample, row -> rows.add(mapper.mutate(row, mutator)));
+            return rows;
+        });
+        sample.addRowsWritten(count);
+        return count;
+    }
+
+    /**
+     * Journals deleted rows.
+     *
+     * @param rowNums the distinct row numbers, ascending
+     * @param sample  the sample of the operation
+     */
+    void delete(int[] rowNums, OperationSample sample) {
+        journal.delete(AbstractExcelMapper.descending(rowNums));
+        sample.addRowsWritten(rowNums.length);
+    }
+
+    /**
+     * Journals the deletion of the rows that match the criteria.
+     *
+     * @param criteria the criteria
+     * @param sample   the sample of the operation
+     * @return the number of deleted rows
+     */
+    long delete(Criteria criteria, OperationSample sample) {
+        int count = journal.delete(() -> AbstractExcelMapper.descending(mapper.matchedRowNums(criteria, sample)));
+        sample.addRowsWritten(count);
+        return count;
+    }
+
+    /**
+     * Folds the journaled changes into the Excel file right away.
+     */
+    void flush() {
+        journal.compact();
+    }
+
+    @Override
+    public int readLastRowNum() throws IOException {
+        File file = new File(filePath);
+        if (FileMagic.valueOf(file) == OOXML) {
+            try (XlsxPackage xlsx = XlsxPackage.open(file);
+                 SheetXmlReader reader = new SheetXmlReader(xlsx.getInputStream(xlsx.getSheetPart()))) {
+                reader.readHead();
+                while (reader.nextRow() != null) {
+                    // Only the row number of the last row is needed
+                }
+                return Math.max(reader.getLastRowNum(), 1);
+            }
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file));
+             Workbook workbook = new HSSFWorkbook(in)) {
+            return Math.max(workbook.getSheetAt(0).getLastRowNum() + 1, 1);
+        }
+    }
+
+    @Override
+    public int write(List<JournalRecord<T>> records, OutputStream out) throws IOException {
+        // The cached rows are changed along with the file, so they must match the file before it is changed
+        if (!indexes.isCacheFresh()) {
+            indexes.invalidateCache();
+        }
+        before = indexes.snapshot();
+        // Inserted and updated rows keep their row numbers, so without deletes they are merged into the sheet
+        List<T> changed = new ArrayList<>();
+        for (JournalRecord<T> record : records) {
+            if (record.getOp() == JournalOpEnum.DELETE) {
+                changed = null;
+                break;
+            }
+            changed.addAll(record.getRows());
+        }
+        File file = new File(filePath);
+        if (changed != null && FileMagic.valueOf(file) == OOXML) {
+            // The sort is stable, so changes of the same row stay in the order they were journaled
+            List<T> rows = changed;
+            rows.sort(Comparator.comparingInt(Excel::getRowNum));
+            int last = rows.isEmpty() ? 0 : rows.get(rows.size() - 1).getRowNum();
+            List<ExcelColumn> columns = mapper.getColumns();
+            int[] lastRowNum = new int[1];
+            try (XlsxPackage xlsx = XlsxPackage.open(file)) {
+                mapper.rewriteSheet(xlsx, out, columns, dateStyles -> (in, sheetOut) -> lastRowNum[0] =
+                        mapper.mergeRows(in, sheetOut, rows.iterator(), columns, dateStyles, last, true));
+            }
+            return lastRowNum[0];
+        }
+        try (Workbook workbook = mapper.readWorkbook()) {
+            Sheet sheet = workbook.getSheetAt(0);
+            Map<String, CellStyle> dateStyles = new HashMap<>();
+            for (JournalRecord<T> record : records) {
+                this.apply(sheet, record, dateStyles);
+            }
+            workbook.write(out);
+            return Math.max(sheet.getLastRowNum() + 1, 1);
+        }
+    }
+
+    @Override
+    public void compacted(List<JournalRecord<T>> records) {
+        TableChange<T> change = (rows, listener) -> {
+            for (JournalRecord<T> record : records) {
+                rows = record.toChange(metadata).apply(rows, listener);
+            }
+            return rows;
+        };
+        List<T> written = new ArrayList<>();
+        for (JournalRecord<T> record : records) {
+            if (record.getOp() != JournalOpEnum.DELETE) {
+                written.addAll(record.getRows());
+            }
+        }
+        indexes.applyWrite(before, change, written);
+        before = null;
+    }
+
+    /**
+     * Apply a journal record to the sheet, the same way the mapper changes the sheet without a journal
+     */
+    private void apply(Sheet sheet, JournalRecord<T> record, Map<String, CellStyle> dateStyles) {
+        switch (record.getOp()) {
+            case INSERT:
+                for (T t : record.getRows()) {
+                    mapper.fillCell(t, sheet.createRow(t.getRowNum() - 1), dateStyles);
+                }
+                break;
+            case UPDATE:
+                for (T t : record.getRows()) {
+                    Row row = sheet.getRow(t.getRowNum() - 1);
+                    mapper.fillCell(t, row != null ? row : sheet.createRow(t.getRowNum() - 1), dateStyles);
+                }
+                break;
+            default:
+                int[] rowNums = TableChanges.toAscending(record.getRowNums());
+                if (rowNums != null) {
+                    AbstractExcelMapper.deleteRows(sheet, rowNums);
+                    break;
+                }
+                for (Integer rowNum : record.getRowNums()) {
+                    Row row = sheet.getRow(rowNum - 1);
+                    if (row != null) {
+                        sheet.removeRow(row);
+                    }
+                    int lastRowNum = sheet.getLastRowNum();
+                    if (rowNum - 1 < lastRowNum) {
+                        sheet.shiftRows(rowNum, lastRowNum, -1);
+                    }
+                }
+                break;
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package org.yohann.excel.mapper;
+
+import org.yohann.excel.aggregate.Aggregate;
+import org.yohann.excel.cache.FileFingerprint;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.io.FileLocks;
+import org.yohann.excel.metadata.ExcelField;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.query.Criteria;
+import org.yohann.excel.stream.CloseableIterator;
+import org.yohann.excel.stream.FilterIterator;
+import org.yohann.excel.stream.MergeIterator;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * This class spreads the rows of an Excel file over several Excel files, the shards, named after the Excel file with
+ * a sequence number: person-0001.xlsx, person-0002.xlsx and so on. Rows are only appended to the last shard, and a
+ * new shard is started once the last shard holds the configured number of rows. Queries run on all shards in
+ * parallel and their rows are merged in row order, while updates and deletes only touch the shards holding the rows.
+ * <p>
+ * Row numbers address rows across shards: a row number is the row number of the row in its shard plus STRIDE times
+ * the sequence number of the shard minus one. The stride is the row limit of an xlsx file, so the row numbers of a
+ * shard never run into those of the next shard however many rows it holds, and the row numbers of the first shard are
+ * those of an Excel file that is not sharded. The last row of a full xlsx shard has the row number STRIDE in its
+ * shard, which is why row numbers are routed to their shards counting from 0.
+ *
+ * @param <T> the type of the rows
+ */
+class ShardRouter<T extends Excel> {
+
+    /**
+     * The distance between the row numbers of consecutive shards, the row limit of an xlsx file.
+     */
+    static final int STRIDE = 1 << 20;
+
+    /**
+     * The highest sequence number of a shard whose row numbers fit into an int.
+     */
+    private static final int MAX_SHARDS = Integer.MAX_VALUE / STRIDE;
+
+    /**
+     * The threads querying shards.
+     */
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "excel-shard-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The metadata of the entity class
+    private final ExcelMetadata<T> metadata;
+
+    // The directory of the shards
+    private final Path directory;
+
+    // The file name of the Excel file, without a sequence number
+    private final String filename;
+
+    // The pattern of the file names of the shards, capturing the sequence number
+    private final Pattern pattern;
+
+    // The maximum number of rows appended to a shard
+    private final int shardRows;
+
+    // The lock of the Excel file, serializing inserts into the last shard
+    private final StampedLock lock;
+
+    // The function creating the mapper of a shard from its sequence number
+    private final IntFunction<AbstractExcelMapper<T>> factory;
+
+    // The mappers of the shards, keyed by sequence number
+    private final ConcurrentMap<Integer, AbstractExcelMapper<T>> mappers = new ConcurrentHashMap<>();
+
+    // The sequence number of the shard whose rows were last counted, guarded by the lock
+    private int tail;
+
+    // The number of rows of that shard
+    private int tailRows;
+
+    // The fingerprint of that shard when its rows were counted, or null if they have to be counted again
+    private FileFingerprint tailFingerprint;
+
+    /**
+     * Constructs a new ShardRouter, creating the first shard if there is none.
+     *
+     * @param metadata  the metadata of the entity class
+     * @param path      the path of the Excel file, which itself is never created
+     * @param shardRows the maximum number of rows appended to a shard
+     * @param factory   the function creating the mapper of a shard from its sequence number
+     */
+    ShardRouter(ExcelMetadata<T> metadata, Path path, int shardRows, IntFunction<AbstractExcelMapper<T>> factory) {
+        this.metadata = metadata;
+        this.directory = path.getParent();
+        this.filename = path.getFileName().toString();
+        int dot = filename.lastIndexOf('.');
+        this.pattern = Pattern.compile(Pattern.quote(filename.substring(0, dot)) + "-(\\d{4,9})"
+                + Pattern.quote(filename.substring(dot)));
+        this.shardRows = shardRows;
+        this.lock = FileLocks.get(path);
+        this.factory = factory;
+        this.shards();
+    }
+
+    /**
+     * Returns the file name of a shard of an Excel file.
+     *
+     * @param filename the file name of the Excel file
+     * @param shard    the sequence number of the shard
+     * @return the file name with the sequence number before the extension
+     */
+    static String shardFilename(String filename, int shard) {
+        int dot = filename.lastIndexOf('.');
+        return filename.substring(0, dot) + String.format("-%04d", shard) + filename.substring(dot);
+    }
+
+    /**
+     * Query the rows of all shards, merging them in row order or the order of the criteria
+     */
+    List<T> get(Criteria criteria) {
+        List<T> rows = new ArrayList<>();
+        for (List<T> shardRows : this.fanOut(criteria, (shard, mapper, shardCriteria) ->
+                this.toGlobal(shard, mapper.get(shardCriteria)))) {
+            rows.addAll(shardRows);
+        }
+        if (criteria.isOrdered()) {
+            rows.sort(criteria.comparator(metadata.getType()));
+        }
+        int skip = Math.min(Math.max(criteria.getSkip(), 0), rows.size());
+        int limit = criteria.getLimit();
+        int end = limit > 0 ? (int) Math.min((long) skip + limit, rows.size()) : rows.size();
+        return skip == 0 && end == rows.size() ? rows : new ArrayList<>(rows.subList(skip, end));
+    }
+
+    /**
+     * Iterate over the rows of all shards, merging the iterators of the shards in row order or the order of the
+     * criteria
+     */
+    CloseableIterator<T> iterate(Criteria criteria) {
+        // Ordered iterations sort every shard up front, so the shards are opened in parallel
+        List<CloseableIterator<T>> sources = this.fanOut(criteria, (shard, mapper, shardCriteria) ->
+                new FilterIterator<>(mapper.iterate(shardCriteria), row -> true, 0, -1, row -> {
+                    row.setRowNum(toGlobal(shard, row.getRowNum()));
+                    return row;
+                }));
+        Comparator<? super T> comparator = criteria.isOrdered() ? criteria.comparator(metadata.getType())
+                : Comparator.comparingInt(Excel::getRowNum);
+        return new FilterIterator<>(new MergeIterator<>(sources, comparator), row -> true,
+                Math.max(criteria.getSkip(), 0), criteria.getLimit(), UnaryOperator.identity());
+    }
+
+    /**
+     * Check if any shard holds a row matching the criteria
+     */
+    boolean exists(Criteria criteria) {
+        if (criteria.getSkip() > 0) {
+            // Whether a row is left after the skipped rows depends on the rows of all shards
+            return !this.get(criteria.copy().setLimit(1)).isEmpty();
+        }
+        return this.fanOut(criteria, (shard, mapper, shardCriteria) -> mapper.exists(shardCriteria)).contains(true);
+    }
+
+    /**
+     * Aggregate a field over all shards, merging the aggregates of the shards unless the criteria selects a page
+     */
+    Aggregate aggregate(String fieldName, Criteria criteria) {
+        Aggregate aggregate = new Aggregate();
+        if (this.isPaged(criteria)) {
+            ExcelField field = fieldName == null ? null : this.getField(fieldName);
+            for (T row : this.get(criteria)) {
+                aggregate.add(field == null ? null : field.get(row));
+            }
+            return aggregate;
+        }
+        for (Aggregate shardAggregate : this.fanOut(criteria, (shard, mapper, shardCriteria) ->
+                mapper.aggregate(fieldName, shardCriteria))) {
+            aggregate.merge(shardAggregate);
+        }
+        return aggregate;
+    }
+
+    /**
+     * Aggregate a field per group over all shards, merging the groups of the shards in the order they were first seen
+     */
+    Map<Object, Aggregate> aggregate(String groupFieldName, String fieldName, Criteria criteria) {
+        Map<Object, Aggregate> groups = new LinkedHashMap<>();
+        if (this.isPaged(criteria)) {
+            ExcelField groupField = this.getField(groupFieldName);
+            ExcelField field = fieldName == null ? null : this.getField(fieldName);
+            for (T row : this.get(criteria)) {
+                groups.computeIfAbsent(groupField.get(row), group -> new Aggregate())
+                        .add(field == null ? null : field.get(row));
+            }
+            return groups;
+        }
+        for (Map<Object, Aggregate> shardGroups : this.fanOut(criteria, (shard, mapper, shardCriteria) ->
+                mapper.aggregate(groupFieldName, fieldName, shardCriteria))) {
+            for (Map.Entry<Object, Aggregate> group : shardGroups.entrySet()) {
+                groups.computeIfAbsent(group.getKey(), key -> new Aggregate()).merge(group.getValue());
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Append rows to the last shard, starting new shards as the last shard fills up
+     */
+    void insertBatch(List<T> list) {
+        long stamp = lock.writeLock();
+        try {
+            int offset = 0;
+            while (offset < list.size()) {
+                int shard = this.shards().lastKey();
+                int rows = this.countTailRows(shard);
+                if (rows >= shardRows) {
+                    if (shard >= MAX_SHARDS) {
+                        throw new RuntimeException("insert failed, too many shards, filename: " + filename);
+                    }
+                    shard++;
+                    rows = 0;
+                }
+                List<T> part = list.subList(offset, offset + Math.min(shardRows - rows, list.size() - offset));
+                this.mapper(shard).insertBatch(part);
+                // The inserted rows carry their row numbers in the shard, the last one tells the rows of the shard
+                tail = shard;
+                tailRows = part.get(part.size() - 1).getRowNum() - 1;
+                tailFingerprint = this.fingerprint(shard);
+                for (T t : part) {
+                    t.setRowNum(toGlobal(shard, t.getRowNum()));
+                }
+                offset += part.size();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Update rows in the shards holding them
+     */
+    void updateBatch(List<T> list) {
+        Map<Integer, List<T>> shardLists = new TreeMap<>();
+        for (T t : list) {
+            // Update copies, so the objects of the caller keep their row numbers
+            T copy = metadata.copy(t);
+            copy.setRowNum(toLocal(t.getRowNum()));
+            shardLists.computeIfAbsent(shardOf(t.getRowNum()), shard -> new ArrayList<>()).add(copy);
+        }
+        Map<Integer, AbstractExcelMapper<T>> shards = this.getShards(shardLists.keySet());
+        for (Map.Entry<Integer, List<T>> shardList : shardLists.entrySet()) {
+            shards.get(shardList.getKey()).updateBatch(shardList.getValue());
+        }
+    }
+
+    /**
+     * Delete rows from the shards holding them
+     */
+    void deleteBatch(List<Integer> rowNumList) {
+        Map<Integer, List<Integer>> shardLists = new TreeMap<>();
+        for (Integer rowNum : rowNumList) {
+            shardLists.computeIfAbsent(shardOf(rowNum), shard -> new ArrayList<>()).add(toLocal(rowNum));
+        }
+        Map<Integer, AbstractExcelMapper<T>> shards = this.getShards(shardLists.keySet());
+        for (Map.Entry<Integer, List<Integer>> shardList : shardLists.entrySet()) {
+            shards.get(shardList.getKey()).deleteBatch(shardList.getValue());
+        }
+    }
+
+    /**
+     * Update the rows that match the criteria in every shard, returning the number of updated rows. The shards are
+     * updated one after another, so the mutator is never called concurrently. A page of rows is chosen from the
+     * merged rows first
+     */
+    long update(Criteria criteria, Consumer<T> mutator) {
+        if (this.isPaged(criteria)) {
+            List<T> rows = this.get(criteria);
+            for (T row : rows) {
+                Integer rowNum = row.getRowNum();
+                mutator.accept(row);
+                row.setRowNum(rowNum);
+            }
+            this.updateBatch(rows);
+            return rows.size();
+        }
+        long updated = 0;
+        for (Map.Entry<Integer, AbstractExcelMapper<T>> shard : this.shards().entrySet()) {
+            Criteria shardCriteria = this.shardCriteria(criteria, shard.getKey());
+            if (shardCriteria != null) {
+                updated += shard.getValue().update(shardCriteria, mutator);
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Delete the rows that match the criteria from every shard, returning the number of deleted rows. A page of rows
+     * is chosen from the merged rows first
+     */
+    long delete(Criteria criteria) {
+        if (this.isPaged(criteria)) {
+            List<Integer> rowNumList = new ArrayList<>();
+            for (T row : this.get(criteria)) {
+                rowNumList.add(row.getRowNum());
+            }
+            this.deleteBatch(rowNumList);
+            return rowNumList.size();
+        }
+        long deleted = 0;
+        for (Long shardDeleted : this.fanOut(criteria, (shard, mapper, shardCriteria) ->
+                mapper.delete(shardCriteria))) {
+            deleted += shardDeleted;
+        }
+        return deleted;
+    }
+
+    /**
+     * Fold the journaled changes of all shards into their files
+     */
+    void flush() {
+        for (AbstractExcelMapper<T> mapper : this.shards().values()) {
+            mapper.flush();
+        }
+    }
+
+    /**
+     * Find the shards in the directory, creating the first shard if there is none
+     */
+    private NavigableMap<Integer, AbstractExcelMapper<T>> shards() {
+        NavigableMap<Integer, AbstractExcelMapper<T>> shards = new TreeMap<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+                for (Path path : paths) {
+                    java.util.regex.Matcher matcher = pattern.matcher(path.getFileName().toString());
+                    if (matcher.matches()) {
+                        int shard = Integer.parseInt(matcher.group(1));
+                        shards.put(shard, this.mapper(shard));
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("read failed, filename: " + filename, e);
+            }
+        }
+        if (shards.isEmpty()) {
+            shards.put(1, this.mapper(1));
+        }
+        return shards;
+    }
+
+    /**
+     * Get the shards with the given sequence numbers
+     */
+    private Map<Integer, AbstractExcelMapper<T>> getShards(Set<Integer> numbers) {
+        NavigableMap<Integer, AbstractExcelMapper<T>> shards = this.shards();
+        for (Integer shard : numbers) {
+            if (!shards.containsKey(shard)) {
+                throw new IllegalArgumentException("shard not found: " + shardFilename(filename, shard));
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Get the mapper of a shard, creating the shard if it does not exist
+     */
+    private AbstractExcelMapper<T> mapper(int shard) {
+        return mappers.computeIfAbsent(shard, factory::apply);
+    }
+
+    /**
+     * Count the rows of the last shard, reusing the count of the last insert if the shard has not changed since
+     */
+    private int countTailRows(int shard) {
+        if (shard == tail && tailFingerprint != null) {
+            try {
+                tailFingerprint = tailFingerprint.verify(directory.resolve(shardFilename(filename, shard)));
+            } catch (IOException e) {
+                tailFingerprint = null;
+            }
+            if (tailFingerprint != null) {
+                return tailRows;
+            }
+        }
+        // Take the fingerprint before counting, so a change during the count is detected on the next insert
+        FileFingerprint fingerprint = this.fingerprint(shard);
+        tailRows = (int) this.mapper(shard).count(new Criteria());
+        tail = shard;
+        tailFingerprint = fingerprint;
+        return tailRows;
+    }
+
+    /**
+     * Take the fingerprint of a shard, or return null if it cannot be read
+     */
+    private FileFingerprint fingerprint(int shard) {
+        try {
+            return FileFingerprint.of(directory.resolve(shardFilename(filename, shard)));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Run a query on all shards holding rows after the row number of the criteria, in parallel if there are several,
+     * and return the results in shard order. If a query fails, the iterators returned by the others are closed
+     */
+    private <R> List<R> fanOut(Criteria criteria, ShardQuery<T, R> query) {
+        List<Map.Entry<Integer, AbstractExcelMapper<T>>> shards = new ArrayList<>();
+        List<Criteria> shardCriteria = new ArrayList<>();
+        for (Map.Entry<Integer, AbstractExcelMapper<T>> shard : this.shards().entrySet()) {
+            Criteria local = this.shardCriteria(criteria, shard.getKey());
+            if (local != null) {
+                shards.add(shard);
+                shardCriteria.add(local);
+            }
+        }
+        if (shards.size() == 1) {
+            return Collections.singletonList(query.apply(shards.get(0).getKey(), shards.get(0).getValue(),
+                    shardCriteria.get(0)));
+        }
+        List<CompletableFuture<R>> futures = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            Map.Entry<Integer, AbstractExcelMapper<T>> shard = shards.get(i);
+            Criteria local = shardCriteria.get(i);
+            futures.add(CompletableFuture.supplyAsync(() -> query.apply(shard.getKey(), shard.getValue(), local),
+                    READERS));
+        }
+        List<R> results = new ArrayList<>(futures.size());
+        Throwable failure = null;
+        for (CompletableFuture<R> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                failure = failure != null ? failure : e.getCause();
+            }
+        }
+        if (failure == null) {
+            return results;
+        }
+        for (R result : results) {
+            if (result instanceof CloseableIterator) {
+                ((CloseableIterator<?>) result).close();
+            }
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw failure instanceof RuntimeException ? (RuntimeException) failure : new RuntimeException(failure);
+    }
+
+    /**
+     * Derive the criteria of a query on one shard, or return null if the shard holds no rows after the row number of
+     * the criteria. Every shard returns up to skip plus limit rows, the skip and limit of the criteria apply to the
+     * merged rows
+     */
+    private Criteria shardCriteria(Criteria criteria, int shard) {
+        Criteria local = criteria.copy().setSkip(0);
+        if (criteria.getLimit() > 0) {
+            local.setLimit((int) Math.min((long) Math.max(criteria.getSkip(), 0) + criteria.getLimit(),
+                    Integer.MAX_VALUE));
+        }
+        Integer after = criteria.getAfter();
+        if (after != null) {
+            int afterShard = shardOf(after);
+            if (shard < afterShard) {
+                return null;
+            }
+            local.after(shard == afterShard ? toLocal(after) : null);
+        }
+        return local;
+    }
+
+    /**
+     * Check if the criteria selects a page of the matching rows, which can only be cut from the merged rows
+     */
+    private boolean isPaged(Criteria criteria) {
+        return criteria.getSkip() > 0 || criteria.getLimit() > 0;
+    }
+
+    /**
+     * Get a mapped field by name
+     */
+    private ExcelField getField(String fieldName) {
+        return metadata.getFields(Collections.singleton(fieldName)).get(0);
+    }
+
+    /**
+     * Turn the row numbers of rows read from a shard into row numbers across shards
+     */
+    private List<T> toGlobal(int shard, List<T> rows) {
+        for (T row : rows) {
+            row.setRowNum(toGlobal(shard, row.getRowNum()));
+        }
+        return rows;
+    }
+
+    /**
+     * Turn a row number in a shard into a row number across shards
+     */
+    static int toGlobal(int shard, int rowNum) {
+        return (shard - 1) * STRIDE + rowNum;
+    }
+
+    /**
+     * Get the sequence number of the shard holding the row with a row number across shards. Row numbers in a shard
+     * run from 1 up to STRIDE, the last row of a full xlsx file, so they are counted from 0 before dividing
+     */
+    static int shardOf(int rowNum) {
+        return (rowNum - 1) / STRIDE + 1;
+    }
+
+    /**
+     * Turn a row number across shards into the row number in the shard holding the row
+     */
+    static int toLocal(int rowNum) {
+        return (rowNum - 1) % STRIDE + 1;
+    }
+
+    /**
+     * A query on one shard.
+     */
+    @FunctionalInterface
+    private interface ShardQuery<T extends Excel, R> {
+
+        R apply(int shard, AbstractExcelMapper<T> mapper, Criteria criteria);
+    }
+}
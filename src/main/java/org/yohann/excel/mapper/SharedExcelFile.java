@@ -0,0 +1,148 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.EasyExcel;
+import lombok.extern.slf4j.Slf4j;
+import org.yohann.excel.columnar.ColumnarFile;
+import org.yohann.excel.index.BloomFilterFile;
+import org.yohann.excel.io.AtomicFiles;
+import org.yohann.excel.io.CopyFileInputStream;
+import org.yohann.excel.io.FileLocks;
+import org.yohann.excel.io.ReplaceFileOutputStream;
+import org.yohann.excel.stream.ExternalSorter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+
+import static com.alibaba.excel.support.ExcelTypeEnum.XLS;
+import static com.alibaba.excel.support.ExcelTypeEnum.XLSX;
+
+/**
+ * This class holds the state of an Excel file shared by all mapped classes of the file: its lock, its header, and
+ * the preparation of the file for new mappers. ExcelMapperRegistry keeps one per canonical path, so mapped classes
+ * naming the same file in different ways share it as well. What depends on the fields of a mapped class, such as its
+ * cached rows, its columnar copy or its Bloom filters, is kept per class by ExcelFileState.
+ * <p>
+ * Journal records and the routing of rows to shards are bound to the fields of one mapped class, so an Excel file
+ * that is journaled or sharded is mapped by that class alone.
+ */
+@Slf4j
+final class SharedExcelFile {
+
+    // The canonical absolute path of the Excel file
+    private final Path path;
+
+    // The lock of the Excel file
+    private final StampedLock lock;
+
+    // The map of header names to column indexes, read once
+    private volatile Map<String, Integer> headerMap;
+
+    // The mapped classes of the file, guarded by this
+    private final Set<Class<?>> entityClasses = new LinkedHashSet<>();
+
+    // The mapped class the file belongs to alone because it is journaled or sharded, or null, guarded by this
+    private Class<?> owner;
+
+    // Whether the temporary files a crashed process left behind have been deleted, guarded by this
+    private boolean cleaned;
+
+    /**
+     * Constructs the shared state of an Excel file. Nothing is read from or written to the file.
+     *
+     * @param path the canonical absolute path of the Excel file
+     */
+    SharedExcelFile(Path path) {
+        this.path = path;
+        this.lock = FileLocks.get(path);
+    }
+
+    /**
+     * Records a mapped class of the Excel file.
+     *
+     * @param entityClass the mapped class
+     * @param exclusive   whether the mapped class journals or shards the file, so it cannot share it
+     * @throws IllegalStateException if the file is journaled or sharded by another mapped class, or the mapped class
+     *                               journals or shards a file that another mapped class maps
+     */
+    synchronized void claim(Class<?> entityClass, boolean exclusive) {
+        if (entityClasses.contains(entityClass)) {
+            return;
+        }
+        if (owner != null || exclusive && !entityClasses.isEmpty()) {
+            Class<?> other = owner != null ? owner : entityClasses.iterator().next();
+            throw new IllegalStateException("Excel file " + path + " is mapped by entity class: " + other.getName()
+                    + ", a journaled or sharded file is mapped by one entity class only");
+        }
+        entityClasses.add(entityClass);
+        if (exclusive) {
+            owner = entityClass;
+        }
+    }
+
+    /**
+     * Prepares the Excel file for a new mapper: deletes the temporary files a crashed process left behind the first
+     * time, before this process creates any, and creates the file with the header row of the mapped class if it does
+     * not exist. The file is checked for every new mapper, so a mapper created after the file was deleted starts with
+     * an empty file again. Racing mappers of all mapped classes of the file are prepared one after another.
+     *
+     * @param filePath    the file path of the Excel file, as configured
+     * @param entityClass the mapped class whose header is written to a new file
+     * @throws IOException if the file cannot be created or the leftovers cannot be deleted
+     */
+    synchronized void open(String filePath, Class<?> entityClass) throws IOException {
+        File file = new File(filePath);
+        File directory = file.getParentFile();
+        if (directory != null && directory.mkdirs()) {
+            log.info("created directory: " + directory);
+        }
+        if (!cleaned) {
+            CopyFileInputStream.deleteLeftovers(filePath);
+            ReplaceFileOutputStream.deleteLeftovers(filePath);
+            AtomicFiles.deleteTemporaries(path, AtomicFiles.SNAPSHOT_SUFFIX);
+            AtomicFiles.deleteTemporaries(path, ExternalSorter.SUFFIX);
+            ColumnarFile.deleteLeftovers(path);
+            BloomFilterFile.deleteLeftovers(path);
+            cleaned = true;
+        }
+        if (file.createNewFile()) {
+            EasyExcel.write(file)
+                    .head(entityClass)
+                    .excelType(filePath.endsWith(XLS.getValue()) ? XLS : XLSX)
+                    .sheet()
+                    .doWrite(Collections.emptyList());
+            log.info("created file: " + filePath);
+        }
+    }
+
+    /**
+     * Returns the canonical absolute path of the Excel file.
+     *
+     * @return the path
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the lock of the Excel file.
+     *
+     * @return the lock shared by all mappers of the file
+     */
+    StampedLock getLock() {
+        return lock;
+    }
+
+    Map<String, Integer> getHeaderMap() {
+        return headerMap;
+    }
+
+    void setHeaderMap(Map<String, Integer> headerMap) {
+        this.headerMap = headerMap;
+    }
+}
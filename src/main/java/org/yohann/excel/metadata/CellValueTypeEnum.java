@@ -0,0 +1,26 @@
+package org.yohann.excel.metadata;
+
+/**
+ * An enumeration of the kinds of cell a field value is written to.
+ */
+public enum CellValueTypeEnum {
+    /**
+     * A text cell holding the formatted value, for values no other kind of cell holds exactly.
+     */
+    STRING,
+
+    /**
+     * A numeric cell, for numbers a double holds exactly.
+     */
+    NUMBER,
+
+    /**
+     * A boolean cell.
+     */
+    BOOLEAN,
+
+    /**
+     * A numeric cell holding the Excel serial date, formatted with the date pattern of the field.
+     */
+    DATE,
+}
@@ -0,0 +1,86 @@
+package org.yohann.excel.metadata;
+
+import java.util.List;
+
+/**
+ * This interface is implemented by the accessors ExcelAccessorProcessor generates for Excel entity classes at compile
+ * time. An accessor creates instances of its entity class and reads and writes its fields with plain Java code, so
+ * the metadata of the class binds no method handles and every call site stays monomorphic. Besides reading and
+ * writing single fields by index, an accessor reads a whole row into a new instance and writes a whole instance into
+ * the values of a row in straight-line code. The generated accessors are registered as services and found by
+ * ExcelMetadata through ServiceLoader; entity classes without one are accessed through reflection.
+ *
+ * @param <T> the type of the Excel entity class
+ */
+public interface EntityAccessor<T> {
+
+    /**
+     * Returns the entity class this accessor was generated for.
+     *
+     * @return the entity class
+     */
+    Class<T> getType();
+
+    /**
+     * Returns the names of the fields this accessor reads and writes, the position of a name being the index the
+     * field is accessed by. Fields the generated code cannot reach, such as private fields without accessor
+     * methods, are not listed.
+     *
+     * @return the names of the fields
+     */
+    List<String> getFieldNames();
+
+    /**
+     * Creates a new instance of the entity class through its no-argument constructor.
+     *
+     * @return the new instance
+     */
+    T newInstance();
+
+    /**
+     * Reads the value of a field.
+     *
+     * @param target the object to read from
+     * @param index  the index of the field in getFieldNames
+     * @return the value of the field
+     */
+    Object get(T target, int index);
+
+    /**
+     * Writes the value of a field.
+     *
+     * @param target the object to write to
+     * @param index  the index of the field in getFieldNames
+     * @param value  the value to write
+     */
+    void set(T target, int index, Object value);
+
+    /**
+     * Reads a row into a new instance of the entity class. Null values are not written, so the fields they belong to
+     * keep the values the constructor gave them.
+     *
+     * @param values the values of the row, the value of a field at its index in getFieldNames
+     * @return the new instance
+     */
+    default T readRow(Object[] values) {
+        T target = this.newInstance();
+        for (int index = 0; index < values.length; index++) {
+            if (values[index] != null) {
+                this.set(target, index, values[index]);
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Writes an instance of the entity class into the values of a row.
+     *
+     * @param source the object to write
+     * @param values the values of the row to fill, the value of a field at its index in getFieldNames
+     */
+    default void writeRow(T source, Object[] values) {
+        for (int index = 0; index < values.length; index++) {
+            values[index] = this.get(source, index);
+        }
+    }
+}
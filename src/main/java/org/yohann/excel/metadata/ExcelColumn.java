@@ -0,0 +1,57 @@
+package org.yohann.excel.metadata;
+
+/**
+ * This class binds an ExcelField to the index of the column it occupies in a concrete Excel file.
+ */
+public class ExcelColumn {
+
+    // The field stored in this column
+    private final ExcelField field;
+
+    // The zero-based index of the column
+    private final int index;
+
+    // The position of the field among the mapped fields of its entity class
+    private final int position;
+
+    /**
+     * Constructs a new ExcelColumn with the given field, column index and field position.
+     *
+     * @param field    the field stored in this column
+     * @param index    the zero-based index of the column
+     * @param position the position of the field among the mapped fields of its entity class
+     */
+    protected ExcelColumn(ExcelField field, int index, int position) {
+        this.field = field;
+        this.index = index;
+        this.position = position;
+    }
+
+    /**
+     * Returns the field stored in this column.
+     *
+     * @return the field stored in this column
+     */
+    public ExcelField getField() {
+        return field;
+    }
+
+    /**
+     * Returns the zero-based index of the column.
+     *
+     * @return the zero-based index of the column
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the position of the field among the mapped fields of its entity class, which is the position of its
+     * value in the values of a row.
+     *
+     * @return the position of the field
+     */
+    public int getPosition() {
+        return position;
+    }
+}
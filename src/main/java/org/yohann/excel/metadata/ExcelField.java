@@ -0,0 +1,465 @@
+package org.yohann.excel.metadata;
+
+import com.alibaba.excel.annotation.ExcelIgnore;
+import com.alibaba.excel.annotation.ExcelProperty;
+import com.alibaba.excel.annotation.format.DateTimeFormat;
+import org.yohann.excel.annotation.ExcelBloomFilter;
+import org.yohann.excel.annotation.ExcelIndex;
+import org.yohann.excel.index.BloomFilter;
+import org.yohann.excel.index.IndexKeys;
+import org.yohann.excel.index.IndexTypeEnum;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * This class describes a single field of an Excel entity class. All reflective work (annotation lookup,
+ * accessibility, accessor binding) is done once when the descriptor is created, so reading or writing the
+ * field afterwards goes through pre-bound method handles, or through the generated accessor of the entity class if
+ * it has one.
+ */
+public class ExcelField {
+
+    /**
+     * The default pattern used to format Date values that have no DateTimeFormat annotation.
+     */
+    private static final String DEFAULT_DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    /**
+     * The generic type of the getter handle: (Object)Object.
+     */
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * The generic type of the setter handle: (Object,Object)void.
+     */
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    /**
+     * The largest magnitude up to which every long is exactly a double, and so can be written to a numeric cell.
+     */
+    private static final long MAX_EXACT_LONG = 1L << 53;
+
+    // The name of the field
+    private final String name;
+
+    // The declared type of the field
+    private final Class<?> type;
+
+    // The header name of the column this field maps to
+    private final String headerName;
+
+    // Whether the field is marked with ExcelIgnore
+    private final boolean ignored;
+
+    // The date pattern of the field, resolved from the DateTimeFormat annotation
+    private final String datePattern;
+
+    // The Excel number format equivalent to the date pattern, or null if Excel cannot show dates that way
+    private final String excelDateFormat;
+
+    // The date format of the date pattern, one per thread since SimpleDateFormat is not thread-safe
+    private final ThreadLocal<SimpleDateFormat> dateFormat;
+
+    // The kind of index kept for the field, or null if the field is not indexed
+    private final IndexTypeEnum indexType;
+
+    // The false positive rate of the Bloom filter kept for the field, or 0 if the field has no Bloom filter
+    private final double bloomFilterRate;
+
+    // The pre-resolved formatter used to turn the field value into cell text
+    private final Function<Object, String> formatter;
+
+    // The pre-resolved function that turns a value into the value read back from its cell
+    private final UnaryOperator<Object> normalizer;
+
+    // The pre-bound getter of the field, or null if the field is accessed through the generated accessor
+    private final MethodHandle getter;
+
+    // The pre-bound setter of the field, or null if the field is accessed through the generated accessor
+    private final MethodHandle setter;
+
+    // The generated accessor of the entity class, or null if the field is accessed through method handles
+    private final EntityAccessor<Object> accessor;
+
+    // The index of the field in the generated accessor
+    private final int accessorIndex;
+
+    /**
+     * Constructs a new ExcelField describing the given field.
+     *
+     * @param field the field to describe
+     * @throws IllegalArgumentException if the field accessors cannot be bound, or the field type does not support
+     *                                  its kind of index or a Bloom filter
+     */
+    protected ExcelField(Field field) {
+        this(field, null, -1);
+    }
+
+    /**
+     * Constructs a new ExcelField describing the given field, read and written through a generated accessor.
+     *
+     * @param field         the field to describe
+     * @param accessor      the generated accessor of the entity class, or null to bind method handles
+     * @param accessorIndex the index of the field in the accessor
+     * @throws IllegalArgumentException if the field accessors cannot be bound, or the field type does not support
+     *                                  its kind of index or a Bloom filter
+     */
+    @SuppressWarnings("unchecked")
+    protected ExcelField(Field field, EntityAccessor<?> accessor, int accessorIndex) {
+        this.name = field.getName();
+        this.type = field.getType();
+        this.ignored = field.getAnnotation(ExcelIgnore.class) != null;
+        this.headerName = Optional.ofNullable(field.getAnnotation(ExcelProperty.class))
+                .map(excelProperty -> {
+                    String[] value = excelProperty.value();
+                    return value.length == 0 || "".equals(value[0]) ? null : value[0];
+                })
+                .orElse(name);
+        this.datePattern = Optional.ofNullable(field.getAnnotation(DateTimeFormat.class))
+                .map(DateTimeFormat::value)
+                .orElse(DEFAULT_DATE_PATTERN);
+        this.indexType = Optional.ofNullable(field.getAnnotation(ExcelIndex.class))
+                .map(ExcelIndex::value)
+                .orElse(null);
+        if (indexType == IndexTypeEnum.SORTED) {
+            // Fail on the entity class rather than on the first query
+            IndexKeys.sortedKeyType(type);
+        }
+        ExcelBloomFilter bloomFilter = field.getAnnotation(ExcelBloomFilter.class);
+        this.bloomFilterRate = bloomFilter != null ? bloomFilter.falsePositiveRate() : 0;
+        if (bloomFilter != null) {
+            if (!(bloomFilterRate > 0 && bloomFilterRate < 1)) {
+                throw new IllegalArgumentException("false positive rate must be between 0 and 1: " + name);
+            }
+            if (!BloomFilter.supports(type)) {
+                throw new IllegalArgumentException("bloom filter not supported for type: " + type.getName());
+            }
+        }
+        this.excelDateFormat = toExcelDateFormat(datePattern);
+        String pattern = datePattern;
+        this.dateFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat(pattern));
+        this.formatter = createFormatter(type, dateFormat);
+        this.normalizer = createNormalizer(type, formatter, dateFormat);
+
+        this.accessor = (EntityAccessor<Object>) accessor;
+        this.accessorIndex = accessorIndex;
+        if (accessor != null) {
+            // The generated code reaches the field, so it is never made accessible
+            this.getter = null;
+            this.setter = null;
+            return;
+        }
+        field.setAccessible(true);
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            this.getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+            this.setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("cannot access field: " + name, e);
+        }
+    }
+
+    /**
+     * Creates the formatter used to turn values of the given type into cell text.
+     * Dates are formatted with the date format of the field, everything else uses toString.
+     */
+    private static Function<Object, String> createFormatter(Class<?> type, ThreadLocal<SimpleDateFormat> dateFormat) {
+        if (Date.class.isAssignableFrom(type)) {
+            return value -> dateFormat.get().format((Date) value);
+        }
+        if (type.isAssignableFrom(Date.class)) {
+            // The declared type is a supertype of Date, so the check has to happen per value
+            return value -> value instanceof Date ? dateFormat.get().format((Date) value) : value.toString();
+        }
+        return Object::toString;
+    }
+
+    /**
+     * Creates the function that turns a value into the value EasyExcel reads back from the cell text written for it.
+     * Dates lose everything their pattern does not print, and strings are trimmed like EasyExcel's autoTrim
+     * does, with blank text read back as null.
+     */
+    private static UnaryOperator<Object> createNormalizer(Class<?> type, Function<Object, String> formatter,
+                                                          ThreadLocal<SimpleDateFormat> dateFormat) {
+        if (Date.class.isAssignableFrom(type)) {
+            return value -> {
+                try {
+                    return dateFormat.get().parse(formatter.apply(value));
+                } catch (ParseException e) {
+                    return value;
+                }
+            };
+        }
+        if (type == String.class) {
+            return value -> {
+                String text = ((String) value).trim();
+                return text.isEmpty() ? null : text;
+            };
+        }
+        return UnaryOperator.identity();
+    }
+
+    /**
+     * Returns the name of the field.
+     *
+     * @return the name of the field
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the declared type of the field.
+     *
+     * @return the declared type of the field
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Returns the header name of the column this field maps to.
+     *
+     * @return the header name of the column
+     */
+    public String getHeaderName() {
+        return headerName;
+    }
+
+    /**
+     * Returns whether the field is marked with ExcelIgnore.
+     *
+     * @return true if the field is not mapped to a column, false otherwise
+     */
+    public boolean isIgnored() {
+        return ignored;
+    }
+
+    /**
+     * Returns the date pattern of the field.
+     *
+     * @return the pattern from the DateTimeFormat annotation, or the default pattern if there is none
+     */
+    public String getDatePattern() {
+        return datePattern;
+    }
+
+    /**
+     * Returns the Excel number format that shows dates like the date pattern of the field.
+     *
+     * @return the number format, or null if the date pattern has letters Excel cannot show
+     */
+    public String getExcelDateFormat() {
+        return excelDateFormat;
+    }
+
+    /**
+     * Returns the kind of index kept for the field.
+     *
+     * @return the kind of index from the ExcelIndex annotation, or null if the field is not indexed
+     */
+    public IndexTypeEnum getIndexType() {
+        return indexType;
+    }
+
+    /**
+     * Returns the false positive rate of the Bloom filter kept for the field.
+     *
+     * @return the false positive rate from the ExcelBloomFilter annotation, or 0 if the field has no Bloom filter
+     */
+    public double getBloomFilterRate() {
+        return bloomFilterRate;
+    }
+
+    /**
+     * Reads the value of this field from the given object.
+     *
+     * @param target the object to read from
+     * @return the value of the field
+     */
+    public Object get(Object target) {
+        try {
+            return accessor != null ? accessor.get(target, accessorIndex) : (Object) getter.invokeExact(target);
+        } catch (Throwable e) {
+            throw new IllegalStateException("get field failed: " + name, e);
+        }
+    }
+
+    /**
+     * Writes the value of this field on the given object.
+     *
+     * @param target the object to write to
+     * @param value  the value to write
+     */
+    public void set(Object target, Object value) {
+        try {
+            if (accessor != null) {
+                accessor.set(target, accessorIndex, value);
+            } else {
+                setter.invokeExact(target, value);
+            }
+        } catch (Throwable e) {
+            throw new IllegalStateException("set field failed: " + name, e);
+        }
+    }
+
+    /**
+     * Formats a non-null value of this field into the text written to its cell.
+     *
+     * @param value the value to format
+     * @return the cell text
+     */
+    public String format(Object value) {
+        return formatter.apply(value);
+    }
+
+    /**
+     * Returns the kind of cell a non-null value of this field is written to. Numbers are written to numeric cells if
+     * a double holds them exactly, and dates to numeric cells if Excel can show them with the date pattern of the
+     * field. Everything else is written as text, and so are values of fields declared with a supertype such as
+     * Object, which EasyExcel only reads back from text.
+     *
+     * @param value the value to write
+     * @return the kind of cell
+     */
+    public CellValueTypeEnum cellType(Object value) {
+        if (!type.isPrimitive() && type != value.getClass() && !Date.class.isAssignableFrom(type)) {
+            return CellValueTypeEnum.STRING;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return CellValueTypeEnum.NUMBER;
+        }
+        if (value instanceof Long) {
+            long number = (Long) value;
+            return number >= -MAX_EXACT_LONG && number <= MAX_EXACT_LONG ? CellValueTypeEnum.NUMBER
+                    : CellValueTypeEnum.STRING;
+        }
+        if (value instanceof Double || value instanceof Float) {
+            // Excel has no cells for NaN and infinities
+            double number = ((Number) value).doubleValue();
+            return Double.isNaN(number) || Double.isInfinite(number) ? CellValueTypeEnum.STRING
+                    : CellValueTypeEnum.NUMBER;
+        }
+        if (value instanceof Boolean) {
+            return CellValueTypeEnum.BOOLEAN;
+        }
+        if (value instanceof Date) {
+            return excelDateFormat != null ? CellValueTypeEnum.DATE : CellValueTypeEnum.STRING;
+        }
+        return CellValueTypeEnum.STRING;
+    }
+
+    /**
+     * Returns the value that reading back the cell written for the given value produces.
+     *
+     * @param value the value to normalize, may be null
+     * @return the value as it would be read back from the Excel file
+     */
+    public Object normalize(Object value) {
+        return value == null ? null : normalizer.apply(value);
+    }
+
+    /**
+     * Translate a SimpleDateFormat pattern into an Excel number format, or return null if the pattern has letters
+     * Excel cannot show, such as time zones or week numbers
+     */
+    private static String toExcelDateFormat(String pattern) {
+        StringBuilder format = new StringBuilder();
+        boolean twelveHours = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                // Quoted text, two quotes in a row being a quote
+                int end = pattern.indexOf('\'', i + 1);
+                if (end < 0) {
+                    return null;
+                }
+                String text = end == i + 1 ? "'" : pattern.substring(i + 1, end);
+                format.append('"').append(text.replace("\"", "\\\"")).append('"');
+                i = end;
+                continue;
+            }
+            int run = 1;
+            while (i + run < pattern.length() && pattern.charAt(i + run) == c) {
+                run++;
+            }
+            String letters;
+            switch (c) {
+                case 'y':
+                    letters = run == 2 ? "yy" : "yyyy";
+                    break;
+                case 'M':
+                    if (run > 4) {
+                        return null;
+                    }
+                    letters = repeat('m', run);
+                    break;
+                case 'd':
+                    letters = repeat('d', Math.min(run, 2));
+                    break;
+                case 'E':
+                    letters = run >= 4 ? "dddd" : "ddd";
+                    break;
+                case 'H':
+                    letters = repeat('h', Math.min(run, 2));
+                    break;
+                case 'h':
+                    twelveHours = true;
+                    letters = repeat('h', Math.min(run, 2));
+                    break;
+                case 'm':
+                    letters = repeat('m', Math.min(run, 2));
+                    break;
+                case 's':
+                    letters = repeat('s', Math.min(run, 2));
+                    break;
+                case 'S':
+                    // Fractions of a second follow the seconds and a decimal point in Excel
+                    if (format.length() == 0 || format.charAt(format.length() - 1) != '.' || run > 3) {
+                        return null;
+                    }
+                    letters = repeat('0', run);
+                    break;
+                case 'a':
+                    letters = "AM/PM";
+                    break;
+                default:
+                    if (Character.isLetter(c)) {
+                        return null;
+                    }
+                    // Excel shows other characters literally only when escaped
+                    letters = "-/:., ".indexOf(c) >= 0 ? repeat(c, run) : repeat('\\', run).replace("\\", "\\" + c);
+            }
+            format.append(letters);
+            i += run - 1;
+        }
+        // Without AM/PM Excel shows hours from 0 to 23, so 12-hour patterns need the marker, and Excel reads mm as
+        // minutes only next to hours or seconds
+        boolean minutes = pattern.indexOf('m') >= 0;
+        boolean clock = pattern.indexOf('H') >= 0 || pattern.indexOf('h') >= 0 || pattern.indexOf('s') >= 0;
+        if (twelveHours && format.indexOf("AM/PM") < 0 || minutes && !clock) {
+            return null;
+        }
+        return format.toString();
+    }
+
+    /**
+     * Repeat a character
+     */
+    private static String repeat(char c, int count) {
+        StringBuilder text = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            text.append(c);
+        }
+        return text.toString();
+    }
+}
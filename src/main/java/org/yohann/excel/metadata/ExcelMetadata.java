@@ -0,0 +1,409 @@
+package org.yohann.excel.metadata;
+
+import org.yohann.excel.entity.Excel;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class holds the field metadata of an Excel entity class. The metadata is built once per class and cached,
+ * so the write path and the query path never have to look up fields or annotations per row. If ExcelAccessorProcessor
+ * generated an accessor for the class, instances are created and fields are read and written through it instead of
+ * through method handles, and whole rows are read and written through its row reader and writer if it reaches all
+ * mapped fields.
+ *
+ * @param <T> the type of the Excel entity class
+ */
+public class ExcelMetadata<T> {
+
+    /**
+     * The cache of metadata objects, keyed by entity class.
+     */
+    private static final ConcurrentMap<Class<?>, ExcelMetadata<?>> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * The generic type of the constructor handle: ()Object.
+     */
+    private static final MethodType NEW_INSTANCE_TYPE = MethodType.methodType(Object.class);
+
+    // The entity class described by this metadata
+    private final Class<T> type;
+
+    // The fields mapped to columns, in declaration order
+    private final List<ExcelField> fields;
+
+    // The mapped fields marked with ExcelIndex, in declaration order
+    private final List<ExcelField> indexedFields;
+
+    // The mapped fields marked with ExcelBloomFilter, in declaration order
+    private final List<ExcelField> bloomFilterFields;
+
+    // All declared fields of the entity class, keyed by field name
+    private final Map<String, ExcelField> fieldMap;
+
+    // The no-argument constructor of the entity class, or null if it has none or the class has a generated accessor
+    private final MethodHandle constructor;
+
+    // The generated accessor of the entity class, or null if it has none
+    private final EntityAccessor<T> accessor;
+
+    // The indexes of the mapped fields in the generated accessor, or null if the accessor does not reach them all
+    private final int[] accessorIndexes;
+
+    // Whether the mapped fields are exactly the fields of the generated accessor, in the same order
+    private final boolean accessorAligned;
+
+    /**
+     * Constructs a new ExcelMetadata object for the given entity class.
+     *
+     * @param type the entity class to describe
+     */
+    private ExcelMetadata(Class<T> type) {
+        this.type = type;
+        List<ExcelField> fields = new ArrayList<>();
+        List<ExcelField> indexedFields = new ArrayList<>();
+        List<ExcelField> bloomFilterFields = new ArrayList<>();
+        Map<String, ExcelField> fieldMap = new HashMap<>();
+        this.accessor = findAccessor(type);
+        List<String> accessorFields = accessor != null ? accessor.getFieldNames() : Collections.emptyList();
+        for (Field field : type.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                continue;
+            }
+            int accessorIndex = accessorFields.indexOf(field.getName());
+            ExcelField excelField = accessorIndex >= 0 ? new ExcelField(field, accessor, accessorIndex)
+                    : new ExcelField(field);
+            fieldMap.put(excelField.getName(), excelField);
+            if (!excelField.isIgnored()) {
+                fields.add(excelField);
+                if (excelField.getIndexType() != null) {
+                    indexedFields.add(excelField);
+                }
+                if (excelField.getBloomFilterRate() > 0) {
+                    bloomFilterFields.add(excelField);
+                }
+            }
+        }
+        this.fields = Collections.unmodifiableList(fields);
+        this.accessorIndexes = accessorIndexes(fields, accessorFields);
+        this.accessorAligned = accessorIndexes != null && accessorFields.size() == fields.size()
+                && isIdentity(accessorIndexes);
+        this.indexedFields = Collections.unmodifiableList(indexedFields);
+        this.bloomFilterFields = Collections.unmodifiableList(bloomFilterFields);
+        this.fieldMap = Collections.unmodifiableMap(fieldMap);
+        this.constructor = accessor != null ? null : findConstructor(type);
+    }
+
+    /**
+     * Finds the generated accessor of the given class among the accessors registered as services. Accessors that
+     * cannot be loaded, such as ones left behind by an earlier build of a removed class, are skipped.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> EntityAccessor<T> findAccessor(Class<T> type) {
+        ServiceLoader<?> loader = ServiceLoader.load(EntityAccessor.class, type.getClassLoader());
+        Iterator<EntityAccessor<?>> accessors = ((ServiceLoader<EntityAccessor<?>>) loader).iterator();
+        while (true) {
+            try {
+                if (!accessors.hasNext()) {
+                    return null;
+                }
+                EntityAccessor<?> accessor = accessors.next();
+                if (accessor.getType() == type) {
+                    return (EntityAccessor<T>) accessor;
+                }
+            } catch (ServiceConfigurationError e) {
+                // The iterator moves past the broken entry before throwing
+            }
+        }
+    }
+
+    /**
+     * Finds the indexes of the mapped fields in the generated accessor, or null if a mapped field is not reached by it.
+     */
+    private static int[] accessorIndexes(List<ExcelField> fields, List<String> accessorFields) {
+        int[] indexes = new int[fields.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = accessorFields.indexOf(fields.get(i).getName());
+            if (indexes[i] < 0) {
+                return null;
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Checks if every index is its own position.
+     */
+    private static boolean isIdentity(int[] indexes) {
+        for (int i = 0; i < indexes.length; i++) {
+            if (indexes[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the no-argument constructor of the given class.
+     */
+    private static MethodHandle findConstructor(Class<?> type) {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor).asType(NEW_INSTANCE_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the metadata of the given entity class, building and caching it on first use.
+     *
+     * @param type the entity class
+     * @param <T>  the type of the entity class
+     * @return the metadata of the entity class
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ExcelMetadata<T> of(Class<T> type) {
+        return (ExcelMetadata<T>) CACHE.computeIfAbsent(type, ExcelMetadata::new);
+    }
+
+    /**
+     * Returns the entity class described by this metadata.
+     *
+     * @return the entity class
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Returns the fields that are mapped to columns, in declaration order.
+     *
+     * @return an unmodifiable list of the mapped fields
+     */
+    public List<ExcelField> getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns the mapped fields that are marked with ExcelIndex, in declaration order.
+     *
+     * @return an unmodifiable list of the indexed fields
+     */
+    public List<ExcelField> getIndexedFields() {
+        return indexedFields;
+    }
+
+    /**
+     * Returns the mapped fields that are marked with ExcelBloomFilter, in declaration order.
+     *
+     * @return an unmodifiable list of the fields with Bloom filters
+     */
+    public List<ExcelField> getBloomFilterFields() {
+        return bloomFilterFields;
+    }
+
+    /**
+     * Returns the declared field with the given name, including fields marked with ExcelIgnore.
+     *
+     * @param name the name of the field
+     * @return the field, or null if the entity class declares no such field
+     */
+    public ExcelField getField(String name) {
+        return fieldMap.get(name);
+    }
+
+    /**
+     * Checks if the entity class has a generated accessor, so its instances are created and its fields are read and
+     * written without reflection.
+     *
+     * @return true if the entity class has a generated accessor
+     */
+    public boolean hasAccessor() {
+        return accessor != null;
+    }
+
+    /**
+     * Creates a new instance of the entity class through its no-argument constructor.
+     *
+     * @return the new instance
+     * @throws IllegalStateException if the entity class has no usable no-argument constructor
+     */
+    @SuppressWarnings("unchecked")
+    public T newInstance() {
+        if (accessor != null) {
+            return accessor.newInstance();
+        }
+        if (constructor == null) {
+            throw new IllegalStateException("no default constructor: " + type.getName());
+        }
+        try {
+            return (T) (Object) constructor.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("create instance failed: " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Creates a new instance of the entity class holding the values of a row. Null values are not written, so the
+     * fields they belong to keep the values the constructor gave them.
+     *
+     * @param values the values of the mapped fields, in the order of getFields
+     * @return the new instance
+     * @throws IllegalStateException if the entity class has no usable no-argument constructor
+     */
+    public T newInstance(Object[] values) {
+        if (accessorAligned) {
+            return accessor.readRow(values);
+        }
+        if (accessorIndexes != null) {
+            Object[] accessorValues = new Object[accessor.getFieldNames().size()];
+            for (int i = 0; i < accessorIndexes.length; i++) {
+                accessorValues[accessorIndexes[i]] = values[i];
+            }
+            return accessor.readRow(accessorValues);
+        }
+        T target = newInstance();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                fields.get(i).set(target, values[i]);
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Reads the values of the mapped fields of an entity object, the values of a row.
+     *
+     * @param source the object to read
+     * @return the values of the mapped fields, in the order of getFields
+     */
+    public Object[] getValues(T source) {
+        Object[] values = new Object[fields.size()];
+        if (accessorAligned) {
+            accessor.writeRow(source, values);
+            return values;
+        }
+        if (accessorIndexes != null) {
+            Object[] accessorValues = new Object[accessor.getFieldNames().size()];
+            accessor.writeRow(source, accessorValues);
+            for (int i = 0; i < accessorIndexes.length; i++) {
+                values[i] = accessorValues[accessorIndexes[i]];
+            }
+            return values;
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] = fields.get(i).get(source);
+        }
+        return values;
+    }
+
+    /**
+     * Copies the mapped fields and the row number of an entity object into a new instance.
+     *
+     * @param source the object to copy
+     * @return the copy
+     */
+    public T copy(T source) {
+        T target = newInstance();
+        for (ExcelField field : fields) {
+            field.set(target, field.get(source));
+        }
+        copyRowNum(source, target);
+        return target;
+    }
+
+    /**
+     * Copies the given fields and the row number of an entity object into a new instance, leaving the other fields
+     * null.
+     *
+     * @param source the object to copy
+     * @param fields the fields to copy
+     * @return the copy
+     */
+    public T copy(T source, List<ExcelField> fields) {
+        T target = newInstance();
+        for (ExcelField field : fields) {
+            field.set(target, field.get(source));
+        }
+        copyRowNum(source, target);
+        return target;
+    }
+
+    /**
+     * Returns the mapped fields with the given names.
+     *
+     * @param names the names of the fields
+     * @return an unmodifiable list of the fields, in declaration order
+     * @throws IllegalArgumentException if a name does not belong to a mapped field
+     */
+    public List<ExcelField> getFields(Collection<String> names) {
+        for (String name : names) {
+            ExcelField field = fieldMap.get(name);
+            if (field == null || field.isIgnored()) {
+                throw new IllegalArgumentException("no such field: " + name + " in " + type.getName());
+            }
+        }
+        List<ExcelField> selected = new ArrayList<>(names.size());
+        for (ExcelField field : fields) {
+            if (names.contains(field.getName())) {
+                selected.add(field);
+            }
+        }
+        return Collections.unmodifiableList(selected);
+    }
+
+    /**
+     * Copies an entity object the way it would be read back from its row: only the mapped fields and the row number
+     * are copied, and each value is normalized to what its cell text reads back as.
+     *
+     * @param source the object to copy
+     * @return the normalized copy
+     */
+    public T normalize(T source) {
+        T target = newInstance();
+        for (ExcelField field : fields) {
+            field.set(target, field.normalize(field.get(source)));
+        }
+        copyRowNum(source, target);
+        return target;
+    }
+
+    /**
+     * Copies the row number if the entity class extends Excel.
+     */
+    private static void copyRowNum(Object source, Object target) {
+        if (source instanceof Excel) {
+            ((Excel) target).setRowNum(((Excel) source).getRowNum());
+        }
+    }
+
+    /**
+     * Binds the mapped fields to the columns of a concrete Excel file.
+     *
+     * @param headerMap the map of header names to column indexes of the Excel file
+     * @return an unmodifiable list of columns, ordered by column index
+     * @throws IllegalArgumentException if a mapped field has no column in the header
+     */
+    public List<ExcelColumn> bind(Map<String, Integer> headerMap) {
+        List<ExcelColumn> columns = new ArrayList<>(fields.size());
+        for (int position = 0; position < fields.size(); position++) {
+            ExcelField field = fields.get(position);
+            Integer index = headerMap.get(field.getHeaderName());
+            if (index == null) {
+                throw new IllegalArgumentException("header not found: " + field.getHeaderName());
+            }
+            columns.add(new ExcelColumn(field, index, position));
+        }
+        columns.sort(Comparator.comparingInt(ExcelColumn::getIndex));
+        return Collections.unmodifiableList(columns);
+    }
+}
@@ -0,0 +1,30 @@
+package org.yohann.excel.metadata;
+
+import com.alibaba.excel.converters.doubleconverter.DoubleStringConverter;
+import com.alibaba.excel.metadata.GlobalConfiguration;
+import com.alibaba.excel.metadata.data.ReadCellData;
+import com.alibaba.excel.metadata.property.ExcelContentProperty;
+
+import java.text.ParseException;
+
+/**
+ * This class reads Double fields from text cells like EasyExcel does, and also reads back NaN and the infinities,
+ * which Excel has no numeric cells for and so are written as the text Double.toString returns.
+ */
+public class NonFiniteDoubleConverter extends DoubleStringConverter {
+
+    @Override
+    public Double convertToJavaData(ReadCellData<?> cellData, ExcelContentProperty contentProperty,
+                                    GlobalConfiguration globalConfiguration) throws ParseException {
+        switch (cellData.getStringValue().trim()) {
+            case "NaN":
+                return Double.NaN;
+            case "Infinity":
+                return Double.POSITIVE_INFINITY;
+            case "-Infinity":
+                return Double.NEGATIVE_INFINITY;
+            default:
+                return super.convertToJavaData(cellData, contentProperty, globalConfiguration);
+        }
+    }
+}
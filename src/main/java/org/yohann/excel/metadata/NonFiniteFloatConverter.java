@@ -0,0 +1,30 @@
+package org.yohann.excel.metadata;
+
+import com.alibaba.excel.converters.floatconverter.FloatStringConverter;
+import com.alibaba.excel.metadata.GlobalConfiguration;
+import com.alibaba.excel.metadata.data.ReadCellData;
+import com.alibaba.excel.metadata.property.ExcelContentProperty;
+
+import java.text.ParseException;
+
+/**
+ * This class reads Float fields from text cells like EasyExcel does, and also reads back NaN and the infinities,
+ * which Excel has no numeric cells for and so are written as the text Float.toString returns.
+ */
+public class NonFiniteFloatConverter extends FloatStringConverter {
+
+    @Override
+    public Float convertToJavaData(ReadCellData<?> cellData, ExcelContentProperty contentProperty,
+                                   GlobalConfiguration globalConfiguration) throws ParseException {
+        switch (cellData.getStringValue().trim()) {
+            case "NaN":
+                return Float.NaN;
+            case "Infinity":
+                return Float.POSITIVE_INFINITY;
+            case "-Infinity":
+                return Float.NEGATIVE_INFINITY;
+            default:
+                return super.convertToJavaData(cellData, contentProperty, globalConfiguration);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package org.yohann.excel.metadata;
+
+import org.yohann.excel.entity.Excel;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * This class turns rows into bytes and back. A row is written as its row number followed by the values of the mapped
+ * fields in declaration order, each value prefixed with a tag naming its type. Values of other serializable types
+ * fall back to Java serialization.
+ *
+ * @param <T> the type of the rows
+ */
+public class RowCodec<T extends Excel> {
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte SHORT = 6;
+    private static final byte BYTE = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte CHARACTER = 9;
+    private static final byte BIG_DECIMAL = 10;
+    private static final byte BIG_INTEGER = 11;
+    private static final byte DATE = 12;
+    private static final byte SERIALIZED = 99;
+
+    // The metadata of the row type
+    private final ExcelMetadata<T> metadata;
+
+    /**
+     * Constructs a new RowCodec for the given row type.
+     *
+     * @param metadata the metadata of the row type
+     */
+    public RowCodec(ExcelMetadata<T> metadata) {
+        this.metadata = metadata;
+    }
+
+    /**
+     * Returns the number of values written per row, which tells rows of different versions of a class apart.
+     *
+     * @return the number of mapped fields
+     */
+    public int getFieldCount() {
+        return metadata.getFields().size();
+    }
+
+    /**
+     * Writes a row.
+     *
+     * @param out the stream to write to
+     * @param row the row
+     * @throws IOException              if the stream cannot be written
+     * @throws IllegalArgumentException if a value cannot be encoded
+     */
+    public void write(DataOutputStream out, T row) throws IOException {
+        out.writeInt(row.getRowNum());
+        for (ExcelField field : metadata.getFields()) {
+            writeValue(out, field.get(row));
+        }
+    }
+
+    /**
+     * Reads a row written by write.
+     *
+     * @param in the stream to read from
+     * @return the row
+     * @throws IOException if the stream cannot be read or does not hold a row of the row type
+     */
+    public T read(DataInputStream in) throws IOException {
+        T row = metadata.newInstance();
+        row.setRowNum(in.readInt());
+        for (ExcelField field : metadata.getFields()) {
+            field.set(row, readValue(in));
+        }
+        return row;
+    }
+
+    /**
+     * Writes a tagged value.
+     */
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character) value);
+        } else if (value.getClass() == BigDecimal.class) {
+            out.writeByte(BIG_DECIMAL);
+            writeString(out, value.toString());
+        } else if (value.getClass() == BigInteger.class) {
+            out.writeByte(BIG_INTEGER);
+            writeString(out, value.toString());
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Serializable) {
+            out.writeByte(SERIALIZED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+                objectOut.writeObject(value);
+            }
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        } else {
+            throw new IllegalArgumentException("cannot encode value of type: " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Reads a tagged value.
+     */
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case BOOLEAN:
+                return in.readBoolean();
+            case CHARACTER:
+                return in.readChar();
+            case BIG_DECIMAL:
+                return new BigDecimal(readString(in));
+            case BIG_INTEGER:
+                return new BigInteger(readString(in));
+            case DATE:
+                return new Date(in.readLong());
+            case SERIALIZED:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return objectIn.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("cannot decode value", e);
+                }
+            default:
+                throw new IOException("unknown value tag: " + tag);
+        }
+    }
+
+    /**
+     * Writes a string of any length as UTF-8, which writeUTF limits to 64K bytes.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
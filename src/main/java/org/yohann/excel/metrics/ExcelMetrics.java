@@ -0,0 +1,17 @@
+package org.yohann.excel.metrics;
+
+/**
+ * This interface receives a sample of every mapper operation once the operation has finished. Implementations are
+ * installed with Metrics.set, or found on the class path through a META-INF/services/org.yohann.excel.metrics.ExcelMetrics
+ * file. Samples are reported on the threads running the operations, so implementations must be thread-safe and should
+ * return quickly.
+ */
+public interface ExcelMetrics {
+
+    /**
+     * Records a finished operation.
+     *
+     * @param sample the sample of the operation, not to be kept after this call returns
+     */
+    void record(OperationSample sample);
+}
@@ -0,0 +1,97 @@
+package org.yohann.excel.metrics;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class sums up the samples in memory, per Excel file and operation, so the hot files and the operations the
+ * time goes to can be looked up while the application runs. Memory grows with the number of files, not with the
+ * number of operations.
+ */
+public class InMemoryMetrics implements ExcelMetrics {
+
+    // The statistics, keyed by file and operation
+    private final ConcurrentMap<Path, ConcurrentMap<OperationTypeEnum, OperationStats>> stats =
+            new ConcurrentHashMap<>();
+
+    @Override
+    public void record(OperationSample sample) {
+        stats.computeIfAbsent(sample.getPath(), path -> new ConcurrentHashMap<>())
+                .computeIfAbsent(sample.getType(), type -> new OperationStats())
+                .add(sample);
+    }
+
+    /**
+     * Returns the statistics of an operation on an Excel file.
+     *
+     * @param path the normalized absolute path of the file
+     * @param type the operation
+     * @return the statistics, or null if the operation has not run on the file
+     */
+    public OperationStats getStats(Path path, OperationTypeEnum type) {
+        Map<OperationTypeEnum, OperationStats> operations = stats.get(path);
+        return operations == null ? null : operations.get(type);
+    }
+
+    /**
+     * Returns the statistics of all operations on an Excel file.
+     *
+     * @param path the normalized absolute path of the file
+     * @return the statistics keyed by operation, empty if no operation has run on the file
+     */
+    public Map<OperationTypeEnum, OperationStats> getStats(Path path) {
+        Map<OperationTypeEnum, OperationStats> operations = stats.get(path);
+        Map<OperationTypeEnum, OperationStats> copy = new EnumMap<>(OperationTypeEnum.class);
+        if (operations != null) {
+            copy.putAll(operations);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the Excel files operations have run on.
+     *
+     * @return the normalized absolute paths of the files
+     */
+    public Set<Path> getPaths() {
+        return new HashSet<>(stats.keySet());
+    }
+
+    /**
+     * Returns the Excel files that operations spent the most time on, the hottest file first.
+     *
+     * @param limit the maximum number of files
+     * @return the normalized absolute paths of the files
+     */
+    public List<Path> getHottestPaths(int limit) {
+        Map<Path, Long> totals = new HashMap<>();
+        for (Map.Entry<Path, ConcurrentMap<OperationTypeEnum, OperationStats>> entry : stats.entrySet()) {
+            long total = 0;
+            for (OperationStats operation : entry.getValue().values()) {
+                total += operation.getLatency().getTotalNanos();
+            }
+            totals.put(entry.getKey(), total);
+        }
+        List<Path> paths = new ArrayList<>(totals.keySet());
+        paths.sort(Comparator.comparing(totals::get, Comparator.reverseOrder()));
+        return paths.size() > limit ? new ArrayList<>(paths.subList(0, Math.max(limit, 0))) : paths;
+    }
+
+    /**
+     * Drops all statistics.
+     */
+    public void reset() {
+        stats.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("InMemoryMetrics{");
+        for (Path path : this.getHottestPaths(Integer.MAX_VALUE)) {
+            builder.append('\n').append(path).append(' ').append(this.getStats(path));
+        }
+        return builder.append(builder.length() > 16 ? "\n}" : "}").toString();
+    }
+}
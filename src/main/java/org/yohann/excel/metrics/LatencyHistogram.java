@@ -0,0 +1,133 @@
+package org.yohann.excel.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts latencies in buckets of powers of two nanoseconds, bucket i holding the latencies from 2^i up to
+ * 2^(i+1) nanoseconds. Percentiles are reported as the upper bound of their bucket, so they are off by less than a
+ * factor of two, which is enough to tell where the time goes at a fixed size and without locking.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of buckets, one for every bit of a long.
+     */
+    private static final int BUCKETS = 64;
+
+    // The number of latencies in every bucket
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    // The number of latencies
+    private final LongAdder count = new LongAdder();
+
+    // The sum of all latencies in nanoseconds
+    private final LongAdder totalNanos = new LongAdder();
+
+    // The longest latency in nanoseconds
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Counts a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative latencies count as 0
+     */
+    public void record(long nanos) {
+        long latency = Math.max(nanos, 0);
+        buckets.incrementAndGet(bucket(latency));
+        count.increment();
+        totalNanos.add(latency);
+        maxNanos.accumulate(latency);
+    }
+
+    /**
+     * Returns the number of latencies.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of all latencies.
+     *
+     * @return the total in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * Returns the longest latency.
+     *
+     * @return the maximum in nanoseconds, or 0 if no latency has been counted
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns the mean latency.
+     *
+     * @return the mean in nanoseconds, or 0 if no latency has been counted
+     */
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) totalNanos.sum() / n;
+    }
+
+    /**
+     * Returns an upper bound of the latency below which the given share of latencies falls.
+     *
+     * @param percentile the share of latencies, such as 0.99
+     * @return the upper bound of the bucket holding the percentile in nanoseconds, capped at the longest latency, or 0
+     * if no latency has been counted
+     * @throws IllegalArgumentException if the percentile is not between 0 and 1
+     */
+    public long getPercentileNanos(double percentile) {
+        if (!(percentile >= 0 && percentile <= 1)) {
+            throw new IllegalArgumentException("percentile out of range: " + percentile);
+        }
+        long[] counts = this.getBucketCounts();
+        long total = 0;
+        for (long n : counts) {
+            total += n;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(percentile * total), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long upper = i >= BUCKETS - 2 ? Long.MAX_VALUE : (2L << i) - 1;
+                return Math.min(upper, this.getMaxNanos());
+            }
+        }
+        return this.getMaxNanos();
+    }
+
+    /**
+     * Returns the number of latencies in every bucket.
+     *
+     * @return the counts, bucket i holding the latencies from 2^i up to 2^(i+1) nanoseconds and bucket 0 also
+     * holding latencies of 0
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Get the bucket of a latency
+     */
+    private static int bucket(long nanos) {
+        return nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+}
@@ -0,0 +1,46 @@
+package org.yohann.excel.metrics;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * This class holds the metrics all mappers report their operations to. Unless metrics are installed with set, the
+ * first implementation of ExcelMetrics listed in a META-INF/services file on the class path is used, and without one
+ * every sample is discarded.
+ */
+public class Metrics {
+
+    /**
+     * The installed metrics.
+     */
+    private static volatile ExcelMetrics metrics = load();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the installed metrics.
+     *
+     * @return the metrics all mappers report to
+     */
+    public static ExcelMetrics get() {
+        return metrics;
+    }
+
+    /**
+     * Installs the metrics all mappers report to from now on.
+     *
+     * @param metrics the metrics, or null to discard every sample
+     */
+    public static void set(ExcelMetrics metrics) {
+        Metrics.metrics = metrics != null ? metrics : NoopMetrics.INSTANCE;
+    }
+
+    /**
+     * Find the metrics listed on the class path, or the metrics discarding every sample if none are listed
+     */
+    private static ExcelMetrics load() {
+        Iterator<ExcelMetrics> found = ServiceLoader.load(ExcelMetrics.class, Metrics.class.getClassLoader()).iterator();
+        return found.hasNext() ? found.next() : NoopMetrics.INSTANCE;
+    }
+}
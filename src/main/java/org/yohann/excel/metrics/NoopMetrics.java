@@ -0,0 +1,19 @@
+package org.yohann.excel.metrics;
+
+/**
+ * This class discards every sample. It is installed unless other metrics are installed or found on the class path.
+ */
+public class NoopMetrics implements ExcelMetrics {
+
+    /**
+     * The shared instance.
+     */
+    public static final NoopMetrics INSTANCE = new NoopMetrics();
+
+    private NoopMetrics() {
+    }
+
+    @Override
+    public void record(OperationSample sample) {
+    }
+}
@@ -0,0 +1,252 @@
+package org.yohann.excel.metrics;
+
+import java.nio.file.Path;
+
+/**
+ * This class collects what a single mapper operation on an Excel file took: how long it ran and waited for the lock
+ * of the file, how many rows it scanned, matched and wrote, how many bytes of the file it read and wrote, and how
+ * often it found the rows of the file cached. The mapper fills it in while the operation runs and reports it to the
+ * installed metrics once the operation has finished.
+ * <p>
+ * A sample is not thread-safe. An operation is measured by one thread at a time, even if it is handed over to
+ * another thread, like an iteration read on a producer thread.
+ */
+public class OperationSample {
+
+    // The Excel file the operation ran on
+    private final Path path;
+
+    // The operation
+    private final OperationTypeEnum type;
+
+    // The time the operation started at, from System.nanoTime
+    private final long startNanos;
+
+    // The time the operation took, set once it has finished
+    private long latencyNanos = -1;
+
+    // The time spent waiting for the lock of the file
+    private long lockWaitNanos;
+
+    // The number of rows tested against the criteria
+    private long rowsScanned;
+
+    // The number of rows matching the criteria
+    private long rowsMatched;
+
+    // The number of rows inserted, updated or deleted
+    private long rowsWritten;
+
+    // The number of bytes of Excel files read
+    private long bytesRead;
+
+    // The number of bytes of Excel files written
+    private long bytesWritten;
+
+    // The number of lookups served from the cached rows
+    private long cacheHits;
+
+    // The number of lookups that had to read the rows from the file
+    private long cacheMisses;
+
+    /**
+     * Starts a sample of an operation.
+     *
+     * @param path the Excel file the operation runs on
+     * @param type the operation
+     */
+    public OperationSample(Path path, OperationTypeEnum type) {
+        this.path = path;
+        this.type = type;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Marks the operation as finished, fixing its latency. Later calls keep the first latency.
+     */
+    public void stop() {
+        if (latencyNanos < 0) {
+            latencyNanos = System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * Adds time spent waiting for the lock of the file.
+     *
+     * @param nanos the time in nanoseconds
+     */
+    public void addLockWaitNanos(long nanos) {
+        lockWaitNanos += nanos;
+    }
+
+    /**
+     * Counts a row tested against the criteria, and whether it matched.
+     *
+     * @param matched true if the row matched the criteria
+     */
+    public void addRowScanned(boolean matched) {
+        rowsScanned++;
+        if (matched) {
+            rowsMatched++;
+        }
+    }
+
+    /**
+     * Counts rows tested against the criteria at once. Rows returned without testing them count as scanned and
+     * matched.
+     *
+     * @param scanned the number of rows tested
+     * @param matched the number of rows matching the criteria
+     */
+    public void addRowsScanned(long scanned, long matched) {
+        rowsScanned += scanned;
+        rowsMatched += matched;
+    }
+
+    /**
+     * Counts rows inserted, updated or deleted.
+     *
+     * @param rows the number of rows
+     */
+    public void addRowsWritten(long rows) {
+        rowsWritten += rows;
+    }
+
+    /**
+     * Counts bytes of Excel files read.
+     *
+     * @param bytes the number of bytes
+     */
+    public void addBytesRead(long bytes) {
+        bytesRead += bytes;
+    }
+
+    /**
+     * Counts bytes of Excel files written.
+     *
+     * @param bytes the number of bytes
+     */
+    public void addBytesWritten(long bytes) {
+        bytesWritten += bytes;
+    }
+
+    /**
+     * Counts a lookup of the cached rows.
+     *
+     * @param hit true if the rows were served from the cache, false if they had to be read from the file
+     */
+    public void addCacheLookup(boolean hit) {
+        if (hit) {
+            cacheHits++;
+        } else {
+            cacheMisses++;
+        }
+    }
+
+    /**
+     * Returns the Excel file the operation ran on.
+     *
+     * @return the normalized absolute path of the file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the operation.
+     *
+     * @return the type of the operation
+     */
+    public OperationTypeEnum getType() {
+        return type;
+    }
+
+    /**
+     * Returns the time the operation took.
+     *
+     * @return the latency in nanoseconds, or -1 if the operation has not finished
+     */
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    /**
+     * Returns the time spent waiting for the lock of the file.
+     *
+     * @return the wait time in nanoseconds
+     */
+    public long getLockWaitNanos() {
+        return lockWaitNanos;
+    }
+
+    /**
+     * Returns the number of rows tested against the criteria.
+     *
+     * @return the scanned rows
+     */
+    public long getRowsScanned() {
+        return rowsScanned;
+    }
+
+    /**
+     * Returns the number of rows matching the criteria.
+     *
+     * @return the matched rows
+     */
+    public long getRowsMatched() {
+        return rowsMatched;
+    }
+
+    /**
+     * Returns the number of rows inserted, updated or deleted.
+     *
+     * @return the written rows
+     */
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * Returns the number of bytes of Excel files read.
+     *
+     * @return the bytes read
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the number of bytes of Excel files written.
+     *
+     * @return the bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns the number of lookups served from the cached rows.
+     *
+     * @return the cache hits
+     */
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * Returns the number of lookups that had to read the rows from the file.
+     *
+     * @return the cache misses
+     */
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationSample{path=" + path + ", type=" + type + ", latencyNanos=" + latencyNanos
+                + ", lockWaitNanos=" + lockWaitNanos + ", rowsScanned=" + rowsScanned + ", rowsMatched=" + rowsMatched
+                + ", rowsWritten=" + rowsWritten + ", bytesRead=" + bytesRead + ", bytesWritten=" + bytesWritten
+                + ", cacheHits=" + cacheHits + ", cacheMisses=" + cacheMisses + "}";
+    }
+}
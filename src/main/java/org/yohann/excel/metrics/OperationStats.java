@@ -0,0 +1,154 @@
+package org.yohann.excel.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class sums up the samples of one operation on one Excel file, as kept by InMemoryMetrics. The counters are
+ * updated without locking, so a reader may see a sample that is only partly added.
+ */
+public class OperationStats {
+
+    // The latencies of the operations
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    // The time spent waiting for the lock of the file
+    private final LongAdder lockWaitNanos = new LongAdder();
+
+    // The number of rows tested against the criteria
+    private final LongAdder rowsScanned = new LongAdder();
+
+    // The number of rows matching the criteria
+    private final LongAdder rowsMatched = new LongAdder();
+
+    // The number of rows inserted, updated or deleted
+    private final LongAdder rowsWritten = new LongAdder();
+
+    // The number of bytes of Excel files read
+    private final LongAdder bytesRead = new LongAdder();
+
+    // The number of bytes of Excel files written
+    private final LongAdder bytesWritten = new LongAdder();
+
+    // The number of lookups served from the cached rows
+    private final LongAdder cacheHits = new LongAdder();
+
+    // The number of lookups that had to read the rows from the file
+    private final LongAdder cacheMisses = new LongAdder();
+
+    /**
+     * Add a finished operation
+     */
+    void add(OperationSample sample) {
+        latency.record(sample.getLatencyNanos());
+        lockWaitNanos.add(sample.getLockWaitNanos());
+        rowsScanned.add(sample.getRowsScanned());
+        rowsMatched.add(sample.getRowsMatched());
+        rowsWritten.add(sample.getRowsWritten());
+        bytesRead.add(sample.getBytesRead());
+        bytesWritten.add(sample.getBytesWritten());
+        cacheHits.add(sample.getCacheHits());
+        cacheMisses.add(sample.getCacheMisses());
+    }
+
+    /**
+     * Returns the latencies of the operations, which also count the operations.
+     *
+     * @return the latency histogram
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the time the operations spent waiting for the lock of the file.
+     *
+     * @return the total wait time in nanoseconds
+     */
+    public long getLockWaitNanos() {
+        return lockWaitNanos.sum();
+    }
+
+    /**
+     * Returns the number of rows tested against the criteria.
+     *
+     * @return the scanned rows
+     */
+    public long getRowsScanned() {
+        return rowsScanned.sum();
+    }
+
+    /**
+     * Returns the number of rows matching the criteria.
+     *
+     * @return the matched rows
+     */
+    public long getRowsMatched() {
+        return rowsMatched.sum();
+    }
+
+    /**
+     * Returns the number of rows inserted, updated or deleted.
+     *
+     * @return the written rows
+     */
+    public long getRowsWritten() {
+        return rowsWritten.sum();
+    }
+
+    /**
+     * Returns the number of bytes of Excel files read.
+     *
+     * @return the bytes read
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * Returns the number of bytes of Excel files written.
+     *
+     * @return the bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Returns the number of lookups served from the cached rows.
+     *
+     * @return the cache hits
+     */
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that had to read the rows from the file.
+     *
+     * @return the cache misses
+     */
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * Returns the share of lookups served from the cached rows.
+     *
+     * @return the hit ratio between 0 and 1, or 0 if the rows were never looked up
+     */
+    public double getCacheHitRatio() {
+        long hits = cacheHits.sum();
+        long lookups = hits + cacheMisses.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationStats{count=" + latency.getCount() + ", meanNanos=" + (long) latency.getMeanNanos()
+                + ", p99Nanos=" + latency.getPercentileNanos(0.99) + ", maxNanos=" + latency.getMaxNanos()
+                + ", lockWaitNanos=" + this.getLockWaitNanos() + ", rowsScanned=" + this.getRowsScanned()
+                + ", rowsMatched=" + this.getRowsMatched() + ", rowsWritten=" + this.getRowsWritten()
+                + ", bytesRead=" + this.getBytesRead() + ", bytesWritten=" + this.getBytesWritten()
+                + ", cacheHitRatio=" + this.getCacheHitRatio() + "}";
+    }
+}
@@ -0,0 +1,46 @@
+package org.yohann.excel.metrics;
+
+/**
+ * An enumeration of the mapper operations reported to the metrics.
+ */
+public enum OperationTypeEnum {
+    /**
+     * Reading all rows with getAll.
+     */
+    READ,
+
+    /**
+     * Querying rows matching criteria with get.
+     */
+    QUERY,
+
+    /**
+     * Iterating over rows matching criteria with iterate. The operation ends once all rows have been read.
+     */
+    ITERATE,
+
+    /**
+     * Checking for or aggregating rows matching criteria, such as exists, count or sum.
+     */
+    AGGREGATE,
+
+    /**
+     * Appending rows with insertBatch.
+     */
+    INSERT,
+
+    /**
+     * Updating rows with updateBatch or update.
+     */
+    UPDATE,
+
+    /**
+     * Deleting rows with deleteBatch or delete.
+     */
+    DELETE,
+
+    /**
+     * Folding journaled changes into the Excel file with flush.
+     */
+    FLUSH,
+}
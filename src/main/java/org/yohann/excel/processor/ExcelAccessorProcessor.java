@@ -0,0 +1,497 @@
+package org.yohann.excel.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * This class is an annotation processor generating an EntityAccessor for every Excel entity class it compiles, that
+ * is every subclass of Excel marked with ExcelFile or with ExcelProperty or ExcelIgnore on one of its fields. The
+ * accessor of a class such as Person is the class Person_ExcelAccessor in the same package, and creates instances
+ * and reads and writes the declared fields of the class with plain Java code. The generated accessors are
+ * registered in META-INF/services, where ExcelMetadata finds them at runtime.
+ * <p>
+ * The generated code reaches fields that are not private directly, and private fields through their getter and
+ * setter. If the getter and setter are generated by Lombok, they may not be visible to this processor yet, so for
+ * classes and fields marked with Data, Getter or Setter the methods are assumed to have Lombok's names. Fields the
+ * code cannot reach are left to reflection, and so are classes without a visible no-argument constructor, abstract
+ * and generic classes and classes nested in private classes.
+ * <p>
+ * An accessor has a typed static getter and setter per field, named after the field, and implements the boxed access
+ * by index, reading a row into a new instance and writing an instance into the values of a row in terms of them, so
+ * reading and writing a whole row is straight-line code without a switch per field. Converting cells to field values
+ * and back is left to the row reading and writing code of the library.
+ * <p>
+ * The processor is optional and not registered as a service, so javac only runs it when a build names it, with the
+ * -processor option of javac or the annotationProcessors of the Maven compiler plugin, and finds it on the processor
+ * path or the classpath. Naming processors turns their discovery off, so builds using Lombok name its processor too.
+ * Builds that do not run it access their entity classes through reflection.
+ */
+@SupportedAnnotationTypes({
+        "org.yohann.excel.annotation.ExcelFile",
+        "com.alibaba.excel.annotation.ExcelProperty",
+        "com.alibaba.excel.annotation.ExcelIgnore"
+})
+public class ExcelAccessorProcessor extends AbstractProcessor {
+
+    /**
+     * The suffix of the name of a generated accessor, appended to the name of the entity class.
+     */
+    public static final String SUFFIX = "_ExcelAccessor";
+
+    // The entity base class
+    private static final String EXCEL = "org.yohann.excel.entity.Excel";
+
+    // The interface implemented by the generated accessors
+    private static final String ENTITY_ACCESSOR = "org.yohann.excel.metadata.EntityAccessor";
+
+    // The service file registering the generated accessors
+    private static final String SERVICE_FILE = "META-INF/services/" + ENTITY_ACCESSOR;
+
+    // The Lombok annotations generating getters
+    private static final Set<String> LOMBOK_GETTERS = set("lombok.Data", "lombok.Getter", "lombok.Value");
+
+    // The Lombok annotations generating setters
+    private static final Set<String> LOMBOK_SETTERS = set("lombok.Data", "lombok.Setter");
+
+    // The Lombok annotation changing the names of the generated accessor methods
+    private static final String LOMBOK_ACCESSORS = "lombok.experimental.Accessors";
+
+    // The binary names of the accessors generated so far
+    private final Set<String> generated = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            if (!generated.isEmpty()) {
+                this.writeServiceFile();
+            }
+            return false;
+        }
+        TypeElement excel = processingEnv.getElementUtils().getTypeElement(EXCEL);
+        if (excel == null) {
+            return false;
+        }
+        Set<TypeElement> entities = new LinkedHashSet<>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                Element type = element.getKind() == ElementKind.FIELD ? element.getEnclosingElement() : element;
+                if (type.getKind() == ElementKind.CLASS) {
+                    entities.add((TypeElement) type);
+                }
+            }
+        }
+        Types types = processingEnv.getTypeUtils();
+        for (TypeElement entity : entities) {
+            if (types.isSubtype(types.erasure(entity.asType()), types.erasure(excel.asType()))
+                    && !generated.contains(this.accessorName(entity))) {
+                this.generate(entity);
+            }
+        }
+        // The annotations are left to other processors
+        return false;
+    }
+
+    /**
+     * Generate the accessor of an entity class, unless the generated code could not create its instances
+     */
+    private void generate(TypeElement entity) {
+        if (!this.isInstantiable(entity)) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                    "no accessor generated, the class is accessed through reflection", entity);
+            return;
+        }
+        String entityName = entity.getQualifiedName().toString();
+        List<String> names = new ArrayList<>();
+        List<String> typeNames = new ArrayList<>();
+        List<String> castTypes = new ArrayList<>();
+        List<String> getters = new ArrayList<>();
+        List<String> setters = new ArrayList<>();
+        for (VariableElement field : ElementFilter.fieldsIn(entity.getEnclosedElements())) {
+            if (field.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            String getter = this.getter(entity, field);
+            String setter = this.setter(entity, field);
+            if (getter == null || setter == null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "field has no accessible getter and setter, it is accessed through reflection", field);
+                continue;
+            }
+            names.add(field.getSimpleName().toString());
+            typeNames.add(processingEnv.getTypeUtils().erasure(field.asType()).toString());
+            castTypes.add(this.castType(field.asType()));
+            getters.add(getter);
+            setters.add(setter);
+        }
+
+        String accessorName = this.accessorName(entity);
+        String packageName = this.packageOf(entity).getQualifiedName().toString();
+        String simpleName = accessorName.substring(accessorName.lastIndexOf('.') + 1);
+        Filer filer = processingEnv.getFiler();
+        try (PrintWriter out = new PrintWriter(filer.createSourceFile(accessorName, entity).openWriter())) {
+            if (!packageName.isEmpty()) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * The accessor of " + entityName + ", generated by ExcelAccessorProcessor.");
+            out.println(" */");
+            out.println("@SuppressWarnings(\"unchecked\")");
+            out.println("public final class " + simpleName + " implements " + ENTITY_ACCESSOR + "<" + entityName + "> {");
+            out.println();
+            out.println("    private static final java.util.List<String> FIELD_NAMES = java.util.Collections.unmodifiableList(");
+            out.print("            java.util.Arrays.asList(");
+            for (int i = 0; i < names.size(); i++) {
+                out.print((i > 0 ? ", " : "") + "\"" + names.get(i) + "\"");
+            }
+            out.println("));");
+            for (int i = 0; i < names.size(); i++) {
+                String suffix = this.capitalize(names.get(i));
+                out.println();
+                out.println("    public static " + typeNames.get(i) + " get" + suffix + "(" + entityName
+                        + " target) {");
+                out.println("        return " + getters.get(i) + ";");
+                out.println("    }");
+                out.println();
+                out.println("    public static void set" + suffix + "(" + entityName + " target, " + typeNames.get(i)
+                        + " value) {");
+                out.println("        " + setters.get(i) + ";");
+                out.println("    }");
+            }
+            out.println();
+            out.println("    @Override");
+            out.println("    public Class<" + entityName + "> getType() {");
+            out.println("        return " + entityName + ".class;");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public java.util.List<String> getFieldNames() {");
+            out.println("        return FIELD_NAMES;");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public " + entityName + " newInstance() {");
+            out.println("        return new " + entityName + "();");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public Object get(" + entityName + " target, int index) {");
+            out.println("        switch (index) {");
+            for (int i = 0; i < names.size(); i++) {
+                out.println("            case " + i + ":");
+                out.println("                return get" + this.capitalize(names.get(i)) + "(target);");
+            }
+            out.println("            default:");
+            out.println("                throw new IndexOutOfBoundsException(\"field index: \" + index);");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public void set(" + entityName + " target, int index, Object value) {");
+            out.println("        switch (index) {");
+            for (int i = 0; i < names.size(); i++) {
+                out.println("            case " + i + ":");
+                out.println("                set" + this.capitalize(names.get(i)) + "(target, (" + castTypes.get(i)
+                        + ") value);");
+                out.println("                return;");
+            }
+            out.println("            default:");
+            out.println("                throw new IndexOutOfBoundsException(\"field index: \" + index);");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public " + entityName + " readRow(Object[] values) {");
+            out.println("        " + entityName + " target = new " + entityName + "();");
+            for (int i = 0; i < names.size(); i++) {
+                out.println("        if (values[" + i + "] != null) {");
+                out.println("            set" + this.capitalize(names.get(i)) + "(target, (" + castTypes.get(i)
+                        + ") values[" + i + "]);");
+                out.println("        }");
+            }
+            out.println("        return target;");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public void writeRow(" + entityName + " source, Object[] values) {");
+            for (int i = 0; i < names.size(); i++) {
+                out.println("        values[" + i + "] = get" + this.capitalize(names.get(i)) + "(source);");
+            }
+            out.println("    }");
+            out.println("}");
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "write accessor failed: " + e.getMessage(), entity);
+            return;
+        }
+        generated.add(accessorName);
+    }
+
+    /**
+     * Get the expression reading a field of the target, or null if the generated code cannot read it
+     */
+    private String getter(TypeElement entity, VariableElement field) {
+        String name = field.getSimpleName().toString();
+        if (!field.getModifiers().contains(Modifier.PRIVATE)) {
+            return this.isAccessible(field.asType()) ? "target." + name : null;
+        }
+        boolean primitiveBoolean = field.asType().getKind() == TypeKind.BOOLEAN;
+        String methodName = primitiveBoolean ? "is" + this.lombokSuffix(name) : "get" + this.capitalize(name);
+        Types types = processingEnv.getTypeUtils();
+        for (ExecutableElement method : this.accessibleMethods(entity, methodName)) {
+            if (method.getParameters().isEmpty() && types.isSameType(method.getReturnType(), field.asType())) {
+                return "target." + methodName + "()";
+            }
+        }
+        return this.hasLombok(entity, field, LOMBOK_GETTERS) && this.isAccessible(field.asType())
+                ? "target." + methodName + "()" : null;
+    }
+
+    /**
+     * Get the statement writing a value of the field type to a field of the target, or null if the generated code
+     * cannot write it
+     */
+    private String setter(TypeElement entity, VariableElement field) {
+        String name = field.getSimpleName().toString();
+        if (!this.isAccessible(field.asType())) {
+            return null;
+        }
+        String value = "value";
+        if (!field.getModifiers().contains(Modifier.PRIVATE)) {
+            return field.getModifiers().contains(Modifier.FINAL) ? null : "target." + name + " = " + value;
+        }
+        boolean primitiveBoolean = field.asType().getKind() == TypeKind.BOOLEAN;
+        String methodName = "set" + (primitiveBoolean ? this.lombokSuffix(name) : this.capitalize(name));
+        Types types = processingEnv.getTypeUtils();
+        for (ExecutableElement method : this.accessibleMethods(entity, methodName)) {
+            if (method.getParameters().size() == 1
+                    && types.isSameType(method.getParameters().get(0).asType(), field.asType())) {
+                return "target." + methodName + "(" + value + ")";
+            }
+        }
+        return this.hasLombok(entity, field, LOMBOK_SETTERS) && !field.getModifiers().contains(Modifier.FINAL)
+                ? "target." + methodName + "(" + value + ")" : null;
+    }
+
+    /**
+     * Get the instance methods of an entity class with the given name that the generated code can call
+     */
+    private List<ExecutableElement> accessibleMethods(TypeElement entity, String name) {
+        PackageElement entityPackage = this.packageOf(entity);
+        List<ExecutableElement> methods = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(entity))) {
+            Set<Modifier> modifiers = method.getModifiers();
+            if (method.getSimpleName().contentEquals(name) && !modifiers.contains(Modifier.STATIC)
+                    && !modifiers.contains(Modifier.PRIVATE)
+                    && (modifiers.contains(Modifier.PUBLIC) || this.packageOf(method).equals(entityPackage))) {
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * Check if Lombok generates the accessor methods of a field with the usual names, as the field or its class is
+     * marked with one of the given annotations and the names are not changed by Accessors
+     */
+    private boolean hasLombok(TypeElement entity, VariableElement field, Set<String> annotations) {
+        Set<String> marks = new TreeSet<>();
+        marks.addAll(this.annotationNames(entity));
+        marks.addAll(this.annotationNames(field));
+        if (marks.contains(LOMBOK_ACCESSORS)) {
+            return false;
+        }
+        for (String annotation : annotations) {
+            if (marks.contains(annotation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the qualified names of the annotations on an element
+     */
+    private Set<String> annotationNames(Element element) {
+        Set<String> names = new TreeSet<>();
+        element.getAnnotationMirrors().forEach(mirror -> names.add(
+                ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString()));
+        return names;
+    }
+
+    /**
+     * Check if the generated code can create instances of an entity class: the class and the classes enclosing it
+     * must not be private, nested classes must be static, and the class must be concrete, not generic and have a
+     * no-argument constructor that is not private
+     */
+    private boolean isInstantiable(TypeElement entity) {
+        if (entity.getModifiers().contains(Modifier.ABSTRACT) || !entity.getTypeParameters().isEmpty()) {
+            return false;
+        }
+        for (Element type = entity; type.getKind().isClass() || type.getKind().isInterface();
+             type = type.getEnclosingElement()) {
+            NestingKind nesting = ((TypeElement) type).getNestingKind();
+            if (type.getModifiers().contains(Modifier.PRIVATE) || nesting == NestingKind.LOCAL
+                    || nesting == NestingKind.ANONYMOUS
+                    || nesting == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+                return false;
+            }
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(entity.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the generated code can name a type, so casts to it compile
+     */
+    private boolean isAccessible(TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return this.isAccessible(((ArrayType) type).getComponentType());
+        }
+        if (type.getKind() == TypeKind.TYPEVAR) {
+            return false;
+        }
+        if (type.getKind() == TypeKind.DECLARED) {
+            for (Element element = ((DeclaredType) type).asElement();
+                 element.getKind().isClass() || element.getKind().isInterface();
+                 element = element.getEnclosingElement()) {
+                if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the type a value is cast to before it is written to a field: the erasure of the field type, boxed if it
+     * is primitive, so null values fail like they do through reflection
+     */
+    private String castType(TypeMirror type) {
+        Types types = processingEnv.getTypeUtils();
+        if (type.getKind().isPrimitive()) {
+            return types.boxedClass((PrimitiveType) type).getQualifiedName().toString();
+        }
+        return types.erasure(type).toString();
+    }
+
+    /**
+     * Get the binary name of the accessor of an entity class: the names of the class and the classes enclosing it,
+     * joined by underscores and followed by the suffix, in the package of the class
+     */
+    private String accessorName(TypeElement entity) {
+        StringBuilder name = new StringBuilder(entity.getSimpleName());
+        for (Element type = entity.getEnclosingElement(); type.getKind().isClass() || type.getKind().isInterface();
+             type = type.getEnclosingElement()) {
+            name.insert(0, type.getSimpleName() + "_");
+        }
+        String packageName = this.packageOf(entity).getQualifiedName().toString();
+        return (packageName.isEmpty() ? "" : packageName + ".") + name + SUFFIX;
+    }
+
+    /**
+     * Get the package of an element
+     */
+    private PackageElement packageOf(Element element) {
+        return processingEnv.getElementUtils().getPackageOf(element);
+    }
+
+    /**
+     * Get the name part of the accessor methods Lombok generates for a primitive boolean field, which drops an is
+     * prefix of the field name
+     */
+    private String lombokSuffix(String name) {
+        if (name.length() > 2 && name.startsWith("is") && Character.isUpperCase(name.charAt(2))) {
+            return name.substring(2);
+        }
+        return this.capitalize(name);
+    }
+
+    /**
+     * Capitalize the first letter of a name
+     */
+    private String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Write the service file listing the generated accessors, keeping the accessors listed by an earlier
+     * incremental build of the same output
+     */
+    private void writeServiceFile() {
+        Filer filer = processingEnv.getFiler();
+        Set<String> accessors = new TreeSet<>(generated);
+        try {
+            FileObject existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (Reader reader = existing.openReader(true); BufferedReader lines = new BufferedReader(reader)) {
+                for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+                    if (!line.trim().isEmpty()) {
+                        accessors.add(line.trim());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // There is no earlier service file
+        }
+        try (Writer writer = filer.createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE).openWriter()) {
+            for (String accessor : accessors) {
+                writer.write(accessor);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "write service file failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create a set of strings
+     */
+    private static Set<String> set(String... values) {
+        Set<String> set = new TreeSet<>();
+        for (String value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+}
@@ -1,8 +1,15 @@
 package org.yohann.excel.query;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.List;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.index.BloomFilter;
+import org.yohann.excel.index.RowIndex;
+import org.yohann.excel.index.ZoneMap;
+import org.yohann.excel.metadata.ExcelField;
+import org.yohann.excel.metadata.ExcelMetadata;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Criteria object used to filter Excel data based on specific conditions.
@@ -15,9 +22,18 @@ public class Criteria {
     // Maximum number of rows to read
     private Integer limit = -1;
 
+    // Row number after which rows are read, or null to read from the first row
+    private Integer after;
+
     // List of Matchers used to filter the data
     private final List<Matcher> matchers = new ArrayList<>();
 
+    // Names of the fields to read, or an empty set to read all fields
+    private final Set<String> selects = new LinkedHashSet<>();
+
+    // List of Orders the rows are sorted by, or an empty list to keep the rows in file order
+    private final List<Order> orders = new ArrayList<>();
+
     /**
      * Constructs a new Criteria object with default values.
      */
@@ -65,6 +81,138 @@ public class Criteria {
         return this;
     }
 
+    /**
+     * Gets the row number after which rows are read.
+     *
+     * @return the row number after which rows are read, or null if rows are read from the first row
+     */
+    public Integer getAfter() {
+        return after;
+    }
+
+    /**
+     * Reads only the rows after the given row number. Passing the row number of the last row of a page resumes the
+     * listing with the next page, which unlike a growing skip does not have to read past the rows of the earlier
+     * pages again.
+     *
+     * @param rowNum the row number after which rows are read, or null to read from the first row
+     * @return this Criteria object
+     */
+    public Criteria after(Integer rowNum) {
+        this.after = rowNum;
+        return this;
+    }
+
+    /**
+     * Checks if this Criteria object has any Matchers.
+     *
+     * @return true if rows are filtered by at least one Matcher
+     */
+    public boolean hasMatchers() {
+        return !matchers.isEmpty();
+    }
+
+    /**
+     * Reads only the given fields of the rows, leaving the other fields null. Fields the Matchers refer to are read as
+     * well, so they can be tested. Calling select again adds to the fields already selected.
+     *
+     * @param fieldNames the names of the fields to read
+     * @return this Criteria object
+     */
+    public Criteria select(String... fieldNames) {
+        selects.addAll(Arrays.asList(fieldNames));
+        return this;
+    }
+
+    /**
+     * Gets the names of the fields to read: the selected fields followed by the fields the Matchers refer to and the
+     * fields the rows are ordered by.
+     *
+     * @return the names of the fields to read, or null if no field is selected and all fields are read
+     */
+    public Set<String> getProjection() {
+        if (selects.isEmpty()) {
+            return null;
+        }
+        Set<String> projection = new LinkedHashSet<>(selects);
+        projection.addAll(getMatchedFields());
+        for (Order order : orders) {
+            projection.add(order.getFieldName());
+        }
+        return projection;
+    }
+
+    /**
+     * Orders the rows by the given field in ascending order.
+     *
+     * @param fieldName the name of the field to order by
+     * @return this Criteria object
+     */
+    public Criteria orderBy(String fieldName) {
+        return orderBy(fieldName, OrderTypeEnum.ASC);
+    }
+
+    /**
+     * Orders the rows by the given field. Calling orderBy again orders rows with equal values by the next field, and
+     * rows equal in all fields keep their order in the file. Rows without a value come last in either direction. The
+     * skip and limit apply to the ordered rows.
+     *
+     * @param fieldName the name of the field to order by
+     * @param orderType the direction to order in
+     * @return this Criteria object
+     */
+    public Criteria orderBy(String fieldName, OrderTypeEnum orderType) {
+        orders.add(new Order(fieldName, orderType));
+        return this;
+    }
+
+    /**
+     * Checks if this Criteria object orders the rows.
+     *
+     * @return true if rows are ordered by at least one field
+     */
+    public boolean isOrdered() {
+        return !orders.isEmpty();
+    }
+
+    /**
+     * Gets the Orders the rows are sorted by.
+     *
+     * @return an unmodifiable list of the Orders, in the order they were added
+     */
+    public List<Order> getOrders() {
+        return Collections.unmodifiableList(orders);
+    }
+
+    /**
+     * Creates a copy of this Criteria object, which can be changed without changing this one.
+     *
+     * @return the copy
+     */
+    public Criteria copy() {
+        Criteria copy = new Criteria();
+        copy.skip = skip;
+        copy.limit = limit;
+        copy.after = after;
+        copy.matchers.addAll(matchers);
+        copy.selects.addAll(selects);
+        copy.orders.addAll(orders);
+        return copy;
+    }
+
+    /**
+     * Gets the names of the fields the Matchers refer to.
+     *
+     * @return the names of the matched fields, in the order the Matchers were added
+     */
+    public Set<String> getMatchedFields() {
+        Set<String> fieldNames = new LinkedHashSet<>();
+        for (Matcher matcher : matchers) {
+            fieldNames.add(matcher.getFieldName());
+        }
+        return fieldNames;
+    }
+
     /**
      * Constructs a new Criteria object with a single Matcher.
      *
@@ -99,6 +247,18 @@ public class Criteria {
         return this;
     }
 
+    /**
+     * Adds an IN Matcher to the Criteria object.
+     *
+     * @param fieldName the name of the field to match
+     * @param values    the values to match, any of which may equal the field value
+     * @return this Criteria object
+     */
+    public Criteria in(String fieldName, Collection<?> values) {
+        addMatcher(MatchTypeEnum.IN, values, fieldName);
+        return this;
+    }
+
     /**
      * Adds a LIKE Matcher to the Criteria object.
      *
@@ -199,46 +359,254 @@ public class Criteria {
     }
 
     /**
-     * Checks if the given object matches all the Matchers in this Criteria object.
+     * Checks if the given object matches all the Matchers in this Criteria object. The Criteria object is compiled
+     * for the class of the object first, so the object is matched exactly as by the predicate of compile, including
+     * the row number set by after. Scans matching many objects should compile the Criteria object once instead.
      *
      * @param value the object to match
      * @return true if the object matches all the Matchers in this Criteria object, false otherwise
+     * @throws IllegalArgumentException if a Matcher refers to a field the class of the object does not declare
      */
+    @SuppressWarnings("unchecked")
     public boolean isMatch(Object value) {
-        // Get the class of the given object
-        Class<?> clazz = value.getClass();
-
-        // Check if all the Matchers in the Criteria object match the given object
-        return matchers.stream()
-                .allMatch(matcher -> {
-                    // Get the field name, match value, and match type of the Matcher
-                    String fieldName = matcher.getFieldName();
-                    Object matchValue = matcher.getMatchValue();
-                    MatchTypeEnum matchType = matcher.getMatchType();
-
-                    // Get the field with the matching field name from the given object
-                    Field field;
-                    try {
-                        field = clazz.getDeclaredField(fieldName);
-                    } catch (NoSuchFieldException e) {
-                        throw new RuntimeException(e.getMessage(), e);
-                    }
-                    field.setAccessible(true);
+        return this.compile((Class<Object>) value.getClass()).test(value);
+    }
 
-                    // Get the value of the field from the given object
-                    Object fieldValue = null;
-                    try {
-                        fieldValue = field.get(value);
-                    } catch (IllegalAccessException ignored) {
-                    }
+    /**
+     * Compiles the Matchers of this Criteria object into a predicate for the given entity class.
+     * Field accessors are bound and match values are converted to the field types once, and the Matchers are
+     * reordered so that cheap and selective ones are evaluated first. The returned predicate is meant to be created
+     * once before a scan and then evaluated for every row. Rows not after the row number set by after are rejected
+     * before any Matcher is evaluated.
+     *
+     * @param clazz the entity class the predicate is evaluated against
+     * @param <T>   the type of the entity class
+     * @return a predicate that is true if an object matches all the Matchers in this Criteria object
+     * @throws IllegalArgumentException if a Matcher refers to a field the entity class does not declare
+     */
+    public <T> Predicate<T> compile(Class<T> clazz) {
+        ExcelMetadata<T> metadata = ExcelMetadata.of(clazz);
 
-                    // If the field value is null and the Matcher's match type is not MatchTypeEnum.NULL, return false
-                    if (fieldValue == null && matchType != MatchTypeEnum.NULL) {
+        // Order the Matchers by evaluation cost, keeping the given order for equal costs
+        List<Matcher> ordered = new ArrayList<>(matchers);
+        ordered.sort(Comparator.comparingInt(matcher -> MatchCompiler.cost(matcher.getMatchType())));
+
+        // An array rather than a list, so evaluating the predicates does no iterator or bounds checks per row
+        @SuppressWarnings("unchecked")
+        Predicate<Object>[] predicates = (Predicate<Object>[]) new Predicate<?>[ordered.size()];
+        for (int i = 0; i < predicates.length; i++) {
+            Matcher matcher = ordered.get(i);
+            ExcelField field = metadata.getField(matcher.getFieldName());
+            if (field == null) {
+                throw new IllegalArgumentException("no such field: " + matcher.getFieldName() + " in "
+                        + clazz.getName());
+            }
+            predicates[i] = MatchCompiler.compile(field, matcher.getMatchType(), matcher.getMatchValue());
+        }
+
+        Predicate<T> matches;
+        if (predicates.length == 0) {
+            matches = t -> true;
+        } else if (predicates.length == 1) {
+            Predicate<Object> predicate = predicates[0];
+            matches = predicate::test;
+        } else {
+            matches = t -> {
+                for (Predicate<Object> predicate : predicates) {
+                    if (!predicate.test(t)) {
                         return false;
                     }
+                }
+                return true;
+            };
+        }
+        if (after == null) {
+            return matches;
+        }
+        int afterRowNum = after;
+        return t -> {
+            Integer rowNum = ((Excel) t).getRowNum();
+            return rowNum != null && rowNum > afterRowNum && matches.test(t);
+        };
+    }
+
+    /**
+     * Compiles the Orders of this Criteria object into a comparator for the given entity class. Rows equal in all
+     * ordered fields are compared by row number, so the comparator never considers two rows of a file equal.
+     *
+     * @param clazz the entity class the comparator compares
+     * @param <T>   the type of the entity class
+     * @return a comparator putting rows in the order of this Criteria object
+     * @throws RuntimeException         if an Order refers to a field that is not mapped to a column
+     * @throws IllegalArgumentException if an Order refers to a field whose values are not comparable
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Comparator<T> comparator(Class<T> clazz) {
+        ExcelMetadata<T> metadata = ExcelMetadata.of(clazz);
+        Comparator<T> comparator = Comparator.comparing(t -> ((Excel) t).getRowNum(),
+                Comparator.nullsLast(Comparator.naturalOrder()));
+        for (int i = orders.size() - 1; i >= 0; i--) {
+            Order order = orders.get(i);
+            ExcelField field = metadata.getFields(Collections.singleton(order.getFieldName())).get(0);
+            if (!field.getType().isPrimitive() && !Comparable.class.isAssignableFrom(field.getType())) {
+                throw new IllegalArgumentException("not comparable field: " + order.getFieldName());
+            }
+            boolean descending = order.getOrderType() == OrderTypeEnum.DESC;
+            Comparator<T> next = comparator;
+            comparator = (a, b) -> {
+                Comparable<Object> x = (Comparable<Object>) field.get(a);
+                Comparable<Object> y = (Comparable<Object>) field.get(b);
+                if (x == null || y == null) {
+                    // Rows without a value come last in either direction
+                    return x != null ? -1 : y != null ? 1 : next.compare(a, b);
+                }
+                int result = descending ? y.compareTo(x) : x.compareTo(y);
+                return result != 0 ? result : next.compare(a, b);
+            };
+        }
+        return comparator;
+    }
+
+    /**
+     * Looks up the rows that may match this Criteria object in the indexes of the matched fields. Every Matcher
+     * that an index can answer is looked up, and the smallest result is returned. The returned rows are a superset
+     * of the matching rows, so they still have to be tested against the compiled predicate.
+     *
+     * @param clazz   the entity class the indexes were built for
+     * @param indexes a function returning the index of a field by field name, or null if the field has none
+     * @return the sorted numbers of the candidate rows, or null if no Matcher can be answered by an index
+     */
+    public int[] lookup(Class<?> clazz, Function<String, RowIndex> indexes) {
+        ExcelMetadata<?> metadata = ExcelMetadata.of(clazz);
+        int[] best = null;
+        for (Matcher matcher : matchers) {
+            RowIndex index = indexes.apply(matcher.getFieldName());
+            if (index == null) {
+                continue;
+            }
+            int[] rowNums = lookup(index, matcher.getMatchType(), matchValue(metadata, matcher));
+            if (rowNums != null && (best == null || rowNums.length < best.length)) {
+                best = rowNums;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Looks up the blocks of rows that may hold rows matching this Criteria object in the zone maps of the matched
+     * fields. Every Matcher that a zone map can answer rules out blocks, and the blocks no Matcher rules out are
+     * returned. The rows of the returned blocks still have to be tested against the compiled predicate.
+     *
+     * @param zoneMaps a function returning the zone map of a field by field name, or null if the field has none
+     * @return the indexes of the blocks that may hold matching rows, or null if no Matcher can be answered by a zone
+     * map
+     */
+    public BitSet selectBlocks(Function<String, ZoneMap> zoneMaps) {
+        BitSet selected = null;
+        for (Matcher matcher : matchers) {
+            ZoneMap zoneMap = zoneMaps.apply(matcher.getFieldName());
+            if (zoneMap == null) {
+                continue;
+            }
+            BitSet blocks = selectBlocks(zoneMap, matcher.getMatchType(), matcher.getMatchValue());
+            if (blocks == null) {
+                continue;
+            }
+            if (selected == null) {
+                selected = blocks;
+            } else {
+                selected.and(blocks);
+            }
+        }
+        return selected;
+    }
 
-                    // Otherwise, call the Matcher's match method with the retrieved field value and the Matcher's match value
-                    return matchType.getMatch().match(fieldValue, matchValue);
-                });
+    /**
+     * Checks the values this Criteria object looks for against the Bloom filters of the matched fields. An equals
+     * Matcher whose value a filter rules out, or an in Matcher all of whose values a filter rules out, matches no
+     * row, and neither does this Criteria object.
+     *
+     * @param clazz   the entity class the filters were built for
+     * @param filters a function returning the Bloom filter of a field by field name, or null if the field has none
+     * @return false if no row can match, true if rows may match
+     */
+    public boolean mightMatch(Class<?> clazz, Function<String, BloomFilter> filters) {
+        ExcelMetadata<?> metadata = ExcelMetadata.of(clazz);
+        for (Matcher matcher : matchers) {
+            MatchTypeEnum matchType = matcher.getMatchType();
+            if (matchType != MatchTypeEnum.EQUALS && matchType != MatchTypeEnum.IN || matcher.getMatchValue() == null) {
+                continue;
+            }
+            BloomFilter filter = filters.apply(matcher.getFieldName());
+            if (filter == null) {
+                continue;
+            }
+            Object matchValue = matchValue(metadata, matcher);
+            Collection<?> values = matchType == MatchTypeEnum.IN
+                    ? (Collection<?>) matchValue : Collections.singletonList(matchValue);
+            boolean found = false;
+            for (Object value : values) {
+                found |= value != null && filter.mightContain(value);
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the match value of a Matcher converted to the type of its field, as the compiled predicate compares it.
+     */
+    private static Object matchValue(ExcelMetadata<?> metadata, Matcher matcher) {
+        ExcelField field = metadata.getField(matcher.getFieldName());
+        Object matchValue = matcher.getMatchValue();
+        return field == null ? matchValue : MatchCompiler.convert(field.getType(), matchValue);
+    }
+
+    /**
+     * Looks up the blocks that may match a single Matcher in a zone map.
+     */
+    private static BitSet selectBlocks(ZoneMap zoneMap, MatchTypeEnum matchType, Object matchValue) {
+        switch (matchType) {
+            case EQUALS:
+                return matchValue == null ? null : zoneMap.range(matchValue, true, matchValue, true);
+            case LESS:
+                return zoneMap.range(null, false, matchValue, false);
+            case LESS_EQUALS:
+                return zoneMap.range(null, false, matchValue, true);
+            case GREATER:
+                return zoneMap.range(matchValue, false, null, false);
+            case GREATER_EQUALS:
+                return zoneMap.range(matchValue, true, null, false);
+            case NULL:
+                return zoneMap.nulls();
+            case NOT_NULL:
+                return zoneMap.values();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Looks up a single Matcher in an index.
+     */
+    private static int[] lookup(RowIndex index, MatchTypeEnum matchType, Object matchValue) {
+        switch (matchType) {
+            case EQUALS:
+                return index.get(matchValue);
+            case IN:
+                return index.getAll((Collection<?>) matchValue);
+            case LESS:
+                return index.range(null, false, matchValue, false);
+            case LESS_EQUALS:
+                return index.range(null, false, matchValue, true);
+            case GREATER:
+                return index.range(matchValue, false, null, false);
+            case GREATER_EQUALS:
+                return index.range(matchValue, true, null, false);
+            default:
+                return null;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,314 @@
+package org.yohann.excel.query;
+
+import org.yohann.excel.metadata.ExcelField;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.DoublePredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+
+/**
+ * This class turns a single Matcher into a predicate bound to a concrete field. The match value is converted to the
+ * field's type once, and numeric and date comparisons are specialized into primitive long or double comparisons, so
+ * evaluating the predicate does no type dispatch.
+ */
+class MatchCompiler {
+
+    private MatchCompiler() {
+    }
+
+    /**
+     * Returns the relative evaluation cost of a match type. Cheap and selective matchers are evaluated first.
+     *
+     * @param matchType the match type
+     * @return the relative cost, lower is evaluated earlier
+     */
+    static int cost(MatchTypeEnum matchType) {
+        switch (matchType) {
+            case NULL:
+            case NOT_NULL:
+                return 0;
+            case EQUALS:
+            case IN:
+                return 1;
+            case LESS:
+            case LESS_EQUALS:
+            case GREATER:
+            case GREATER_EQUALS:
+                return 2;
+            case NOT_EQUALS:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Compiles a match against the given field into a predicate over the entity object.
+     * A null field value only matches MatchTypeEnum.NULL. Numbers are compared by value whatever their boxed types,
+     * as longs for integral fields and as doubles for floating point fields, so unlike the generic Match of the match
+     * type, an Integer field equals a Long value, and 0.0 equals -0.0 while NaN equals nothing.
+     *
+     * @param field      the field to match
+     * @param matchType  the type of matching to perform
+     * @param matchValue the value to match against
+     * @return the compiled predicate
+     */
+    static Predicate<Object> compile(ExcelField field, MatchTypeEnum matchType, Object matchValue) {
+        switch (matchType) {
+            case NULL:
+                return t -> field.get(t) == null;
+            case NOT_NULL:
+                return t -> field.get(t) != null;
+            case EQUALS:
+                return compileEquals(field, matchValue, true);
+            case NOT_EQUALS:
+                return compileEquals(field, matchValue, false);
+            case IN:
+                return compileIn(field, (Collection<?>) matchValue);
+            case LIKE:
+                String target = (String) matchValue;
+                return t -> {
+                    Object value = field.get(t);
+                    return value != null && ((String) value).contains(target);
+                };
+            default:
+                return compileCompare(field, matchType, matchValue);
+        }
+    }
+
+    /**
+     * Converts a match value to the kind of value the compiled predicate of a field compares it as: any number
+     * matched against a floating point field becomes a Double, so indexes and Bloom filters look up the value the
+     * predicate matches. Other values are kept, and the values of an IN match are converted one by one.
+     *
+     * @param type       the declared type of the field
+     * @param matchValue the value to match against
+     * @return the converted match value
+     */
+    static Object convert(Class<?> type, Object matchValue) {
+        if (!isFloatingType(type)) {
+            return matchValue;
+        }
+        if (matchValue instanceof Collection) {
+            List<Object> converted = new ArrayList<>();
+            for (Object value : (Collection<?>) matchValue) {
+                converted.add(value instanceof Number ? ((Number) value).doubleValue() : value);
+            }
+            return converted;
+        }
+        return matchValue instanceof Number ? ((Number) matchValue).doubleValue() : matchValue;
+    }
+
+    /**
+     * Compiles an EQUALS or NOT_EQUALS match.
+     */
+    private static Predicate<Object> compileEquals(ExcelField field, Object matchValue, boolean equals) {
+        Class<?> type = field.getType();
+        if (isIntegralType(type) && isIntegralValue(matchValue)) {
+            long target = ((Number) matchValue).longValue();
+            return t -> {
+                Object value = field.get(t);
+                return value != null && (((Number) value).longValue() == target) == equals;
+            };
+        }
+        if (isFloatingType(type) && matchValue instanceof Number) {
+            double target = ((Number) matchValue).doubleValue();
+            return t -> {
+                Object value = field.get(t);
+                return value != null && (((Number) value).doubleValue() == target) == equals;
+            };
+        }
+        if (Date.class.isAssignableFrom(type) && matchValue instanceof Date) {
+            long target = ((Date) matchValue).getTime();
+            return t -> {
+                Object value = field.get(t);
+                return value != null && (((Date) value).getTime() == target) == equals;
+            };
+        }
+        return t -> {
+            Object value = field.get(t);
+            return value != null && value.equals(matchValue) == equals;
+        };
+    }
+
+    /**
+     * Compiles an IN match into a hash lookup. Like EQUALS, integral numbers and dates are compared by their long
+     * values and floating point numbers by their double values when the field type allows it, and values of another
+     * kind can never match them.
+     */
+    private static Predicate<Object> compileIn(ExcelField field, Collection<?> matchValues) {
+        Class<?> type = field.getType();
+        Set<Object> targets = new HashSet<>();
+        if (isIntegralType(type)) {
+            for (Object matchValue : matchValues) {
+                if (isIntegralValue(matchValue)) {
+                    targets.add(((Number) matchValue).longValue());
+                }
+            }
+            return t -> {
+                Object value = field.get(t);
+                return value != null && targets.contains(((Number) value).longValue());
+            };
+        }
+        if (isFloatingType(type)) {
+            for (Object matchValue : matchValues) {
+                if (matchValue instanceof Number) {
+                    targets.add(doubleKey(((Number) matchValue).doubleValue()));
+                }
+            }
+            return t -> {
+                Object value = field.get(t);
+                return value != null && targets.contains(doubleKey(((Number) value).doubleValue()));
+            };
+        }
+        if (Date.class.isAssignableFrom(type)) {
+            for (Object matchValue : matchValues) {
+                if (matchValue instanceof Date) {
+                    targets.add(((Date) matchValue).getTime());
+                }
+            }
+            return t -> {
+                Object value = field.get(t);
+                return value != null && targets.contains(((Date) value).getTime());
+            };
+        }
+        targets.addAll(matchValues);
+        return t -> {
+            Object value = field.get(t);
+            return value != null && targets.contains(value);
+        };
+    }
+
+    /**
+     * Compiles a LESS, LESS_EQUALS, GREATER or GREATER_EQUALS match.
+     */
+    private static Predicate<Object> compileCompare(ExcelField field, MatchTypeEnum matchType, Object matchValue) {
+        Class<?> type = field.getType();
+        if (isIntegralType(type) && isIntegralValue(matchValue)) {
+            LongPredicate test = longTest(matchType, ((Number) matchValue).longValue());
+            return t -> {
+                Object value = field.get(t);
+                return value != null && test.test(((Number) value).longValue());
+            };
+        }
+        if (Number.class.isAssignableFrom(box(type)) && matchValue instanceof Number) {
+            DoublePredicate test = doubleTest(matchType, ((Number) matchValue).doubleValue());
+            return t -> {
+                Object value = field.get(t);
+                return value != null && test.test(((Number) value).doubleValue());
+            };
+        }
+        if (Date.class.isAssignableFrom(type) && matchValue instanceof Date) {
+            LongPredicate test = longTest(matchType, ((Date) matchValue).getTime());
+            return t -> {
+                Object value = field.get(t);
+                return value != null && test.test(((Date) value).getTime());
+            };
+        }
+        // The field type is too general to specialize, fall back to the generic match
+        Match match = matchType.getMatch();
+        return t -> {
+            Object value = field.get(t);
+            return value != null && match.match(value, matchValue);
+        };
+    }
+
+    /**
+     * Creates a primitive long comparison against the given target.
+     */
+    private static LongPredicate longTest(MatchTypeEnum matchType, long target) {
+        switch (matchType) {
+            case LESS:
+                return v -> v < target;
+            case LESS_EQUALS:
+                return v -> v <= target;
+            case GREATER:
+                return v -> v > target;
+            default:
+                return v -> v >= target;
+        }
+    }
+
+    /**
+     * Creates a primitive double comparison against the given target.
+     */
+    private static DoublePredicate doubleTest(MatchTypeEnum matchType, double target) {
+        switch (matchType) {
+            case LESS:
+                return v -> v < target;
+            case LESS_EQUALS:
+                return v -> v <= target;
+            case GREATER:
+                return v -> v > target;
+            default:
+                return v -> v >= target;
+        }
+    }
+
+    /**
+     * Checks if the given type holds integral numbers that fit into a long.
+     */
+    private static boolean isIntegralType(Class<?> type) {
+        Class<?> boxed = box(type);
+        return boxed == Integer.class || boxed == Long.class || boxed == Short.class || boxed == Byte.class;
+    }
+
+    /**
+     * Checks if the given type holds floating point numbers.
+     */
+    private static boolean isFloatingType(Class<?> type) {
+        Class<?> boxed = box(type);
+        return boxed == Double.class || boxed == Float.class;
+    }
+
+    /**
+     * Returns a double as a hash key. Negative zero is folded into zero, because the two compare equal.
+     */
+    private static Double doubleKey(double value) {
+        return value == 0.0 ? 0.0 : value;
+    }
+
+    /**
+     * Checks if the given value is an integral number that fits into a long.
+     */
+    private static boolean isIntegralValue(Object value) {
+        return value != null && isIntegralType(value.getClass());
+    }
+
+    /**
+     * Returns the wrapper type of a primitive type, or the type itself if it is not primitive.
+     */
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == int.class) {
+            return Integer.class;
+        }
+        if (type == long.class) {
+            return Long.class;
+        }
+        if (type == double.class) {
+            return Double.class;
+        }
+        if (type == float.class) {
+            return Float.class;
+        }
+        if (type == short.class) {
+            return Short.class;
+        }
+        if (type == byte.class) {
+            return Byte.class;
+        }
+        if (type == boolean.class) {
+            return Boolean.class;
+        }
+        return Character.class;
+    }
+}
@@ -1,5 +1,6 @@
 package org.yohann.excel.query;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.Objects;
 import java.util.function.Predicate;
@@ -20,6 +21,12 @@ public enum MatchTypeEnum {
      */
     NOT_EQUALS((o,t)->!Objects.equals(o,t), (o -> true)),
 
+    /**
+     * Performs an exact match between the original object and any of the objects in the target collection.
+     * Only supports matching against Collection objects.
+     */
+    IN((original, target) -> ((Collection<?>) target).contains(original), (o -> o instanceof Collection)),
+
     /**
      * Performs a partial match between the original and target objects, where the original object contains the target object as a substring.
      * Only supports matching against String objects.
@@ -0,0 +1,46 @@
+package org.yohann.excel.query;
+
+/**
+ * A class representing an ordering of rows by the value of a specific field.
+ */
+public class Order {
+
+    /**
+     * The name of the field to order by.
+     */
+    private final String fieldName;
+
+    /**
+     * The direction to order in.
+     */
+    private final OrderTypeEnum orderType;
+
+    /**
+     * Constructs a new Order object with the given field name and direction.
+     *
+     * @param fieldName the name of the field to order by
+     * @param orderType the direction to order in
+     */
+    protected Order(String fieldName, OrderTypeEnum orderType) {
+        this.fieldName = fieldName;
+        this.orderType = orderType;
+    }
+
+    /**
+     * Returns the name of the field to order by.
+     *
+     * @return the name of the field to order by
+     */
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    /**
+     * Returns the direction to order in.
+     *
+     * @return the direction to order in
+     */
+    public OrderTypeEnum getOrderType() {
+        return orderType;
+    }
+}
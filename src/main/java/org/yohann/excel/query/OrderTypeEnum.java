@@ -0,0 +1,17 @@
+package org.yohann.excel.query;
+
+/**
+ * An enumeration of the directions rows can be ordered in by a field.
+ */
+public enum OrderTypeEnum {
+
+    /**
+     * Smallest values first.
+     */
+    ASC,
+
+    /**
+     * Largest values first.
+     */
+    DESC
+}
@@ -0,0 +1,18 @@
+package org.yohann.excel.stream;
+
+import java.util.Iterator;
+
+/**
+ * An iterator holding resources that must be released by closing it, typically in a try-with-resources statement.
+ * An iterator that has been exhausted has already released its resources, and closing it again has no effect.
+ *
+ * @param <T> the type of the elements
+ */
+public interface CloseableIterator<T> extends Iterator<T>, AutoCloseable {
+
+    /**
+     * Releases the resources of this iterator. Afterwards, hasNext returns false.
+     */
+    @Override
+    void close();
+}
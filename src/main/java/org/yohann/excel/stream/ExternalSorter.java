@@ -0,0 +1,253 @@
+package org.yohann.excel.stream;
+
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.io.AtomicFiles;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.metadata.RowCodec;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * This class sorts more rows than fit in memory. Rows are added to a buffer of bounded size, and whenever the buffer
+ * is full it is sorted and spilled as a run to a temporary file next to the Excel file. Iterating merges the runs
+ * through a heap holding the next row of each run, so at most the buffer and one row per run are held in memory.
+ * Rows that fit into the buffer are sorted in memory without writing any file.
+ *
+ * @param <T> the type of the rows
+ */
+public class ExternalSorter<T extends Excel> implements AutoCloseable {
+
+    /**
+     * The suffix of the run files.
+     */
+    public static final String SUFFIX = ".sort";
+
+    /**
+     * The default number of rows held in memory before a run is spilled.
+     */
+    public static final int DEFAULT_BUFFER_ROWS = 100000;
+
+    /**
+     * The size of the buffers the run files are read and written through.
+     */
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    // The file the run files belong to
+    private final Path file;
+
+    // The codec writing rows to the run files
+    private final RowCodec<T> codec;
+
+    // The order to sort the rows in
+    private final Comparator<? super T> comparator;
+
+    // The maximum number of rows held in the buffer
+    private final int bufferRows;
+
+    // The rows added since the last run was spilled
+    private final List<T> buffer = new ArrayList<>();
+
+    // The run files spilled so far
+    private final List<Path> runs = new ArrayList<>();
+
+    // The readers of the run files while they are merged
+    private final List<DataInputStream> readers = new ArrayList<>();
+
+    /**
+     * Constructs a new ExternalSorter.
+     *
+     * @param file       the file the run files belong to, placed next to it
+     * @param metadata   the metadata of the row type
+     * @param comparator the order to sort the rows in
+     * @param bufferRows the maximum number of rows held in memory before a run is spilled
+     * @throws IllegalArgumentException if bufferRows is less than 1
+     */
+    public ExternalSorter(Path file, ExcelMetadata<T> metadata, Comparator<? super T> comparator, int bufferRows) {
+        if (bufferRows < 1) {
+            throw new IllegalArgumentException("buffer rows must be positive: " + bufferRows);
+        }
+        this.file = file;
+        this.codec = new RowCodec<>(metadata);
+        this.comparator = comparator;
+        this.bufferRows = bufferRows;
+    }
+
+    /**
+     * Adds a row, spilling the buffer as a run if it is full.
+     *
+     * @param row the row
+     * @throws UncheckedIOException if a run cannot be written
+     */
+    public void add(T row) {
+        buffer.add(row);
+        if (buffer.size() >= bufferRows) {
+            try {
+                this.spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Sorts the buffer and writes it to a new run file.
+     */
+    private void spill() throws IOException {
+        buffer.sort(comparator);
+        Path run = AtomicFiles.createTemporary(file, SUFFIX);
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run),
+                IO_BUFFER_SIZE))) {
+            for (T row : buffer) {
+                out.writeBoolean(true);
+                codec.write(out, row);
+            }
+            out.writeBoolean(false);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns an iterator over the added rows in sorted order. Closing or exhausting the iterator closes this sorter,
+     * deleting the run files. No rows may be added afterwards.
+     *
+     * @return an iterator over the sorted rows
+     * @throws IOException if a run cannot be written or read
+     */
+    public CloseableIterator<T> iterator() throws IOException {
+        if (runs.isEmpty()) {
+            buffer.sort(comparator);
+            return new SortedIterator(buffer.iterator());
+        }
+        if (!buffer.isEmpty()) {
+            this.spill();
+        }
+        // The heap is ordered by the next row of each run
+        PriorityQueue<RunCursor> heap = new PriorityQueue<>(runs.size(),
+                (a, b) -> comparator.compare(a.next, b.next));
+        for (Path run : runs) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run),
+                    IO_BUFFER_SIZE));
+            readers.add(in);
+            RunCursor cursor = new RunCursor(in);
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+        }
+        return new SortedIterator(heap);
+    }
+
+    /**
+     * Closes the readers of the run files and deletes them.
+     */
+    @Override
+    public void close() {
+        for (DataInputStream reader : readers) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // Nothing is lost, the run is deleted anyway
+            }
+        }
+        readers.clear();
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                // The run is deleted with the leftovers the next time the Excel file is opened
+            }
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    /**
+     * This class reads the rows of a run one at a time.
+     */
+    private class RunCursor {
+
+        // The reader of the run file
+        private final DataInputStream in;
+
+        // The next row of the run
+        private T next;
+
+        RunCursor(DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next row of the run, returning false at the end of the run.
+         */
+        boolean advance() throws IOException {
+            next = in.readBoolean() ? codec.read(in) : null;
+            return next != null;
+        }
+    }
+
+    /**
+     * This class iterates over the sorted rows, either from the sorted buffer or by merging the runs.
+     */
+    private class SortedIterator implements CloseableIterator<T> {
+
+        // The sorted rows of the buffer, or null if the runs are merged
+        private final Iterator<T> rows;
+
+        // The cursors of the runs that have rows left, or null if the buffer is iterated
+        private final PriorityQueue<RunCursor> heap;
+
+        // Whether the iterator is closed
+        private boolean closed;
+
+        SortedIterator(Iterator<T> rows) {
+            this.rows = rows;
+            this.heap = null;
+        }
+
+        SortedIterator(PriorityQueue<RunCursor> heap) {
+            this.rows = null;
+            this.heap = heap;
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean hasNext = !closed && (rows != null ? rows.hasNext() : !heap.isEmpty());
+            if (!hasNext) {
+                this.close();
+            }
+            return hasNext;
+        }
+
+        @Override
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (rows != null) {
+                return rows.next();
+            }
+            RunCursor cursor = heap.poll();
+            T row = cursor.next;
+            try {
+                if (cursor.advance()) {
+                    heap.add(cursor);
+                }
+            } catch (IOException e) {
+                this.close();
+                throw new UncheckedIOException(e);
+            }
+            return row;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                ExternalSorter.this.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.yohann.excel.stream;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * This class is an iterator over the rows of another iterator that match a predicate, after skipping a number of
+ * matching rows and up to a limit, like a query over rows held in memory. Every returned row is passed through a
+ * function first, such as one copying the row. Closing it closes the other iterator if that is closeable.
+ *
+ * @param <T> the type of the rows
+ */
+public class FilterIterator<T> implements CloseableIterator<T> {
+
+    // The rows to filter
+    private final Iterator<T> source;
+
+    // The predicate rows must match
+    private final Predicate<? super T> predicate;
+
+    // The function applied to returned rows
+    private final UnaryOperator<T> function;
+
+    // The number of matching rows still to skip
+    private int skip;
+
+    // The number of rows still to return, or a value below 1 for no limit
+    private int limit;
+
+    // The next matching row
+    private T next;
+
+    // Whether the last row has been returned or the iterator is closed
+    private boolean done;
+
+    /**
+     * Constructs a new FilterIterator.
+     *
+     * @param source    the rows to filter
+     * @param predicate the predicate rows must match
+     * @param skip      the number of matching rows to skip
+     * @param limit     the maximum number of rows to return, or a value below 1 for no limit
+     * @param function  the function applied to returned rows
+     */
+    public FilterIterator(Iterator<T> source, Predicate<? super T> predicate, int skip, int limit,
+                          UnaryOperator<T> function) {
+        this.source = source;
+        this.predicate = predicate;
+        this.function = function;
+        this.skip = skip;
+        this.limit = limit;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !done) {
+            if (!source.hasNext()) {
+                done = true;
+            } else {
+                T row = source.next();
+                if (!predicate.test(row)) {
+                    continue;
+                }
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                next = row;
+                if (limit > 0 && --limit == 0) {
+                    done = true;
+                }
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public T next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T row = next;
+        next = null;
+        return function.apply(row);
+    }
+
+    @Override
+    public void close() {
+        done = true;
+        next = null;
+        if (source instanceof CloseableIterator) {
+            ((CloseableIterator<T>) source).close();
+        }
+    }
+}
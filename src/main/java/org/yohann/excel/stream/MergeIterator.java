@@ -0,0 +1,105 @@
+package org.yohann.excel.stream;
+
+import java.util.*;
+
+/**
+ * This class is an iterator merging the rows of other iterators that are each sorted in the same order into one
+ * sorted iterator. A heap holds the next row of every iterator, so the rows are merged without holding more than one
+ * row per iterator. Closing it closes all other iterators.
+ *
+ * @param <T> the type of the rows
+ */
+public class MergeIterator<T> implements CloseableIterator<T> {
+
+    // The iterators to merge
+    private final List<CloseableIterator<T>> sources;
+
+    // The order the rows of every iterator are sorted in
+    private final Comparator<? super T> comparator;
+
+    // The iterators with rows left, ordered by their next row, or null until the first row is asked for
+    private PriorityQueue<Source> heap;
+
+    // Whether the iterator is closed
+    private boolean closed;
+
+    /**
+     * Constructs a new MergeIterator.
+     *
+     * @param sources    the iterators to merge, each sorted by the comparator
+     * @param comparator the order the rows of every iterator are sorted in
+     */
+    public MergeIterator(List<CloseableIterator<T>> sources, Comparator<? super T> comparator) {
+        this.sources = sources;
+        this.comparator = comparator;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (heap == null) {
+            heap = new PriorityQueue<>(Math.max(sources.size(), 1), (a, b) -> comparator.compare(a.next, b.next));
+            for (CloseableIterator<T> source : sources) {
+                if (source.hasNext()) {
+                    heap.add(new Source(source, source.next()));
+                }
+            }
+        }
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Source source = heap.poll();
+        T row = source.next;
+        if (source.iterator.hasNext()) {
+            source.next = source.iterator.next();
+            heap.add(source);
+        }
+        return row;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        RuntimeException failure = null;
+        for (CloseableIterator<T> source : sources) {
+            try {
+                source.close();
+            } catch (RuntimeException e) {
+                // Close the other iterators anyway
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * This class holds an iterator together with its next row.
+     */
+    private class Source {
+
+        // The iterator
+        private final CloseableIterator<T> iterator;
+
+        // The next row of the iterator
+        private T next;
+
+        Source(CloseableIterator<T> iterator, T next) {
+            this.iterator = iterator;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.yohann.excel.stream;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * This class is an iterator over rows produced by another thread, such as a SAX parser that pushes rows through
+ * callbacks. The rows are handed over through a bounded RowQueue, so at most the queue capacity of rows is held in
+ * memory however many rows are produced.
+ *
+ * @param <T> the type of the rows
+ */
+public class QueueIterator<T> implements CloseableIterator<T> {
+
+    /**
+     * The default number of rows the producer may get ahead of the consumer.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * The threads running the producers.
+     */
+    private static final ExecutorService PRODUCERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "excel-stream-producer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The queue the rows are handed over through
+    private final RowQueue<T> queue;
+
+    // The next row, taken from the queue by hasNext
+    private T next;
+
+    // Whether the last row has been taken or the iterator is closed
+    private boolean done;
+
+    private QueueIterator(int capacity) {
+        this.queue = new RowQueue<>(capacity, this);
+    }
+
+    /**
+     * Starts a producer on a background thread and returns the iterator over the rows it produces. The producer puts
+     * its rows into the queue it is given, and should stop as soon as a put fails or the queue is closed. Exceptions
+     * thrown by the producer are thrown by the iterator after the rows produced before.
+     *
+     * @param capacity the number of rows the producer may get ahead of the consumer
+     * @param producer the producer
+     * @param <T>      the type of the rows
+     * @return the iterator
+     */
+    public static <T> QueueIterator<T> start(int capacity, Consumer<RowQueue<T>> producer) {
+        QueueIterator<T> iterator = new QueueIterator<>(capacity);
+        // The producer must not reach the iterator, or the queue could not notice an iterator that was dropped
+        RowQueue<T> queue = iterator.queue;
+        PRODUCERS.execute(() -> {
+            try {
+                producer.accept(queue);
+                queue.finish();
+            } catch (Throwable e) {
+                queue.fail(e);
+            }
+        });
+        return iterator;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            try {
+                next = queue.take();
+            } catch (RuntimeException e) {
+                this.close();
+                throw e;
+            }
+            if (next == null) {
+                this.close();
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public T next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T row = next;
+        next = null;
+        return row;
+    }
+
+    @Override
+    public void close() {
+        done = true;
+        next = null;
+        queue.close();
+    }
+}
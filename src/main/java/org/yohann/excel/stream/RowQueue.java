@@ -0,0 +1,140 @@
+package org.yohann.excel.stream;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is the bounded hand-off between a thread producing rows and the QueueIterator consuming them. The
+ * producer waits while the queue is full, so it never gets further ahead of the consumer than the queue capacity.
+ * <p>
+ * The producer learns that it should stop when the iterator is closed, and also when the iterator was dropped without
+ * being closed, because the queue only holds a weak reference to it.
+ *
+ * @param <T> the type of the rows
+ */
+public class RowQueue<T> {
+
+    /**
+     * How long the producer waits for space before checking whether the consumer is still there.
+     */
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * The marker handed over after the last row.
+     */
+    private static final Object END = new Object();
+
+    // The rows handed over and not yet consumed, followed by END or a Failure
+    private final BlockingQueue<Object> queue;
+
+    // The consuming iterator
+    private final WeakReference<Object> consumer;
+
+    // Whether the consumer is gone
+    private volatile boolean closed;
+
+    RowQueue(int capacity, Object consumer) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.consumer = new WeakReference<>(consumer);
+    }
+
+    /**
+     * Hands a row to the consumer, waiting while the queue is full.
+     *
+     * @param row the row
+     * @return true if the row was handed over, false if the consumer is gone and the producer should stop
+     */
+    public boolean put(T row) {
+        return this.hand(row);
+    }
+
+    /**
+     * Checks if the consumer is gone, so the producer should stop.
+     *
+     * @return true if the iterator was closed or dropped
+     */
+    public boolean isClosed() {
+        if (!closed && consumer.get() == null) {
+            closed = true;
+        }
+        return closed;
+    }
+
+    /**
+     * Called by the producer after the last row.
+     */
+    void finish() {
+        this.hand(END);
+    }
+
+    /**
+     * Called by the producer when producing the rows failed.
+     */
+    void fail(Throwable failure) {
+        this.hand(new Failure(failure));
+    }
+
+    /**
+     * Takes the next row, waiting until one is handed over.
+     *
+     * @return the row, or null after the last row
+     * @throws RuntimeException if producing the rows failed, or the thread was interrupted while waiting
+     */
+    @SuppressWarnings("unchecked")
+    T take() {
+        Object element;
+        try {
+            element = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for rows", e);
+        }
+        if (element == END) {
+            return null;
+        }
+        if (element instanceof Failure) {
+            Throwable failure = ((Failure) element).failure;
+            throw new RuntimeException(failure.getMessage(), failure);
+        }
+        return (T) element;
+    }
+
+    /**
+     * Called when the consumer is closed. The queue is cleared, so a producer waiting for space wakes up and stops.
+     */
+    void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    /**
+     * Put an element into the queue, waiting for space as long as the consumer is there
+     */
+    private boolean hand(Object element) {
+        try {
+            while (!this.isClosed()) {
+                if (queue.offer(element, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * The marker handed over when producing the rows failed.
+     */
+    private static class Failure {
+
+        // The cause of the failure
+        private final Throwable failure;
+
+        private Failure(Throwable failure) {
+            this.failure = failure;
+        }
+    }
+}
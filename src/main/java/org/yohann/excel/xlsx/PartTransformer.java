@@ -0,0 +1,23 @@
+package org.yohann.excel.xlsx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A functional interface that rewrites a single part of an xlsx package while the package is being copied.
+ */
+@FunctionalInterface
+public interface PartTransformer {
+
+    /**
+     * Reads the original content of the part and writes the new content.
+     * Implementations must not close either stream.
+     *
+     * @param in  the original content of the part
+     * @param out the stream receiving the new content of the part
+     * @throws IOException if an I/O error occurs
+     */
+    void transform(InputStream in, OutputStream out) throws IOException;
+
+}
@@ -0,0 +1,324 @@
+package org.yohann.excel.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds the raw XML of a single row element of a worksheet, together with its one-based row number.
+ */
+public class RowXml {
+
+    // The one-based row number
+    private final int rowNum;
+
+    // The raw UTF-8 bytes of the row element
+    private final byte[] xml;
+
+    /**
+     * Constructs a new RowXml object.
+     *
+     * @param rowNum the one-based row number
+     * @param xml    the raw UTF-8 bytes of the row element
+     */
+    public RowXml(int rowNum, byte[] xml) {
+        this.rowNum = rowNum;
+        this.xml = xml;
+    }
+
+    /**
+     * Returns the one-based row number.
+     *
+     * @return the one-based row number
+     */
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    /**
+     * Returns the raw UTF-8 bytes of the row element.
+     *
+     * @return the raw bytes of the row element
+     */
+    public byte[] getXml() {
+        return xml;
+    }
+
+    /**
+     * Returns a copy of this row moved to another row number, with the r attributes of the row and its cells rewritten.
+     * The rest of the row is copied byte for byte.
+     *
+     * @param rowNum the new one-based row number
+     * @return the moved row, or this row if the row number does not change
+     */
+    public RowXml renumber(int rowNum) {
+        if (rowNum == this.rowNum) {
+            return this;
+        }
+        byte[] digits = Integer.toString(rowNum).getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(xml.length + digits.length);
+        int i = 0;
+        while (i < xml.length) {
+            if (xml[i] != '<' || i + 1 == xml.length || xml[i + 1] == '/' || xml[i + 1] == '!' || xml[i + 1] == '?') {
+                out.write(xml[i++]);
+                continue;
+            }
+            // Copy the name of the start tag, only rows and cells carry references to the row number
+            int nameStart = i + 1;
+            int nameEnd = nameStart;
+            while (nameEnd < xml.length && xml[nameEnd] != '>' && xml[nameEnd] != '/' && !isSpace(xml[nameEnd])) {
+                nameEnd++;
+            }
+            boolean referencing = isLocalName(nameStart, nameEnd, "row") || isLocalName(nameStart, nameEnd, "c");
+            out.write(xml, i, nameEnd - i);
+            i = nameEnd;
+            // Copy the attributes, rewriting the digits of the r attribute
+            while (i < xml.length && xml[i] != '>') {
+                if (referencing && i + 2 < xml.length && xml[i] == 'r' && xml[i + 1] == '=' && xml[i + 2] == '"'
+                        && isSpace(xml[i - 1])) {
+                    int j = i + 3;
+                    while (j < xml.length && xml[j] >= 'A' && xml[j] <= 'Z') {
+                        j++;
+                    }
+                    out.write(xml, i, j - i);
+                    out.write(digits, 0, digits.length);
+                    while (j < xml.length && xml[j] >= '0' && xml[j] <= '9') {
+                        j++;
+                    }
+                    i = j;
+                } else if (xml[i] == '"' || xml[i] == '\'') {
+                    // Copy quoted values whole, they may contain anything but their quote
+                    int j = i + 1;
+                    while (j < xml.length && xml[j] != xml[i]) {
+                        j++;
+                    }
+                    j = Math.min(j + 1, xml.length);
+                    out.write(xml, i, j - i);
+                    i = j;
+                } else {
+                    out.write(xml[i++]);
+                }
+            }
+        }
+        return new RowXml(rowNum, out.toByteArray());
+    }
+
+    /**
+     * Returns the offset after the start tag of the row element.
+     */
+    int contentStart() {
+        return this.tagEnd(0);
+    }
+
+    /**
+     * Returns the offset of the end tag of the row element, or the offset after the start tag if the row element is
+     * an empty element.
+     */
+    int contentEnd() {
+        int contentStart = this.contentStart();
+        if (xml[contentStart - 2] == '/') {
+            return contentStart;
+        }
+        int end = xml.length - 1;
+        while (end > contentStart && xml[end] != '<') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the child elements of the row element in document order, each as its start offset, its end offset and
+     * the zero-based column index of a cell, or -1 for other elements. Cells without an r attribute follow the cell
+     * before them.
+     */
+    List<int[]> children() {
+        List<int[]> children = new ArrayList<>();
+        int contentEnd = this.contentEnd();
+        int column = -1;
+        int i = this.contentStart();
+        while (i < contentEnd) {
+            if (xml[i] != '<') {
+                i++;
+                continue;
+            }
+            int end = this.elementEnd(i);
+            int nameEnd = i + 1;
+            while (nameEnd < end && xml[nameEnd] != '>' && xml[nameEnd] != '/' && !isSpace(xml[nameEnd])) {
+                nameEnd++;
+            }
+            if (xml[i + 1] != '!' && xml[i + 1] != '?' && this.isLocalName(i + 1, nameEnd, "c")) {
+                String ref = this.attribute(i, "r");
+                if (ref != null) {
+                    int letters = 0;
+                    while (letters < ref.length() && ref.charAt(letters) >= 'A' && ref.charAt(letters) <= 'Z') {
+                        letters++;
+                    }
+                    column = SheetXmlWriter.columnIndex(ref.substring(0, letters));
+                } else {
+                    column++;
+                }
+                children.add(new int[]{i, end, column});
+            } else {
+                children.add(new int[]{i, end, -1});
+            }
+            i = end;
+        }
+        return children;
+    }
+
+    /**
+     * Returns the value of an attribute of the start tag at the given offset, or null if the start tag has no such
+     * attribute. Entity references in the value are not resolved.
+     */
+    String attribute(int start, String name) {
+        int end = this.tagEnd(start);
+        int i = start + 1;
+        while (i < end && !isSpace(xml[i])) {
+            i++;
+        }
+        while (i < end) {
+            if (isSpace(xml[i]) || !isSpace(xml[i - 1])) {
+                i++;
+                continue;
+            }
+            int nameEnd = i;
+            while (nameEnd < end && xml[nameEnd] != '=' && !isSpace(xml[nameEnd])) {
+                nameEnd++;
+            }
+            int quote = nameEnd;
+            while (quote < end && xml[quote] != '"' && xml[quote] != '\'') {
+                quote++;
+            }
+            int valueEnd = quote + 1;
+            while (valueEnd < end && xml[valueEnd] != xml[quote]) {
+                valueEnd++;
+            }
+            if (nameEnd - i == name.length()
+                    && new String(xml, i, nameEnd - i, StandardCharsets.UTF_8).equals(name)) {
+                return new String(xml, quote + 1, Math.max(valueEnd - quote - 1, 0), StandardCharsets.UTF_8);
+            }
+            i = valueEnd + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the offset after the tag, comment or processing instruction at the given offset. Quoted attribute
+     * values may contain the end of a tag.
+     */
+    private int tagEnd(int start) {
+        if (this.startsWith(start, "<!--")) {
+            return this.indexOf(start + 4, "-->") + 3;
+        }
+        if (this.startsWith(start, "<![CDATA[")) {
+            return this.indexOf(start + 9, "]]>") + 3;
+        }
+        int i = start + 1;
+        while (i < xml.length && xml[i] != '>') {
+            if (xml[i] == '"' || xml[i] == '\'') {
+                byte quote = xml[i++];
+                while (i < xml.length && xml[i] != quote) {
+                    i++;
+                }
+            }
+            i++;
+        }
+        return Math.min(i + 1, xml.length);
+    }
+
+    /**
+     * Returns the offset after the element starting at the given offset, including its content and end tag.
+     */
+    private int elementEnd(int start) {
+        int depth = 0;
+        int i = start;
+        while (i < xml.length) {
+            if (xml[i] != '<') {
+                i++;
+                continue;
+            }
+            int end = this.tagEnd(i);
+            if (xml[i + 1] == '/') {
+                depth--;
+            } else if (xml[i + 1] != '!' && xml[i + 1] != '?' && xml[end - 2] != '/') {
+                depth++;
+            }
+            i = end;
+            if (depth <= 0) {
+                return i;
+            }
+        }
+        return xml.length;
+    }
+
+    /**
+     * Checks if the raw bytes contain the given ASCII text at the given offset.
+     */
+    private boolean startsWith(int offset, String text) {
+        if (offset + text.length() > xml.length) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (xml[offset + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the given ASCII text in the raw bytes from the given offset, returning the length of the bytes minus the
+     * length of the text if it is not found.
+     */
+    private int indexOf(int from, String text) {
+        for (int i = from; i + text.length() <= xml.length; i++) {
+            if (this.startsWith(i, text)) {
+                return i;
+            }
+        }
+        return xml.length - text.length();
+    }
+
+    /**
+     * Checks if the element name between the given positions has the given local name, with or without a prefix.
+     */
+    private boolean isLocalName(int start, int end, String localName) {
+        int localStart = end - localName.length();
+        if (localStart < start || localStart > start && xml[localStart - 1] != ':') {
+            return false;
+        }
+        for (int i = 0; i < localName.length(); i++) {
+            if (xml[localStart + i] != localName.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the value of the r attribute of the first element in the given bytes.
+     *
+     * @param xml the bytes starting with an element start tag
+     * @return the value of the r attribute, or null if the start tag has none
+     */
+    static Integer parseRowNum(byte[] xml) {
+        for (int i = 1; i + 3 < xml.length && xml[i] != '>'; i++) {
+            if (xml[i] == 'r' && xml[i + 1] == '=' && xml[i + 2] == '"' && isSpace(xml[i - 1])) {
+                int value = 0;
+                for (int j = i + 3; j < xml.length && xml[j] >= '0' && xml[j] <= '9'; j++) {
+                    value = value * 10 + (xml[j] - '0');
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the given byte is XML whitespace.
+     */
+    static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -0,0 +1,208 @@
+package org.yohann.excel.xlsx;
+
+import org.yohann.excel.cache.FileFingerprint;
+import org.yohann.excel.index.ZoneMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a sparse index of the rows of an xlsx worksheet. Every INTERVAL-th row EasyExcel reads from the sheet
+ * has a checkpoint holding the row number of the row and the offset of its XML in the uncompressed worksheet part,
+ * so a page deep in the sheet can be read by skipping the XML before the nearest checkpoint instead of parsing it.
+ * <p>
+ * Checkpoints are only valid for the file content they were built from, which their fingerprint identifies. A sheet
+ * with rows that lack a row number, or whose row numbers do not increase, cannot be seeked in and has no checkpoints.
+ * <p>
+ * The rows from one checkpoint to the next form a block, and zone maps of numeric and date fields tell for every
+ * block the range of values of the field, so a query can read just the blocks that may hold matching rows.
+ */
+public class SheetCheckpoints {
+
+    /**
+     * The number of rows read by EasyExcel from one checkpoint to the next.
+     */
+    public static final int INTERVAL = 1000;
+
+    // The fingerprint of the file the checkpoints were built from
+    private final FileFingerprint fingerprint;
+
+    // The row numbers of the checkpoint rows, the row of checkpoint k being the row read k * INTERVAL rows after the
+    // first row
+    private final int[] rowNums;
+
+    // The offsets of the checkpoint rows in the uncompressed worksheet part
+    private final long[] offsets;
+
+    // Whether the sheet can be seeked in
+    private final boolean seekable;
+
+    // The zone maps whose blocks are the rows from one checkpoint to the next, keyed by field name
+    private final Map<String, ZoneMap> zoneMaps;
+
+    private SheetCheckpoints(FileFingerprint fingerprint, int[] rowNums, long[] offsets, boolean seekable,
+                             Map<String, ZoneMap> zoneMaps) {
+        this.fingerprint = fingerprint;
+        this.rowNums = rowNums;
+        this.offsets = offsets;
+        this.seekable = seekable;
+        this.zoneMaps = zoneMaps;
+    }
+
+    /**
+     * Builds the checkpoints of the first worksheet of an xlsx file. The rows EasyExcel reads skip empty rows, so
+     * which rows are checkpoints is decided by the caller, who reads the sheet with EasyExcel and passes the row
+     * number of every INTERVAL-th row. The worksheet XML is then scanned once without parsing the rows to find the
+     * offsets of these rows.
+     *
+     * @param file        the xlsx file
+     * @param rowNums     the row numbers of the rows read by EasyExcel at ordinals 0, INTERVAL, 2 * INTERVAL, ...
+     * @param zoneMaps    the zone maps of the fields read by EasyExcel with blocks of INTERVAL rows, keyed by field
+     *                    name
+     * @param fingerprint the fingerprint of the file, taken before it was read
+     * @return the checkpoints of the sheet
+     * @throws IOException if the file cannot be read
+     */
+    public static SheetCheckpoints build(File file, List<Integer> rowNums, Map<String, ZoneMap> zoneMaps,
+                                         FileFingerprint fingerprint) throws IOException {
+        int[] checkpointRowNums = new int[rowNums.size()];
+        long[] offsets = new long[rowNums.size()];
+        int next = 0;
+        int lastRowNum = 0;
+        try (XlsxPackage xlsx = XlsxPackage.open(file);
+             SheetXmlReader reader = new SheetXmlReader(xlsx.getInputStream(xlsx.getSheetPart()))) {
+            reader.readHead();
+            while (true) {
+                long offset = reader.getOffset();
+                RowXml row = reader.nextRow();
+                if (row == null) {
+                    break;
+                }
+                Integer rowNum = RowXml.parseRowNum(row.getXml());
+                if (rowNum == null || rowNum <= lastRowNum) {
+                    // Rows in a slice would be numbered from the slice instead of the sheet
+                    return new SheetCheckpoints(fingerprint, new int[0], new long[0], false, Collections.emptyMap());
+                }
+                lastRowNum = rowNum;
+                if (next < offsets.length && rowNum.equals(rowNums.get(next))) {
+                    checkpointRowNums[next] = rowNum;
+                    offsets[next] = offset;
+                    next++;
+                }
+            }
+        }
+        if (next < offsets.length) {
+            // The file changed between reading it with EasyExcel and scanning it
+            return new SheetCheckpoints(fingerprint, new int[0], new long[0], false, Collections.emptyMap());
+        }
+        return new SheetCheckpoints(fingerprint, checkpointRowNums, offsets, true, zoneMaps);
+    }
+
+    /**
+     * Verifies that the file the checkpoints were built from has not changed.
+     *
+     * @param path the file
+     * @return checkpoints equivalent to these that should replace them, or null if the file has changed
+     * @throws IOException if the file cannot be read
+     */
+    public SheetCheckpoints verify(Path path) throws IOException {
+        FileFingerprint verified = fingerprint.verify(path);
+        if (verified == null) {
+            return null;
+        }
+        return verified == fingerprint ? this : new SheetCheckpoints(verified, rowNums, offsets, seekable, zoneMaps);
+    }
+
+    /**
+     * Checks if rows can be read from the offsets of the checkpoints.
+     *
+     * @return true if the sheet can be seeked in
+     */
+    public boolean isSeekable() {
+        return seekable;
+    }
+
+    /**
+     * Returns the number of checkpoints.
+     *
+     * @return the number of checkpoints
+     */
+    public int size() {
+        return rowNums.length;
+    }
+
+    /**
+     * Finds the last checkpoint at or before the given ordinal of the rows read by EasyExcel.
+     *
+     * @param ordinal the number of rows read before the wanted row
+     * @return the index of the checkpoint, or -1 if there is none
+     */
+    public int floorOrdinal(int ordinal) {
+        return Math.min(ordinal / INTERVAL, rowNums.length - 1);
+    }
+
+    /**
+     * Finds the last checkpoint at or before the given row number.
+     *
+     * @param rowNum the row number
+     * @return the index of the checkpoint, or -1 if there is none
+     */
+    public int floorRowNum(int rowNum) {
+        int low = 0;
+        int high = rowNums.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (rowNums[middle] <= rowNum) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Returns the ordinal of the row of a checkpoint among the rows read by EasyExcel.
+     *
+     * @param index the index of the checkpoint
+     * @return the number of rows read before the row of the checkpoint
+     */
+    public int getOrdinal(int index) {
+        return index * INTERVAL;
+    }
+
+    /**
+     * Returns the row number of the row of a checkpoint.
+     *
+     * @param index the index of the checkpoint
+     * @return the row number
+     */
+    public int getRowNum(int index) {
+        return rowNums[index];
+    }
+
+    /**
+     * Returns the zone map of a field, whose blocks are the rows from one checkpoint to the next, block k starting at
+     * checkpoint k.
+     *
+     * @param fieldName the name of the field
+     * @return the zone map, or null if the field has none
+     */
+    public ZoneMap getZoneMap(String fieldName) {
+        return zoneMaps.get(fieldName);
+    }
+
+    /**
+     * Returns the offset of the row of a checkpoint in the uncompressed worksheet part.
+     *
+     * @param index the index of the checkpoint
+     * @return the offset to pass to SheetSlice.write
+     */
+    public long getOffset(int index) {
+        return offsets[index];
+    }
+}
@@ -0,0 +1,133 @@
+package org.yohann.excel.xlsx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * This class writes slices of an xlsx file. A slice is a copy of the package whose first worksheet holds only the
+ * header row and a run of rows starting at an offset of the worksheet XML. Reading a slice with EasyExcel yields the
+ * rows of the run with the same row numbers they have in the whole file, while the XML before the offset is inflated
+ * but never parsed.
+ * <p>
+ * The offsets come from SheetCheckpoints, and are only valid for sheets whose rows all carry their row number.
+ */
+public class SheetSlice {
+
+    private SheetSlice() {
+    }
+
+    /**
+     * Writes a slice of the first worksheet of an xlsx file.
+     *
+     * @param file        the xlsx file
+     * @param offset      the offset of the first row of the slice, or 0 to start at the first row after the header
+     * @param afterRowNum the row number up to which rows are left out of the slice without counting them
+     * @param rows        the maximum number of rows in the slice, not counting the header row
+     * @param out         the stream receiving the slice, which is not closed
+     * @return the offset of the row after the slice, or -1 if the slice reaches the end of the sheet
+     * @throws IOException if the file cannot be read or the slice cannot be written
+     */
+    public static long write(File file, long offset, int afterRowNum, int rows, OutputStream out) throws IOException {
+        return write(file, offset, afterRowNum, rows, Integer.MAX_VALUE, out);
+    }
+
+    /**
+     * Writes a slice of the first worksheet of an xlsx file holding the rows from an offset up to a row number, such
+     * as the rows from one checkpoint to another.
+     *
+     * @param file        the xlsx file
+     * @param offset      the offset of the first row of the slice, or 0 to start at the first row after the header
+     * @param afterRowNum the row number up to which rows are left out of the slice without counting them
+     * @param endRowNum   the row number from which rows are left out of the slice
+     * @param out         the stream receiving the slice, which is not closed
+     * @return the offset of the row after the slice, or -1 if the slice reaches the end of the sheet
+     * @throws IOException if the file cannot be read or the slice cannot be written
+     */
+    public static long writeRange(File file, long offset, int afterRowNum, int endRowNum, OutputStream out)
+            throws IOException {
+        return write(file, offset, afterRowNum, Integer.MAX_VALUE, endRowNum, out);
+    }
+
+    /**
+     * Writes a slice holding at most the given number of rows before the end row number.
+     */
+    private static long write(File file, long offset, int afterRowNum, int rows, int endRowNum, OutputStream out)
+            throws IOException {
+        long[] next = new long[1];
+        try (XlsxPackage xlsx = XlsxPackage.open(file)) {
+            xlsx.rewrite(out, Collections.singletonMap(xlsx.getSheetPart(),
+                    (in, sheetOut) -> next[0] = writeSheet(in, sheetOut, offset, afterRowNum, rows, endRowNum)));
+        }
+        return next[0];
+    }
+
+    /**
+     * Writes the worksheet XML of a slice, returning the offset of the row after the slice or -1 at the end.
+     */
+    private static long writeSheet(InputStream in, OutputStream out, long offset, int afterRowNum, int rows,
+                                   int endRowNum) throws IOException {
+        SheetXmlReader reader = new SheetXmlReader(in);
+        SheetXmlWriter writer = new SheetXmlWriter(out);
+        byte[] head = reader.readHead();
+        writer.write(head);
+        writer.startSheetData(reader.getPrefix());
+        long position = reader.getOffset();
+        RowXml row = reader.nextRow();
+        if (row != null && row.getRowNum() <= 1) {
+            // EasyExcel takes the first row as the header, which the slice needs to bind the columns
+            writer.write(row.getXml());
+            position = reader.getOffset();
+            row = null;
+        }
+        if (offset > position) {
+            // The first row read is before the slice
+            reader.skipTo(offset);
+            position = offset;
+            row = null;
+        }
+        int count = 0;
+        long end = -1;
+        while (true) {
+            if (row == null) {
+                position = reader.getOffset();
+                row = reader.nextRow();
+                if (row == null) {
+                    break;
+                }
+            }
+            if (row.getRowNum() > afterRowNum) {
+                if (count == rows || row.getRowNum() >= endRowNum) {
+                    end = position;
+                    break;
+                }
+                writer.write(row.getXml());
+                count++;
+            }
+            row = null;
+        }
+        writer.endSheetData();
+        out.write(("</" + rootName(head) + ">").getBytes(US_ASCII));
+        return end;
+    }
+
+    /**
+     * Returns the qualified name of the root element of the worksheet XML, whose end tag closes the slice.
+     */
+    private static String rootName(byte[] head) {
+        for (int i = 0; i + 1 < head.length; i++) {
+            if (head[i] == '<' && head[i + 1] != '?' && head[i + 1] != '!') {
+                int end = i + 1;
+                while (end < head.length && head[end] != '>' && head[end] != '/' && !RowXml.isSpace(head[end])) {
+                    end++;
+                }
+                return new String(head, i + 1, end - i - 1, US_ASCII);
+            }
+        }
+        return "worksheet";
+    }
+}
@@ -0,0 +1,274 @@
+package org.yohann.excel.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class reads the XML of a worksheet part as a stream of raw byte chunks: the head before the sheetData element,
+ * one chunk per row, and the tail after the sheetData element. Rows are never parsed into a DOM, so a sheet of any
+ * size is read with a constant amount of memory.
+ * <p>
+ * The reader works on the UTF-8 bytes directly. This is safe because every markup character it searches for is ASCII
+ * and cannot occur inside a multi-byte UTF-8 sequence. Elements are matched by their local names, so worksheets
+ * whose elements carry a namespace prefix, such as x:sheetData, are read like unprefixed ones.
+ */
+public class SheetXmlReader implements Closeable {
+
+    private static final String SHEET_DATA = "sheetData";
+
+    // The XML stream of the worksheet part
+    private final InputStream in;
+
+    // The read buffer
+    private final byte[] buffer = new byte[64 * 1024];
+
+    // The position of the next unread byte in the buffer
+    private int position;
+
+    // The number of valid bytes in the buffer
+    private int limit;
+
+    // The offset in the stream of the first byte in the buffer
+    private long bufferOffset;
+
+    // Whether the sheetData element is empty and has been fully consumed
+    private boolean sheetDataEnded;
+
+    // The row number of the last row read, used for rows without an r attribute
+    private int lastRowNum;
+
+    // The namespace prefix of the sheetData element including its colon, or an empty string if it has none
+    private String prefix = "";
+
+    // The end tag of the row elements, carrying the namespace prefix of the sheetData element
+    private byte[] rowEnd = "</row>".getBytes(US_ASCII);
+
+    /**
+     * Constructs a new SheetXmlReader for the given worksheet XML stream.
+     *
+     * @param in the XML stream of the worksheet part
+     */
+    public SheetXmlReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads everything before the sheetData element and consumes the sheetData start tag.
+     *
+     * @return the raw bytes before the sheetData element
+     * @throws IOException if the stream cannot be read or contains no sheetData element
+     */
+    public byte[] readHead() throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        ByteArrayOutputStream name = new ByteArrayOutputStream(32);
+        int b;
+        while ((b = read()) >= 0) {
+            if (b != '<') {
+                head.write(b);
+                continue;
+            }
+            // Read the name of the tag, which stays in the head unless the tag is the sheetData start tag
+            name.reset();
+            while ((b = read()) >= 0 && b != '>' && b != '/' && !RowXml.isSpace((byte) b)) {
+                name.write(b);
+            }
+            String qualifiedName = new String(name.toByteArray(), UTF_8);
+            int colon = qualifiedName.indexOf(':');
+            if (qualifiedName.substring(colon + 1).equals(SHEET_DATA)) {
+                prefix = qualifiedName.substring(0, colon + 1);
+                rowEnd = ("</" + prefix + "row>").getBytes(UTF_8);
+                // Consume the rest of the start tag, which may be self-closing
+                int previous = -1;
+                while (b != '>') {
+                    if (b < 0) {
+                        throw new IOException("unexpected end of sheet");
+                    }
+                    previous = b;
+                    b = read();
+                }
+                sheetDataEnded = previous == '/';
+                return head.toByteArray();
+            }
+            head.write('<');
+            name.writeTo(head);
+            if (b >= 0) {
+                head.write(b);
+            }
+        }
+        throw new IOException("sheetData not found");
+    }
+
+    /**
+     * Returns the namespace prefix of the sheetData element read by readHead, which its rows and cells share.
+     *
+     * @return the prefix including its colon, or an empty string if the element has no prefix
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Reads the next row of the sheetData element.
+     *
+     * @return the next row, or null if the end of the sheetData element has been reached
+     * @throws IOException if the stream cannot be read or is malformed
+     */
+    public RowXml nextRow() throws IOException {
+        if (sheetDataEnded) {
+            return null;
+        }
+        // Skip whitespace between rows
+        int b;
+        do {
+            b = read();
+        } while (b >= 0 && b != '<');
+        if (b < 0) {
+            throw new IOException("unexpected end of sheet");
+        }
+        ByteArrayOutputStream row = new ByteArrayOutputStream(256);
+        row.write('<');
+        // Read the start tag
+        int previous = -1;
+        while ((b = read()) != '>') {
+            if (b < 0) {
+                throw new IOException("unexpected end of sheet");
+            }
+            row.write(b);
+            previous = b;
+        }
+        row.write('>');
+        byte[] startTag = row.toByteArray();
+        if (startTag[1] == '/') {
+            // This is the sheetData end tag
+            sheetDataEnded = true;
+            return null;
+        }
+        if (previous != '/' && !readUntil(rowEnd, row)) {
+            throw new IOException("unexpected end of sheet");
+        }
+        Integer rowNum = RowXml.parseRowNum(startTag);
+        lastRowNum = rowNum == null ? lastRowNum + 1 : rowNum;
+        return new RowXml(lastRowNum, row.toByteArray());
+    }
+
+    /**
+     * Skips the remaining rows and copies everything after the sheetData element to the given stream.
+     *
+     * @param out the stream to copy to
+     * @throws IOException if an I/O error occurs
+     */
+    public void copyTail(OutputStream out) throws IOException {
+        while (nextRow() != null) {
+            // Skip the remaining rows
+        }
+        if (position < limit) {
+            out.write(buffer, position, limit - position);
+            position = limit;
+        }
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            out.write(buffer, 0, count);
+        }
+    }
+
+    /**
+     * Returns the offset of the next unread byte in the uncompressed XML stream. Taken before nextRow, the offset
+     * lets a later reader of the same XML continue at that row with skipTo.
+     *
+     * @return the number of bytes read from the stream so far
+     */
+    public long getOffset() {
+        return bufferOffset + position;
+    }
+
+    /**
+     * Skips forward to the given offset of the XML stream, which must lie between two rows of the sheetData element.
+     * The skipped bytes are passed over without being searched, and the row numbers of rows without an r attribute
+     * are not counted for them.
+     *
+     * @param offset an offset returned by getOffset of a reader of the same XML
+     * @throws IOException if the stream cannot be read or ends before the offset
+     */
+    public void skipTo(long offset) throws IOException {
+        long current = getOffset();
+        if (offset < current) {
+            throw new IOException("cannot skip backwards from " + current + " to " + offset);
+        }
+        if (offset <= bufferOffset + limit) {
+            position = (int) (offset - bufferOffset);
+            return;
+        }
+        long remaining = offset - bufferOffset - limit;
+        bufferOffset += limit;
+        position = 0;
+        limit = 0;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                // Some streams only skip once data is available, reading a byte tells apart the end of the stream
+                if (in.read() < 0) {
+                    throw new IOException("unexpected end of sheet");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+            bufferOffset += skipped;
+        }
+    }
+
+    /**
+     * Returns the row number of the last row read.
+     *
+     * @return the row number of the last row read, or 0 if no row has been read
+     */
+    public int getLastRowNum() {
+        return lastRowNum;
+    }
+
+    /**
+     * Reads bytes into the sink until the given pattern has been read, including the pattern itself.
+     * The first byte of the pattern must not occur anywhere else in the pattern.
+     */
+    private boolean readUntil(byte[] pattern, ByteArrayOutputStream sink) throws IOException {
+        int matched = 0;
+        int b;
+        while ((b = read()) >= 0) {
+            sink.write(b);
+            if (b == pattern[matched]) {
+                if (++matched == pattern.length) {
+                    return true;
+                }
+            } else {
+                matched = b == pattern[0] ? 1 : 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads a single byte, refilling the buffer as needed.
+     */
+    private int read() throws IOException {
+        if (position == limit) {
+            bufferOffset += limit;
+            limit = in.read(buffer);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
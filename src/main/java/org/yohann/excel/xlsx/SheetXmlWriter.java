@@ -0,0 +1,343 @@
+package org.yohann.excel.xlsx;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.yohann.excel.metadata.CellValueTypeEnum;
+import org.yohann.excel.metadata.ExcelColumn;
+import org.yohann.excel.metadata.ExcelField;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class writes worksheet XML to a stream. Rows are built from mapped objects with the same cell contents that
+ * AbstractExcelMapper writes through POI. Numbers and booleans are written as numeric and boolean cells, dates as
+ * numbers with a date style when one is given for their format, and everything else as inline strings so the shared
+ * strings part does not have to be rewritten. Unlike the cells POI writes, string cells therefore do not refer to the
+ * shared strings part, and a sheet holding cells of both kinds reads back the same in Excel, POI and EasyExcel. The
+ * elements written take the namespace prefix of the sheetData element of the worksheet they are written into.
+ */
+public class SheetXmlWriter {
+
+    private static final Pattern DIMENSION = Pattern.compile("(<(?:\\w+:)?dimension\\s+ref=\")([A-Z]+\\d+)(?::([A-Z]+)(\\d+))?\"");
+
+    // The stream receiving the worksheet XML
+    private final OutputStream out;
+
+    // The indexes of the cell styles of date cells, keyed by Excel number format
+    private final Map<String, Integer> dateStyles;
+
+    // The buffer used to build a row before it is written
+    private final StringBuilder builder = new StringBuilder(256);
+
+    // The namespace prefix of the elements written, including its colon, or an empty string
+    private String prefix = "";
+
+    /**
+     * Constructs a new SheetXmlWriter writing to the given stream, writing dates as text.
+     *
+     * @param out the stream receiving the worksheet XML
+     */
+    public SheetXmlWriter(OutputStream out) {
+        this(out, Collections.emptyMap());
+    }
+
+    /**
+     * Constructs a new SheetXmlWriter writing to the given stream, writing dates as numbers with the given styles.
+     * Dates whose format has no style are written as text.
+     *
+     * @param out        the stream receiving the worksheet XML
+     * @param dateStyles the indexes of the cell styles of date cells, keyed by Excel number format
+     */
+    public SheetXmlWriter(OutputStream out, Map<String, Integer> dateStyles) {
+        this.out = out;
+        this.dateStyles = dateStyles;
+    }
+
+    /**
+     * Writes raw bytes, for example a head, tail or row copied from a SheetXmlReader.
+     *
+     * @param xml the raw UTF-8 bytes to write
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(byte[] xml) throws IOException {
+        out.write(xml);
+    }
+
+    /**
+     * Writes the start tag of the sheetData element with the given namespace prefix, which the rows and cells written
+     * after it take too.
+     *
+     * @param prefix the namespace prefix including its colon, as returned by SheetXmlReader.getPrefix, or an empty
+     *               string
+     * @throws IOException if an I/O error occurs
+     */
+    public void startSheetData(String prefix) throws IOException {
+        this.prefix = prefix;
+        out.write(("<" + prefix + "sheetData>").getBytes(UTF_8));
+    }
+
+    /**
+     * Writes the end tag of the sheetData element.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void endSheetData() throws IOException {
+        out.write(("</" + prefix + "sheetData>").getBytes(UTF_8));
+    }
+
+    /**
+     * Writes a row holding the values of a mapped object.
+     *
+     * @param rowNum  the one-based row number
+     * @param values  the values of the mapped fields of the object, as read by ExcelMetadata.getValues
+     * @param columns the columns of the sheet, ordered by column index
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeRow(int rowNum, Object[] values, List<ExcelColumn> columns) throws IOException {
+        builder.setLength(0);
+        builder.append('<').append(prefix).append("row r=\"").append(rowNum).append("\">");
+        for (ExcelColumn column : columns) {
+            this.appendCell(rowNum, column, values, null);
+        }
+        builder.append("</").append(prefix).append("row>");
+        out.write(builder.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * Writes an existing row with the values of a mapped object written over it. Like an update through POI, the
+     * cells of columns for which the object has a value are replaced, keeping their style unless they become date
+     * cells, and all other cells and the attributes of the row are copied unchanged.
+     *
+     * @param row     the existing row, as read by a SheetXmlReader
+     * @param values  the values of the mapped fields of the object, as read by ExcelMetadata.getValues
+     * @param columns the columns of the sheet, ordered by column index
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeRow(RowXml row, Object[] values, List<ExcelColumn> columns) throws IOException {
+        byte[] xml = row.getXml();
+        int contentStart = row.contentStart();
+        int contentEnd = row.contentEnd();
+        if (contentEnd == contentStart) {
+            // Open an empty row element, so cells can be written into it
+            out.write(xml, 0, contentStart - 2);
+            out.write('>');
+        } else {
+            out.write(xml, 0, contentStart);
+        }
+        int next = 0;
+        for (int[] child : row.children()) {
+            int column = child[2];
+            // Write the new cells before this child, all of them if it is not a cell
+            while (next < columns.size() && (column < 0 || columns.get(next).getIndex() < column)) {
+                this.writeCell(row.getRowNum(), columns.get(next++), values, null);
+            }
+            if (column >= 0 && next < columns.size() && columns.get(next).getIndex() == column
+                    && values[columns.get(next).getPosition()] != null) {
+                this.writeCell(row.getRowNum(), columns.get(next++), values, row.attribute(child[0], "s"));
+                continue;
+            }
+            out.write(xml, child[0], child[1] - child[0]);
+        }
+        while (next < columns.size()) {
+            this.writeCell(row.getRowNum(), columns.get(next++), values, null);
+        }
+        if (contentEnd == contentStart) {
+            out.write(("</" + prefix + "row>").getBytes(UTF_8));
+        } else {
+            out.write(xml, contentEnd, xml.length - contentEnd);
+        }
+    }
+
+    /**
+     * Writes a cell holding the value of a field, or nothing if the field has no value
+     */
+    private void writeCell(int rowNum, ExcelColumn column, Object[] values, String style) throws IOException {
+        builder.setLength(0);
+        this.appendCell(rowNum, column, values, style);
+        out.write(builder.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * Appends a cell holding the value of a field to the buffer, or nothing if the field has no value
+     */
+    private void appendCell(int rowNum, ExcelColumn column, Object[] values, String style) {
+        ExcelField field = column.getField();
+        Object value = values[column.getPosition()];
+        if (value == null) {
+            return;
+        }
+        CellValueTypeEnum type = field.cellType(value);
+        double serial = 0;
+        if (type == CellValueTypeEnum.DATE) {
+            // The date is written as it reads back with its pattern, like dates written as text, and dates before
+            // 1900 have no serial number
+            Integer dateStyle = dateStyles.get(field.getExcelDateFormat());
+            serial = dateStyle == null ? -1 : DateUtil.getExcelDate((Date) field.normalize(value));
+            if (serial < 0) {
+                type = CellValueTypeEnum.STRING;
+            } else {
+                style = dateStyle.toString();
+            }
+        }
+        builder.append('<').append(prefix).append("c r=\"").append(columnName(column.getIndex())).append(rowNum).append('"');
+        if (style != null) {
+            builder.append(" s=\"").append(style).append('"');
+        }
+        switch (type) {
+            case NUMBER:
+                builder.append("><").append(prefix).append("v>").append(value);
+                break;
+            case BOOLEAN:
+                builder.append(" t=\"b\"><").append(prefix).append("v>").append((Boolean) value ? '1' : '0');
+                break;
+            case DATE:
+                builder.append("><").append(prefix).append("v>").append(serial);
+                break;
+            default:
+                String text = field.format(value);
+                builder.append(" t=\"inlineStr\"><").append(prefix).append("is><").append(prefix).append('t');
+                if (!text.isEmpty() && (Character.isWhitespace(text.charAt(0))
+                        || Character.isWhitespace(text.charAt(text.length() - 1)))) {
+                    builder.append(" xml:space=\"preserve\"");
+                }
+                builder.append('>');
+                escape(text, builder);
+                builder.append("</").append(prefix).append("t></").append(prefix).append("is></").append(prefix)
+                        .append("c>");
+                return;
+        }
+        builder.append("</").append(prefix).append("v></").append(prefix).append("c>");
+    }
+
+    /**
+     * Returns the letter name of a column, for example A for 0 and AA for 26.
+     *
+     * @param index the zero-based column index
+     * @return the column name
+     */
+    public static String columnName(int index) {
+        StringBuilder name = new StringBuilder(3);
+        for (int i = index + 1; i > 0; i = (i - 1) / 26) {
+            name.insert(0, (char) ('A' + (i - 1) % 26));
+        }
+        return name.toString();
+    }
+
+    /**
+     * Returns the zero-based index of a column from its letter name.
+     *
+     * @param name the column name
+     * @return the zero-based column index
+     */
+    public static int columnIndex(String name) {
+        int index = 0;
+        for (int i = 0; i < name.length(); i++) {
+            index = index * 26 + (name.charAt(i) - 'A' + 1);
+        }
+        return index - 1;
+    }
+
+    /**
+     * Extends the dimension element in the head of a worksheet to cover appended rows and columns.
+     *
+     * @param head         the raw bytes before the sheetData element
+     * @param appendedRows the number of rows appended below the current last row
+     * @param lastColumn   the zero-based index of the last column written
+     * @return the head with the updated dimension, or the head itself if it has no dimension element
+     */
+    public static byte[] extendDimension(byte[] head, int appendedRows, int lastColumn) {
+        return changeDimension(head, endRow -> endRow + appendedRows, lastColumn);
+    }
+
+    /**
+     * Extends the dimension element in the head of a worksheet to cover rows up to a row number and columns up to a
+     * column index.
+     *
+     * @param head       the raw bytes before the sheetData element
+     * @param lastRowNum the one-based number of the last row written
+     * @param lastColumn the zero-based index of the last column written
+     * @return the head with the updated dimension, or the head itself if it has no dimension element
+     */
+    public static byte[] coverDimension(byte[] head, int lastRowNum, int lastColumn) {
+        return changeDimension(head, endRow -> Math.max(endRow, lastRowNum), lastColumn);
+    }
+
+    /**
+     * Shrinks the dimension element in the head of a worksheet by the deleted rows it covers.
+     *
+     * @param head           the raw bytes before the sheetData element
+     * @param deletedRowNums the one-based numbers of the deleted rows, sorted in ascending order
+     * @return the head with the updated dimension, or the head itself if it has no dimension element
+     */
+    public static byte[] shrinkDimension(byte[] head, int[] deletedRowNums) {
+        return changeDimension(head, endRow -> {
+            int covered = Arrays.binarySearch(deletedRowNums, endRow);
+            covered = covered >= 0 ? covered + 1 : -covered - 1;
+            return Math.max(endRow - covered, 1);
+        }, -1);
+    }
+
+    /**
+     * Changes the last row of the dimension element and widens it to the last column.
+     */
+    private static byte[] changeDimension(byte[] head, IntUnaryOperator endRowChange, int lastColumn) {
+        String text = new String(head, UTF_8);
+        Matcher matcher = DIMENSION.matcher(text);
+        if (!matcher.find()) {
+            return head;
+        }
+        String first = matcher.group(2);
+        String endColumn = matcher.group(3);
+        int endRow;
+        if (endColumn == null) {
+            // A single-cell reference, the first cell is also the last cell
+            Matcher cell = Pattern.compile("([A-Z]+)(\\d+)").matcher(first);
+            cell.matches();
+            endColumn = cell.group(1);
+            endRow = Integer.parseInt(cell.group(2));
+        } else {
+            endRow = Integer.parseInt(matcher.group(4));
+        }
+        String ref = first + ":" + columnName(Math.max(columnIndex(endColumn), lastColumn))
+                + endRowChange.applyAsInt(endRow);
+        return (text.substring(0, matcher.start()) + matcher.group(1) + ref + "\"" + text.substring(matcher.end()))
+                .getBytes(UTF_8);
+    }
+
+    /**
+     * Escapes text for use as XML character data. Characters that XML 1.0 cannot represent are written in the
+     * _xHHHH_ form used by Excel.
+     */
+    private static void escape(String text, StringBuilder builder) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    builder.append("&amp;");
+                    break;
+                case '<':
+                    builder.append("&lt;");
+                    break;
+                case '>':
+                    builder.append("&gt;");
+                    break;
+                default:
+                    if (c < 0x20 && c != '\t' && c != '\n' && c != '\r' || c == 0xFFFE || c == 0xFFFF) {
+                        builder.append(String.format("_x%04X_", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.yohann.excel.xlsx;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.poi.util.IOUtils;
+
+import java.io.*;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class gives streaming access to the parts of an xlsx package. It locates the first worksheet the same way
+ * Workbook.getSheetAt(0) does, and can copy the package to a new stream while rewriting selected parts. Parts that
+ * are not rewritten are copied in their compressed form, without inflating and deflating them again.
+ */
+public class XlsxPackage implements Closeable {
+
+    private static final String WORKBOOK_PART = "xl/workbook.xml";
+    private static final String WORKBOOK_RELS_PART = "xl/_rels/workbook.xml.rels";
+    private static final String DEFAULT_SHEET_PART = "xl/worksheets/sheet1.xml";
+    private static final String STYLES_RELATIONSHIP = "/styles";
+
+    private static final Pattern SHEET = Pattern.compile("<(?:\\w+:)?sheet\\s[^>]*>");
+    private static final Pattern RELATIONSHIP = Pattern.compile("<(?:\\w+:)?Relationship\\s[^>]*>");
+    private static final Pattern ATTRIBUTE = Pattern.compile("([\\w:]+)\\s*=\\s*\"([^\"]*)\"");
+
+    // The underlying zip file
+    private final ZipFile zip;
+
+    // The name of the part holding the first worksheet
+    private final String sheetPart;
+
+    // The name of the part holding the styles, resolved on first use, empty if the package has no styles part
+    private String stylesPart;
+
+    /**
+     * Constructs a new XlsxPackage over the given zip file.
+     */
+    private XlsxPackage(ZipFile zip) throws IOException {
+        this.zip = zip;
+        this.sheetPart = findSheetPart();
+    }
+
+    /**
+     * Opens the xlsx file at the given location.
+     *
+     * @param file the xlsx file
+     * @return the opened package
+     * @throws IOException if the file cannot be opened as a zip file
+     */
+    public static XlsxPackage open(File file) throws IOException {
+        ZipFile zip = new ZipFile(file);
+        try {
+            return new XlsxPackage(zip);
+        } catch (IOException | RuntimeException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the name of the part holding the first worksheet.
+     *
+     * @return the part name, for example xl/worksheets/sheet1.xml
+     */
+    public String getSheetPart() {
+        return sheetPart;
+    }
+
+    /**
+     * Returns the name of the part holding the styles of the workbook.
+     *
+     * @return the part name, for example xl/styles.xml, or null if the workbook has no styles part
+     * @throws IOException if the workbook relationships cannot be read
+     */
+    public String getStylesPart() throws IOException {
+        if (stylesPart == null) {
+            stylesPart = "";
+            String relationships = readPart(WORKBOOK_RELS_PART);
+            Matcher relationship = RELATIONSHIP.matcher(relationships == null ? "" : relationships);
+            while (relationship.find()) {
+                Map<String, String> attributes = attributes(relationship.group());
+                String type = attributes.get("Type");
+                if (type != null && type.endsWith(STYLES_RELATIONSHIP)) {
+                    stylesPart = partName(attributes.get("Target"));
+                    break;
+                }
+            }
+        }
+        return stylesPart.isEmpty() ? null : stylesPart;
+    }
+
+    /**
+     * Opens the uncompressed content of the given part.
+     *
+     * @param part the part name
+     * @return the content of the part, or null if the package has no such part
+     * @throws IOException if the part cannot be read
+     */
+    public InputStream getInputStream(String part) throws IOException {
+        ZipArchiveEntry entry = zip.getEntry(part);
+        return entry == null ? null : zip.getInputStream(entry);
+    }
+
+    /**
+     * Copies the package to the given stream, rewriting the parts that have a transformer.
+     * The stream is not closed.
+     *
+     * @param out          the stream receiving the new package
+     * @param transformers the transformers, keyed by part name
+     * @throws IOException if an I/O error occurs
+     */
+    public void rewrite(OutputStream out, Map<String, PartTransformer> transformers) throws IOException {
+        ZipArchiveOutputStream zipOut = new ZipArchiveOutputStream(out);
+        Enumeration<ZipArchiveEntry> entries = zip.getEntriesInPhysicalOrder();
+        while (entries.hasMoreElements()) {
+            ZipArchiveEntry entry = entries.nextElement();
+            PartTransformer transformer = transformers.get(entry.getName());
+            if (transformer == null) {
+                zipOut.addRawArchiveEntry(entry, zip.getRawInputStream(entry));
+                continue;
+            }
+            ZipArchiveEntry rewritten = new ZipArchiveEntry(entry.getName());
+            rewritten.setMethod(ZipEntry.DEFLATED);
+            zipOut.putArchiveEntry(rewritten);
+            OutputStream partOut = new BufferedOutputStream(new NonClosingOutputStream(zipOut), 64 * 1024);
+            try (InputStream in = new BufferedInputStream(zip.getInputStream(entry), 64 * 1024)) {
+                transformer.transform(in, partOut);
+            }
+            partOut.flush();
+            zipOut.closeArchiveEntry();
+        }
+        zipOut.finish();
+        zipOut.flush();
+    }
+
+    /**
+     * Resolves the part of the first worksheet through the workbook part and its relationships.
+     */
+    private String findSheetPart() throws IOException {
+        String workbook = readPart(WORKBOOK_PART);
+        String relationships = readPart(WORKBOOK_RELS_PART);
+        if (workbook == null || relationships == null) {
+            return DEFAULT_SHEET_PART;
+        }
+        Matcher sheet = SHEET.matcher(workbook);
+        if (!sheet.find()) {
+            return DEFAULT_SHEET_PART;
+        }
+        String id = null;
+        for (Map.Entry<String, String> attribute : attributes(sheet.group()).entrySet()) {
+            if (attribute.getKey().endsWith(":id")) {
+                id = attribute.getValue();
+            }
+        }
+        Matcher relationship = RELATIONSHIP.matcher(relationships);
+        while (relationship.find()) {
+            Map<String, String> attributes = attributes(relationship.group());
+            if (id != null && id.equals(attributes.get("Id"))) {
+                return partName(attributes.get("Target"));
+            }
+        }
+        return DEFAULT_SHEET_PART;
+    }
+
+    /**
+     * Resolves the target of a workbook relationship to a part name.
+     */
+    private static String partName(String target) {
+        return target.startsWith("/") ? target.substring(1) : "xl/" + target;
+    }
+
+    /**
+     * Reads a small part into a string.
+     */
+    private String readPart(String part) throws IOException {
+        try (InputStream in = getInputStream(part)) {
+            return in == null ? null : new String(IOUtils.toByteArray(in), UTF_8);
+        }
+    }
+
+    /**
+     * Parses the attributes of an element start tag.
+     */
+    private static Map<String, String> attributes(String tag) {
+        Map<String, String> attributes = new HashMap<>();
+        Matcher matcher = ATTRIBUTE.matcher(tag);
+        while (matcher.find()) {
+            attributes.put(matcher.group(1), matcher.group(2));
+        }
+        return attributes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+
+    /**
+     * An output stream that passes writes through but ignores close, so a part transformer cannot close the zip.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package org.yohann.excel.xlsx;
+
+import org.apache.poi.util.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class adds cell styles for date formats to the styles part of an xlsx package. Dates are written as numbers
+ * whose cell style has a date number format, so every date format needs a number format and a cell format using it.
+ * Formats the styles part already has are reused, and missing ones are appended when the package is rewritten, which
+ * keeps the indexes of all existing cell formats valid.
+ * <p>
+ * Styles parts that are not laid out the way Excel, POI and EasyExcel write them, for example with a prefixed root
+ * element, are left alone, and no date styles are offered for them.
+ */
+public class XlsxStyles implements PartTransformer {
+
+    /**
+     * The first number format id not reserved for the built-in formats.
+     */
+    private static final int FIRST_CUSTOM_FORMAT_ID = 164;
+
+    private static final Pattern STYLE_SHEET = Pattern.compile("<styleSheet\\b[^>]*>");
+    private static final Pattern NUM_FMTS = Pattern.compile("<numFmts\\b[^>]*>");
+    private static final Pattern NUM_FMT = Pattern.compile("<numFmt\\s[^>]*>");
+    private static final Pattern CELL_XFS = Pattern.compile("<cellXfs\\b[^>]*>");
+    private static final Pattern XF = Pattern.compile("<xf\\b[^>]*>");
+    private static final Pattern COUNT = Pattern.compile("\\scount\\s*=\\s*\"[^\"]*\"");
+    private static final Pattern ATTRIBUTE = Pattern.compile("([\\w:]+)\\s*=\\s*\"([^\"]*)\"");
+
+    // The name of the styles part, or null if the package has no styles part
+    private final String part;
+
+    // The original content of the styles part, or null if it cannot be changed
+    private final String xml;
+
+    // The number format ids, keyed by escaped format code
+    private final Map<String, Integer> formatIds = new HashMap<>();
+
+    // The indexes of the cell formats that only set a number format, keyed by number format id
+    private final Map<Integer, Integer> plainXfs = new HashMap<>();
+
+    // The number formats to append
+    private final List<String> addedFormats = new ArrayList<>();
+
+    // The cell formats to append
+    private final List<String> addedXfs = new ArrayList<>();
+
+    // The start tag of the numFmts element, null if the part has none
+    private Matcher numFmts;
+
+    // The start tag of the cellXfs element
+    private Matcher cellXfs;
+
+    // The number of cell formats the part has
+    private int xfCount;
+
+    // The number of number formats the part has
+    private int formatCount;
+
+    // The id given to the next added number format
+    private int nextFormatId = FIRST_CUSTOM_FORMAT_ID;
+
+    private XlsxStyles(String part, String xml) {
+        this.part = part;
+        this.xml = xml != null && this.parse(xml) ? xml : null;
+    }
+
+    /**
+     * Reads the styles part of an xlsx package.
+     *
+     * @param xlsx the xlsx package
+     * @return the styles of the package
+     * @throws IOException if the styles part cannot be read
+     */
+    public static XlsxStyles read(XlsxPackage xlsx) throws IOException {
+        String part = xlsx.getStylesPart();
+        if (part == null) {
+            return new XlsxStyles(null, null);
+        }
+        try (InputStream in = xlsx.getInputStream(part)) {
+            return new XlsxStyles(part, in == null ? null : new String(IOUtils.toByteArray(in), UTF_8));
+        }
+    }
+
+    /**
+     * Returns the name of the styles part.
+     *
+     * @return the part name, for example xl/styles.xml
+     */
+    public String getPart() {
+        return part;
+    }
+
+    /**
+     * Returns the index of a cell format showing numbers as dates in the given Excel number format, adding the number
+     * format and the cell format if the styles part lacks them.
+     *
+     * @param format the Excel number format, for example yyyy-mm-dd hh:mm:ss
+     * @return the index of the cell format, or -1 if the styles part cannot be changed
+     */
+    public int dateStyle(String format) {
+        if (xml == null) {
+            return -1;
+        }
+        String code = escape(format);
+        Integer formatId = formatIds.get(code);
+        if (formatId == null) {
+            formatId = nextFormatId++;
+            formatIds.put(code, formatId);
+            addedFormats.add("<numFmt numFmtId=\"" + formatId + "\" formatCode=\"" + code + "\"/>");
+        }
+        Integer xf = plainXfs.get(formatId);
+        if (xf == null) {
+            xf = xfCount + addedXfs.size();
+            plainXfs.put(formatId, xf);
+            addedXfs.add("<xf numFmtId=\"" + formatId
+                    + "\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>");
+        }
+        return xf;
+    }
+
+    /**
+     * Returns whether formats were added, so the styles part has to be rewritten.
+     *
+     * @return true if formats were added, false otherwise
+     */
+    public boolean isChanged() {
+        return !addedFormats.isEmpty() || !addedXfs.isEmpty();
+    }
+
+    /**
+     * Writes the styles part with the added formats. The original content was read up front, so the given content
+     * is not read.
+     */
+    @Override
+    public void transform(InputStream in, OutputStream out) throws IOException {
+        StringBuilder builder = new StringBuilder(xml.length() + 128 * (addedFormats.size() + addedXfs.size()));
+        int copied = 0;
+        if (!addedFormats.isEmpty()) {
+            int count = formatCount + addedFormats.size();
+            if (numFmts == null) {
+                // Number formats come first in a style sheet
+                Matcher root = STYLE_SHEET.matcher(xml);
+                root.find();
+                builder.append(xml, 0, root.end());
+                appendElement(builder, "numFmts", count, addedFormats);
+                copied = root.end();
+            } else if (numFmts.group().endsWith("/>")) {
+                builder.append(xml, 0, numFmts.start());
+                appendElement(builder, "numFmts", count, addedFormats);
+                copied = numFmts.end();
+            } else {
+                copied = this.appendItems(builder, copied, numFmts, "</numFmts>", count, addedFormats);
+            }
+        }
+        if (!addedXfs.isEmpty()) {
+            copied = this.appendItems(builder, copied, cellXfs, "</cellXfs>", xfCount + addedXfs.size(), addedXfs);
+        }
+        builder.append(xml, copied, xml.length());
+        out.write(builder.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * Parses the number formats and cell formats, returning false if the part is not laid out as expected
+     */
+    private boolean parse(String xml) {
+        if (!STYLE_SHEET.matcher(xml).find()) {
+            return false;
+        }
+        cellXfs = CELL_XFS.matcher(xml);
+        if (!cellXfs.find() || cellXfs.group().endsWith("/>") || xml.indexOf("</cellXfs>", cellXfs.end()) < 0) {
+            return false;
+        }
+        numFmts = NUM_FMTS.matcher(xml);
+        if (!numFmts.find() || numFmts.start() > cellXfs.start()) {
+            numFmts = null;
+        } else if (!numFmts.group().endsWith("/>")) {
+            int end = xml.indexOf("</numFmts>", numFmts.end());
+            if (end < 0) {
+                return false;
+            }
+            Matcher numFmt = NUM_FMT.matcher(xml).region(numFmts.end(), end);
+            while (numFmt.find()) {
+                Map<String, String> attributes = attributes(numFmt.group());
+                int id = Integer.parseInt(attributes.get("numFmtId"));
+                formatIds.putIfAbsent(attributes.get("formatCode"), id);
+                nextFormatId = Math.max(nextFormatId, id + 1);
+                formatCount++;
+            }
+        }
+        Matcher xf = XF.matcher(xml).region(cellXfs.end(), xml.indexOf("</cellXfs>", cellXfs.end()));
+        while (xf.find()) {
+            Map<String, String> attributes = attributes(xf.group());
+            // Only cell formats without fonts, fills, borders or child elements are reused for dates
+            if (xf.group().endsWith("/>") && isDefault(attributes.get("fontId"))
+                    && isDefault(attributes.get("fillId")) && isDefault(attributes.get("borderId"))
+                    && isDefault(attributes.get("xfId")) && attributes.get("numFmtId") != null) {
+                plainXfs.putIfAbsent(Integer.parseInt(attributes.get("numFmtId")), xfCount);
+            }
+            xfCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Append the content up to the end tag of an element with the added items before the end tag and the count of
+     * the start tag updated, returning the offset of the end tag
+     */
+    private int appendItems(StringBuilder builder, int copied, Matcher start, String endTag, int count,
+                            List<String> items) {
+        int end = xml.indexOf(endTag, start.end());
+        String tag = start.group();
+        Matcher matcher = COUNT.matcher(tag);
+        String counted = " count=\"" + count + "\"";
+        tag = matcher.find() ? tag.substring(0, matcher.start()) + counted + tag.substring(matcher.end())
+                : tag.substring(0, tag.length() - 1) + counted + ">";
+        builder.append(xml, copied, start.start()).append(tag).append(xml, start.end(), end);
+        for (String item : items) {
+            builder.append(item);
+        }
+        return end;
+    }
+
+    /**
+     * Append an element holding the given items
+     */
+    private static void appendElement(StringBuilder builder, String name, int count, List<String> items) {
+        builder.append('<').append(name).append(" count=\"").append(count).append("\">");
+        for (String item : items) {
+            builder.append(item);
+        }
+        builder.append("</").append(name).append('>');
+    }
+
+    /**
+     * Check whether a style attribute is missing or zero
+     */
+    private static boolean isDefault(String value) {
+        return value == null || "0".equals(value);
+    }
+
+    /**
+     * Parse the attributes of an element start tag
+     */
+    private static Map<String, String> attributes(String tag) {
+        Map<String, String> attributes = new HashMap<>();
+        Matcher matcher = ATTRIBUTE.matcher(tag);
+        while (matcher.find()) {
+            attributes.put(matcher.group(1), matcher.group(2));
+        }
+        return attributes;
+    }
+
+    /**
+     * Escape text for use in an attribute value
+     */
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
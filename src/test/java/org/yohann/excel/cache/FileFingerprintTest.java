@@ -0,0 +1,71 @@
+package org.yohann.excel.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that fingerprints detect changes of a file, reading its content only when size and time cannot
+ * tell.
+ */
+public class FileFingerprintTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void racyFingerprintDetectsSameSizeWrite() throws IOException {
+        Path path = folder.newFile("racy.bin").toPath();
+        Files.write(path, "aaaa".getBytes(StandardCharsets.UTF_8));
+        FileTime written = Files.getLastModifiedTime(path);
+        FileFingerprint fingerprint = FileFingerprint.of(path);
+        assertNotNull(fingerprint.verify(path));
+
+        // A write within the timestamp granularity keeps size and time
+        Files.write(path, "bbbb".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(path, written);
+        assertNull(fingerprint.verify(path));
+    }
+
+    @Test
+    public void settledFingerprintComputesChecksumOnDemand() throws IOException {
+        Path path = folder.newFile("settled.bin").toPath();
+        byte[] content = "settled content".getBytes(StandardCharsets.UTF_8);
+        Files.write(path, content);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+        FileFingerprint fingerprint = FileFingerprint.of(path);
+        assertSame(fingerprint, fingerprint.verify(path));
+
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        assertEquals(crc.getValue(), fingerprint.getChecksum());
+        assertEquals(content.length, fingerprint.getSize());
+    }
+
+    @Test
+    public void checksumOfChangedFileIsRefused() throws IOException {
+        Path path = folder.newFile("changed.bin").toPath();
+        Files.write(path, "before".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+        FileFingerprint fingerprint = FileFingerprint.of(path);
+
+        Files.write(path, "after, longer".getBytes(StandardCharsets.UTF_8));
+        assertNull(fingerprint.verify(path));
+        try {
+            fingerprint.getChecksum();
+            fail("checksum of a changed file was returned");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.yohann.excel.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that files are replaced only by committed output streams, that the temporary files of output
+ * streams, input streams and crashed runs are deleted, and that snapshots keep the content a file had before it was
+ * replaced.
+ */
+public class AtomicFilesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void closeWithoutCommitKeepsOriginal() throws IOException {
+        Path path = write("uncommitted.xlsx", "original");
+        ReplaceFileOutputStream out = ReplaceFileOutputStream.create(path.toString());
+        out.write(bytes("replacement"));
+        assertEquals(2, files().size());
+        out.close();
+
+        assertEquals("original", read(path));
+        assertEquals(Collections.singletonList("uncommitted.xlsx"), files());
+    }
+
+    @Test
+    public void commitReplacesOriginal() throws IOException {
+        Path path = write("committed.xlsx", "original");
+        ReplaceFileOutputStream out = ReplaceFileOutputStream.create(path.toString());
+        out.write(bytes("replacement"));
+        // The original file is kept until the output stream is committed
+        assertEquals("original", read(path));
+        out.commit();
+        // Closing a committed output stream has no effect
+        out.close();
+
+        assertEquals("replacement", read(path));
+        assertEquals(Collections.singletonList("committed.xlsx"), files());
+        try {
+            out.commit();
+            fail("a closed output stream was committed");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void copyIsDeletedOnClose() throws IOException {
+        Path path = write("copied.xlsx", "content");
+        try (FileInputStream in = CopyFileInputStream.create(path.toString())) {
+            assertEquals(2, files().size());
+            byte[] content = new byte[7];
+            assertEquals(7, in.read(content));
+            assertEquals("content", new String(content, StandardCharsets.UTF_8));
+        }
+        assertEquals(Collections.singletonList("copied.xlsx"), files());
+    }
+
+    @Test
+    public void deleteLeftoversRemovesTemporariesOfCrashedRun() throws IOException {
+        Path path = write("crashed.xlsx", "original");
+        // A crashed run leaves the temporary files of its output and input streams behind
+        ReplaceFileOutputStream out = ReplaceFileOutputStream.create(path.toString());
+        out.write(bytes("half written"));
+        out.getFD().sync();
+        AtomicFiles.copy(path, AtomicFiles.createTemporary(path, ".read"));
+        // Earlier versions named temporary files without a random part
+        write("crashed.xlsx.write", "old");
+        write("crashed.xlsx.read", "old");
+        // Files of other files and other suffixes are kept
+        write("crashed.xlsx.journal", "journal");
+        write("other.xlsx.write", "other");
+        assertEquals(7, files().size());
+
+        ReplaceFileOutputStream.deleteLeftovers(path.toString());
+        CopyFileInputStream.deleteLeftovers(path.toString());
+        assertEquals(Arrays.asList("crashed.xlsx", "crashed.xlsx.journal", "other.xlsx.write"), files());
+        assertEquals("original", read(path));
+        out.close();
+    }
+
+    @Test
+    public void snapshotSurvivesReplacement() throws IOException {
+        Path path = write("snapshot.xlsx", "original");
+        Path snapshot = AtomicFiles.snapshot(path);
+        assertTrue(snapshot.getFileName().toString().endsWith(AtomicFiles.SNAPSHOT_SUFFIX));
+        assertEquals(path.toAbsolutePath().getParent(), snapshot.getParent());
+
+        ReplaceFileOutputStream out = ReplaceFileOutputStream.create(path.toString());
+        out.write(bytes("replacement"));
+        out.commit();
+        assertEquals("replacement", read(path));
+        assertEquals("original", read(snapshot));
+
+        Files.delete(snapshot);
+        assertEquals("replacement", read(path));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(folder.getRoot().toPath().resolve(name), bytes(content));
+    }
+
+    private List<String> files() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(folder.getRoot().toPath())) {
+            for (Path path : paths) {
+                names.add(path.getFileName().toString());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+}
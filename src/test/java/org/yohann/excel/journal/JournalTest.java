@@ -0,0 +1,296 @@
+package org.yohann.excel.journal;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.yohann.excel.annotation.ExcelJournal;
+import org.yohann.excel.cache.RowListener;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metadata.ExcelMetadata;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that journaled changes are on disk before reads see them, are replayed after a crash, and are
+ * merged into reads exactly as compacting folds them into the Excel file, and that rows chosen under the lock of the
+ * file see the changes of writers still syncing.
+ */
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExcelMetadata<JournalRow> metadata = ExcelMetadata.of(JournalRow.class);
+
+    private final ExcelJournal config = JournalRow.class.getAnnotation(ExcelJournal.class);
+
+    @Test
+    public void failedSyncIsNotPublished() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("failed_sync.xlsx");
+        Path journalPath = Paths.get(path + Journal.JOURNAL_SUFFIX);
+        FailingJournalFile file = new FailingJournalFile(journalPath);
+        Journal<JournalRow> journal = new Journal<>(path, metadata, config, new MemoryTarget(), file);
+
+        journal.insert(rows("a"));
+        file.failing = true;
+        List<JournalRow> failed = rows("b");
+        try {
+            journal.insert(failed);
+            fail("insert returned although its sync failed");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertNull(failed.get(0).getRowNum());
+        assertEquals(Collections.singletonList("a"), names(journal.merge(new ArrayList<>())));
+
+        // The failed record is cut off the journal file, and its row number is given out again
+        file.failing = false;
+        List<JournalRow> inserted = rows("c");
+        journal.insert(inserted);
+        assertEquals(Integer.valueOf(3), inserted.get(0).getRowNum());
+        assertEquals(Arrays.asList("a", "c"), names(journal.merge(new ArrayList<>())));
+        try (JournalFile reopened = JournalFile.open(journalPath)) {
+            assertEquals(2, reopened.getRecovered().size());
+        }
+    }
+
+    @Test
+    public void replaysRecordsAfterCrash() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("crash.xlsx");
+        Path journalPath = Paths.get(path + Journal.JOURNAL_SUFFIX);
+        Journal<JournalRow> journal = new Journal<>(path, metadata, config, new MemoryTarget(),
+                JournalFile.open(journalPath));
+        journal.insert(rows("a", "b", "c"));
+        journal.update(Collections.singletonList(row("B", 3)));
+        journal.delete(Collections.singletonList(2));
+        // A record torn by the crash, its frame claiming more bytes than the file holds
+        Files.write(journalPath, new byte[]{0, 0, 1, 0, 7}, StandardOpenOption.APPEND);
+
+        MemoryTarget restarted = new MemoryTarget();
+        new Journal<>(path, metadata, config, restarted, JournalFile.open(journalPath));
+
+        assertEquals(Arrays.asList("B", "c"), names(restarted.rows));
+        assertEquals(Arrays.asList(2, 3), rowNums(restarted.rows));
+        try (JournalFile reopened = JournalFile.open(journalPath)) {
+            assertTrue(reopened.getRecovered().isEmpty());
+        }
+    }
+
+    @Test
+    public void mergeMatchesCompaction() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("merge.xlsx");
+        MemoryTarget target = new MemoryTarget();
+        target.rows = Arrays.asList(row("x", 2), row("y", 3));
+        Journal<JournalRow> journal = new Journal<>(path, metadata, config, target,
+                JournalFile.open(Paths.get(path + Journal.JOURNAL_SUFFIX)));
+        List<JournalRow> base = target.rows;
+
+        journal.insert(rows("a", "b"));
+        assertEquals(Arrays.asList("x", "y", "a", "b"), names(journal.merge(base)));
+        // Merging the same rows again applies only the records journaled since
+        journal.update(Collections.singletonList(row("Y", 3)));
+        journal.delete(Arrays.asList(4, 2));
+        journal.insert(rows("c"));
+        List<JournalRow> merged = journal.merge(base);
+
+        journal.compact();
+        assertFalse(journal.hasPending());
+        assertEquals(names(target.rows), names(merged));
+        assertEquals(rowNums(target.rows), rowNums(merged));
+        assertEquals(Arrays.asList("Y", "b", "c"), names(merged));
+        assertEquals(Arrays.asList(2, 3, 4), rowNums(merged));
+    }
+
+    @Test
+    public void chosenRowsSeeStagedRecords() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("staged.xlsx");
+        BlockingJournalFile file = new BlockingJournalFile(Paths.get(path + Journal.JOURNAL_SUFFIX));
+        MemoryTarget target = new MemoryTarget();
+        target.rows = Arrays.asList(row("r2", 2), row("r3", 3), row("r4", 4), row("r5", 5), row("r6", 6),
+                row("r7", 7));
+        Journal<JournalRow> journal = new Journal<>(path, metadata, config, target, file);
+        List<JournalRow> base = target.rows;
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // One writer has its delete staged and waits for its sync
+            Future<?> staged = executor.submit(() -> {
+                file.blocked = Thread.currentThread();
+                journal.delete(Collections.singletonList(2));
+            });
+            assertTrue(file.syncing.await(10, TimeUnit.SECONDS));
+            // Another writer deletes the row named r6, which the staged delete has moved up to row 5
+            int deleted = journal.delete(() -> {
+                List<Integer> rowNums = new ArrayList<>();
+                for (JournalRow row : journal.merge(base)) {
+                    if (row.getName().equals("r6")) {
+                        rowNums.add(row.getRowNum());
+                    }
+                }
+                return rowNums;
+            });
+            assertEquals(1, deleted);
+            file.release.countDown();
+            staged.get(10, TimeUnit.SECONDS);
+        } finally {
+            file.release.countDown();
+            executor.shutdownNow();
+        }
+
+        journal.compact();
+        assertEquals(Arrays.asList("r3", "r4", "r5", "r7"), names(target.rows));
+        assertEquals(Arrays.asList(2, 3, 4, 5), rowNums(target.rows));
+    }
+
+    private static JournalRow row(String name, Integer rowNum) {
+        JournalRow row = new JournalRow();
+        row.setName(name);
+        row.setRowNum(rowNum);
+        return row;
+    }
+
+    private static List<JournalRow> rows(String... names) {
+        List<JournalRow> rows = new ArrayList<>();
+        for (String name : names) {
+            rows.add(row(name, null));
+        }
+        return rows;
+    }
+
+    private static List<String> names(List<JournalRow> rows) {
+        List<String> names = new ArrayList<>();
+        for (JournalRow row : rows) {
+            names.add(row.getName());
+        }
+        return names;
+    }
+
+    private static List<Integer> rowNums(List<JournalRow> rows) {
+        List<Integer> rowNums = new ArrayList<>();
+        for (JournalRow row : rows) {
+            rowNums.add(row.getRowNum());
+        }
+        return rowNums;
+    }
+
+    /**
+     * This class is a journal file whose syncs can be made to fail.
+     */
+    private static class FailingJournalFile extends JournalFile {
+
+        // Whether syncs fail
+        private volatile boolean failing;
+
+        private FailingJournalFile(Path path) throws IOException {
+            super(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE), 0, Collections.emptyList());
+        }
+
+        @Override
+        public void sync(long position) throws IOException {
+            if (failing) {
+                throw new IOException("sync failed");
+            }
+            super.sync(position);
+        }
+    }
+
+    /**
+     * This class is a journal file whose syncs from one thread wait until they are released.
+     */
+    private static class BlockingJournalFile extends JournalFile {
+
+        // The thread whose syncs wait
+        private volatile Thread blocked;
+
+        // Counted down once the blocked thread is syncing, and to let it go on
+        private final CountDownLatch syncing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private BlockingJournalFile(Path path) throws IOException {
+            super(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE), 0, Collections.emptyList());
+        }
+
+        @Override
+        public void sync(long position) throws IOException {
+            if (Thread.currentThread() == blocked) {
+                syncing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("sync interrupted", e);
+                }
+            }
+            super.sync(position);
+        }
+    }
+
+    /**
+     * This class is an Excel file kept in memory, so the journal can be tested without reading and writing sheets.
+     */
+    private class MemoryTarget implements JournalTarget<JournalRow> {
+
+        // The rows of the file
+        private List<JournalRow> rows = new ArrayList<>();
+
+        // The rows of the file as the last write left them
+        private List<JournalRow> written;
+
+        @Override
+        public int readLastRowNum() {
+            return rows.size() + 1;
+        }
+
+        @Override
+        public int write(List<JournalRecord<JournalRow>> records, OutputStream out) {
+            written = rows;
+            for (JournalRecord<JournalRow> record : records) {
+                written = record.toChange(metadata).apply(written, RowListener.none());
+            }
+            return written.size() + 1;
+        }
+
+        @Override
+        public void compacted(List<JournalRecord<JournalRow>> records) {
+            rows = written;
+        }
+    }
+
+    /**
+     * This class is the row type of the journals under test.
+     */
+    @ExcelJournal(compactMillis = 3600000, compactRecords = 1000)
+    public static class JournalRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.yohann.excel.listener;
+
+import com.alibaba.excel.EasyExcel;
+import com.alibaba.excel.annotation.ExcelProperty;
+import com.alibaba.excel.annotation.format.DateTimeFormat;
+import com.alibaba.excel.context.AnalysisContext;
+import com.alibaba.excel.read.listener.ReadListener;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.mapper.AbstractExcelMapper;
+import org.yohann.excel.mapper.ExcelMapperRegistry;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.query.Criteria;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that rows read through a ProjectionListener hold the values EasyExcel's default listener converts
+ * for the projected fields, found by their headers wherever their columns are, and nothing for the other fields.
+ */
+public class ProjectionListenerTest {
+
+    private static final String DIRECTORY = "target/test-excel/projection";
+
+    private static final File FILE = new File(DIRECTORY, "projected.xlsx");
+
+    private static final String[] FIELDS = {"name", "age", "score", "day"};
+
+    @BeforeClass
+    public static void write() throws IOException {
+        FILE.getParentFile().mkdirs();
+        // The columns are not in declaration order, and one column is not mapped
+        try (Workbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(FILE)) {
+            Sheet sheet = workbook.createSheet();
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+            Row header = sheet.createRow(0);
+            String[] headers = {"Extra", "Day", "Score", "Name", "Age"};
+            for (int i = 0; i < headers.length; i++) {
+                header.createCell(i).setCellValue(headers[i]);
+            }
+            for (int i = 0; i < 20; i++) {
+                Row row = sheet.createRow(i + 1);
+                row.createCell(0).setCellValue("extra" + i);
+                if (i % 4 != 3) {
+                    row.createCell(1).setCellValue(new Date(86400000L * (18000 + i)));
+                    row.getCell(1).setCellStyle(dateStyle);
+                }
+                row.createCell(2).setCellValue(i * 0.75);
+                row.createCell(3).setCellValue("n" + i % 3);
+                if (i % 5 != 4) {
+                    row.createCell(4).setCellValue(i);
+                }
+            }
+            workbook.write(out);
+        }
+    }
+
+    @Test
+    public void projectedFieldsMatchDefaultListener() {
+        List<ProjectedRow> expected = EasyExcel.read(FILE).head(ProjectedRow.class).sheet().doReadSync();
+        assertEquals(20, expected.size());
+        for (List<String> projection : Arrays.asList(Collections.singletonList("name"),
+                Collections.singletonList("day"), Arrays.asList("age", "score"), Arrays.asList(FIELDS))) {
+            List<ProjectedRow> rows = read(projection);
+            assertEquals(expected.size(), rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                for (String field : FIELDS) {
+                    Object value = projection.contains(field) ? value(expected.get(i), field) : null;
+                    assertEquals(projection + " " + field, value, value(rows.get(i), field));
+                }
+            }
+        }
+        // The date cells are converted with the format of the field
+        assertEquals("2019/04/14", expected.get(0).getDay());
+        assertNull(expected.get(3).getDay());
+    }
+
+    @Test
+    public void mapperReadsSelectedAndMatchedFields() {
+        AbstractExcelMapper<ProjectedRow> mapper = ExcelMapperRegistry.getMapper(ProjectedRow.class);
+        List<ProjectedRow> rows = mapper.get(new Criteria().greater("age", 10).select("name"));
+        assertEquals(Arrays.asList(11, 12, 13, 15, 16, 17, 18), ages(rows));
+        for (ProjectedRow row : rows) {
+            assertNotNull(row.getName());
+            assertNull(row.getScore());
+            assertNull(row.getDay());
+            // The data rows start at row 2
+            assertEquals(row.getAge() + 2, row.getRowNum().intValue());
+        }
+        try {
+            mapper.get(new Criteria().select("extra"));
+            fail("unmapped field selected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("extra"));
+        }
+    }
+
+    private static List<ProjectedRow> read(List<String> fieldNames) {
+        List<ProjectedRow> rows = new ArrayList<>();
+        EasyExcel.read(FILE).useDefaultListener(false).head(ProjectedRow.class)
+                .registerReadListener(new ProjectionListener<>(ExcelMetadata.of(ProjectedRow.class), fieldNames,
+                        new ReadListener<ProjectedRow>() {
+                            @Override
+                            public void invoke(ProjectedRow row, AnalysisContext context) {
+                                rows.add(row);
+                            }
+
+                            @Override
+                            public void doAfterAllAnalysed(AnalysisContext context) {
+                            }
+                        }))
+                .sheet().doRead();
+        return rows;
+    }
+
+    private static Object value(ProjectedRow row, String fieldName) {
+        return ExcelMetadata.of(ProjectedRow.class).getField(fieldName).get(row);
+    }
+
+    private static List<Integer> ages(List<ProjectedRow> rows) {
+        List<Integer> ages = new ArrayList<>();
+        for (ProjectedRow row : rows) {
+            ages.add(row.getAge());
+        }
+        return ages;
+    }
+
+    /**
+     * This class is the row type of the Excel file whose columns are read by projection.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "projected.xlsx")
+    public static class ProjectedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelProperty("Age")
+        private Integer age;
+
+        @ExcelProperty("Score")
+        private Double score;
+
+        @ExcelProperty("Day")
+        @DateTimeFormat("yyyy/MM/dd")
+        private String day;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getAge() {
+            return age;
+        }
+
+        public void setAge(Integer age) {
+            this.age = age;
+        }
+
+        public Double getScore() {
+            return score;
+        }
+
+        public void setScore(Double score) {
+            this.score = score;
+        }
+
+        public String getDay() {
+            return day;
+        }
+
+        public void setDay(String day) {
+            this.day = day;
+        }
+    }
+}
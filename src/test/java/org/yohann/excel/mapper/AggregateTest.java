@@ -0,0 +1,161 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.aggregate.Aggregate;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metrics.InMemoryMetrics;
+import org.yohann.excel.metrics.Metrics;
+import org.yohann.excel.metrics.OperationTypeEnum;
+import org.yohann.excel.query.Criteria;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that streamed aggregations return what folding the rows read into a list returns, and that exists
+ * and limited aggregations stop reading the file once they have their answer.
+ */
+public class AggregateTest {
+
+    private static final String DIRECTORY = "target/test-excel/aggregate";
+
+    private static final int ROWS = 3000;
+
+    private static final InMemoryMetrics METRICS = new InMemoryMetrics();
+
+    private static AbstractExcelMapper<AggregatedRow> mapper;
+
+    @BeforeClass
+    public static void insert() {
+        new File(DIRECTORY, "aggregated.xlsx").delete();
+        mapper = ExcelMapperRegistry.getMapper(AggregatedRow.class);
+        List<AggregatedRow> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            AggregatedRow row = new AggregatedRow();
+            row.setGroup("g" + i % 3);
+            row.setCount(i % 7 == 6 ? null : (long) i);
+            row.setScore(i % 11 == 10 ? null : i * 0.5);
+            rows.add(row);
+        }
+        mapper.insertBatch(rows);
+        Metrics.set(METRICS);
+    }
+
+    @AfterClass
+    public static void uninstall() {
+        Metrics.set(null);
+    }
+
+    @Test
+    public void existsStopsAtFirstMatch() {
+        // The first row of group g2 is the third row
+        assertExists(new Criteria("group", "g2"), true, 3);
+        assertExists(new Criteria("group", "g1").like("group", "2"), false, ROWS);
+        assertExists(new Criteria("group", "g1").isNUll("count", null), true, 14);
+        assertExists(new Criteria("group", "g4"), false, ROWS);
+        // Rows skipped by the criteria are scanned before the match
+        assertExists(new Criteria("group", "g0").setSkip(2), true, 7);
+        assertExists(new Criteria("group", "g0").setSkip(ROWS), false, ROWS);
+    }
+
+    @Test
+    public void limitStopsAggregation() {
+        METRICS.reset();
+        assertEquals(10, mapper.count(new Criteria().setLimit(10)));
+        assertEquals(10, scanned());
+        METRICS.reset();
+        assertEquals(0L + 2 + 5 + 8 + 11, mapper.sum("count", new Criteria("group", "g2").setLimit(4)));
+        assertEquals(12, scanned());
+    }
+
+    @Test
+    public void aggregatesMatchFoldedRows() {
+        for (Criteria criteria : Arrays.asList(new Criteria(), new Criteria("group", "g1"),
+                new Criteria().greater("score", 1000.0).setSkip(3), new Criteria("group", "none"))) {
+            List<AggregatedRow> rows = mapper.get(criteria);
+            Aggregate counts = new Aggregate();
+            Aggregate scores = new Aggregate();
+            Map<Object, Aggregate> groups = new LinkedHashMap<>();
+            for (AggregatedRow row : rows) {
+                counts.add(row.getCount());
+                scores.add(row.getScore());
+                groups.computeIfAbsent(row.getGroup(), group -> new Aggregate()).add(row.getScore());
+            }
+            assertEquals(rows.size(), mapper.count(criteria));
+            assertEquals(counts.getSum(), mapper.sum("count", criteria));
+            assertEquals(counts.<Long>getMin(), mapper.min("count", criteria));
+            assertEquals(counts.<Long>getMax(), mapper.max("count", criteria));
+            assertEquals(counts.getAvg(), mapper.avg("count", criteria));
+            assertEquals(scores.getSum(), mapper.sum("score", criteria));
+            assertEquals(scores.getValueCount(), mapper.aggregate("score", criteria).getValueCount());
+            assertEquals(groups.toString(), mapper.groupBy("group").aggregate("score", criteria).toString());
+            Map<Object, Long> groupCounts = new LinkedHashMap<>();
+            groups.forEach((group, aggregate) -> groupCounts.put(group, aggregate.getCount()));
+            assertEquals(groupCounts, mapper.groupBy("group").count(criteria));
+        }
+        // Integral fields sum to a Long, and fields without a value to null
+        assertEquals(Long.class, mapper.sum("count", new Criteria()).getClass());
+        assertNull(mapper.sum("count", new Criteria().isNUll("count", null)));
+        assertEquals(ROWS / 7, mapper.aggregate("count", new Criteria().isNUll("count", null)).getCount());
+    }
+
+    private static void assertExists(Criteria criteria, boolean exists, long scanned) {
+        METRICS.reset();
+        assertEquals(exists, mapper.exists(criteria));
+        assertEquals(scanned, scanned());
+    }
+
+    private static long scanned() {
+        return METRICS.getStats(mapper._path, OperationTypeEnum.AGGREGATE).getRowsScanned();
+    }
+
+    /**
+     * This class is the row type of the aggregated Excel file.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "aggregated.xlsx")
+    public static class AggregatedRow extends Excel {
+
+        @ExcelProperty("Group")
+        private String group;
+
+        @ExcelProperty("Count")
+        private Long count;
+
+        @ExcelProperty("Score")
+        private Double score;
+
+        public String getGroup() {
+            return group;
+        }
+
+        public void setGroup(String group) {
+            this.group = group;
+        }
+
+        public Long getCount() {
+            return count;
+        }
+
+        public void setCount(Long count) {
+            this.count = count;
+        }
+
+        public Double getScore() {
+            return score;
+        }
+
+        public void setScore(Double score) {
+            this.score = score;
+        }
+    }
+}
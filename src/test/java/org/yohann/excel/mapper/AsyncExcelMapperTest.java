@@ -0,0 +1,228 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metrics.InMemoryMetrics;
+import org.yohann.excel.metrics.Metrics;
+import org.yohann.excel.metrics.OperationStats;
+import org.yohann.excel.metrics.OperationTypeEnum;
+import org.yohann.excel.query.Criteria;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that an AsyncExcelMapper merges the inserts, and the updates, queued while the file is being
+ * written into one batch, that a failing update only fails its own future, and that reads see the writes queued
+ * before them.
+ */
+public class AsyncExcelMapperTest {
+
+    private static final String DIRECTORY = "target/test-excel/async";
+
+    private static final InMemoryMetrics METRICS = new InMemoryMetrics();
+
+    @BeforeClass
+    public static void clean() {
+        for (String filename : new String[]{"merged.xlsx", "isolated.xlsx"}) {
+            new File(DIRECTORY, filename).delete();
+        }
+    }
+
+    @Before
+    public void install() {
+        METRICS.reset();
+        Metrics.set(METRICS);
+    }
+
+    @After
+    public void uninstall() {
+        Metrics.set(null);
+    }
+
+    @Test
+    public void queuedWritesAreMerged() throws Exception {
+        AbstractExcelMapper<MergedRow> mapper = ExcelMapperRegistry.getMapper(MergedRow.class);
+        AsyncExcelMapper<MergedRow> async = new AsyncExcelMapper<>(mapper);
+        List<MergedRow> rows = new ArrayList<>();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        CompletableFuture<List<MergedRow>> read;
+        long stamp = mapper._lock.writeLock();
+        try {
+            // The first insert waits for the lock, and the inserts queued meanwhile are written together next
+            futures.add(awaitWriting(async.insert(merged("a", rows))));
+            futures.add(async.insert(merged("b", rows), merged("c", rows)));
+            futures.add(async.insertBatch(Arrays.asList(merged("d", rows), merged("e", rows))));
+            futures.add(async.insert(merged("f", rows)));
+            read = async.get(new Criteria());
+            assertFalse(read.isDone());
+        } finally {
+            mapper._lock.unlockWrite(stamp);
+        }
+        for (CompletableFuture<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        // The read ran after the inserts queued before it
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f"),
+                names(read.get(10, TimeUnit.SECONDS), MergedRow::getName));
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(i + 2, rows.get(i).getRowNum().intValue());
+        }
+        OperationStats inserts = METRICS.getStats(mapper._path, OperationTypeEnum.INSERT);
+        assertEquals(2, inserts.getLatency().getCount());
+        assertEquals(6, inserts.getRowsWritten());
+
+        // Later values of the same row win, like one update after another
+        futures.clear();
+        stamp = mapper._lock.writeLock();
+        try {
+            futures.add(awaitWriting(async.deleteBatch(Arrays.asList(6, 7))));
+            futures.add(async.update(updated(2, "A"), updated(3, "B")));
+            futures.add(async.update(updated(3, "BB")));
+            futures.add(async.updateBatch(Arrays.asList(updated(2, "AA"), updated(4, "C"))));
+        } finally {
+            mapper._lock.unlockWrite(stamp);
+        }
+        for (CompletableFuture<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(Arrays.asList("AA", "BB", "C", "d"),
+                names(async.getAll().get(10, TimeUnit.SECONDS), MergedRow::getName));
+        assertEquals(1, METRICS.getStats(mapper._path, OperationTypeEnum.UPDATE).getLatency().getCount());
+        assertEquals(1, METRICS.getStats(mapper._path, OperationTypeEnum.DELETE).getLatency().getCount());
+    }
+
+    @Test
+    public void failedUpdateOnlyFailsItself() throws Exception {
+        AbstractExcelMapper<IsolatedRow> mapper = ExcelMapperRegistry.getMapper(IsolatedRow.class);
+        AsyncExcelMapper<IsolatedRow> async = new AsyncExcelMapper<>(mapper);
+        async.insertBatch(Arrays.asList(isolated(null, "a"), isolated(null, "b"), isolated(null, "c")))
+                .get(10, TimeUnit.SECONDS);
+
+        CompletableFuture<Void> blocker;
+        CompletableFuture<Void> first;
+        CompletableFuture<Void> failed;
+        CompletableFuture<Void> last;
+        long stamp = mapper._lock.writeLock();
+        try {
+            blocker = awaitWriting(async.insert(isolated(null, "d")));
+            first = async.update(isolated(2, "A"));
+            // An update without a row number fails the batch, whose updates are then written one by one
+            failed = async.update(isolated(3, "B"), isolated(null, "X"));
+            last = async.update(isolated(4, "C"));
+        } finally {
+            mapper._lock.unlockWrite(stamp);
+        }
+        blocker.get(10, TimeUnit.SECONDS);
+        first.get(10, TimeUnit.SECONDS);
+        last.get(10, TimeUnit.SECONDS);
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            fail("update without a row number succeeded");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertEquals(Arrays.asList("A", "b", "C", "d"),
+                names(async.getAll().get(10, TimeUnit.SECONDS), IsolatedRow::getName));
+
+        // A failed write does not hold back the reads and writes queued after it
+        CompletableFuture<Long> deleted = async.delete(new Criteria("name", "b"));
+        CompletableFuture<Void> failedDelete = async.delete(100);
+        CompletableFuture<Long> count = async.count(new Criteria());
+        assertEquals(1, deleted.get(10, TimeUnit.SECONDS).longValue());
+        try {
+            failedDelete.get(10, TimeUnit.SECONDS);
+            fail("delete of a missing row succeeded");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        assertEquals(3, count.get(10, TimeUnit.SECONDS).longValue());
+    }
+
+    /**
+     * Wait until the writer of the file has started a write that is waiting for the lock held by the test
+     */
+    private static <R> CompletableFuture<R> awaitWriting(CompletableFuture<R> write) throws InterruptedException {
+        Thread.sleep(200);
+        assertFalse(write.isDone());
+        return write;
+    }
+
+    private static MergedRow merged(String name, List<MergedRow> rows) {
+        MergedRow row = new MergedRow();
+        row.setName(name);
+        rows.add(row);
+        return row;
+    }
+
+    private static MergedRow updated(int rowNum, String name) {
+        MergedRow row = new MergedRow();
+        row.setRowNum(rowNum);
+        row.setName(name);
+        return row;
+    }
+
+    private static IsolatedRow isolated(Integer rowNum, String name) {
+        IsolatedRow row = new IsolatedRow();
+        row.setRowNum(rowNum);
+        row.setName(name);
+        return row;
+    }
+
+    private static <T> List<String> names(List<T> rows, Function<T, String> name) {
+        List<String> names = new ArrayList<>();
+        for (T row : rows) {
+            names.add(name.apply(row));
+        }
+        return names;
+    }
+
+    /**
+     * This class is the row type of the Excel file whose queued writes are merged.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "merged.xlsx")
+    public static class MergedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * This class is the row type of the Excel file whose failing writes are isolated.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "isolated.xlsx")
+    public static class IsolatedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelBloomFilter;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.index.BloomFilter;
+import org.yohann.excel.index.BloomFilterFile;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.metrics.InMemoryMetrics;
+import org.yohann.excel.metrics.Metrics;
+import org.yohann.excel.metrics.OperationTypeEnum;
+import org.yohann.excel.query.Criteria;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that the false positive rate of a Bloom filter follows the falsePositiveRate it is configured
+ * with, that the mapper builds its filters with the rate of the annotated field and builds them again when the rate
+ * changes, and that rates outside of 0 and 1 are refused.
+ */
+public class BloomFilterTest {
+
+    private static final String DIRECTORY = "target/test-excel/bloom_filter";
+
+    // The number of rows of every file
+    private static final int ROWS = 2000;
+
+    private static final InMemoryMetrics METRICS = new InMemoryMetrics();
+
+    @BeforeClass
+    public static void clean() {
+        for (String filename : new String[]{"loose.xlsx", "tight.xlsx", "changed.xlsx"}) {
+            new File(DIRECTORY, filename).delete();
+            new File(DIRECTORY, filename + BloomFilterFile.SUFFIX).delete();
+        }
+    }
+
+    @Before
+    public void install() {
+        Metrics.set(METRICS);
+    }
+
+    @After
+    public void uninstall() {
+        Metrics.set(null);
+    }
+
+    @Test
+    public void measuredRateFollowsConfiguredRate() throws IOException {
+        double[] rates = {0.1, 0.01, 0.001};
+        double previousMeasured = 1;
+        int previousSize = 0;
+        for (double rate : rates) {
+            // A filter is sized for twice the rows it is built from, so it is measured when the rows have doubled
+            BloomFilter filter = BloomFilter.create(10000, rate);
+            for (int i = 0; i < 20000; i++) {
+                filter.add("v" + i);
+            }
+            assertFalse(filter.isSaturated());
+            for (int i = 0; i < 20000; i++) {
+                assertTrue(filter.mightContain("v" + i));
+            }
+            int falsePositives = 0;
+            int probes = 200000;
+            for (int i = 0; i < probes; i++) {
+                if (filter.mightContain("absent" + i)) {
+                    falsePositives++;
+                }
+            }
+            double measured = (double) falsePositives / probes;
+            assertTrue("measured " + measured + " for " + rate, measured <= rate * 1.5 && measured >= rate / 3);
+            assertTrue(measured < previousMeasured);
+            previousMeasured = measured;
+
+            // Every tenfold lower rate takes about the same number of bits more
+            int size = size(filter);
+            assertTrue("size " + size + " after " + previousSize, size > previousSize);
+            previousSize = size;
+        }
+        assertEquals(size(BloomFilter.create(10000, 0.001)) - size(BloomFilter.create(10000, 0.01)),
+                size(BloomFilter.create(10000, 0.01)) - size(BloomFilter.create(10000, 0.1)), 16);
+    }
+
+    @Test
+    public void mapperBuildsFiltersWithConfiguredRate() throws IOException {
+        AbstractExcelMapper<LooseRow> loose = ExcelMapperRegistry.getMapper(LooseRow.class);
+        AbstractExcelMapper<TightRow> tight = ExcelMapperRegistry.getMapper(TightRow.class);
+        List<LooseRow> looseRows = new ArrayList<>();
+        List<TightRow> tightRows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            LooseRow looseRow = new LooseRow();
+            looseRow.setCode("c" + i);
+            looseRows.add(looseRow);
+            TightRow tightRow = new TightRow();
+            tightRow.setCode("c" + i);
+            tightRows.add(tightRow);
+        }
+        loose.insertBatch(looseRows);
+        tight.insertBatch(tightRows);
+        assertTrue(loose.exists(new Criteria("code", "c7")));
+        assertTrue(tight.exists(new Criteria("code", "c7")));
+
+        assertEquals(0.1, rate(loose, LooseRow.class), 0);
+        assertEquals(0.0001, rate(tight, TightRow.class), 0);
+        long looseSize = Files.size(new File(DIRECTORY, "loose.xlsx" + BloomFilterFile.SUFFIX).toPath());
+        long tightSize = Files.size(new File(DIRECTORY, "tight.xlsx" + BloomFilterFile.SUFFIX).toPath());
+        assertTrue(looseSize + " and " + tightSize + " bytes", tightSize > 3 * looseSize);
+
+        // Lookups of absent values read rows only when the filter cannot rule them out
+        int looseScans = scans(loose);
+        int tightScans = scans(tight);
+        assertTrue(looseScans + " and " + tightScans + " scans", looseScans > tightScans);
+        assertEquals(0, tightScans);
+    }
+
+    @Test
+    public void changedRateRebuildsFilters() throws IOException {
+        AbstractExcelMapper<ChangedRow> changed = ExcelMapperRegistry.getMapper(ChangedRow.class);
+        ChangedRow row = new ChangedRow();
+        row.setCode("c0");
+        changed.insertBatch(Collections.singletonList(row));
+        assertTrue(changed.exists(new Criteria("code", "c0")));
+        assertEquals(0.1, rate(changed, ChangedRow.class), 0);
+
+        // Another class maps the same file with a lower rate, so the filters are built again with that rate
+        AbstractExcelMapper<RetunedRow> retuned = ExcelMapperRegistry.getMapper(RetunedRow.class);
+        assertNull(BloomFilterFile.open(retuned._path, ExcelMetadata.of(RetunedRow.class).getBloomFilterFields()));
+        assertTrue(retuned.exists(new Criteria("code", "c0")));
+        assertFalse(retuned.exists(new Criteria("code", "absent")));
+        assertEquals(0.001, rate(retuned, RetunedRow.class), 0);
+        assertNull(BloomFilterFile.open(changed._path, ExcelMetadata.of(ChangedRow.class).getBloomFilterFields()));
+    }
+
+    @Test
+    public void rateOutsideOfZeroAndOneIsRefused() {
+        for (Class<?> clazz : new Class<?>[]{ZeroRateRow.class, OneRateRow.class}) {
+            try {
+                ExcelMetadata.of(clazz);
+                fail("rate accepted for " + clazz.getSimpleName());
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("false positive rate"));
+            }
+        }
+    }
+
+    /**
+     * Get the false positive rate of the filter of the code field in the Bloom filter file of a mapper
+     */
+    private static double rate(AbstractExcelMapper<?> mapper, Class<?> clazz) throws IOException {
+        BloomFilterFile filters = BloomFilterFile.open(mapper._path, ExcelMetadata.of(clazz).getBloomFilterFields());
+        assertNotNull(filters);
+        return filters.getFilter("code").getFalsePositiveRate();
+    }
+
+    /**
+     * Look up absent values, returning the number of lookups that read rows of the file
+     */
+    private static int scans(AbstractExcelMapper<?> mapper) {
+        int scans = 0;
+        for (int i = 0; i < 300; i++) {
+            METRICS.reset();
+            assertFalse(mapper.exists(new Criteria("code", "absent" + i)));
+            if (METRICS.getStats(mapper._path, OperationTypeEnum.AGGREGATE).getRowsScanned() > 0) {
+                scans++;
+            }
+        }
+        return scans;
+    }
+
+    private static int size(BloomFilter filter) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.write(new DataOutputStream(bytes));
+        return bytes.size();
+    }
+
+    /**
+     * This class is the row type of the Excel file with a Bloom filter of a high false positive rate.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "loose.xlsx")
+    public static class LooseRow extends Excel {
+
+        @ExcelProperty("Code")
+        @ExcelBloomFilter(falsePositiveRate = 0.1)
+        private String code;
+
+        public String getCode() {
+            return code;
+        }
+
+        public void setCode(String code) {
+            this.code = code;
+        }
+    }
+
+    /**
+     * This class is the row type of the Excel file with a Bloom filter of a low false positive rate.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "tight.xlsx")
+    public static class TightRow extends Excel {
+
+        @ExcelProperty("Code")
+        @ExcelBloomFilter(falsePositiveRate = 0.0001)
+        private String code;
+
+        public String getCode() {
+            return code;
+        }
+
+        public void setCode(String code) {
+            this.code = code;
+        }
+    }
+
+    /**
+     * This class is the row type of the Excel file whose Bloom filter is built again with another rate.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "changed.xlsx")
+    public static class ChangedRow extends Excel {
+
+        @ExcelProperty("Code")
+        @ExcelBloomFilter(falsePositiveRate = 0.1)
+        private String code;
+
+        public String getCode() {
+            return code;
+        }
+
+        public void setCode(String code) {
+            this.code = code;
+        }
+    }
+
+    /**
+     * This class maps the Excel file of ChangedRow with a lower false positive rate.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "changed.xlsx")
+    public static class RetunedRow extends Excel {
+
+        @ExcelProperty("Code")
+        @ExcelBloomFilter(falsePositiveRate = 0.001)
+        private String code;
+
+        public String getCode() {
+            return code;
+        }
+
+        public void setCode(String code) {
+            this.code = code;
+        }
+    }
+
+    /**
+     * This class is an entity class with a Bloom filter of a false positive rate of 0.
+     */
+    public static class ZeroRateRow extends Excel {
+
+        @ExcelProperty("Code")
+        @ExcelBloomFilter(falsePositiveRate = 0)
+        private String code;
+    }
+
+    /**
+     * This class is an entity class with a Bloom filter of a false positive rate of 1.
+     */
+    public static class OneRateRow extends Excel {
+
+        @ExcelProperty("Code")
+        @ExcelBloomFilter(falsePositiveRate = 1)
+        private String code;
+    }
+}
@@ -0,0 +1,153 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metrics.InMemoryMetrics;
+import org.yohann.excel.metrics.Metrics;
+import org.yohann.excel.metrics.OperationTypeEnum;
+import org.yohann.excel.query.Criteria;
+import org.yohann.excel.xlsx.SheetCheckpoints;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that deep pages of an xlsx file, whether addressed by the rows to skip or by the row number to
+ * resume after, start reading at the nearest sheet checkpoint and return the rows a read from the first row returns.
+ */
+public class CheckpointSeekTest {
+
+    private static final String DIRECTORY = "target/test-excel/checkpoint_seek";
+
+    private static final int INTERVAL = SheetCheckpoints.INTERVAL;
+
+    private static final int ROWS = 3 * INTERVAL + INTERVAL / 2;
+
+    private static final InMemoryMetrics METRICS = new InMemoryMetrics();
+
+    private static AbstractExcelMapper<PagedRow> mapper;
+
+    @BeforeClass
+    public static void insert() {
+        new File(DIRECTORY, "paged.xlsx").delete();
+        mapper = ExcelMapperRegistry.getMapper(PagedRow.class);
+        List<PagedRow> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(paged(i));
+        }
+        mapper.insertBatch(rows);
+        Metrics.set(METRICS);
+    }
+
+    @AfterClass
+    public static void uninstall() {
+        Metrics.set(null);
+    }
+
+    @Test
+    public void skipSeeksToNearestCheckpoint() {
+        assertPage(new Criteria().setSkip(2 * INTERVAL + 500).setLimit(5), 2 * INTERVAL + 500, 5);
+        // Pages starting at, just before and just after a checkpoint
+        assertPage(new Criteria().setSkip(3 * INTERVAL).setLimit(3), 3 * INTERVAL, 3);
+        assertPage(new Criteria().setSkip(3 * INTERVAL - 1).setLimit(2), 3 * INTERVAL - 1, 2);
+        assertPage(new Criteria().setSkip(INTERVAL + 1).setLimit(1), INTERVAL + 1, 1);
+        // Pages at the end of the sheet
+        assertPage(new Criteria().setSkip(ROWS - 2).setLimit(5), ROWS - 2, 2);
+        assertPage(new Criteria().setSkip(ROWS).setLimit(5), ROWS, 0);
+        assertPage(new Criteria().setSkip(ROWS - 3), ROWS - 3, 3);
+    }
+
+    @Test
+    public void afterSeeksToNearestCheckpoint() {
+        // The row of ordinal i has row number i + 2
+        assertPage(new Criteria().after(2 * INTERVAL + 1).setLimit(3), 2 * INTERVAL, 3);
+        assertPage(new Criteria().after(2 * INTERVAL).setLimit(3), 2 * INTERVAL - 1, 3);
+        assertPage(new Criteria().after(ROWS + 1).setLimit(3), ROWS, 0);
+        assertPage(new Criteria().after(3 * INTERVAL + 1).setLimit(2).setSkip(4), 3 * INTERVAL + 4, 2);
+
+        // Paging through the sheet by the last row number of every page returns every row once, in order
+        List<Integer> seqs = new ArrayList<>();
+        Integer after = 1;
+        List<PagedRow> page;
+        while (!(page = mapper.get(new Criteria().after(after).setLimit(700))).isEmpty()) {
+            for (PagedRow row : page) {
+                seqs.add(row.getSeq());
+            }
+            after = page.get(page.size() - 1).getRowNum();
+        }
+        assertEquals(ROWS, seqs.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(i, seqs.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void checkpointsFollowWrites() {
+        List<PagedRow> appended = Arrays.asList(paged(ROWS), paged(ROWS + 1));
+        mapper.insertBatch(appended);
+        assertPage(new Criteria().setSkip(ROWS).setLimit(5), ROWS, 2);
+        PagedRow updated = paged(-1);
+        updated.setRowNum(3 * INTERVAL + 2);
+        mapper.updateBatch(Collections.singletonList(updated));
+        List<PagedRow> page = mapper.get(new Criteria().setSkip(3 * INTERVAL).setLimit(2));
+        assertEquals(Arrays.asList(-1, 3 * INTERVAL + 1), Arrays.asList(page.get(0).getSeq(), page.get(1).getSeq()));
+        mapper.deleteBatch(Arrays.asList(ROWS + 2, ROWS + 3));
+        assertPage(new Criteria().setSkip(ROWS - 1).setLimit(5), ROWS - 1, 1);
+
+        // Put back the updated row for the other tests
+        updated.setSeq(3 * INTERVAL);
+        mapper.updateBatch(Collections.singletonList(updated));
+        assertPage(new Criteria().setSkip(3 * INTERVAL).setLimit(2), 3 * INTERVAL, 2);
+    }
+
+    /**
+     * Check that a page holds the given number of rows from the given ordinal on, and that reading it only scanned
+     * rows from the checkpoint before it
+     */
+    private static void assertPage(Criteria criteria, int first, int size) {
+        // The checkpoints are built by the first deep query after a write
+        mapper.get(new Criteria().setSkip(INTERVAL).setLimit(1));
+        METRICS.reset();
+        List<PagedRow> page = mapper.get(criteria);
+        assertEquals(size, page.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals(first + i, page.get(i).getSeq().intValue());
+            assertEquals(first + i + 2, page.get(i).getRowNum().intValue());
+        }
+        long scanned = METRICS.getStats(mapper._path, OperationTypeEnum.QUERY).getRowsScanned();
+        assertTrue("scanned " + scanned + " rows", scanned <= INTERVAL + size);
+    }
+
+    private static PagedRow paged(int seq) {
+        PagedRow row = new PagedRow();
+        row.setSeq(seq);
+        return row;
+    }
+
+    /**
+     * This class is the row type of the paged xlsx file.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "paged.xlsx")
+    public static class PagedRow extends Excel {
+
+        @ExcelProperty("Seq")
+        private Integer seq;
+
+        public Integer getSeq() {
+            return seq;
+        }
+
+        public void setSeq(Integer seq) {
+            this.seq = seq;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.columnar.ColumnarFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.query.Criteria;
+import org.yohann.excel.xlsx.XlsxPackage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that the columnar copy of an Excel file is only reopened for the file it was written from, even
+ * when another program changes the file without changing its size, and that the mapper's own writes leave a copy
+ * that can be reopened.
+ */
+public class ColumnarTest {
+
+    private static final String DIRECTORY = "target/test-excel/columnar";
+
+    @BeforeClass
+    public static void clean() {
+        for (String filename : new String[]{"edited.xlsx", "written.xlsx"}) {
+            new File(DIRECTORY, filename).delete();
+            new File(DIRECTORY, filename + ColumnarFile.SUFFIX).delete();
+        }
+    }
+
+    @Test
+    public void sameSizeEditMakesCopyStale() throws IOException {
+        AbstractExcelMapper<EditedRow> mapper = ExcelMapperRegistry.getMapper(EditedRow.class);
+        List<EditedRow> rows = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            rows.add(edited("n" + i % 7, i, i));
+        }
+        mapper.insertBatch(rows);
+        Path excel = mapper._path;
+        ExcelMetadata<EditedRow> metadata = ExcelMetadata.of(EditedRow.class);
+
+        // Leave room in the comment of the package, so the next edit can be padded to the same size
+        padTo(excel, Files.size(excel) + 512);
+        assertNull(ColumnarFile.open(excel, metadata));
+        assertEquals(9, mapper.get(new Criteria("name", "n3")).size());
+        assertNotNull(ColumnarFile.open(excel, metadata));
+
+        // Another program renames n3 to n9 and the file keeps its size, so only its checksum tells
+        long size = Files.size(excel);
+        rewriteSheet(excel, xml -> xml.replace(">n3<", ">n9<"));
+        padTo(excel, size);
+        assertEquals(size, Files.size(excel));
+        assertNull(ColumnarFile.open(excel, metadata));
+
+        assertTrue(mapper.get(new Criteria("name", "n3")).isEmpty());
+        List<EditedRow> renamed = mapper.get(new Criteria("name", "n9"));
+        assertEquals(PlainScan.describe(PlainScan.get(mapper._filePath, EditedRow.class, new Criteria("name", "n9")),
+                EditedRow.class), PlainScan.describe(renamed, EditedRow.class));
+        assertEquals(9, renamed.size());
+        assertEquals(9, mapper.count(new Criteria().less("born", new Date(86400000L * 10060)).equals("name", "n9")));
+
+        // The copy written from the edited file is reopened again, with the edited rows
+        ColumnarFile<EditedRow> reopened = ColumnarFile.open(excel, metadata);
+        assertNotNull(reopened);
+        assertEquals(PlainScan.describe(PlainScan.get(mapper._filePath, EditedRow.class, new Criteria()),
+                EditedRow.class), PlainScan.describe(reopened.readAll(), EditedRow.class));
+    }
+
+    @Test
+    public void writesLeaveCopyThatIsReopened() throws IOException {
+        AbstractExcelMapper<WrittenRow> mapper = ExcelMapperRegistry.getMapper(WrittenRow.class);
+        ExcelMetadata<WrittenRow> metadata = ExcelMetadata.of(WrittenRow.class);
+        List<WrittenRow> rows = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            rows.add(written("n" + i % 5, i % 4 == 3 ? null : i));
+        }
+        mapper.insertBatch(rows);
+        assertEquals(6, mapper.count(new Criteria("name", "n2")));
+
+        WrittenRow updated = written("n2", 99);
+        updated.setRowNum(5);
+        mapper.updateBatch(Collections.singletonList(updated));
+        assertAfterWrite(mapper, metadata);
+        mapper.update(new Criteria().isNUll("age", null), row -> row.setAge(-1));
+        assertAfterWrite(mapper, metadata);
+        mapper.delete(new Criteria("name", "n4"));
+        assertAfterWrite(mapper, metadata);
+        mapper.deleteBatch(Arrays.asList(2, 20));
+        assertAfterWrite(mapper, metadata);
+        mapper.insertBatch(Collections.singletonList(written("n2", 7)));
+        assertAfterWrite(mapper, metadata);
+        assertEquals(7, mapper.count(new Criteria("name", "n2")));
+        assertTrue(mapper.get(new Criteria().isNUll("age", null)).isEmpty());
+    }
+
+    /**
+     * Check that the copy left by a write of the mapper is not stale and holds the rows of the Excel file
+     */
+    private static void assertAfterWrite(AbstractExcelMapper<WrittenRow> mapper, ExcelMetadata<WrittenRow> metadata)
+            throws IOException {
+        ColumnarFile<WrittenRow> reopened = ColumnarFile.open(mapper._path, metadata);
+        assertNotNull(reopened);
+        assertEquals(PlainScan.describe(PlainScan.get(mapper._filePath, WrittenRow.class, new Criteria()),
+                WrittenRow.class), PlainScan.describe(reopened.readAll(), WrittenRow.class));
+    }
+
+    /**
+     * Rewrite the XML of the sheet of an xlsx file, as another program would
+     */
+    private static void rewriteSheet(Path path, Function<String, String> rewrite) throws IOException {
+        File rewritten = new File(path + ".tmp");
+        try (XlsxPackage xlsx = XlsxPackage.open(path.toFile()); OutputStream out = new FileOutputStream(rewritten)) {
+            xlsx.rewrite(out, Collections.singletonMap(xlsx.getSheetPart(), (in, sheetOut) -> {
+                String xml = new String(readAll(in), UTF_8);
+                assertTrue(xml.contains(">n3<"));
+                sheetOut.write(rewrite.apply(xml).getBytes(UTF_8));
+            }));
+        }
+        Files.move(rewritten.toPath(), path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Pad a zip file to the given size by replacing the comment at its end, which leaves its entries as they are
+     */
+    private static void padTo(Path path, long size) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        // The end of central directory record is 22 bytes and starts with PK\5\6
+        int end = bytes.length - 22;
+        while (end >= 0 && !(bytes[end] == 'P' && bytes[end + 1] == 'K' && bytes[end + 2] == 5
+                && bytes[end + 3] == 6)) {
+            end--;
+        }
+        assertTrue(end >= 0);
+        int comment = (int) (size - end - 22);
+        assertTrue("comment of " + comment + " bytes", comment >= 0 && comment <= 0xFFFF);
+        byte[] padded = Arrays.copyOf(bytes, end + 22 + comment);
+        Arrays.fill(padded, end + 22, padded.length, (byte) ' ');
+        padded[end + 20] = (byte) comment;
+        padded[end + 21] = (byte) (comment >>> 8);
+        Files.write(path, padded);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int count = in.read(buffer); count > 0; count = in.read(buffer)) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static EditedRow edited(String name, Integer age, int day) {
+        EditedRow row = new EditedRow();
+        row.setName(name);
+        row.setAge(age);
+        row.setBorn(new Date(86400000L * (10000 + day)));
+        return row;
+    }
+
+    private static WrittenRow written(String name, Integer age) {
+        WrittenRow row = new WrittenRow();
+        row.setName(name);
+        row.setAge(age);
+        return row;
+    }
+
+    /**
+     * This class is the row type of the Excel file with a columnar copy that another program edits.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "edited.xlsx", columnar = true)
+    public static class EditedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelProperty("Age")
+        private Integer age;
+
+        @ExcelProperty("Born")
+        private Date born;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getAge() {
+            return age;
+        }
+
+        public void setAge(Integer age) {
+            this.age = age;
+        }
+
+        public Date getBorn() {
+            return born;
+        }
+
+        public void setBorn(Date born) {
+            this.born = born;
+        }
+    }
+
+    /**
+     * This class is the row type of the Excel file with a columnar copy that only the mapper writes.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "written.xlsx", columnar = true)
+    public static class WrittenRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelProperty("Age")
+        private Integer age;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getAge() {
+            return age;
+        }
+
+        public void setAge(Integer age) {
+            this.age = age;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.query.Criteria;
+import org.yohann.excel.stream.ExternalSorter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that updating the rows matching a criteria with a mutator changes copies of the matched rows only,
+ * keeps the old values of the fields the mutator leaves without a value, and merges the updated rows into the sheet
+ * in one pass, spooling them through temporary files once they are more than the sort buffer holds.
+ */
+public class CriteriaUpdateTest {
+
+    private static final String DIRECTORY = "target/test-excel/criteria_update";
+
+    private static final int ROWS = 30;
+
+    @BeforeClass
+    public static void write() throws IOException {
+        new File(DIRECTORY).mkdirs();
+        for (String filename : new String[]{"mutated.xlsx", "cached.xlsx"}) {
+            File file = new File(DIRECTORY, filename);
+            // The columns are not in declaration order, one column is not mapped and the scores have a number format
+            try (Workbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(file)) {
+                Sheet sheet = workbook.createSheet();
+                CellStyle scoreStyle = workbook.createCellStyle();
+                scoreStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("0.00"));
+                Row header = sheet.createRow(0);
+                String[] headers = {"Name", "Extra", "Score", "Note"};
+                for (int i = 0; i < headers.length; i++) {
+                    header.createCell(i).setCellValue(headers[i]);
+                }
+                for (int i = 0; i < ROWS; i++) {
+                    Row row = sheet.createRow(i + 1);
+                    row.createCell(0).setCellValue("n" + i % 3);
+                    row.createCell(1).setCellValue("extra" + i);
+                    row.createCell(2).setCellValue(i);
+                    row.getCell(2).setCellStyle(scoreStyle);
+                    row.createCell(3).setCellValue("note" + i);
+                }
+                workbook.write(out);
+            }
+        }
+    }
+
+    @Test
+    public void updatesMatchedRowsInOnePass() throws IOException {
+        AbstractExcelMapper<MutatedRow> mapper = ExcelMapperRegistry.getMapper(MutatedRow.class);
+        AtomicInteger calls = new AtomicInteger();
+        int[] maxRunFiles = new int[1];
+        long updated = mapper.update(new Criteria("name", "n1"), row -> {
+            calls.incrementAndGet();
+            maxRunFiles[0] = Math.max(maxRunFiles[0], runFiles());
+            row.setScore(row.getScore() * 10);
+            row.setNote(null);
+        });
+        assertEquals(ROWS / 3, updated);
+        assertEquals(ROWS / 3, calls.get());
+        // The updated rows are more than the sort buffer holds, so they were spilled while the sheet was scanned
+        assertTrue(maxRunFiles[0] > 1);
+        assertEquals(0, runFiles());
+
+        List<MutatedRow> rows = mapper.getAll();
+        assertEquals(ROWS, rows.size());
+        for (int i = 0; i < ROWS; i++) {
+            MutatedRow row = rows.get(i);
+            assertEquals(i + 2, row.getRowNum().intValue());
+            assertEquals("n" + i % 3, row.getName());
+            assertEquals(i % 3 == 1 ? i * 10.0 : i, row.getScore(), 0);
+            assertEquals("note" + i, row.getNote());
+        }
+        // The cells the mapper does not map and the styles of the updated cells are kept
+        try (Workbook workbook = WorkbookFactory.create(new File(mapper._filePath), null, true)) {
+            Sheet sheet = workbook.getSheetAt(0);
+            for (int i = 0; i < ROWS; i++) {
+                Row row = sheet.getRow(i + 1);
+                assertEquals("extra" + i, row.getCell(1).getStringCellValue());
+                assertEquals("0.00", row.getCell(2).getCellStyle().getDataFormatString());
+            }
+        }
+
+        // Nothing is written if no row matches
+        byte[] bytes = Files.readAllBytes(new File(mapper._filePath).toPath());
+        assertEquals(0, mapper.update(new Criteria("name", "n3"), row -> fail("mutator called")));
+        assertArrayEquals(bytes, Files.readAllBytes(new File(mapper._filePath).toPath()));
+    }
+
+    @Test
+    public void mutatorChangesCopies() {
+        AbstractExcelMapper<CachedRow> mapper = ExcelMapperRegistry.getMapper(CachedRow.class);
+        List<CachedRow> before = mapper.get(new Criteria().less("score", 5));
+        assertEquals(2, mapper.update(new Criteria().less("score", 5).setSkip(1).setLimit(2),
+                row -> row.setName(row.getName().toUpperCase())));
+        // The rows read before the update and the rows the mapper caches are not changed by the mutator
+        List<String> names = new ArrayList<>();
+        for (CachedRow row : before) {
+            names.add(row.getName());
+        }
+        assertEquals(Arrays.asList("n0", "n1", "n2", "n0", "n1"), names);
+        names.clear();
+        for (CachedRow row : mapper.get(new Criteria().less("score", 5))) {
+            names.add(row.getName());
+        }
+        assertEquals(Arrays.asList("n0", "N1", "N2", "n0", "n1"), names);
+        assertEquals(2, mapper.get(new Criteria().in("name", Arrays.asList("N1", "N2"))).size());
+    }
+
+    private static int runFiles() {
+        String[] names = new File(DIRECTORY).list((directory, name) -> name.endsWith(ExternalSorter.SUFFIX));
+        return names != null ? names.length : 0;
+    }
+
+    /**
+     * This class is the row type of the Excel file updated by criteria, whose sort buffer holds only a few rows.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "mutated.xlsx", sortBufferRows = 4)
+    public static class MutatedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelProperty("Note")
+        private String note;
+
+        @ExcelProperty("Score")
+        private Double score;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getNote() {
+            return note;
+        }
+
+        public void setNote(String note) {
+            this.note = note;
+        }
+
+        public Double getScore() {
+            return score;
+        }
+
+        public void setScore(Double score) {
+            this.score = score;
+        }
+    }
+
+    /**
+     * This class is the row type of the cached Excel file updated by criteria.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "cached.xlsx", cache = true)
+    public static class CachedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelProperty("Score")
+        private Double score;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Double getScore() {
+            return score;
+        }
+
+        public void setScore(Double score) {
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.annotation.ExcelJournal;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.journal.Journal;
+import org.yohann.excel.metrics.InMemoryMetrics;
+import org.yohann.excel.metrics.Metrics;
+import org.yohann.excel.metrics.OperationStats;
+import org.yohann.excel.metrics.OperationTypeEnum;
+import org.yohann.excel.query.Criteria;
+import org.yohann.excel.xlsx.SheetCheckpoints;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that all mappers of a mapped class share the state of its Excel file, whether they are handed out
+ * by ExcelMapperRegistry or created as subclasses of AbstractExcelMapper, so what one mapper learns about the file,
+ * such as its cached rows or the checkpoints of its sheet, is used by the others, and that mapped classes of the same
+ * file share its lock.
+ */
+public class ExcelMapperRegistryTest {
+
+    private static final String DIRECTORY = "target/test-excel/registry";
+
+    private static final int INTERVAL = SheetCheckpoints.INTERVAL;
+
+    private static final InMemoryMetrics METRICS = new InMemoryMetrics();
+
+    @BeforeClass
+    public static void clean() {
+        for (String filename : new String[]{"registered.xlsx", "cached.xlsx", "raced.xlsx", "shared.xlsx",
+                "owned.xlsx", "opened/opened.xlsx"}) {
+            new File(DIRECTORY, filename).delete();
+        }
+        new File(DIRECTORY, "owned.xlsx" + Journal.JOURNAL_SUFFIX).delete();
+        new File(DIRECTORY, "opened").delete();
+    }
+
+    @Before
+    public void install() {
+        METRICS.reset();
+        Metrics.set(METRICS);
+    }
+
+    @After
+    public void uninstall() {
+        Metrics.set(null);
+    }
+
+    @Test
+    public void mappersShareState() {
+        AbstractExcelMapper<RegisteredRow> registered = ExcelMapperRegistry.getMapper(RegisteredRow.class);
+        assertSame(registered, ExcelMapperRegistry.getMapper(RegisteredRow.class));
+        AbstractExcelMapper<RegisteredRow> created = new AbstractExcelMapper<RegisteredRow>() {
+        };
+        assertNotSame(registered, created);
+        assertSame(registered._metadata, created._metadata);
+        assertSame(registered._path, created._path);
+        assertSame(registered._lock, created._lock);
+        assertNull(created._cache);
+
+        List<RegisteredRow> rows = new ArrayList<>();
+        for (int i = 0; i < 2 * INTERVAL + 10; i++) {
+            RegisteredRow row = new RegisteredRow();
+            row.setSeq(i);
+            rows.add(row);
+        }
+        registered.insertBatch(rows);
+
+        // The checkpoints built by the deep page of one mapper let the deep page of another mapper seek
+        assertEquals(INTERVAL, registered.get(new Criteria().setSkip(INTERVAL).setLimit(1)).get(0).getSeq()
+                .intValue());
+        METRICS.reset();
+        List<RegisteredRow> page = new AbstractExcelMapper<RegisteredRow>() {
+        }.get(new Criteria().setSkip(2 * INTERVAL + 5).setLimit(2));
+        assertEquals(2 * INTERVAL + 5, page.get(0).getSeq().intValue());
+        assertEquals(2 * INTERVAL + 6, page.get(1).getSeq().intValue());
+        long scanned = METRICS.getStats(registered._path, OperationTypeEnum.QUERY).getRowsScanned();
+        assertTrue("scanned " + scanned + " rows", scanned <= 7);
+    }
+
+    @Test
+    public void mappersShareCachedRows() {
+        AbstractExcelMapper<CachedRow> registered = ExcelMapperRegistry.getMapper(CachedRow.class);
+        CachedRow row = new CachedRow();
+        row.setName("a");
+        registered.insert(row);
+        assertEquals(1, registered.getAll().size());
+
+        // The rows cached by one mapper are found by another, and the writes of either keep them up to date
+        AbstractExcelMapper<CachedRow> created = new AbstractExcelMapper<CachedRow>() {
+        };
+        assertSame(registered._cache, created._cache);
+        METRICS.reset();
+        assertEquals(1, created.get(new Criteria("name", "a")).size());
+        CachedRow other = new CachedRow();
+        other.setName("b");
+        created.insert(other);
+        assertEquals(2, registered.getAll().size());
+        OperationStats query = METRICS.getStats(registered._path, OperationTypeEnum.QUERY);
+        OperationStats read = METRICS.getStats(registered._path, OperationTypeEnum.READ);
+        assertEquals(0, query.getCacheMisses() + read.getCacheMisses());
+        assertEquals(2, query.getCacheHits() + read.getCacheHits());
+        assertEquals(0, query.getBytesRead() + read.getBytesRead());
+    }
+
+    @Test
+    public void racingThreadsGetOneMapper() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<AbstractExcelMapper<RacedRow>>> tasks = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                tasks.add(i % 2 == 0 ? () -> ExcelMapperRegistry.getMapper(RacedRow.class)
+                        : () -> new AbstractExcelMapper<RacedRow>() {
+                });
+            }
+            Set<AbstractExcelMapper<RacedRow>> registered = new HashSet<>();
+            Set<Object> locks = new HashSet<>();
+            Set<Object> caches = new HashSet<>();
+            List<Future<AbstractExcelMapper<RacedRow>>> futures = executor.invokeAll(tasks, 10, TimeUnit.SECONDS);
+            for (int i = 0; i < futures.size(); i++) {
+                AbstractExcelMapper<RacedRow> mapper = futures.get(i).get();
+                if (i % 2 == 0) {
+                    registered.add(mapper);
+                }
+                locks.add(mapper._lock);
+                caches.add(mapper._cache);
+            }
+            assertEquals(1, registered.size());
+            assertEquals(1, locks.size());
+            assertEquals(1, caches.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void classesOfFileShareLock() {
+        AbstractExcelMapper<SharedRow> shared = ExcelMapperRegistry.getMapper(SharedRow.class);
+        AbstractExcelMapper<SpelledRow> spelled = ExcelMapperRegistry.getMapper(SpelledRow.class);
+        assertEquals(shared._path, spelled._path);
+        assertSame(shared._lock, spelled._lock);
+        assertSame(ExcelMapperRegistry.getState(SharedRow.class, 0).getFile(),
+                ExcelMapperRegistry.getState(SpelledRow.class, 0).getFile());
+
+        SharedRow row = new SharedRow();
+        row.setName("a");
+        shared.insert(row);
+        assertEquals("a", spelled.getAll().get(0).getName());
+    }
+
+    @Test
+    public void journaledFileIsNotShared() {
+        ExcelMapperRegistry.getMapper(OwnedRow.class);
+        try {
+            ExcelMapperRegistry.getMapper(TrespassingRow.class);
+            fail("a journaled file was mapped by another class");
+        } catch (IllegalStateException expected) {
+        }
+        // The journaled class keeps the file
+        assertNotNull(new AbstractExcelMapper<OwnedRow>() {
+        });
+    }
+
+    @Test
+    public void resolvingStateLeavesFileAlone() throws Exception {
+        File file = new File(DIRECTORY, "opened/opened.xlsx");
+        ExcelFileState<OpenedRow> state = new ExcelFileState<>(OpenedRow.class, 0);
+        ExcelFileState<OpenedRow> raced = new ExcelFileState<>(OpenedRow.class, 0);
+        assertFalse(file.exists());
+        assertSame(state.getFile(), raced.getFile());
+
+        state.open();
+        raced.open();
+        assertTrue(file.exists());
+        assertEquals(file.toPath().toRealPath(), state.getPath());
+    }
+
+    /**
+     * This class is the row type of the Excel file read by mappers from the registry and by subclasses.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "registered.xlsx")
+    public static class RegisteredRow extends Excel {
+
+        @ExcelProperty("Seq")
+        private Integer seq;
+
+        public Integer getSeq() {
+            return seq;
+        }
+
+        public void setSeq(Integer seq) {
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * This class is the row type of the cached Excel file read by mappers from the registry and by subclasses.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "cached.xlsx", cache = true)
+    public static class CachedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * This class is the row type of the Excel file whose mappers are created by racing threads.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "raced.xlsx", cache = true)
+    public static class RacedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * This class is a row type of the Excel file mapped by two classes.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "shared.xlsx")
+    public static class SharedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * This class is the other row type of the Excel file mapped by two classes, naming its directory another way.
+     */
+    @ExcelFile(path = DIRECTORY + "/../registry", filename = "shared.xlsx")
+    public static class SpelledRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * This class is the row type of the journaled Excel file.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "owned.xlsx")
+    @ExcelJournal(compactMillis = 3600000)
+    public static class OwnedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * This class is a row type that maps the journaled Excel file of another class.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "owned.xlsx")
+    public static class TrespassingRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * This class is the row type of the Excel file whose state is resolved before the file and its directory exist.
+     */
+    @ExcelFile(path = DIRECTORY + "/opened", filename = "opened.xlsx")
+    public static class OpenedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.io.FileLocks;
+import org.yohann.excel.query.Criteria;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.StampedLock;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that the mappers of an Excel file share one lock per file, so reads of the file run while other
+ * reads hold the lock and writes wait for them, and that the locks of different files are independent.
+ */
+public class FileLockTest {
+
+    private static final String DIRECTORY = "target/test-excel/file_lock";
+
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void insert() {
+        for (String filename : new String[]{"locked.xlsx", "other.xlsx"}) {
+            new File(DIRECTORY, filename).delete();
+        }
+        ExcelMapperRegistry.getMapper(LockedRow.class).insertBatch(Collections.singletonList(locked("a")));
+        ExcelMapperRegistry.getMapper(OtherRow.class).insertBatch(Collections.singletonList(other("a")));
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void oneLockPerFile() {
+        StampedLock lock = FileLocks.get(Paths.get(DIRECTORY, "locked.xlsx"));
+        assertSame(lock, FileLocks.get(Paths.get(DIRECTORY, "../file_lock/locked.xlsx").toAbsolutePath()));
+        assertNotSame(lock, FileLocks.get(Paths.get(DIRECTORY, "other.xlsx")));
+        assertSame(lock, ExcelMapperRegistry.getMapper(LockedRow.class)._lock);
+        assertSame(lock, ExcelMapperRegistry.getMapper(AliasRow.class)._lock);
+        assertSame(lock, new AbstractExcelMapper<LockedRow>() {
+        }._lock);
+    }
+
+    @Test
+    public void readsShareLockAndWritesWait() throws Exception {
+        AbstractExcelMapper<LockedRow> mapper = ExcelMapperRegistry.getMapper(LockedRow.class);
+        StampedLock lock = FileLocks.get(mapper._path);
+        Future<?> write;
+        long stamp = lock.readLock();
+        try {
+            // Another read of the file goes ahead while the read lock is held
+            Future<List<LockedRow>> read = executor.submit(() -> mapper.get(new Criteria("name", "a")));
+            assertEquals(1, read.get(10, TimeUnit.SECONDS).size());
+            Future<List<AliasRow>> aliasRead = executor.submit(() ->
+                    ExcelMapperRegistry.getMapper(AliasRow.class).getAll());
+            assertFalse(aliasRead.get(10, TimeUnit.SECONDS).isEmpty());
+
+            write = executor.submit(() -> mapper.insert(locked("b")));
+            assertBlocked(write);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        write.get(10, TimeUnit.SECONDS);
+        assertEquals(1, mapper.get(new Criteria("name", "b")).size());
+    }
+
+    @Test
+    public void writersExcludeReaders() throws Exception {
+        AbstractExcelMapper<LockedRow> mapper = ExcelMapperRegistry.getMapper(LockedRow.class);
+        AbstractExcelMapper<OtherRow> other = ExcelMapperRegistry.getMapper(OtherRow.class);
+        StampedLock lock = FileLocks.get(mapper._path);
+        Future<List<LockedRow>> read;
+        long stamp = lock.writeLock();
+        try {
+            read = executor.submit(mapper::getAll);
+            assertBlocked(read);
+            // The lock of another file is not held, so its mapper reads and writes
+            executor.submit(() -> other.insert(other("b"))).get(10, TimeUnit.SECONDS);
+            assertEquals(1, executor.submit(() -> other.get(new Criteria("name", "b"))).get(10, TimeUnit.SECONDS)
+                    .size());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        assertFalse(read.get(10, TimeUnit.SECONDS).isEmpty());
+    }
+
+    private static void assertBlocked(Future<?> future) throws Exception {
+        try {
+            future.get(300, TimeUnit.MILLISECONDS);
+            fail("operation did not wait for the lock");
+        } catch (TimeoutException e) {
+            // expected
+        }
+    }
+
+    private static LockedRow locked(String name) {
+        LockedRow row = new LockedRow();
+        row.setName(name);
+        return row;
+    }
+
+    private static OtherRow other(String name) {
+        OtherRow row = new OtherRow();
+        row.setName(name);
+        return row;
+    }
+
+    /**
+     * This class is the row type of the locked Excel file.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "locked.xlsx")
+    public static class LockedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * This class is another row type of the locked Excel file.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "locked.xlsx")
+    public static class AliasRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * This class is the row type of an Excel file whose lock is never held by the test.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "other.xlsx")
+    public static class OtherRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.annotation.ExcelIndex;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.index.IndexTypeEnum;
+import org.yohann.excel.query.Criteria;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that queries answered from the hash and sorted indexes of a cached file find the same rows as a
+ * plain scan of the file, after rows are inserted, updated and deleted.
+ */
+public class IndexedMapperTest {
+
+    private static final String DIRECTORY = "target/test-excel/indexed_mapper";
+
+    @BeforeClass
+    public static void clean() {
+        new File(DIRECTORY, "indexed.xlsx").delete();
+    }
+
+    @Test
+    public void indexedQueriesMatchPlainScan() {
+        AbstractExcelMapper<IndexedRow> mapper = ExcelMapperRegistry.getMapper(IndexedRow.class);
+        List<IndexedRow> rows = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            rows.add(indexed("n" + i % 5, i % 7, i));
+        }
+        mapper.insertBatch(rows);
+        assertMatchesPlainScan(mapper);
+
+        mapper.insertBatch(Arrays.asList(indexed("n9", 9, 30), indexed("n0", -1, 31)));
+        assertMatchesPlainScan(mapper);
+
+        // Updated rows leave the index entries of their old values and join those of their new values
+        List<IndexedRow> updated = mapper.get(new Criteria().equals("name", "n1"));
+        for (IndexedRow row : updated) {
+            row.setName("n2");
+            row.setAge(row.getAge() + 10);
+        }
+        mapper.updateBatch(updated);
+        assertEquals(0, mapper.count(new Criteria().equals("name", "n1")));
+        assertMatchesPlainScan(mapper);
+
+        assertEquals(4, mapper.update(new Criteria().equals("age", 3), row -> row.setName("n1")));
+        assertMatchesPlainScan(mapper);
+
+        // Deleted rows leave the indexes and the rows after them move up
+        mapper.deleteBatch(Arrays.asList(2, 10, 31));
+        assertMatchesPlainScan(mapper);
+
+        assertEquals(4, mapper.delete(new Criteria().equals("name", "n3")));
+        assertEquals(0, mapper.count(new Criteria().equals("name", "n3")));
+        assertMatchesPlainScan(mapper);
+    }
+
+    /**
+     * Check the rows every kind of indexed matcher finds against a plain scan of the file
+     */
+    private static void assertMatchesPlainScan(AbstractExcelMapper<IndexedRow> mapper) {
+        List<Criteria> criteriaList = Arrays.asList(
+                new Criteria().equals("name", "n2"),
+                new Criteria().equals("name", "missing"),
+                new Criteria().equals("age", 3),
+                new Criteria().in("name", Arrays.asList("n0", "n1", "missing")),
+                new Criteria().in("age", Arrays.asList(-1, 4, 12)),
+                new Criteria().less("age", 3),
+                new Criteria().lessEquals("age", 3),
+                new Criteria().greater("age", 5),
+                new Criteria().greaterEquals("age", 9),
+                new Criteria().greater("age", 1).less("age", 5),
+                new Criteria().equals("name", "n2").greater("age", 4),
+                new Criteria().in("name", Collections.singletonList("n0")).less("score", 20),
+                new Criteria().greater("age", 2).setSkip(2).setLimit(3));
+        for (Criteria criteria : criteriaList) {
+            assertEquals(PlainScan.describe(PlainScan.get(mapper._filePath, IndexedRow.class, criteria),
+                    IndexedRow.class), PlainScan.describe(mapper.get(criteria), IndexedRow.class));
+        }
+    }
+
+    private static IndexedRow indexed(String name, int age, int score) {
+        IndexedRow row = new IndexedRow();
+        row.setName(name);
+        row.setAge(age);
+        row.setScore(score);
+        return row;
+    }
+
+    /**
+     * This class is the row type of the cached xlsx file with a hash index and a sorted index.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "indexed.xlsx", cache = true)
+    public static class IndexedRow extends Excel {
+
+        @ExcelIndex
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelIndex(IndexTypeEnum.SORTED)
+        @ExcelProperty("Age")
+        private Integer age;
+
+        @ExcelProperty("Score")
+        private Integer score;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getAge() {
+            return age;
+        }
+
+        public void setAge(Integer age) {
+            this.age = age;
+        }
+
+        public Integer getScore() {
+            return score;
+        }
+
+        public void setScore(Integer score) {
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.annotation.ExcelJournal;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.journal.Journal;
+import org.yohann.excel.query.Criteria;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that reads of a journaled Excel file, which merge the journaled changes into the rows of the
+ * file, return the same rows before and after the changes are compacted into the file.
+ */
+public class JournaledMapperTest {
+
+    private static final String DIRECTORY = "target/test-excel/journaled";
+
+    private static final String FILENAME = "journaled.xlsx";
+
+    @BeforeClass
+    public static void clean() {
+        new File(DIRECTORY, FILENAME).delete();
+        new File(DIRECTORY, FILENAME + Journal.JOURNAL_SUFFIX).delete();
+    }
+
+    @Test
+    public void readsMatchBeforeAndAfterCompaction() {
+        AbstractExcelMapper<JournaledRow> mapper = ExcelMapperRegistry.getMapper(JournaledRow.class);
+        List<JournaledRow> inserted = Arrays.asList(row("a", 1), row("b", 2), row("c", 3));
+        mapper.insertBatch(inserted);
+        assertEquals(Arrays.asList(2, 3, 4), rowNums(inserted));
+        mapper.flush();
+
+        // Changes on top of rows already in the file, left in the journal
+        mapper.insertBatch(Arrays.asList(row("d", 4), row("e", 5)));
+        JournaledRow updated = row("B", 20);
+        updated.setRowNum(3);
+        mapper.updateBatch(Collections.singletonList(updated));
+        mapper.deleteBatch(Arrays.asList(2, 5));
+        List<Criteria> queries = Arrays.asList(new Criteria(), new Criteria().greater("score", 4),
+                new Criteria("name", "e"), new Criteria().setSkip(1).setLimit(2));
+        List<List<String>> merged = new ArrayList<>();
+        for (Criteria criteria : queries) {
+            merged.add(rows(mapper.get(criteria)));
+        }
+        long count = mapper.count(new Criteria().greater("score", 2));
+
+        mapper.flush();
+        List<List<String>> compacted = new ArrayList<>();
+        for (Criteria criteria : queries) {
+            compacted.add(rows(mapper.get(criteria)));
+        }
+        assertEquals(compacted, merged);
+        assertEquals(mapper.count(new Criteria().greater("score", 2)), count);
+        assertEquals(Arrays.asList("2:B:20", "3:c:3", "4:e:5"), merged.get(0));
+        assertEquals(0, new File(DIRECTORY, FILENAME + Journal.JOURNAL_SUFFIX).length());
+    }
+
+    private static JournaledRow row(String name, Integer score) {
+        JournaledRow row = new JournaledRow();
+        row.setName(name);
+        row.setScore(score);
+        return row;
+    }
+
+    private static List<Integer> rowNums(List<JournaledRow> rows) {
+        List<Integer> rowNums = new ArrayList<>();
+        for (JournaledRow row : rows) {
+            rowNums.add(row.getRowNum());
+        }
+        return rowNums;
+    }
+
+    private static List<String> rows(List<JournaledRow> rows) {
+        List<String> values = new ArrayList<>();
+        for (JournaledRow row : rows) {
+            values.add(row.getRowNum() + ":" + row.getName() + ":" + row.getScore());
+        }
+        return values;
+    }
+
+    /**
+     * This class is the row type of the journaled Excel file. The journal is only compacted when flushed.
+     */
+    @ExcelFile(path = DIRECTORY, filename = FILENAME)
+    @ExcelJournal(compactMillis = 3600000)
+    public static class JournaledRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelProperty("Score")
+        private Integer score;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getScore() {
+            return score;
+        }
+
+        public void setScore(Integer score) {
+            this.score = score;
+        }
+    }
+}
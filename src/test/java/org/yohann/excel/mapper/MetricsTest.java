@@ -0,0 +1,246 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metrics.InMemoryMetrics;
+import org.yohann.excel.metrics.Metrics;
+import org.yohann.excel.metrics.NoopMetrics;
+import org.yohann.excel.metrics.OperationStats;
+import org.yohann.excel.metrics.OperationTypeEnum;
+import org.yohann.excel.query.Criteria;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that every mapper operation reports to the installed metrics the rows it scanned, matched and
+ * wrote, the bytes of the file it read and wrote, the time it waited for the lock of the file and whether it found
+ * the rows cached, and that metrics failing to record never fail an operation.
+ */
+public class MetricsTest {
+
+    private static final String DIRECTORY = "target/test-excel/metrics";
+
+    private static final InMemoryMetrics METRICS = new InMemoryMetrics();
+
+    @BeforeClass
+    public static void clean() {
+        for (String filename : new String[]{"counted.xlsx", "cached.xlsx", "waited.xlsx"}) {
+            new File(DIRECTORY, filename).delete();
+        }
+    }
+
+    @Before
+    public void install() {
+        METRICS.reset();
+        Metrics.set(METRICS);
+    }
+
+    @After
+    public void uninstall() {
+        Metrics.set(null);
+    }
+
+    @Test
+    public void countsRowsAndBytesPerOperation() {
+        AbstractExcelMapper<CountedRow> mapper = ExcelMapperRegistry.getMapper(CountedRow.class);
+        mapper.insertBatch(counted(10));
+        long size = new File(mapper._filePath).length();
+        OperationStats insert = METRICS.getStats(mapper._path, OperationTypeEnum.INSERT);
+        assertEquals(1, insert.getLatency().getCount());
+        assertEquals(10, insert.getRowsWritten());
+        assertEquals(size, insert.getBytesWritten());
+        assertEquals(0, insert.getRowsScanned());
+
+        assertEquals(5, mapper.get(new Criteria("name", "n1")).size());
+        OperationStats query = METRICS.getStats(mapper._path, OperationTypeEnum.QUERY);
+        assertEquals(1, query.getLatency().getCount());
+        assertEquals(10, query.getRowsScanned());
+        assertEquals(5, query.getRowsMatched());
+        assertEquals(size, query.getBytesRead());
+        assertEquals(0, query.getRowsWritten());
+
+        assertEquals(5, mapper.update(new Criteria("name", "n0"), row -> row.setName("N0")));
+        OperationStats update = METRICS.getStats(mapper._path, OperationTypeEnum.UPDATE);
+        assertEquals(10, update.getRowsScanned());
+        assertEquals(5, update.getRowsMatched());
+        assertEquals(5, update.getRowsWritten());
+        assertEquals(new File(mapper._filePath).length(), update.getBytesWritten());
+
+        mapper.deleteBatch(Arrays.asList(2, 3));
+        assertEquals(2, METRICS.getStats(mapper._path, OperationTypeEnum.DELETE).getRowsWritten());
+        assertEquals(8, mapper.count(new Criteria()));
+        assertEquals(8, METRICS.getStats(mapper._path, OperationTypeEnum.AGGREGATE).getRowsScanned());
+
+        // Statistics add up per operation, and only operations that ran on the file have them
+        assertEquals(4, mapper.get(new Criteria("name", "n1")).size());
+        assertEquals(2, query.getLatency().getCount());
+        assertEquals(18, query.getRowsScanned());
+        assertEquals(9, query.getRowsMatched());
+        assertEquals(EnumSet.of(OperationTypeEnum.INSERT, OperationTypeEnum.QUERY, OperationTypeEnum.UPDATE,
+                OperationTypeEnum.DELETE, OperationTypeEnum.AGGREGATE), METRICS.getStats(mapper._path).keySet());
+        assertNull(METRICS.getStats(mapper._path, OperationTypeEnum.FLUSH));
+        assertEquals(Collections.singleton(mapper._path), METRICS.getPaths());
+        assertEquals(Collections.singletonList(mapper._path), METRICS.getHottestPaths(3));
+    }
+
+    @Test
+    public void countsCacheLookups() {
+        AbstractExcelMapper<CachedRow> mapper = ExcelMapperRegistry.getMapper(CachedRow.class);
+        List<CachedRow> rows = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            CachedRow row = new CachedRow();
+            row.setName("c" + i);
+            rows.add(row);
+        }
+        mapper.insertBatch(rows);
+        METRICS.reset();
+
+        // The first query reads and caches the rows, the second finds them cached and reads nothing
+        assertEquals(1, mapper.get(new Criteria("name", "c1")).size());
+        assertEquals(1, mapper.get(new Criteria("name", "c2")).size());
+        OperationStats query = METRICS.getStats(mapper._path, OperationTypeEnum.QUERY);
+        assertEquals(1, query.getCacheMisses());
+        assertEquals(1, query.getCacheHits());
+        assertEquals(0.5, query.getCacheHitRatio(), 0);
+        assertEquals(new File(mapper._filePath).length(), query.getBytesRead());
+        assertEquals(6, query.getRowsScanned());
+        assertEquals(2, query.getRowsMatched());
+    }
+
+    @Test
+    public void countsLockWait() throws Exception {
+        AbstractExcelMapper<WaitedRow> mapper = ExcelMapperRegistry.getMapper(WaitedRow.class);
+        WaitedRow row = new WaitedRow();
+        row.setName("w");
+        mapper.insert(row);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<WaitedRow>> read;
+            long stamp = mapper._lock.writeLock();
+            try {
+                read = executor.submit(mapper::getAll);
+                Thread.sleep(200);
+            } finally {
+                mapper._lock.unlockWrite(stamp);
+            }
+            assertFalse(read.get(10, TimeUnit.SECONDS).isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+        OperationStats read = METRICS.getStats(mapper._path, OperationTypeEnum.READ);
+        assertTrue(read.toString(), read.getLockWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertTrue(read.toString(), read.getLatency().getMaxNanos() >= read.getLockWaitNanos());
+        assertTrue(METRICS.getStats(mapper._path, OperationTypeEnum.INSERT).getLockWaitNanos()
+                < TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    @Test
+    public void failingMetricsDoNotFailOperations() {
+        AbstractExcelMapper<WaitedRow> mapper = ExcelMapperRegistry.getMapper(WaitedRow.class);
+        Metrics.set(sample -> {
+            throw new IllegalStateException("metrics failed");
+        });
+        WaitedRow row = new WaitedRow();
+        row.setName("f");
+        mapper.insert(row);
+        assertEquals(1, mapper.get(new Criteria("name", "f")).size());
+
+        // Without metrics the samples are discarded
+        Metrics.set(null);
+        assertSame(NoopMetrics.INSTANCE, Metrics.get());
+        mapper.getAll();
+        assertTrue(METRICS.getPaths().isEmpty());
+    }
+
+    private static List<CountedRow> counted(int count) {
+        List<CountedRow> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            CountedRow row = new CountedRow();
+            row.setName("n" + i % 2);
+            row.setSeq(i);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * This class is the row type of the Excel file whose operations are counted.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "counted.xlsx")
+    public static class CountedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelProperty("Seq")
+        private Integer seq;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getSeq() {
+            return seq;
+        }
+
+        public void setSeq(Integer seq) {
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * This class is the row type of the cached Excel file whose lookups are counted.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "cached.xlsx", cache = true)
+    public static class CachedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * This class is the row type of the Excel file whose reads wait for its lock.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "waited.xlsx")
+    public static class WaitedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
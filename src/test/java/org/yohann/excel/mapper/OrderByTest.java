@@ -0,0 +1,152 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.query.Criteria;
+import org.yohann.excel.query.OrderTypeEnum;
+import org.yohann.excel.stream.CloseableIterator;
+import org.yohann.excel.stream.ExternalSorter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that ordered reads return the rows a plain sort of all rows returns, whether the rows are kept
+ * in a bounded heap for a limit, sorted in memory, or sorted in runs spilled to temporary files and merged.
+ */
+public class OrderByTest {
+
+    private static final String DIRECTORY = "target/test-excel/order_by";
+
+    private static final String FILENAME = "order_by.xlsx";
+
+    private static final int ROWS = 23;
+
+    // Scores ascending with rows without a score last, then names descending, then row numbers
+    private static final Comparator<OrderedRow> ORDER = Comparator
+            .comparing(OrderedRow::getScore, Comparator.nullsLast(Comparator.<Integer>naturalOrder()))
+            .thenComparing(OrderedRow::getName, Comparator.reverseOrder())
+            .thenComparing(OrderedRow::getRowNum);
+
+    private static AbstractExcelMapper<OrderedRow> mapper;
+
+    @BeforeClass
+    public static void insert() {
+        new File(DIRECTORY, FILENAME).delete();
+        mapper = ExcelMapperRegistry.getMapper(OrderedRow.class);
+        List<OrderedRow> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            OrderedRow row = new OrderedRow();
+            row.setName("n" + i % 5);
+            row.setScore(i % 6 == 5 ? null : i * 7 % 10);
+            rows.add(row);
+        }
+        mapper.insertBatch(rows);
+    }
+
+    @Test
+    public void sortsWithoutLimit() {
+        assertEquals(ROWS, mapper.getAll().size());
+        assertEquals(expected(row -> true, 0, -1), rowNums(mapper.get(ordered())));
+        assertEquals(expected(row -> row.getScore() != null && row.getScore() > 3, 0, -1),
+                rowNums(mapper.get(ordered().greater("score", 3))));
+        assertEquals(expected(row -> true, 20, -1), rowNums(mapper.get(ordered().setSkip(20))));
+    }
+
+    @Test
+    public void keepsTopRowsForLimit() {
+        assertEquals(expected(row -> true, 0, 5), rowNums(mapper.get(ordered().setLimit(5))));
+        assertEquals(expected(row -> true, 7, 6), rowNums(mapper.get(ordered().setSkip(7).setLimit(6))));
+        assertEquals(expected(row -> "n3".equals(row.getName()), 1, 2),
+                rowNums(mapper.get(ordered().equals("name", "n3").setSkip(1).setLimit(2))));
+        assertEquals(expected(row -> true, 20, 10), rowNums(mapper.get(ordered().setSkip(20).setLimit(10))));
+    }
+
+    @Test
+    public void spillsRunsWithoutLimit() {
+        List<Integer> rowNums = new ArrayList<>();
+        try (CloseableIterator<OrderedRow> rows = mapper.iterate(ordered().setSkip(2))) {
+            // The rows are more than the sort buffer holds, so they are merged from runs on disk
+            assertTrue(runFiles() > 1);
+            while (rows.hasNext()) {
+                rowNums.add(rows.next().getRowNum());
+            }
+        }
+        assertEquals(expected(row -> true, 2, -1), rowNums);
+        assertEquals(0, runFiles());
+        try (CloseableIterator<OrderedRow> rows = mapper.iterate(ordered().setLimit(3))) {
+            rowNums.clear();
+            rows.forEachRemaining(row -> rowNums.add(row.getRowNum()));
+        }
+        assertEquals(expected(row -> true, 0, 3), rowNums);
+    }
+
+    private static Criteria ordered() {
+        return new Criteria().orderBy("score").orderBy("name", OrderTypeEnum.DESC);
+    }
+
+    /**
+     * Get the row numbers of the matching rows on a page of all rows sorted in memory
+     */
+    private static List<Integer> expected(Predicate<OrderedRow> filter, int skip, int limit) {
+        List<OrderedRow> rows = new ArrayList<>();
+        for (OrderedRow row : mapper.getAll()) {
+            if (filter.test(row)) {
+                rows.add(row);
+            }
+        }
+        rows.sort(ORDER);
+        int end = limit < 0 ? rows.size() : Math.min(rows.size(), skip + limit);
+        return rowNums(skip >= end ? new ArrayList<>() : rows.subList(skip, end));
+    }
+
+    private static List<Integer> rowNums(List<OrderedRow> rows) {
+        List<Integer> rowNums = new ArrayList<>();
+        for (OrderedRow row : rows) {
+            rowNums.add(row.getRowNum());
+        }
+        return rowNums;
+    }
+
+    private static int runFiles() {
+        String[] names = new File(DIRECTORY).list((directory, name) -> name.endsWith(ExternalSorter.SUFFIX));
+        return names != null ? names.length : 0;
+    }
+
+    /**
+     * This class is the row type of the ordered Excel file, whose sort buffer holds only a few rows.
+     */
+    @ExcelFile(path = DIRECTORY, filename = FILENAME, sortBufferRows = 4)
+    public static class OrderedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelProperty("Score")
+        private Integer score;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getScore() {
+            return score;
+        }
+
+        public void setScore(Integer score) {
+            this.score = score;
+        }
+    }
+}
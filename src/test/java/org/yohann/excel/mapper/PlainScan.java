@@ -0,0 +1,59 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.EasyExcel;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metadata.ExcelField;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.query.Criteria;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * This class answers queries the plain way, reading every row of the Excel file through EasyExcel and testing it
+ * against the criteria, so the answers of the mappers can be checked against it.
+ */
+class PlainScan {
+
+    private PlainScan() {
+    }
+
+    /**
+     * Get the rows of an Excel file that match the criteria, honouring its row number, skip and limit but not its
+     * order or projection.
+     */
+    static <T extends Excel> List<T> get(String filePath, Class<T> clazz, Criteria criteria) {
+        List<T> rows = EasyExcel.read(filePath).head(clazz).sheet().doReadSync();
+        Predicate<T> predicate = criteria.compile(clazz);
+        int skip = criteria.getSkip();
+        int limit = criteria.getLimit();
+        List<T> matched = new ArrayList<>();
+        for (int i = 0; i < rows.size() && (limit <= 0 || matched.size() < limit); i++) {
+            T row = rows.get(i);
+            // The header is the first row, so the first data row is row 2
+            row.setRowNum(i + 2);
+            if ((criteria.getAfter() == null || row.getRowNum() > criteria.getAfter()) && predicate.test(row)
+                    && skip-- <= 0) {
+                matched.add(row);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Describe rows by their row numbers and the values of their mapped fields, so rows read different ways can be
+     * compared.
+     */
+    static <T extends Excel> List<String> describe(List<T> rows, Class<T> clazz) {
+        List<String> described = new ArrayList<>();
+        for (T row : rows) {
+            StringBuilder values = new StringBuilder().append(row.getRowNum());
+            for (ExcelField field : ExcelMetadata.of(clazz).getFields()) {
+                values.append(',').append(field.get(row));
+            }
+            described.add(values.toString());
+        }
+        return described;
+    }
+}
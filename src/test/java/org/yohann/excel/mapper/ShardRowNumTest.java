@@ -0,0 +1,151 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.query.Criteria;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that the row numbers of a sharded Excel file address rows across its shards: inserts hand out
+ * global row numbers, reads return them, and updates and deletes by row number or by criteria change the rows they
+ * address in whichever shard holds them.
+ */
+public class ShardRowNumTest {
+
+    private static final String DIRECTORY = "target/test-excel/sharded";
+
+    private static final int STRIDE = ShardRouter.STRIDE;
+
+    @BeforeClass
+    public static void clean() {
+        File[] files = new File(DIRECTORY).listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void rowNumsAddressRowsAcrossShards() {
+        AbstractExcelMapper<ShardedRow> mapper = ExcelMapperRegistry.getMapper(ShardedRow.class);
+        List<ShardedRow> first = rows("a", "b");
+        mapper.insertBatch(first);
+        List<ShardedRow> second = rows("c", "d", "e", "f", "g", "h");
+        mapper.insertBatch(second);
+        assertEquals(Arrays.asList(2, 3), rowNums(first));
+        assertEquals(Arrays.asList(4, STRIDE + 2, STRIDE + 3, STRIDE + 4, 2 * STRIDE + 2, 2 * STRIDE + 3),
+                rowNums(second));
+        for (int shard = 1; shard <= 3; shard++) {
+            assertTrue(new File(DIRECTORY, ShardRouter.shardFilename("sharded.xlsx", shard)).exists());
+        }
+
+        // Reads return global row numbers in row order, also for pages and keyset pages cut across shards
+        List<ShardedRow> all = mapper.getAll();
+        assertEquals(rowNums(first, second), rowNums(all));
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h"), names(all));
+        assertEquals(Collections.singletonList(STRIDE + 3), rowNums(mapper.get(new Criteria("name", "e"))));
+        assertEquals(Arrays.asList(4, STRIDE + 2), rowNums(mapper.get(new Criteria().setSkip(2).setLimit(2))));
+        assertEquals(Arrays.asList(STRIDE + 3, STRIDE + 4),
+                rowNums(mapper.get(new Criteria().after(STRIDE + 2).setLimit(2))));
+
+        // Updates by row number and by criteria change the rows in their shards
+        ShardedRow updated = new ShardedRow();
+        updated.setRowNum(STRIDE + 4);
+        updated.setName("F");
+        ShardedRow last = new ShardedRow();
+        last.setRowNum(2 * STRIDE + 3);
+        last.setName("H");
+        mapper.updateBatch(Arrays.asList(last, updated));
+        assertEquals(2, mapper.update(new Criteria().in("name", Arrays.asList("b", "g")),
+                row -> row.setName(row.getName().toUpperCase())));
+        assertEquals(Arrays.asList("a", "B", "c", "d", "e", "F", "G", "H"), names(mapper.getAll()));
+        assertEquals(Collections.singletonList(2 * STRIDE + 2), rowNums(mapper.get(new Criteria("name", "G"))));
+
+        // Deletes close the gaps within each shard, so the rows after a deleted row move up in their shard only
+        mapper.deleteBatch(Arrays.asList(STRIDE + 2, 3, 2 * STRIDE + 2));
+        List<ShardedRow> rest = mapper.getAll();
+        assertEquals(Arrays.asList("a", "c", "e", "F", "H"), names(rest));
+        assertEquals(Arrays.asList(2, 3, STRIDE + 2, STRIDE + 3, 2 * STRIDE + 2), rowNums(rest));
+        assertEquals(2, mapper.delete(new Criteria().in("name", Arrays.asList("a", "F"))));
+        rest = mapper.getAll();
+        assertEquals(Arrays.asList("c", "e", "H"), names(rest));
+        assertEquals(Arrays.asList(2, STRIDE + 2, 2 * STRIDE + 2), rowNums(rest));
+
+        // New rows still go to the last shard
+        List<ShardedRow> appended = rows("i");
+        mapper.insertBatch(appended);
+        assertEquals(Collections.singletonList(2 * STRIDE + 3), rowNums(appended));
+        assertEquals(Collections.singletonList("i"), names(mapper.get(new Criteria().after(2 * STRIDE + 2))));
+    }
+
+    @Test
+    public void rowNumsAtShardBoundary() {
+        // A full xlsx shard holds STRIDE - 1 rows below its header, the last of them in row STRIDE
+        for (int shard = 1; shard <= 3; shard++) {
+            for (int rowNum : new int[]{1, 2, STRIDE - 1, STRIDE}) {
+                int global = ShardRouter.toGlobal(shard, rowNum);
+                assertEquals(shard, ShardRouter.shardOf(global));
+                assertEquals(rowNum, ShardRouter.toLocal(global));
+            }
+        }
+        assertEquals(1, ShardRouter.shardOf(STRIDE));
+        assertEquals(2, ShardRouter.shardOf(STRIDE + 2));
+        assertEquals(2, ShardRouter.toLocal(STRIDE + 2));
+    }
+
+    private static List<ShardedRow> rows(String... names) {
+        List<ShardedRow> rows = new ArrayList<>();
+        for (String name : names) {
+            ShardedRow row = new ShardedRow();
+            row.setName(name);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @SafeVarargs
+    private static List<Integer> rowNums(List<ShardedRow>... lists) {
+        List<Integer> rowNums = new ArrayList<>();
+        for (List<ShardedRow> rows : lists) {
+            for (ShardedRow row : rows) {
+                rowNums.add(row.getRowNum());
+            }
+        }
+        return rowNums;
+    }
+
+    private static List<String> names(List<ShardedRow> rows) {
+        List<String> names = new ArrayList<>();
+        for (ShardedRow row : rows) {
+            names.add(row.getName());
+        }
+        return names;
+    }
+
+    /**
+     * This class is the row type of the sharded Excel file, whose shards hold three rows each.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "sharded.xlsx", shardRows = 3)
+    public static class ShardedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.EasyExcel;
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.query.Criteria;
+import org.yohann.excel.xlsx.XlsxPackage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that appending, updating and deleting rows by streaming the sheet of an xlsx file leaves the same
+ * cells as the same changes applied to an xls file, which is loaded into a workbook and written out in full, also for
+ * sheets whose elements carry a namespace prefix. Strings streamed into an xlsx sheet are inline strings, so sheets
+ * written by other tools end up mixing them with shared strings, which every reader has to read alike.
+ */
+public class StreamedWriteTest {
+
+    private static final String DIRECTORY = "target/test-excel/streamed";
+
+    @BeforeClass
+    public static void clean() {
+        new File(DIRECTORY).mkdirs();
+        for (String filename : new String[]{"streamed.xlsx", "rewritten.xls", "prefixed.xlsx", "shared.xlsx"}) {
+            new File(DIRECTORY, filename).delete();
+        }
+    }
+
+    @Test
+    public void streamedChangesMatchRewrite() throws IOException {
+        AbstractExcelMapper<XlsxRow> streamed = ExcelMapperRegistry.getMapper(XlsxRow.class);
+        AbstractExcelMapper<XlsRow> rewritten = ExcelMapperRegistry.getMapper(XlsRow.class);
+
+        streamed.insertBatch(Arrays.asList(xlsx("a", 1, 1.5, true, 0), xlsx("b", 2, null, false, 1),
+                xlsx("c", null, 3.25, null, 2)));
+        rewritten.insertBatch(Arrays.asList(xls("a", 1, 1.5, true, 0), xls("b", 2, null, false, 1),
+                xls("c", null, 3.25, null, 2)));
+        // Appending to rows an earlier append wrote
+        streamed.insertBatch(Arrays.asList(xlsx("d", 4, -4.0, true, 3), xlsx("e", 5, 5.5, false, 4)));
+        rewritten.insertBatch(Arrays.asList(xls("d", 4, -4.0, true, 3), xls("e", 5, 5.5, false, 4)));
+        assertEquals(cells(rewritten._filePath), cells(streamed._filePath));
+
+        // Fields without a value keep their old values
+        XlsxRow streamedUpdate = xlsx("B", null, 2.5, null, 5);
+        streamedUpdate.setRowNum(3);
+        XlsRow rewrittenUpdate = xls("B", null, 2.5, null, 5);
+        rewrittenUpdate.setRowNum(3);
+        XlsxRow streamedLast = xlsx(null, 50, null, true, null);
+        streamedLast.setRowNum(6);
+        XlsRow rewrittenLast = xls(null, 50, null, true, null);
+        rewrittenLast.setRowNum(6);
+        streamed.updateBatch(Arrays.asList(streamedLast, streamedUpdate));
+        rewritten.updateBatch(Arrays.asList(rewrittenLast, rewrittenUpdate));
+        assertEquals(cells(rewritten._filePath), cells(streamed._filePath));
+
+        streamed.deleteBatch(Arrays.asList(4, 2));
+        rewritten.deleteBatch(Arrays.asList(4, 2));
+        streamed.insertBatch(Collections.singletonList(xlsx("f", 6, 6.0, false, 6)));
+        rewritten.insertBatch(Collections.singletonList(xls("f", 6, 6.0, false, 6)));
+        List<List<Object>> cells = cells(streamed._filePath);
+        assertEquals(cells(rewritten._filePath), cells);
+        assertEquals(5, cells.size());
+        assertEquals(Arrays.asList("B", "d", "e", "f"), names(streamed.getAll(), XlsxRow::getName));
+        assertEquals(names(streamed.getAll(), XlsxRow::getName), names(rewritten.getAll(), XlsRow::getName));
+
+        // Row numbers named more than once are deleted once
+        streamed.deleteBatch(Arrays.asList(5, 3, 5));
+        rewritten.deleteBatch(Arrays.asList(5, 3, 5));
+        cells = cells(streamed._filePath);
+        assertEquals(cells(rewritten._filePath), cells);
+        assertEquals(3, cells.size());
+        assertEquals(Arrays.asList("B", "e"), names(streamed.getAll(), XlsxRow::getName));
+        assertEquals(names(streamed.getAll(), XlsxRow::getName), names(rewritten.getAll(), XlsRow::getName));
+    }
+
+    @Test
+    public void prefixedSheetIsStreamed() throws IOException {
+        File file = new File(DIRECTORY, "prefixed.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(file)) {
+            Sheet sheet = workbook.createSheet();
+            String[][] rows = {{"Name", "Age"}, {"a", "1"}, {"b", "2"}, {"c", "3"}};
+            for (int i = 0; i < rows.length; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(rows[i][0]);
+                if (i == 0) {
+                    row.createCell(1).setCellValue(rows[i][1]);
+                } else {
+                    row.createCell(1).setCellValue(Integer.parseInt(rows[i][1]));
+                }
+            }
+            workbook.write(out);
+        }
+        // Bind the spreadsheet namespace to the prefix x instead of making it the default namespace
+        rewriteSheet(file, xml -> xml.replace("xmlns=\"", "xmlns:x=\"")
+                .replaceAll("<(/?)([A-Za-z]\\w*)(?=[\\s/>])", "<$1x:$2"));
+        assertTrue(sheetXml(file).contains("<x:sheetData>"));
+
+        AbstractExcelMapper<PrefixedRow> mapper = ExcelMapperRegistry.getMapper(PrefixedRow.class);
+        mapper.insertBatch(Arrays.asList(prefixed("d", 4), prefixed("e", 5)));
+        mapper.updateBatch(Collections.singletonList(prefixed("B", null, 3)));
+        mapper.deleteBatch(Collections.singletonList(2));
+        String xml = sheetXml(file);
+        assertTrue(xml, xml.contains("<x:sheetData>") && xml.contains("</x:sheetData>"));
+        assertFalse(xml, xml.contains("<sheetData") || xml.contains("<row") || xml.contains("<c ")
+                || xml.contains("<is>") || xml.contains("<v>"));
+        assertEquals(Arrays.asList(Arrays.asList("Name", "Age"), Arrays.asList("B", 2.0), Arrays.asList("c", 3.0),
+                Arrays.asList("d", 4.0), Arrays.asList("e", 5.0)), cells(file.getPath()));
+        assertEquals(Arrays.asList("B", "c", "d", "e"), names(mapper.getAll(), PrefixedRow::getName));
+        assertEquals(Arrays.asList(2, 3, 4, 5), rowNums(mapper.getAll()));
+    }
+
+    @Test
+    public void inlineStringsMixWithSharedStrings() throws IOException {
+        File file = new File(DIRECTORY, "shared.xlsx");
+        // POI keeps the strings of the workbook in the shared strings part
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(file)) {
+            Sheet sheet = workbook.createSheet();
+            String[][] rows = {{"Name", "Age"}, {"a", "1"}, {"b", "2"}, {"a", "3"}};
+            for (int i = 0; i < rows.length; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(rows[i][0]);
+                row.createCell(1).setCellValue(rows[i][1]);
+            }
+            workbook.write(out);
+        }
+        assertFalse(sheetXml(file).contains("t=\"inlineStr\""));
+
+        AbstractExcelMapper<SharedRow> mapper = ExcelMapperRegistry.getMapper(SharedRow.class);
+        mapper.insertBatch(Arrays.asList(shared("c", "4"), shared("a", "5")));
+        mapper.updateBatch(Collections.singletonList(shared("B", null, 3)));
+        String xml = sheetXml(file);
+        assertTrue(xml, xml.contains("t=\"s\"") && xml.contains("t=\"inlineStr\""));
+
+        List<List<String>> expected = Arrays.asList(Arrays.asList("a", "1"), Arrays.asList("B", "2"),
+                Arrays.asList("a", "3"), Arrays.asList("c", "4"), Arrays.asList("a", "5"));
+        List<List<Object>> cells = cells(file.getPath());
+        assertEquals(Arrays.asList("Name", "Age"), cells.get(0));
+        assertEquals(expected, cells.subList(1, cells.size()));
+        List<SharedRow> read = EasyExcel.read(file).head(SharedRow.class).sheet().doReadSync();
+        assertEquals(expected, values(read));
+        assertEquals(expected, values(mapper.getAll()));
+        assertEquals(Arrays.asList(2, 4, 6), rowNums(mapper.get(new Criteria("name", "a"))));
+    }
+
+    /**
+     * Read the XML of the sheet of an xlsx file
+     */
+    private static String sheetXml(File file) throws IOException {
+        try (XlsxPackage xlsx = XlsxPackage.open(file); InputStream in = xlsx.getInputStream(xlsx.getSheetPart())) {
+            return new String(readAll(in), UTF_8);
+        }
+    }
+
+    /**
+     * Rewrite the XML of the sheet of an xlsx file
+     */
+    private static void rewriteSheet(File file, Function<String, String> rewrite) throws IOException {
+        File rewritten = new File(file.getPath() + ".tmp");
+        try (XlsxPackage xlsx = XlsxPackage.open(file); OutputStream out = new FileOutputStream(rewritten)) {
+            xlsx.rewrite(out, Collections.singletonMap(xlsx.getSheetPart(),
+                    (in, sheetOut) -> sheetOut.write(rewrite.apply(new String(readAll(in), UTF_8)).getBytes(UTF_8))));
+        }
+        Files.move(rewritten.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int count = in.read(buffer); count > 0; count = in.read(buffer)) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read the cells of the first sheet of a file, row by row, blank rows and cells being empty lists and nulls
+     */
+    private static List<List<Object>> cells(String filePath) throws IOException {
+        List<List<Object>> rows = new ArrayList<>();
+        try (Workbook workbook = WorkbookFactory.create(new File(filePath), null, true)) {
+            Sheet sheet = workbook.getSheetAt(0);
+            for (int i = 0; i <= sheet.getLastRowNum(); i++) {
+                Row row = sheet.getRow(i);
+                List<Object> values = new ArrayList<>();
+                for (int j = 0; row != null && j < row.getLastCellNum(); j++) {
+                    values.add(value(row.getCell(j)));
+                }
+                rows.add(values);
+            }
+        }
+        return rows;
+    }
+
+    private static Object value(Cell cell) {
+        if (cell == null) {
+            return null;
+        }
+        switch (cell.getCellType()) {
+            case NUMERIC:
+                return cell.getNumericCellValue();
+            case BOOLEAN:
+                return cell.getBooleanCellValue();
+            case BLANK:
+                return null;
+            default:
+                return cell.getStringCellValue();
+        }
+    }
+
+    private static <T> List<String> names(List<T> rows, Function<T, String> name) {
+        List<String> names = new ArrayList<>();
+        for (T row : rows) {
+            names.add(name.apply(row));
+        }
+        return names;
+    }
+
+    private static XlsxRow xlsx(String name, Integer age, Double score, Boolean active, Integer day) {
+        XlsxRow row = new XlsxRow();
+        row.setName(name);
+        row.setAge(age);
+        row.setScore(score);
+        row.setActive(active);
+        row.setBorn(date(day));
+        return row;
+    }
+
+    private static XlsRow xls(String name, Integer age, Double score, Boolean active, Integer day) {
+        XlsRow row = new XlsRow();
+        row.setName(name);
+        row.setAge(age);
+        row.setScore(score);
+        row.setActive(active);
+        row.setBorn(date(day));
+        return row;
+    }
+
+    private static PrefixedRow prefixed(String name, Integer age) {
+        PrefixedRow row = new PrefixedRow();
+        row.setName(name);
+        row.setAge(age);
+        return row;
+    }
+
+    private static PrefixedRow prefixed(String name, Integer age, int rowNum) {
+        PrefixedRow row = prefixed(name, age);
+        row.setRowNum(rowNum);
+        return row;
+    }
+
+    private static SharedRow shared(String name, String age) {
+        SharedRow row = new SharedRow();
+        row.setName(name);
+        row.setAge(age);
+        return row;
+    }
+
+    private static SharedRow shared(String name, String age, int rowNum) {
+        SharedRow row = shared(name, age);
+        row.setRowNum(rowNum);
+        return row;
+    }
+
+    private static List<List<String>> values(List<SharedRow> rows) {
+        List<List<String>> values = new ArrayList<>();
+        for (SharedRow row : rows) {
+            values.add(Arrays.asList(row.getName(), row.getAge()));
+        }
+        return values;
+    }
+
+    private static List<Integer> rowNums(List<? extends Excel> rows) {
+        List<Integer> rowNums = new ArrayList<>();
+        for (Excel row : rows) {
+            rowNums.add(row.getRowNum());
+        }
+        return rowNums;
+    }
+
+    private static Date date(Integer day) {
+        return day != null ? new Date(86400000L * (10000 + day)) : null;
+    }
+
+    /**
+     * This class is the row type of the xlsx file, whose changes are streamed.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "streamed.xlsx")
+    public static class XlsxRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelProperty("Age")
+        private Integer age;
+
+        @ExcelProperty("Score")
+        private Double score;
+
+        @ExcelProperty("Active")
+        private Boolean active;
+
+        @ExcelProperty("Born")
+        private Date born;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getAge() {
+            return age;
+        }
+
+        public void setAge(Integer age) {
+            this.age = age;
+        }
+
+        public Double getScore() {
+            return score;
+        }
+
+        public void setScore(Double score) {
+            this.score = score;
+        }
+
+        public Boolean getActive() {
+            return active;
+        }
+
+        public void setActive(Boolean active) {
+            this.active = active;
+        }
+
+        public Date getBorn() {
+            return born;
+        }
+
+        public void setBorn(Date born) {
+            this.born = born;
+        }
+    }
+
+    /**
+     * This class is the row type of the xls file, which is rewritten from a workbook on every change.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "rewritten.xls")
+    public static class XlsRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelProperty("Age")
+        private Integer age;
+
+        @ExcelProperty("Score")
+        private Double score;
+
+        @ExcelProperty("Active")
+        private Boolean active;
+
+        @ExcelProperty("Born")
+        private Date born;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getAge() {
+            return age;
+        }
+
+        public void setAge(Integer age) {
+            this.age = age;
+        }
+
+        public Double getScore() {
+            return score;
+        }
+
+        public void setScore(Double score) {
+            this.score = score;
+        }
+
+        public Boolean getActive() {
+            return active;
+        }
+
+        public void setActive(Boolean active) {
+            this.active = active;
+        }
+
+        public Date getBorn() {
+            return born;
+        }
+
+        public void setBorn(Date born) {
+            this.born = born;
+        }
+    }
+
+    /**
+     * This class is the row type of the xlsx file whose sheet binds the spreadsheet namespace to a prefix.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "prefixed.xlsx")
+    public static class PrefixedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelProperty("Age")
+        private Integer age;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getAge() {
+            return age;
+        }
+
+        public void setAge(Integer age) {
+            this.age = age;
+        }
+    }
+
+    /**
+     * This class is the row type of the xlsx file whose strings start out in the shared strings part.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "shared.xlsx")
+    public static class SharedRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelProperty("Age")
+        private String age;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getAge() {
+            return age;
+        }
+
+        public void setAge(String age) {
+            this.age = age;
+        }
+    }
+}
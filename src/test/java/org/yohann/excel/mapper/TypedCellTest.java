@@ -0,0 +1,333 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import com.alibaba.excel.annotation.format.DateTimeFormat;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metadata.CellValueTypeEnum;
+import org.yohann.excel.metadata.ExcelField;
+import org.yohann.excel.metadata.ExcelMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that numbers a double holds exactly, booleans and dates are written to typed cells, dates styled
+ * with their pattern, that other values such as longs beyond 2^53, NaN and dates before 1900 fall back to text, and
+ * that all of them read back as they were written, whether the sheet is streamed or the workbook rewritten.
+ */
+public class TypedCellTest {
+
+    private static final String DIRECTORY = "target/test-excel/typed";
+
+    private static final long EXACT = 1L << 53;
+
+    private static final String PATTERN = "yyyy-MM-dd HH:mm";
+
+    @BeforeClass
+    public static void clean() {
+        for (String filename : new String[]{"typed.xlsx", "typed.xls"}) {
+            new File(DIRECTORY, filename).delete();
+        }
+    }
+
+    @Test
+    public void cellTypeFollowsValue() {
+        ExcelMetadata<XlsxTypedRow> metadata = ExcelMetadata.of(XlsxTypedRow.class);
+        assertEquals(CellValueTypeEnum.NUMBER, metadata.getField("count").cellType(-7));
+        ExcelField big = metadata.getField("big");
+        assertEquals(CellValueTypeEnum.NUMBER, big.cellType(EXACT));
+        assertEquals(CellValueTypeEnum.NUMBER, big.cellType(-EXACT));
+        assertEquals(CellValueTypeEnum.STRING, big.cellType(EXACT + 1));
+        assertEquals(CellValueTypeEnum.STRING, big.cellType(Long.MIN_VALUE));
+        ExcelField score = metadata.getField("score");
+        assertEquals(CellValueTypeEnum.NUMBER, score.cellType(-0.25));
+        assertEquals(CellValueTypeEnum.STRING, score.cellType(Double.NaN));
+        assertEquals(CellValueTypeEnum.STRING, score.cellType(Double.NEGATIVE_INFINITY));
+        assertEquals(CellValueTypeEnum.BOOLEAN, metadata.getField("active").cellType(true));
+        ExcelField day = metadata.getField("day");
+        assertEquals("yyyy-mm-dd hh:mm", day.getExcelDateFormat());
+        assertEquals(CellValueTypeEnum.DATE, day.cellType(new Date()));
+        assertEquals(CellValueTypeEnum.STRING, metadata.getField("amount").cellType(BigDecimal.ONE));
+        assertEquals(CellValueTypeEnum.STRING, metadata.getField("name").cellType("1"));
+    }
+
+    @Test
+    public void streamedCellsAreTyped() throws IOException {
+        assertRoundTrip(ExcelMapperRegistry.getMapper(XlsxTypedRow.class));
+    }
+
+    @Test
+    public void rewrittenCellsAreTyped() throws IOException {
+        assertRoundTrip(ExcelMapperRegistry.getMapper(XlsTypedRow.class));
+    }
+
+    /**
+     * Check that inserted and updated rows are written to cells of the expected types and read back unchanged
+     */
+    private static <T extends Excel> void assertRoundTrip(AbstractExcelMapper<T> mapper) throws IOException {
+        ExcelMetadata<T> metadata = mapper._metadata;
+        List<Object[]> values = new ArrayList<>(Arrays.asList(
+                new Object[]{1, EXACT + 1, 1.5, true, date("2020-05-06 07:08"),
+                        new BigDecimal("12.345678901234567890"), "a"},
+                new Object[]{-7, -EXACT - 1, Double.NaN, false, date("1899-12-01 00:00"), null, "007"},
+                new Object[]{0, EXACT, Double.POSITIVE_INFINITY, null, date("1970-01-01 23:59"), BigDecimal.TEN,
+                        "c"}));
+        List<T> rows = new ArrayList<>();
+        for (Object[] row : values) {
+            rows.add(metadata.newInstance(row));
+        }
+        mapper.insertBatch(rows);
+        assertCells(mapper._filePath, Arrays.asList(
+                Arrays.asList(CellType.NUMERIC, CellType.STRING, CellType.NUMERIC, CellType.BOOLEAN, null,
+                        CellType.STRING, CellType.STRING),
+                Arrays.asList(CellType.NUMERIC, CellType.STRING, CellType.STRING, CellType.BOOLEAN, CellType.STRING,
+                        CellType.BLANK, CellType.STRING),
+                Arrays.asList(CellType.NUMERIC, CellType.NUMERIC, CellType.STRING, CellType.BLANK, null,
+                        CellType.STRING, CellType.STRING)));
+        assertValues(values, mapper);
+
+        // Updated cells change their types with their values
+        T updated = metadata.newInstance(new Object[]{null, EXACT + 3, -0.25, true, null, null, null});
+        updated.setRowNum(4);
+        mapper.updateBatch(Collections.singletonList(updated));
+        values.set(2, new Object[]{0, EXACT + 3, -0.25, true, date("1970-01-01 23:59"), BigDecimal.TEN, "c"});
+        assertCells(mapper._filePath, Collections.singletonList(Arrays.asList(CellType.NUMERIC, CellType.STRING,
+                CellType.NUMERIC, CellType.BOOLEAN, null, CellType.STRING, CellType.STRING)), 3);
+        assertValues(values, mapper);
+    }
+
+    private static void assertCells(String filePath, List<List<CellType>> types) throws IOException {
+        assertCells(filePath, types, 1);
+    }
+
+    /**
+     * Check the types of the cells of the rows from the given row index on, null standing for a numeric cell with
+     * the date format of the day field
+     */
+    private static void assertCells(String filePath, List<List<CellType>> types, int first) throws IOException {
+        try (Workbook workbook = WorkbookFactory.create(new File(filePath), null, true)) {
+            Sheet sheet = workbook.getSheetAt(0);
+            for (int i = 0; i < types.size(); i++) {
+                Row row = sheet.getRow(first + i);
+                for (int j = 0; j < types.get(i).size(); j++) {
+                    Cell cell = row.getCell(j, Row.MissingCellPolicy.CREATE_NULL_AS_BLANK);
+                    CellType type = types.get(i).get(j);
+                    String message = "row " + (first + i) + ", column " + j;
+                    if (type == null) {
+                        assertEquals(message, CellType.NUMERIC, cell.getCellType());
+                        assertTrue(message, DateUtil.isCellDateFormatted(cell));
+                        assertEquals(message, "yyyy-mm-dd hh:mm", cell.getCellStyle().getDataFormatString());
+                    } else {
+                        assertEquals(message, type, cell.getCellType());
+                    }
+                }
+            }
+        }
+    }
+
+    private static <T extends Excel> void assertValues(List<Object[]> values, AbstractExcelMapper<T> mapper) {
+        List<T> rows = mapper.getAll();
+        assertEquals(values.size(), rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertArrayEquals(values.get(i), mapper._metadata.getValues(rows.get(i)));
+        }
+    }
+
+    private static Date date(String text) {
+        try {
+            return new SimpleDateFormat(PATTERN).parse(text);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * This class is the row type of the xlsx file, whose cells are streamed.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "typed.xlsx")
+    public static class XlsxTypedRow extends Excel {
+
+        @ExcelProperty("Count")
+        private Integer count;
+
+        @ExcelProperty("Big")
+        private Long big;
+
+        @ExcelProperty("Score")
+        private Double score;
+
+        @ExcelProperty("Active")
+        private Boolean active;
+
+        @ExcelProperty("Day")
+        @DateTimeFormat(PATTERN)
+        private Date day;
+
+        @ExcelProperty("Amount")
+        private BigDecimal amount;
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public Integer getCount() {
+            return count;
+        }
+
+        public void setCount(Integer count) {
+            this.count = count;
+        }
+
+        public Long getBig() {
+            return big;
+        }
+
+        public void setBig(Long big) {
+            this.big = big;
+        }
+
+        public Double getScore() {
+            return score;
+        }
+
+        public void setScore(Double score) {
+            this.score = score;
+        }
+
+        public Boolean getActive() {
+            return active;
+        }
+
+        public void setActive(Boolean active) {
+            this.active = active;
+        }
+
+        public Date getDay() {
+            return day;
+        }
+
+        public void setDay(Date day) {
+            this.day = day;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public void setAmount(BigDecimal amount) {
+            this.amount = amount;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * This class is the row type of the xls file, which is rewritten from a workbook on every change.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "typed.xls")
+    public static class XlsTypedRow extends Excel {
+
+        @ExcelProperty("Count")
+        private Integer count;
+
+        @ExcelProperty("Big")
+        private Long big;
+
+        @ExcelProperty("Score")
+        private Double score;
+
+        @ExcelProperty("Active")
+        private Boolean active;
+
+        @ExcelProperty("Day")
+        @DateTimeFormat(PATTERN)
+        private Date day;
+
+        @ExcelProperty("Amount")
+        private BigDecimal amount;
+
+        @ExcelProperty("Name")
+        private String name;
+
+        public Integer getCount() {
+            return count;
+        }
+
+        public void setCount(Integer count) {
+            this.count = count;
+        }
+
+        public Long getBig() {
+            return big;
+        }
+
+        public void setBig(Long big) {
+            this.big = big;
+        }
+
+        public Double getScore() {
+            return score;
+        }
+
+        public void setScore(Double score) {
+            this.score = score;
+        }
+
+        public Boolean getActive() {
+            return active;
+        }
+
+        public void setActive(Boolean active) {
+            this.active = active;
+        }
+
+        public Date getDay() {
+            return day;
+        }
+
+        public void setDay(Date day) {
+            this.day = day;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public void setAmount(BigDecimal amount) {
+            this.amount = amount;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.yohann.excel.mapper;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelFile;
+import org.yohann.excel.columnar.ColumnarFile;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.metrics.InMemoryMetrics;
+import org.yohann.excel.metrics.Metrics;
+import org.yohann.excel.metrics.OperationTypeEnum;
+import org.yohann.excel.query.Criteria;
+import org.yohann.excel.xlsx.SheetCheckpoints;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that queries skipping blocks of rows by their zone maps find the rows at the boundaries of the
+ * blocks between the checkpoints of an xlsx sheet, and rows whose values were updated to the range of another block,
+ * both in an xlsx sheet and in a columnar copy.
+ */
+public class ZoneMapTest {
+
+    private static final String DIRECTORY = "target/test-excel/zone_map";
+
+    private static final int INTERVAL = SheetCheckpoints.INTERVAL;
+
+    // The number of rows of every file, five full blocks of the sheet
+    private static final int ROWS = 5 * INTERVAL;
+
+    private static final InMemoryMetrics METRICS = new InMemoryMetrics();
+
+    @BeforeClass
+    public static void clean() {
+        for (String filename : new String[]{"boundary.xlsx", "reordered.xlsx", "reordered_columnar.xlsx",
+                "reordered_columnar.xlsx" + ColumnarFile.SUFFIX}) {
+            new File(DIRECTORY, filename).delete();
+        }
+    }
+
+    @Before
+    public void install() {
+        Metrics.set(METRICS);
+    }
+
+    @After
+    public void uninstall() {
+        Metrics.set(null);
+    }
+
+    @Test
+    public void blockBoundariesAtInterval() {
+        AbstractExcelMapper<BoundaryRow> mapper = ExcelMapperRegistry.getMapper(BoundaryRow.class);
+        List<BoundaryRow> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(boundary(i));
+        }
+        mapper.insertBatch(rows);
+
+        // The rows at ordinals INTERVAL - 1 and INTERVAL are the last row of a block and the first row of the next
+        assertSeqs(mapper, new Criteria("seq", INTERVAL - 1), INTERVAL, INTERVAL - 1);
+        assertSeqs(mapper, new Criteria("seq", INTERVAL), INTERVAL, INTERVAL);
+        assertSeqs(mapper, new Criteria("seq", INTERVAL + 1), INTERVAL, INTERVAL + 1);
+        assertSeqs(mapper, new Criteria().greaterEquals("seq", INTERVAL - 1).lessEquals("seq", INTERVAL),
+                2 * INTERVAL, INTERVAL - 1, INTERVAL);
+        assertSeqs(mapper, new Criteria().greater("seq", INTERVAL - 1).less("seq", INTERVAL + 1), INTERVAL, INTERVAL);
+        assertSeqs(mapper, new Criteria("seq", ROWS - 1), INTERVAL, ROWS - 1);
+
+        // Starting after the last row of a block, only the next block is read, and starting before it only that row
+        // of its block
+        int lastOfBlock = INTERVAL - 1 + 2;
+        assertSeqs(mapper, new Criteria().lessEquals("seq", INTERVAL + 1).after(lastOfBlock), INTERVAL,
+                INTERVAL, INTERVAL + 1);
+        assertSeqs(mapper, new Criteria().lessEquals("seq", INTERVAL + 1).after(lastOfBlock - 1), INTERVAL + 1,
+                INTERVAL - 1, INTERVAL, INTERVAL + 1);
+
+        // A row appended after full blocks starts a block of its own
+        mapper.insertBatch(Collections.singletonList(boundary(ROWS)));
+        assertSeqs(mapper, new Criteria("seq", ROWS), 1, ROWS);
+        assertSeqs(mapper, new Criteria().greaterEquals("seq", ROWS - 1), INTERVAL + 1, ROWS - 1, ROWS);
+    }
+
+    @Test
+    public void sheetBlocksFollowOutOfOrderUpdate() {
+        AbstractExcelMapper<ReorderedRow> mapper = ExcelMapperRegistry.getMapper(ReorderedRow.class);
+        List<ReorderedRow> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            ReorderedRow row = new ReorderedRow();
+            row.setSeq(i);
+            rows.add(row);
+        }
+        mapper.insertBatch(rows);
+        assertEquals(1, mapper.count(new Criteria("seq", ROWS - 10)));
+
+        // A row of the first block takes a value of the last block
+        assertEquals(1, mapper.update(new Criteria("seq", 10), row -> row.setSeq(ROWS - 10)));
+        METRICS.reset();
+        List<ReorderedRow> found = mapper.get(new Criteria("seq", ROWS - 10));
+        assertEquals(Arrays.asList(12, ROWS - 10 + 2), rowNums(found));
+        assertScanned(mapper, 2 * INTERVAL);
+        assertEquals(0, mapper.count(new Criteria("seq", 10)));
+        assertEquals(11, mapper.count(new Criteria().greaterEquals("seq", ROWS - 10).less("seq", ROWS)));
+        assertEquals(10, mapper.count(new Criteria().less("seq", 10)));
+    }
+
+    @Test
+    public void columnarBlocksFollowOutOfOrderUpdate() {
+        AbstractExcelMapper<ReorderedColumnarRow> mapper = ExcelMapperRegistry.getMapper(ReorderedColumnarRow.class);
+        List<ReorderedColumnarRow> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            ReorderedColumnarRow row = new ReorderedColumnarRow();
+            row.setSeq(i);
+            rows.add(row);
+        }
+        mapper.insertBatch(rows);
+        assertEquals(1, mapper.count(new Criteria("seq", ROWS - 10)));
+        METRICS.reset();
+        assertEquals(1, mapper.get(new Criteria("seq", ROWS - 10)).size());
+        long scanned = METRICS.getStats(mapper._path, OperationTypeEnum.QUERY).getRowsScanned();
+        assertTrue("scanned " + scanned + " rows", scanned > 0 && scanned < ROWS / 2);
+
+        assertEquals(1, mapper.update(new Criteria("seq", 10), row -> row.setSeq(ROWS - 10)));
+        assertTrue(new File(DIRECTORY, "reordered_columnar.xlsx" + ColumnarFile.SUFFIX).exists());
+        List<ReorderedColumnarRow> found = mapper.get(new Criteria("seq", ROWS - 10));
+        assertEquals(Arrays.asList(12, ROWS - 10 + 2), rowNums(found));
+        assertEquals(0, mapper.count(new Criteria("seq", 10)));
+        assertEquals(11, mapper.count(new Criteria().greaterEquals("seq", ROWS - 10).less("seq", ROWS)));
+    }
+
+    /**
+     * Check the values of the rows a query returns, and that the query read the given number of rows from the sheet
+     */
+    private static void assertSeqs(AbstractExcelMapper<BoundaryRow> mapper, Criteria criteria, int scanned,
+                                   Integer... seqs) {
+        METRICS.reset();
+        List<Integer> found = new ArrayList<>();
+        for (BoundaryRow row : mapper.get(criteria)) {
+            // Data rows start at row 2
+            assertEquals(row.getSeq() + 2, row.getRowNum().intValue());
+            found.add(row.getSeq());
+        }
+        assertEquals(Arrays.asList(seqs), found);
+        assertScanned(mapper, scanned);
+    }
+
+    private static void assertScanned(AbstractExcelMapper<?> mapper, long scanned) {
+        assertEquals(scanned, METRICS.getStats(mapper._path, OperationTypeEnum.QUERY).getRowsScanned());
+    }
+
+    private static List<Integer> rowNums(List<? extends Excel> rows) {
+        List<Integer> rowNums = new ArrayList<>();
+        for (Excel row : rows) {
+            rowNums.add(row.getRowNum());
+        }
+        return rowNums;
+    }
+
+    private static BoundaryRow boundary(int seq) {
+        BoundaryRow row = new BoundaryRow();
+        row.setSeq(seq);
+        return row;
+    }
+
+    /**
+     * This class is the row type of the xlsx file whose values are the ordinals of the rows.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "boundary.xlsx")
+    public static class BoundaryRow extends Excel {
+
+        @ExcelProperty("Seq")
+        private Integer seq;
+
+        public Integer getSeq() {
+            return seq;
+        }
+
+        public void setSeq(Integer seq) {
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * This class is the row type of the xlsx file with a row updated to the values of another block.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "reordered.xlsx")
+    public static class ReorderedRow extends Excel {
+
+        @ExcelProperty("Seq")
+        private Integer seq;
+
+        public Integer getSeq() {
+            return seq;
+        }
+
+        public void setSeq(Integer seq) {
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * This class is the row type of the xlsx file with a columnar copy and a row updated to the values of another
+     * block.
+     */
+    @ExcelFile(path = DIRECTORY, filename = "reordered_columnar.xlsx", columnar = true)
+    public static class ReorderedColumnarRow extends Excel {
+
+        @ExcelProperty("Seq")
+        private Integer seq;
+
+        public Integer getSeq() {
+            return seq;
+        }
+
+        public void setSeq(Integer seq) {
+            this.seq = seq;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.yohann.excel.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that a latency histogram counts latencies in buckets of powers of two nanoseconds and reports
+ * percentiles as the upper bound of their bucket, capped at the longest latency.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesAreBucketBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(0.99));
+        assertEquals(0, histogram.getMeanNanos(), 0);
+
+        for (long nanos : new long[]{0, 1, 3, 1000, -5}) {
+            histogram.record(nanos);
+        }
+        assertEquals(5, histogram.getCount());
+        assertEquals(1004, histogram.getTotalNanos());
+        assertEquals(1000, histogram.getMaxNanos());
+        assertEquals(200.8, histogram.getMeanNanos(), 1e-9);
+        long[] buckets = histogram.getBucketCounts();
+        assertEquals(64, buckets.length);
+        // Negative latencies count as 0, and 1000 falls between 512 and 1024
+        assertEquals(3, buckets[0]);
+        assertEquals(1, buckets[1]);
+        assertEquals(1, buckets[9]);
+
+        assertEquals(1, histogram.getPercentileNanos(0));
+        assertEquals(1, histogram.getPercentileNanos(0.6));
+        assertEquals(3, histogram.getPercentileNanos(0.8));
+        assertEquals(1000, histogram.getPercentileNanos(1));
+        for (double percentile : new double[]{-0.1, 1.5, Double.NaN}) {
+            try {
+                histogram.getPercentileNanos(percentile);
+                fail("percentile accepted: " + percentile);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void longestLatenciesFallInLastBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(1, histogram.getBucketCounts()[62]);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentileNanos(0.5));
+    }
+}
@@ -0,0 +1,226 @@
+package org.yohann.excel.processor;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.mapper.AbstractExcelMapper;
+import org.yohann.excel.mapper.ExcelMapperRegistry;
+import org.yohann.excel.metadata.ExcelField;
+import org.yohann.excel.metadata.ExcelMetadata;
+import org.yohann.excel.query.Criteria;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that entity classes compiled with ExcelAccessorProcessor are read, written and matched exactly like
+ * the same classes compiled without it, which are accessed through reflection. The classes are compiled at test time,
+ * once with the processor and once without, and loaded by separate class loaders.
+ */
+public class ExcelAccessorProcessorTest {
+
+    private static final String DIRECTORY = "target/test-excel/accessor";
+
+    // The mapped fields of the test entities: name, type, header
+    private static final String[][] FIELDS = {
+            {"name", "String", "Name"}, {"count", "int", "Count"}, {"id", "Long", "Id"},
+            {"score", "Double", "Score"}, {"active", "Boolean", "Active"}, {"born", "Date", "Born"}};
+
+    private static ClassLoader generated;
+
+    private static ClassLoader reflective;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        File[] files = new File(DIRECTORY).listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            file.delete();
+        }
+        generated = compile("generated", "-processor", ExcelAccessorProcessor.class.getName());
+        reflective = compile("reflective", "-proc:none");
+    }
+
+    @Test
+    public void generatesRowReaderWriterAndTypedAccessors() throws Exception {
+        Class<?> row = generated.loadClass("accessed.Row");
+        Class<?> accessor = generated.loadClass("accessed.Row" + ExcelAccessorProcessor.SUFFIX);
+        assertEquals(String.class, accessor.getMethod("getName", row).getReturnType());
+        assertEquals(int.class, accessor.getMethod("getCount", row).getReturnType());
+        accessor.getMethod("setBorn", row, Date.class);
+        assertTrue(ExcelMetadata.of(row).hasAccessor());
+        assertTrue(ExcelMetadata.of(generated.loadClass("accessed.NotedRow")).hasAccessor());
+        assertFalse(ExcelMetadata.of(reflective.loadClass("accessed.Row")).hasAccessor());
+    }
+
+    @Test
+    public void alignedAccessorMatchesReflection() throws Exception {
+        this.assertSameAsReflection("accessed.Row");
+    }
+
+    @Test
+    public void accessorWithIgnoredFieldsMatchesReflection() throws Exception {
+        this.assertSameAsReflection("accessed.NotedRow");
+    }
+
+    private void assertSameAsReflection(String className) throws Exception {
+        List<String> withAccessor = run(generated.loadClass(className).asSubclass(Excel.class));
+        List<String> withReflection = run(reflective.loadClass(className).asSubclass(Excel.class));
+        assertEquals(withReflection, withAccessor);
+        // Twelve rows were inserted, and five of them deleted
+        assertEquals("rows: 7", withAccessor.get(withAccessor.size() - 1));
+    }
+
+    /**
+     * Insert, read, match, update and delete rows of an entity class, describing every result
+     */
+    private static <T extends Excel> List<String> run(Class<T> clazz) {
+        ExcelMetadata<T> metadata = ExcelMetadata.of(clazz);
+        AbstractExcelMapper<T> mapper = ExcelMapperRegistry.getMapper(clazz);
+        List<T> rows = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            T row = metadata.newInstance();
+            set(metadata, row, "name", i % 5 == 4 ? null : "n" + i % 3);
+            set(metadata, row, "count", i);
+            set(metadata, row, "id", i % 4 == 3 ? null : (1L << 53) + i);
+            set(metadata, row, "score", i % 6 == 5 ? null : i * 1.5);
+            set(metadata, row, "active", i % 2 == 0);
+            set(metadata, row, "born", new Date(86400000L * (10000 + i)));
+            rows.add(row);
+        }
+        mapper.insertBatch(rows);
+
+        List<String> results = new ArrayList<>();
+        results.add(describe(metadata, mapper.getAll()));
+        List<Criteria> queries = Arrays.asList(new Criteria("name", "n1"), new Criteria().greater("count", 6),
+                new Criteria().isNUll("id", null), new Criteria().greaterEquals("score", 6).equals("active", true),
+                new Criteria("id", (1L << 53) + 2), new Criteria().less("born", new Date(86400000L * 10004)),
+                new Criteria().notNull("name", null).select("name", "score"));
+        List<T> all = mapper.getAll();
+        for (Criteria criteria : queries) {
+            results.add(describe(metadata, mapper.get(criteria)));
+            Predicate<T> predicate = criteria.compile(clazz);
+            StringBuilder matched = new StringBuilder();
+            for (T row : all) {
+                assertEquals(predicate.test(row), criteria.isMatch(row));
+                matched.append(predicate.test(row) ? '1' : '0');
+            }
+            results.add(matched.toString());
+        }
+
+        T changed = metadata.newInstance();
+        changed.setRowNum(3);
+        set(metadata, changed, "name", "changed");
+        set(metadata, changed, "score", 99.25);
+        mapper.updateBatch(Collections.singletonList(changed));
+        results.add("updated: " + mapper.update(new Criteria("active", false),
+                row -> set(metadata, row, "born", null)));
+        results.add(describe(metadata, mapper.getAll()));
+        results.add("deleted: " + mapper.delete(new Criteria().greaterEquals("count", 7)));
+        results.add(describe(metadata, mapper.getAll()));
+        results.add("rows: " + mapper.getAll().size());
+        return results;
+    }
+
+    private static <T> void set(ExcelMetadata<T> metadata, T row, String fieldName, Object value) {
+        metadata.getField(fieldName).set(row, value);
+    }
+
+    /**
+     * Describe rows by their row numbers and the values of their mapped fields
+     */
+    private static <T extends Excel> String describe(ExcelMetadata<T> metadata, List<T> rows) {
+        StringBuilder described = new StringBuilder();
+        for (T row : rows) {
+            described.append(row.getRowNum());
+            for (ExcelField field : metadata.getFields()) {
+                described.append(',').append(field.get(row));
+            }
+            described.append('\n');
+        }
+        return described.toString();
+    }
+
+    /**
+     * Compile the test entities into a directory named after the variant with the given options, returning a class
+     * loader for them
+     */
+    private static ClassLoader compile(String variant, String... options) throws Exception {
+        File output = new File(DIRECTORY, variant);
+        output.mkdirs();
+        String classpath = location(Excel.class) + File.pathSeparator + location(ExcelProperty.class);
+        List<String> arguments = new ArrayList<>(Arrays.asList("-d", output.getPath(), "-classpath", classpath,
+                "-processorpath", classpath));
+        arguments.addAll(Arrays.asList(options));
+        List<JavaFileObject> sources = Arrays.asList(source("Row", variant, false),
+                source("NotedRow", variant, true));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null)) {
+            assertTrue(diagnostics.getDiagnostics().toString(),
+                    compiler.getTask(null, fileManager, diagnostics, arguments, null, sources).call());
+        }
+        return new URLClassLoader(new URL[]{output.toURI().toURL()}, ExcelAccessorProcessorTest.class.getClassLoader());
+    }
+
+    /**
+     * Get the classpath entry a class is loaded from
+     */
+    private static String location(Class<?> clazz) throws Exception {
+        return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+
+    /**
+     * Get the source of a test entity with private fields and accessor methods, one of its fields being a primitive
+     * and, if noted is set, with an ignored field declared between its mapped fields
+     */
+    private static JavaFileObject source(String className, String variant, boolean noted) {
+        StringBuilder source = new StringBuilder();
+        source.append("package accessed;\n")
+                .append("import com.alibaba.excel.annotation.*;\n")
+                .append("import java.util.Date;\n")
+                .append("@org.yohann.excel.annotation.ExcelFile(path = \"").append(DIRECTORY)
+                .append("\", filename = \"").append(className).append('_').append(variant).append(".xlsx\")\n")
+                .append("public class ").append(className).append(" extends org.yohann.excel.entity.Excel {\n");
+        List<String[]> fields = new ArrayList<>(Arrays.asList(FIELDS));
+        if (noted) {
+            fields.add(2, new String[]{"note", "String", null});
+        }
+        for (String[] field : fields) {
+            source.append(field[2] == null ? "@ExcelIgnore" : "@ExcelProperty(\"" + field[2] + "\")")
+                    .append(" private ").append(field[1]).append(' ').append(field[0]).append(";\n");
+        }
+        for (String[] field : fields) {
+            String suffix = Character.toUpperCase(field[0].charAt(0)) + field[0].substring(1);
+            source.append("public ").append(field[1]).append(" get").append(suffix).append("() { return ")
+                    .append(field[0]).append("; }\n")
+                    .append("public void set").append(suffix).append('(').append(field[1]).append(" value) { ")
+                    .append(field[0]).append(" = value; }\n");
+        }
+        source.append("}\n");
+        return new SimpleJavaFileObject(URI.create("string:///accessed/" + className + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+    }
+}
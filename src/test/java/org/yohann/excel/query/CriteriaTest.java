@@ -0,0 +1,212 @@
+package org.yohann.excel.query;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import org.junit.Test;
+import org.yohann.excel.annotation.ExcelBloomFilter;
+import org.yohann.excel.annotation.ExcelIndex;
+import org.yohann.excel.cache.TableIndexes;
+import org.yohann.excel.entity.Excel;
+import org.yohann.excel.index.BloomFilterFile;
+import org.yohann.excel.index.IndexTypeEnum;
+import org.yohann.excel.metadata.ExcelMetadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that criteria compiled into a predicate match the same rows as isMatch, for every kind of
+ * condition and for fields with and without a value, and that numbers matched against floating point fields find
+ * the same rows through the compiled predicate, isMatch, the indexes and the Bloom filters.
+ */
+public class CriteriaTest {
+
+    private static final long DAY = 86400000L;
+
+    private final List<PersonRow> people = Arrays.asList(person(2, "Tony", 18, 1.5, 0), person(3, "Pony", 20, null, 1),
+            person(4, "Jack", null, 3.0, null), person(5, null, 36, -2.5, 3));
+
+    private final ExcelMetadata<PriceRow> metadata = ExcelMetadata.of(PriceRow.class);
+
+    private final List<PriceRow> rows = Arrays.asList(row(2, 5.0, 1.5f), row(3, 7.25, 5f), row(4, -0.0, 2f));
+
+    @Test
+    public void compiledPredicateMatchesIsMatch() {
+        assertEquals(Arrays.asList(2, 3, 4, 5), matchedPeople(new Criteria()));
+        assertEquals(Arrays.asList(2), matchedPeople(new Criteria("name", "Tony")));
+        assertEquals(Arrays.asList(2, 3), matchedPeople(new Criteria().like("name", "ony")));
+        assertEquals(Arrays.asList(2, 5), matchedPeople(new Criteria().notEquals("age", 20)));
+        assertEquals(Arrays.asList(2), matchedPeople(new Criteria().less("age", 20)));
+        assertEquals(Arrays.asList(2, 5), matchedPeople(new Criteria().lessEquals("score", 1.5)));
+        assertEquals(Arrays.asList(3, 5), matchedPeople(new Criteria().greater("born", new Date(0))));
+        assertEquals(Arrays.asList(5), matchedPeople(new Criteria().greaterEquals("age", 20).notNull("score", null)));
+        assertEquals(Arrays.asList(4), matchedPeople(new Criteria().isNUll("age", null).like("name", "a")));
+        assertEquals(Arrays.asList(5), matchedPeople(new Criteria().isNUll("name", null)));
+    }
+
+    @Test
+    public void integralValuesMatchFloatingFields() {
+        assertEquals(Arrays.asList(2), matched(new Criteria("price", 5)));
+        assertEquals(Arrays.asList(3, 4), matched(new Criteria().notEquals("price", 5L)));
+        assertEquals(Arrays.asList(3), matched(new Criteria("weight", 5)));
+        assertEquals(Arrays.asList(2, 3), matched(new Criteria().in("price", Arrays.asList(5, 7.25, "5"))));
+        assertEquals(Arrays.asList(4), matched(new Criteria("price", 0)));
+        assertEquals(Arrays.asList(4), matched(new Criteria().in("price", Arrays.asList(0))));
+        assertEquals(Arrays.asList(), matched(new Criteria("price", Double.NaN)));
+        assertEquals(Arrays.asList(3), matched(new Criteria("weight", 5).after(2)));
+    }
+
+    @Test
+    public void indexesAndBloomFiltersAgreeWithScan() {
+        TableIndexes<PriceRow> indexes = TableIndexes.build(rows, metadata);
+        BloomFilterFile bloomFilters = BloomFilterFile.build(metadata.getBloomFilterFields(), null, rows);
+        List<Criteria> queries = Arrays.asList(new Criteria("price", 5), new Criteria("price", 7.25),
+                new Criteria("price", 6), new Criteria("weight", 5), new Criteria("weight", 1.5),
+                new Criteria().in("price", Arrays.asList(5, 8)), new Criteria().in("weight", Arrays.asList(2, 3L)));
+        for (Criteria criteria : queries) {
+            List<Integer> scanned = matched(criteria);
+            List<PriceRow> candidates = indexes.select(criteria);
+            List<Integer> looked = new ArrayList<>();
+            Predicate<PriceRow> predicate = criteria.compile(PriceRow.class);
+            for (PriceRow row : candidates) {
+                if (predicate.test(row)) {
+                    looked.add(row.getRowNum());
+                }
+            }
+            assertEquals(scanned, looked);
+            if (!scanned.isEmpty()) {
+                assertTrue(criteria.mightMatch(PriceRow.class, bloomFilters::getFilter));
+            }
+        }
+    }
+
+    private List<Integer> matchedPeople(Criteria criteria) {
+        Predicate<PersonRow> predicate = criteria.compile(PersonRow.class);
+        List<Integer> rowNums = new ArrayList<>();
+        for (PersonRow row : people) {
+            boolean matches = predicate.test(row);
+            assertEquals(matches, criteria.isMatch(row));
+            if (matches) {
+                rowNums.add(row.getRowNum());
+            }
+        }
+        return rowNums;
+    }
+
+    private List<Integer> matched(Criteria criteria) {
+        Predicate<PriceRow> predicate = criteria.compile(PriceRow.class);
+        List<Integer> rowNums = new ArrayList<>();
+        for (PriceRow row : rows) {
+            boolean matches = predicate.test(row);
+            assertEquals(matches, criteria.isMatch(row));
+            if (matches) {
+                rowNums.add(row.getRowNum());
+            }
+        }
+        return rowNums;
+    }
+
+    private static PersonRow person(int rowNum, String name, Integer age, Double score, Integer day) {
+        PersonRow row = new PersonRow();
+        row.setRowNum(rowNum);
+        row.setName(name);
+        row.setAge(age);
+        row.setScore(score);
+        row.setBorn(day != null ? new Date(DAY * day) : null);
+        return row;
+    }
+
+    private static PriceRow row(int rowNum, double price, float weight) {
+        PriceRow row = new PriceRow();
+        row.setRowNum(rowNum);
+        row.setPrice(price);
+        row.setWeight(weight);
+        return row;
+    }
+
+    /**
+     * This class is a row type with floating point fields.
+     */
+    public static class PriceRow extends Excel {
+
+        @ExcelProperty("Price")
+        @ExcelIndex
+        @ExcelBloomFilter
+        private Double price;
+
+        @ExcelProperty("Weight")
+        @ExcelIndex(IndexTypeEnum.SORTED)
+        @ExcelBloomFilter
+        private float weight;
+
+        public Double getPrice() {
+            return price;
+        }
+
+        public void setPrice(Double price) {
+            this.price = price;
+        }
+
+        public float getWeight() {
+            return weight;
+        }
+
+        public void setWeight(float weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * This class is a row type with a field of each kind a condition compares.
+     */
+    public static class PersonRow extends Excel {
+
+        @ExcelProperty("Name")
+        private String name;
+
+        @ExcelProperty("Age")
+        private Integer age;
+
+        @ExcelProperty("Score")
+        private Double score;
+
+        @ExcelProperty("Born")
+        private Date born;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getAge() {
+            return age;
+        }
+
+        public void setAge(Integer age) {
+            this.age = age;
+        }
+
+        public Double getScore() {
+            return score;
+        }
+
+        public void setScore(Double score) {
+            this.score = score;
+        }
+
+        public Date getBorn() {
+            return born;
+        }
+
+        public void setBorn(Date born) {
+            this.born = born;
+        }
+    }
+}
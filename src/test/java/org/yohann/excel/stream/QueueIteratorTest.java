@@ -0,0 +1,124 @@
+package org.yohann.excel.stream;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that a QueueIterator keeps its producer at most the queue capacity ahead of the consumer, stops
+ * the producer when it is closed or dropped, and throws the failure of the producer after the rows produced before.
+ */
+public class QueueIteratorTest {
+
+    private static final int ROWS = 1000;
+
+    @Test
+    public void producerWaitsForConsumer() throws InterruptedException {
+        AtomicInteger produced = new AtomicInteger();
+        try (QueueIterator<Integer> iterator = QueueIterator.start(4, queue -> {
+            for (int i = 0; i < ROWS && queue.put(i); i++) {
+                produced.incrementAndGet();
+            }
+        })) {
+            awaitProduced(produced, 4);
+            Thread.sleep(300);
+            assertEquals(4, produced.get());
+
+            // Every row taken makes room for one more
+            assertEquals(0, iterator.next().intValue());
+            awaitProduced(produced, 5);
+            Thread.sleep(300);
+            assertEquals(5, produced.get());
+
+            List<Integer> rows = new ArrayList<>();
+            iterator.forEachRemaining(rows::add);
+            assertEquals(ROWS - 1, rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                assertEquals(i + 1, rows.get(i).intValue());
+            }
+            assertFalse(iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void closeStopsProducer() throws InterruptedException {
+        AtomicBoolean refused = new AtomicBoolean();
+        CountDownLatch stopped = new CountDownLatch(1);
+        QueueIterator<Integer> iterator = QueueIterator.start(2, queue -> {
+            try {
+                for (int i = 0; i < ROWS; i++) {
+                    if (!queue.put(i)) {
+                        refused.set(true);
+                        assertTrue(queue.isClosed());
+                        return;
+                    }
+                }
+            } finally {
+                stopped.countDown();
+            }
+        });
+        assertEquals(0, iterator.next().intValue());
+        iterator.close();
+        assertTrue(stopped.await(5, TimeUnit.SECONDS));
+        assertTrue(refused.get());
+        assertFalse(iterator.hasNext());
+        // Closing again has no effect
+        iterator.close();
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void droppedIteratorStopsProducer() throws InterruptedException {
+        CountDownLatch stopped = new CountDownLatch(1);
+        QueueIterator<Integer> iterator = QueueIterator.start(2, queue -> {
+            for (int i = 0; i < ROWS && queue.put(i); i++) {
+                // The producer stops once a put fails
+            }
+            stopped.countDown();
+        });
+        assertEquals(0, iterator.next().intValue());
+        // The queue only holds the iterator weakly, so the producer notices once it is collected
+        iterator = null;
+        for (int i = 0; i < 50 && stopped.getCount() > 0; i++) {
+            System.gc();
+            stopped.await(100, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(0, stopped.getCount());
+    }
+
+    @Test
+    public void failureFollowsProducedRows() {
+        QueueIterator<Integer> iterator = QueueIterator.start(QueueIterator.DEFAULT_CAPACITY, queue -> {
+            for (int i = 0; i < 3; i++) {
+                queue.put(i);
+            }
+            throw new IllegalStateException("producer failed");
+        });
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, iterator.next().intValue());
+        }
+        try {
+            iterator.hasNext();
+            fail("failure of the producer was not thrown");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals("producer failed", e.getMessage());
+        }
+        // The iterator is closed by the failure
+        assertFalse(iterator.hasNext());
+    }
+
+    private static void awaitProduced(AtomicInteger produced, int count) throws InterruptedException {
+        for (int i = 0; i < 100 && produced.get() < count; i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(produced.get() >= count);
+    }
+}